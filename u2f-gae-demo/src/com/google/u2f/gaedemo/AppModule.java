@@ -6,6 +6,9 @@
 
 package com.google.u2f.gaedemo;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
@@ -13,7 +16,6 @@ import com.google.inject.Singleton;
 import com.google.template.soy.SoyFileSet;
 import com.google.template.soy.SoyModule;
 import com.google.template.soy.tofu.SoyTofu;
-import com.google.u2f.gaedemo.impl.ChallengeGeneratorImpl;
 import com.google.u2f.gaedemo.impl.DataStoreImpl;
 import com.google.u2f.gaedemo.storage.SecretKeys;
 import com.google.u2f.gaedemo.storage.UserTokens;
@@ -22,12 +24,21 @@ import com.google.u2f.server.Crypto;
 import com.google.u2f.server.DataStore;
 import com.google.u2f.server.U2FServer;
 import com.google.u2f.server.impl.BouncyCastleCrypto;
+import com.google.u2f.server.impl.SecureChallengeGenerator;
 import com.google.u2f.server.impl.U2FServerReferenceImpl;
+import com.google.u2f.trace.CeremonyTracer;
+import com.google.u2f.trace.LoggingTraceSink;
 import com.googlecode.objectify.ObjectifyFilter;
 import com.googlecode.objectify.ObjectifyService;
 
 public class AppModule extends AbstractModule {
 
+  // number of decoded user public keys kept in memory by each instance
+  private static final int PUBLIC_KEY_CACHE_SIZE = 10000;
+
+  // one in this many ceremonies is written to the log
+  private static final int TRACE_SAMPLE_RATE = 100;
+
   static {
     ObjectifyService.register(UserTokens.class);
     ObjectifyService.register(SecretKeys.class);
@@ -51,14 +62,16 @@ public class AppModule extends AbstractModule {
     return sfs.compileToTofu().forNamespace("u2fdemo");
   }
 
-  @Provides
+  @Provides @Singleton
   public ChallengeGenerator provideChallengeGenerator() {
-    return new ChallengeGeneratorImpl();
+    return new SecureChallengeGenerator();
   }
 
-  @Provides
+  @Provides @Singleton
   public Crypto provideCrypto() {
-    return new BouncyCastleCrypto();
+    return new BouncyCastleCrypto.Builder()
+        .setPublicKeyCacheSize(PUBLIC_KEY_CACHE_SIZE)
+        .build();
   }
 
   @Provides
@@ -68,12 +81,19 @@ public class AppModule extends AbstractModule {
 
   @Provides @Singleton
   public U2FServer provideU2FServer(ChallengeGenerator challengeGenerator, Crypto crypto, DataStore dataStore) {
-    return new U2FServerReferenceImpl(challengeGenerator, dataStore, crypto,
-        ImmutableSet.of(
+    return new U2FServerReferenceImpl.Builder()
+        .setChallengeGenerator(challengeGenerator)
+        .setDataStore(dataStore)
+        .setCrypto(crypto)
+        .setOrigins(ImmutableSet.of(
             // this implementation will only accept signatures from the following origins:
             "http://localhost:8888",
             "https://u2fdemo.appspot.com",
             "https://crxjs-dot-u2fdemo.appspot.com",
-            "https://noext-dot-u2fdemo.appspot.com"));
+            "https://noext-dot-u2fdemo.appspot.com"))
+        .setCeremonyTracer(CeremonyTracer.sampled(
+            new LoggingTraceSink(Logger.getLogger(U2FServer.class.getName()), Level.INFO),
+            TRACE_SAMPLE_RATE))
+        .build();
   }
 }
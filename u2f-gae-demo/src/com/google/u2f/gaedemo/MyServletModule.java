@@ -8,6 +8,7 @@ package com.google.u2f.gaedemo;
 
 import com.google.inject.servlet.ServletModule;
 import com.google.u2f.gaedemo.admin.AdminServlet;
+import com.google.u2f.gaedemo.admin.RotateSessionKeysServlet;
 import com.google.u2f.gaedemo.servlets.BeginEnrollServlet;
 import com.google.u2f.gaedemo.servlets.BeginSignServlet;
 import com.google.u2f.gaedemo.servlets.FinishEnrollServlet;
@@ -32,6 +33,7 @@ public class MyServletModule extends ServletModule {
     serve("/RemoveToken").with(RemoveTokenServlet.class);
 
     serve("/admin").with(AdminServlet.class);
+    serve("/admin/rotateSessionKeys").with(RotateSessionKeysServlet.class);
 
     filter("/*").through(ObjectifyFilter.class);
   }
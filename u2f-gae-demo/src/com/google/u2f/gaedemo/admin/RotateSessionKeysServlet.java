@@ -0,0 +1,31 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.gaedemo.admin;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.inject.Singleton;
+import com.google.u2f.gaedemo.impl.SessionKeyRing;
+
+/**
+ * Rotates the session keys; called by cron, see {@code cron.xml}. Like the rest of
+ * {@code /admin}, only admins and cron can reach it.
+ */
+@SuppressWarnings("serial")
+@Singleton
+public class RotateSessionKeysServlet extends HttpServlet {
+
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    SessionKeyRing.get().rotate();
+    resp.setContentType("text/plain");
+    resp.getWriter().println("OK");
+  }
+}
@@ -10,13 +10,13 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.u2f.U2FException;
-import com.google.u2f.gaedemo.impl.ChallengeGeneratorImpl;
 import com.google.u2f.gaedemo.impl.DataStoreImpl;
 import com.google.u2f.gaedemo.storage.TokenStorageData;
 import com.google.u2f.server.DataStore;
 import com.google.u2f.server.U2FServer;
 import com.google.u2f.server.data.SecurityKeyData;
 import com.google.u2f.server.impl.BouncyCastleCrypto;
+import com.google.u2f.server.impl.SecureChallengeGenerator;
 import com.google.u2f.server.impl.U2FServerReferenceImpl;
 import com.google.u2f.server.messages.RegistrationRequest;
 import com.google.u2f.server.messages.RegistrationResponse;
@@ -247,7 +247,7 @@ public class U2FRequestHandler {
 
     u2fServer =
         new U2FServerReferenceImpl(
-            new ChallengeGeneratorImpl(),
+            new SecureChallengeGenerator(),
             dataStore,
             new BouncyCastleCrypto(),
             ImmutableSet.of(
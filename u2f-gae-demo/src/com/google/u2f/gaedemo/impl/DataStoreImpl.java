@@ -8,44 +8,27 @@ package com.google.u2f.gaedemo.impl;
 
 import static com.googlecode.objectify.ObjectifyService.ofy;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SealedObject;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-
-import org.apache.commons.codec.binary.Base64;
-
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.u2f.gaedemo.storage.SecretKeys;
+import com.google.u2f.U2FException;
 import com.google.u2f.gaedemo.storage.TokenStorageData;
 import com.google.u2f.gaedemo.storage.UserTokens;
 import com.google.u2f.server.DataStore;
 import com.google.u2f.server.data.EnrollSessionData;
 import com.google.u2f.server.data.SecurityKeyData;
 import com.google.u2f.server.data.SignSessionData;
+import com.google.u2f.server.impl.SessionDataCodec;
+import com.googlecode.objectify.Work;
 
 public class DataStoreImpl implements DataStore {
 
-  private final SecureRandom random = new SecureRandom();
+  private final SessionDataCodec sessionDataCodec = new SessionDataCodec(SessionKeyRing.get());
 
   @Override
   public void addTrustedCertificate(X509Certificate certificate) {
@@ -59,61 +42,39 @@ public class DataStoreImpl implements DataStore {
 
   @Override
   public String storeSessionData(EnrollSessionData sessionData) {
-
-    SecretKey key = new SecretKeySpec(SecretKeys.get().sessionEncryptionKey(), "AES");
-    byte[] ivBytes = new byte[16];
-    random.nextBytes(ivBytes);
-    final IvParameterSpec IV = new IvParameterSpec(ivBytes);
-    Cipher cipher;
-    try {
-      cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-      cipher.init(Cipher.ENCRYPT_MODE, key, IV);
-    } catch (NoSuchAlgorithmException | NoSuchPaddingException |
-        InvalidKeyException | InvalidAlgorithmParameterException e) {
-      throw new RuntimeException(e);
-    }
-
-    SealedObject sealed;
     try {
-      sealed = new SealedObject(sessionData, cipher);
-    } catch (IllegalBlockSizeException | IOException e) {
+      return sessionDataCodec.encode(sessionData);
+    } catch (U2FException e) {
       throw new RuntimeException(e);
     }
+  }
 
-    ByteArrayOutputStream out;
+  @Override
+  public EnrollSessionData getEnrollSessionData(String sessionId) {
     try {
-      out = new ByteArrayOutputStream();
-      ObjectOutputStream outer = new ObjectOutputStream(out);
-
-      outer.writeObject(sealed);
-      outer.flush();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+      return sessionDataCodec.decode(sessionId);
+    } catch (U2FException e) {
+      // forged, tampered with or sealed with a key we no longer have
+      return null;
     }
-
-    return Base64.encodeBase64URLSafeString(out.toByteArray());
   }
 
   @Override
-  public EnrollSessionData getEnrollSessionData(String sessionId) {
-    SecretKey key = new SecretKeySpec(SecretKeys.get().sessionEncryptionKey(), "AES");
+  public SignSessionData getSignSessionData(String sessionId) {
+    EnrollSessionData sessionData = getEnrollSessionData(sessionId);
+    return sessionData instanceof SignSessionData ? (SignSessionData) sessionData : null;
+  }
 
-    byte[] serialized = Base64.decodeBase64(sessionId);
-    ByteArrayInputStream inner = new ByteArrayInputStream(serialized);
-    try {
-      ObjectInputStream in = new ObjectInputStream(inner);
+  // The session is sealed into its id rather than stored, so there's nothing to remove here.
 
-      SealedObject sealed = (SealedObject) in.readObject();
-      return (EnrollSessionData) sealed.getObject(key);
-    } catch (InvalidKeyException | ClassNotFoundException
-        | NoSuchAlgorithmException | IOException e) {
-      throw new RuntimeException(e);
-    }
+  @Override
+  public EnrollSessionData consumeEnrollSessionData(String sessionId) {
+    return getEnrollSessionData(sessionId);
   }
 
   @Override
-  public SignSessionData getSignSessionData(String sessionId) {
-    return (SignSessionData) getEnrollSessionData(sessionId);
+  public SignSessionData consumeSignSessionData(String sessionId) {
+    return getSignSessionData(sessionId);
   }
 
   @Override
@@ -135,6 +96,18 @@ public class DataStoreImpl implements DataStore {
     return result.build();
   }
 
+  @Override
+  public SecurityKeyData getSecurityKeyDataByPublicKey(String accountName, byte[] publicKey) {
+    TokenStorageData token = getUserTokens(accountName).getTokenByPublicKey(publicKey);
+    return token == null ? null : token.getSecurityKeyData();
+  }
+
+  @Override
+  public SecurityKeyData getSecurityKeyDataByKeyHandle(String accountName, byte[] keyHandle) {
+    TokenStorageData token = getUserTokens(accountName).getTokenByKeyHandle(keyHandle);
+    return token == null ? null : token.getSecurityKeyData();
+  }
+
   @Override
   public void removeSecurityKey(String accountName, byte[] publicKey) {
     UserTokens tokens = getUserTokens(accountName);
@@ -159,4 +132,22 @@ public class DataStoreImpl implements DataStore {
     tokens.updateCounter(publicKey, newCounterValue);
     ofy().save().entity(tokens).now();
   }
+
+  @Override
+  public boolean compareAndSetSecurityKeyCounter(final String accountName,
+      final byte[] publicKey, final int expectedCounterValue, final int newCounterValue) {
+    return ofy().transact(new Work<Boolean>() {
+      @Override
+      public Boolean run() {
+        UserTokens tokens = getUserTokens(accountName);
+        TokenStorageData token = tokens.getTokenByPublicKey(publicKey);
+        if (token == null || token.getCounter() != expectedCounterValue) {
+          return false;
+        }
+        token.updateCounter(newCounterValue);
+        ofy().save().entity(tokens).now();
+        return true;
+      }
+    });
+  }
 }
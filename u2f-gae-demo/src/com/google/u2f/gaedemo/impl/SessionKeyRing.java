@@ -0,0 +1,173 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.gaedemo.impl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.u2f.gaedemo.storage.SecretKeys;
+import com.google.u2f.server.SessionKeyProvider;
+
+/**
+ * Keeps the session keys of {@link SecretKeys} in memory, so sealing and unsealing sessions
+ * doesn't read the datastore.
+ *
+ * <p>The keys are reloaded every {@link #REFRESH_INTERVAL_MILLIS} by whichever request notices
+ * first, while the others keep using the keys they have. After a failed reload, the next attempt
+ * waits for {@link #retryDelayMillis}, so a datastore outage doesn't add a read to every request.
+ *
+ * <p>New keys are added by {@link #rotate}, which a cron job calls (see {@code cron.xml}), so no
+ * user request ever waits for the rotation transaction. A new key only becomes current two
+ * refresh intervals after it was added, so by the time any instance seals a session with it,
+ * all instances know it. Older keys stay until their slot is reused, so sessions in flight
+ * survive rotation.
+ */
+public class SessionKeyRing implements SessionKeyProvider {
+  private static final Logger Log = Logger.getLogger(SessionKeyRing.class.getName());
+
+  static final long REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  static final long ROTATION_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+  // Unknown key ids trigger a reload at most this often, so forged session ids can't make every
+  // request read the datastore.
+  private static final long UNKNOWN_KEY_REFRESH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  private static final long MIN_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private static final SessionKeyRing INSTANCE = new SessionKeyRing();
+
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+  private volatile Snapshot snapshot;
+  // No reload before this time, after a failed one
+  private volatile long retryTime;
+  // Only accessed by the thread that holds refreshing
+  private int failedLoads;
+
+  public static SessionKeyRing get() {
+    return INSTANCE;
+  }
+
+  @Override
+  public int getCurrentKeyId() {
+    return getSnapshot().getCurrentKeyId(System.currentTimeMillis());
+  }
+
+  @Override
+  public SecretKey getKey(int keyId) {
+    Snapshot current = getSnapshot();
+    SecretKey key = current.getKey(keyId);
+    long now = System.currentTimeMillis();
+    if (key == null && current.loadTime + UNKNOWN_KEY_REFRESH_INTERVAL_MILLIS < now) {
+      refresh(now);
+      key = getSnapshot().getKey(keyId);
+    }
+    return key;
+  }
+
+  /**
+   * Adds a new session key if the newest one is {@link #ROTATION_INTERVAL_MILLIS} old. Called by
+   * cron; any instance may run it, and concurrent calls add one key between them.
+   */
+  public void rotate() {
+    long now = System.currentTimeMillis();
+    SecretKeys keys = SecretKeys.rotateSessionKey(
+        ROTATION_INTERVAL_MILLIS, now + 2 * REFRESH_INTERVAL_MILLIS);
+    snapshot = new Snapshot(keys.getSessionKeys(), keys.getSessionKeyActivationTimes(), now);
+  }
+
+  private Snapshot getSnapshot() {
+    Snapshot current = snapshot;
+    if (current == null) {
+      synchronized (this) {
+        if (snapshot == null) {
+          // nothing to fall back on, so a failure here fails the request
+          snapshot = load();
+        }
+        return snapshot;
+      }
+    }
+    long now = System.currentTimeMillis();
+    if (current.loadTime + REFRESH_INTERVAL_MILLIS < now) {
+      refresh(now);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Reloads the keys, unless another thread already does so or the last reload failed less than
+   * a retry delay ago.
+   */
+  private void refresh(long now) {
+    if (now < retryTime || !refreshing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      snapshot = load();
+      failedLoads = 0;
+    } catch (RuntimeException e) {
+      // keep using the keys we have
+      failedLoads++;
+      retryTime = now + retryDelayMillis(failedLoads);
+      Log.log(Level.WARNING, "Could not reload session keys, " + failedLoads + " failures", e);
+    } finally {
+      refreshing.set(false);
+    }
+  }
+
+  /**
+   * @return how long to wait before reloading after {@code failedLoads} failed reloads in a row:
+   *     doubling from ten seconds, up to the refresh interval
+   */
+  static long retryDelayMillis(int failedLoads) {
+    int doublings = Math.min(failedLoads - 1, 30);
+    return Math.min(REFRESH_INTERVAL_MILLIS, MIN_RETRY_DELAY_MILLIS << doublings);
+  }
+
+  private static Snapshot load() {
+    SecretKeys keys = SecretKeys.get();
+    return new Snapshot(keys.getSessionKeys(), keys.getSessionKeyActivationTimes(),
+        System.currentTimeMillis());
+  }
+
+  static class Snapshot {
+    private final SecretKey[] keys;
+    private final long[] activationTimes;
+    final long loadTime;
+
+    Snapshot(List<byte[]> keys, List<Long> activationTimes, long loadTime) {
+      this.keys = new SecretKey[keys.size()];
+      this.activationTimes = new long[keys.size()];
+      for (int i = 0; i < keys.size(); i++) {
+        this.keys[i] = new SecretKeySpec(keys.get(i), "AES");
+        this.activationTimes[i] = activationTimes.get(i);
+      }
+      this.loadTime = loadTime;
+    }
+
+    /**
+     * @return the id of the most recently activated key, or -1 if no key is active yet
+     */
+    int getCurrentKeyId(long now) {
+      int current = -1;
+      for (int i = 0; i < keys.length; i++) {
+        if (activationTimes[i] <= now
+            && (current < 0 || activationTimes[i] > activationTimes[current])) {
+          current = i;
+        }
+      }
+      return current;
+    }
+
+    SecretKey getKey(int keyId) {
+      return keyId >= 0 && keyId < keys.length ? keys[keyId] : null;
+    }
+  }
+}
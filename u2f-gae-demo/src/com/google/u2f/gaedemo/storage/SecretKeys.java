@@ -9,20 +9,33 @@ package com.google.u2f.gaedemo.storage;
 import static com.googlecode.objectify.ObjectifyService.ofy;
 
 import java.security.SecureRandom;
+import java.util.List;
 
+import com.google.common.collect.Lists;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.OnLoad;
 
 @Entity
 public class SecretKeys {
 
   private static final int AES_KEY_SIZE = 16;
 
+  // Session keys rotate through this many slots. The index of a slot is the id of its key, so a
+  // key is overwritten, and sessions sealed with it expire, after this many rotations.
+  public static final int SESSION_KEY_SLOTS = 4;
+
   @Id private String id;
+
+  // The single session key of older versions; moved into slot 0 when loaded.
   private byte[] sessionEncryptionKey;
 
+  private List<byte[]> sessionKeys = Lists.newArrayList();
+  // When each key in sessionKeys may start sealing new sessions, in millis since the epoch
+  private List<Long> sessionKeyActivationTimes = Lists.newArrayList();
+
   @Ignore private SecureRandom random = new SecureRandom();
 
   private static SecretKeys generate() {
@@ -53,18 +66,98 @@ public class SecretKeys {
     }
   }
 
+  /**
+   * Adds a new session key in the next slot, unless another instance did so less than
+   * {@code rotationInterval} ago. The new key only becomes current at {@code activationTime}, so
+   * that every instance can load it before sessions sealed with it show up.
+   */
+  public static SecretKeys rotateSessionKey(final long rotationInterval,
+      final long activationTime) {
+    get();
+    return ofy().transact(new Work<SecretKeys>() {
+      @Override
+      public SecretKeys run() {
+        SecretKeys keys = ofy().load().type(SecretKeys.class).id("singleton").now();
+        if (keys.addSessionKeyIfDue(
+            rotationInterval, activationTime, System.currentTimeMillis())) {
+          ofy().save().entity(keys).now();
+        }
+        return keys;
+      }
+    });
+  }
+
   public SecretKeys() {
     id = "singleton";
   }
 
-  private void generateNewKeys() {
-    if (sessionEncryptionKey == null) {
-      sessionEncryptionKey = new byte[AES_KEY_SIZE];
-      random.nextBytes(sessionEncryptionKey);
+  @OnLoad
+  void migrateSessionEncryptionKey() {
+    if (sessionKeys.isEmpty() && sessionEncryptionKey != null) {
+      sessionKeys.add(sessionEncryptionKey);
+      sessionKeyActivationTimes.add(0L);
+      sessionEncryptionKey = null;
+    }
+  }
+
+  void generateNewKeys() {
+    if (sessionKeys.isEmpty()) {
+      addSessionKey(0L);
     }
   }
 
-  public byte[] sessionEncryptionKey() {
-    return sessionEncryptionKey;
+  /**
+   * Adds a new session key in the next slot, unless the newest key became current less than
+   * {@code rotationInterval} before {@code now}.
+   *
+   * @return whether a key was added
+   */
+  boolean addSessionKeyIfDue(long rotationInterval, long activationTime, long now) {
+    if (getNewestActivationTime() + rotationInterval > now) {
+      return false;
+    }
+    addSessionKey(activationTime);
+    return true;
+  }
+
+  private void addSessionKey(long activationTime) {
+    byte[] key = new byte[AES_KEY_SIZE];
+    random.nextBytes(key);
+    if (sessionKeys.size() < SESSION_KEY_SLOTS) {
+      sessionKeys.add(key);
+      sessionKeyActivationTimes.add(activationTime);
+    } else {
+      int slot = (getNewestKeyId() + 1) % SESSION_KEY_SLOTS;
+      sessionKeys.set(slot, key);
+      sessionKeyActivationTimes.set(slot, activationTime);
+    }
+  }
+
+  /**
+   * @return the session keys, indexed by key id
+   */
+  public List<byte[]> getSessionKeys() {
+    return sessionKeys;
+  }
+
+  /**
+   * @return when each of {@link #getSessionKeys} may start sealing new sessions
+   */
+  public List<Long> getSessionKeyActivationTimes() {
+    return sessionKeyActivationTimes;
+  }
+
+  public long getNewestActivationTime() {
+    return sessionKeyActivationTimes.get(getNewestKeyId());
+  }
+
+  private int getNewestKeyId() {
+    int newest = 0;
+    for (int i = 1; i < sessionKeyActivationTimes.size(); i++) {
+      if (sessionKeyActivationTimes.get(i) > sessionKeyActivationTimes.get(newest)) {
+        newest = i;
+      }
+    }
+    return newest;
   }
 }
@@ -11,6 +11,8 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.google.u2f.server.data.SecurityKeyData;
 import com.google.u2f.server.data.SecurityKeyData.Transports;
+import com.google.u2f.server.impl.attestation.AttestationAnalysis;
+import com.google.u2f.server.impl.attestation.AttestationAnalysisCache;
 import com.google.u2f.server.impl.attestation.android.AndroidKeyStoreAttestation;
 
 import org.apache.commons.codec.binary.Hex;
@@ -49,6 +51,18 @@ public class TokenStorageData {
     this.counter = tokenData.getCounter();
   }
 
+  public byte[] getKeyHandle() {
+    return keyHandle;
+  }
+
+  public byte[] getPublicKey() {
+    return publicKey;
+  }
+
+  public int getCounter() {
+    return counter;
+  }
+
   public void updateCounter(int newCounterValue) {
     counter = newCounterValue;
   }
@@ -59,17 +73,23 @@ public class TokenStorageData {
   }
 
   public JsonObject toJson() {
-    X509Certificate x509cert = getSecurityKeyData().getAttestationCertificate();
+    // Only parses the certificate the first time any token with it is shown.
+    AttestationAnalysis analysis;
+    try {
+      analysis = AttestationAnalysisCache.getDefault().analyze(attestationCert);
+    } catch (CertificateException e) {
+      throw new RuntimeException(e);
+    }
     JsonObject json = new JsonObject();
     json.addProperty("enrollment_time", enrollmentTime);
     json.add("transports", getJsonTransports());
     json.addProperty("key_handle", Hex.encodeHexString(keyHandle));
     json.addProperty("public_key", Hex.encodeHexString(publicKey));
-    json.addProperty("issuer", x509cert.getIssuerX500Principal().getName());
+    json.addProperty("issuer", analysis.getIssuer().getName());
 
     try {
       AndroidKeyStoreAttestation androidKeyStoreAttestation =
-          AndroidKeyStoreAttestation.Parse(x509cert);
+          analysis.getAndroidKeyStoreAttestation();
       if (androidKeyStoreAttestation != null) {
         json.add("android_attestation", androidKeyStoreAttestation.toJson());
       }
@@ -31,9 +31,27 @@ public class UserTokens {
     return ImmutableList.copyOf(tokens);
   }
 
+  public TokenStorageData getTokenByPublicKey(byte[] publicKey) {
+    for (TokenStorageData token : tokens) {
+      if (Arrays.equals(token.getPublicKey(), publicKey)) {
+        return token;
+      }
+    }
+    return null;
+  }
+
+  public TokenStorageData getTokenByKeyHandle(byte[] keyHandle) {
+    for (TokenStorageData token : tokens) {
+      if (Arrays.equals(token.getKeyHandle(), keyHandle)) {
+        return token;
+      }
+    }
+    return null;
+  }
+
   public void removeToken(byte[] publicKey) {
     for (TokenStorageData token : tokens) {
-      if (Arrays.equals(token.getSecurityKeyData().getPublicKey(), publicKey)) {
+      if (Arrays.equals(token.getPublicKey(), publicKey)) {
         tokens.remove(token);
         break;
       }
@@ -42,7 +60,7 @@ public class UserTokens {
 
   public void updateCounter(byte[] publicKey, int newCounterValue) {
     for (TokenStorageData token : tokens) {
-      if (Arrays.equals(token.getSecurityKeyData().getPublicKey(), publicKey)) {
+      if (Arrays.equals(token.getPublicKey(), publicKey)) {
         token.updateCounter(newCounterValue);
         break;
       }
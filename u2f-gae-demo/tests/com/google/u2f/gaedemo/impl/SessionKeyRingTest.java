@@ -0,0 +1,87 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.gaedemo.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.u2f.gaedemo.impl.SessionKeyRing.Snapshot;
+
+/**
+ * Unit tests for {@link SessionKeyRing}
+ */
+@RunWith(JUnit4.class)
+public class SessionKeyRingTest {
+  private static final List<byte[]> KEYS = Arrays.asList(
+      new byte[16], new byte[] {1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1},
+      new byte[] {2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2},
+      new byte[] {3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3});
+
+  @Test
+  public void testCurrentKeyIsNewestActiveKey() {
+    Snapshot snapshot = new Snapshot(KEYS, Arrays.asList(0L, 1000L, 2000L, 3000L), 0L);
+
+    assertEquals(0, snapshot.getCurrentKeyId(999L));
+    assertEquals(1, snapshot.getCurrentKeyId(1000L));
+    assertEquals(3, snapshot.getCurrentKeyId(5000L));
+  }
+
+  @Test
+  public void testRotatedKeyIsNotCurrentBeforeActivation() {
+    // key 2 was just added by a rotation and activates later
+    Snapshot snapshot = new Snapshot(KEYS.subList(0, 3), Arrays.asList(0L, 1000L, 9000L), 2000L);
+
+    assertEquals(1, snapshot.getCurrentKeyId(2000L));
+    assertEquals(2, snapshot.getCurrentKeyId(9000L));
+    // sessions sealed by instances that already use key 2 can be opened early
+    assertArrayEquals(KEYS.get(2), snapshot.getKey(2).getEncoded());
+  }
+
+  @Test
+  public void testReusedSlotBecomesCurrent() {
+    // slot 0 was overwritten by the fifth rotation
+    Snapshot snapshot = new Snapshot(KEYS, Arrays.asList(4000L, 1000L, 2000L, 3000L), 3500L);
+
+    assertEquals(3, snapshot.getCurrentKeyId(3500L));
+    assertEquals(0, snapshot.getCurrentKeyId(4000L));
+  }
+
+  @Test
+  public void testNoActiveKey() {
+    Snapshot snapshot = new Snapshot(KEYS.subList(0, 1), Arrays.asList(1000L), 0L);
+
+    assertEquals(-1, snapshot.getCurrentKeyId(0L));
+  }
+
+  @Test
+  public void testGetKey() {
+    Snapshot snapshot = new Snapshot(KEYS.subList(0, 2), Arrays.asList(0L, 1000L), 0L);
+
+    assertArrayEquals(KEYS.get(1), snapshot.getKey(1).getEncoded());
+    assertEquals("AES", snapshot.getKey(1).getAlgorithm());
+    assertNull(snapshot.getKey(2));
+    assertNull(snapshot.getKey(-1));
+  }
+
+  @Test
+  public void testRetryDelayBacksOff() {
+    assertEquals(TimeUnit.SECONDS.toMillis(10), SessionKeyRing.retryDelayMillis(1));
+    assertEquals(TimeUnit.SECONDS.toMillis(20), SessionKeyRing.retryDelayMillis(2));
+    assertEquals(TimeUnit.SECONDS.toMillis(160), SessionKeyRing.retryDelayMillis(5));
+    assertEquals(SessionKeyRing.REFRESH_INTERVAL_MILLIS, SessionKeyRing.retryDelayMillis(6));
+    assertEquals(SessionKeyRing.REFRESH_INTERVAL_MILLIS, SessionKeyRing.retryDelayMillis(100));
+  }
+}
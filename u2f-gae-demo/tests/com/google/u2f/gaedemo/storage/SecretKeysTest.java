@@ -0,0 +1,78 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.gaedemo.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link SecretKeys}
+ */
+@RunWith(JUnit4.class)
+public class SecretKeysTest {
+  private static final long ROTATION_INTERVAL = 1000L;
+
+  private SecretKeys keys;
+
+  @Before
+  public void setUp() {
+    keys = new SecretKeys();
+    keys.generateNewKeys();
+  }
+
+  @Test
+  public void testGenerateNewKeys() {
+    assertEquals(1, keys.getSessionKeys().size());
+    assertEquals(16, keys.getSessionKeys().get(0).length);
+    assertEquals(Arrays.asList(0L), keys.getSessionKeyActivationTimes());
+  }
+
+  @Test
+  public void testRotationNotDue() {
+    assertTrue(keys.addSessionKeyIfDue(ROTATION_INTERVAL, 1500L, 1000L));
+
+    assertFalse(keys.addSessionKeyIfDue(ROTATION_INTERVAL, 2100L, 2000L));
+    assertEquals(Arrays.asList(0L, 1500L), keys.getSessionKeyActivationTimes());
+  }
+
+  @Test
+  public void testRotationFillsSlots() {
+    for (int i = 1; i < SecretKeys.SESSION_KEY_SLOTS; i++) {
+      assertTrue(keys.addSessionKeyIfDue(ROTATION_INTERVAL, i * 1000L, i * 1000L));
+    }
+
+    assertEquals(SecretKeys.SESSION_KEY_SLOTS, keys.getSessionKeys().size());
+    assertEquals(Arrays.asList(0L, 1000L, 2000L, 3000L), keys.getSessionKeyActivationTimes());
+    assertEquals(3000L, keys.getNewestActivationTime());
+  }
+
+  @Test
+  public void testRotationReusesOldestSlot() {
+    for (int i = 1; i < SecretKeys.SESSION_KEY_SLOTS; i++) {
+      keys.addSessionKeyIfDue(ROTATION_INTERVAL, i * 1000L, i * 1000L);
+    }
+    byte[] oldestKey = keys.getSessionKeys().get(0).clone();
+    byte[] secondKey = keys.getSessionKeys().get(1);
+
+    assertTrue(keys.addSessionKeyIfDue(ROTATION_INTERVAL, 4000L, 4000L));
+    assertTrue(keys.addSessionKeyIfDue(ROTATION_INTERVAL, 5000L, 5000L));
+
+    assertEquals(SecretKeys.SESSION_KEY_SLOTS, keys.getSessionKeys().size());
+    assertEquals(Arrays.asList(4000L, 5000L, 2000L, 3000L), keys.getSessionKeyActivationTimes());
+    assertFalse(Arrays.equals(oldestKey, keys.getSessionKeys().get(0)));
+    assertFalse(Arrays.equals(secondKey, keys.getSessionKeys().get(1)));
+    assertEquals(5000L, keys.getNewestActivationTime());
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.codec;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.u2f.U2FException;
+
+/**
+ * Hands out one {@link X509Certificate} instance per distinct attestation certificate.
+ *
+ * <p>Vendors put the same batch attestation certificate on many devices, so most registrations
+ * carry a certificate that was seen before. Certificates are looked up by the SHA-256 of their DER
+ * encoding, and only parsed when they aren't in the cache. What is derived from a certificate is
+ * cached under the same fingerprint by
+ * {@link com.google.u2f.server.impl.attestation.AttestationAnalysisCache}, which parses encoded
+ * certificates through this interner.
+ */
+public class AttestationCertificateInterner {
+  public static final long DEFAULT_MAXIMUM_SIZE = 1024;
+
+  private static final AttestationCertificateInterner DEFAULT =
+      new AttestationCertificateInterner(DEFAULT_MAXIMUM_SIZE);
+
+  private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+  /** Parsed certificates, keyed by the SHA-256 of their encoding. */
+  private final Cache<ByteBuffer, X509Certificate> certificates;
+
+  /**
+   * @param maximumSize how many certificates to keep, evicting the least recently used ones
+   */
+  public AttestationCertificateInterner(long maximumSize) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize must be positive");
+    }
+    this.certificates = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * @return the interner used by {@link RawMessageCodec}
+   */
+  public static AttestationCertificateInterner getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * @param encoded the DER encoding of the certificate, between position and limit. Its position
+   *     isn't changed.
+   * @return the parsed certificate, shared with every earlier call for the same encoding
+   */
+  public X509Certificate intern(ByteBuffer encoded) throws U2FException {
+    ByteBuffer fingerprint = ByteBuffer.wrap(fingerprint(encoded));
+    X509Certificate certificate = certificates.getIfPresent(fingerprint);
+    if (certificate == null) {
+      certificate = parse(encoded);
+      // Two threads may parse the same certificate at once; either result is fine to keep.
+      certificates.put(fingerprint, certificate);
+    }
+    return certificate;
+  }
+
+  public CacheStats stats() {
+    return certificates.stats();
+  }
+
+  private static byte[] fingerprint(ByteBuffer encoded) throws U2FException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+      digest.update(encoded.duplicate());
+      return digest.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new U2FException("Error when fingerprinting attestation certificate", e);
+    }
+  }
+
+  private static X509Certificate parse(ByteBuffer encoded) throws U2FException {
+    byte[] bytes = new byte[encoded.remaining()];
+    encoded.duplicate().get(bytes);
+    try {
+      return (X509Certificate) CertificateFactory.getInstance("X.509")
+          .generateCertificate(new ByteArrayInputStream(bytes));
+    } catch (CertificateException e) {
+      throw new U2FException("Error when parsing attestation certificate", e);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.codec;
+
+import com.google.u2f.U2FException;
+
+/**
+ * Decodes the websafe-base64 fields of U2F messages straight into byte arrays, without the
+ * intermediate copies of commons-codec.
+ *
+ * <p>Digits of the standard alphabet and trailing {@code =} padding are accepted as well, as some
+ * clients send them. Anything else, including whitespace, is rejected.
+ */
+public class Base64Url {
+  // Values of base64 digits in either alphabet, or -1.
+  private static final byte[] VALUES = new byte[128];
+  static {
+    for (int i = 0; i < VALUES.length; i++) {
+      VALUES[i] = -1;
+    }
+    String digits = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    for (int i = 0; i < digits.length(); i++) {
+      VALUES[digits.charAt(i)] = (byte) i;
+    }
+    VALUES['-'] = VALUES['+'] = 62;
+    VALUES['_'] = VALUES['/'] = 63;
+  }
+
+  private Base64Url() {}
+
+  /**
+   * @return the number of bytes {@code encoded} decodes to, assuming it is valid
+   */
+  public static int decodedLength(CharSequence encoded) {
+    return unpaddedLength(encoded) * 3 / 4;
+  }
+
+  public static byte[] decode(CharSequence encoded) throws U2FException {
+    byte[] result = new byte[decodedLength(encoded)];
+    decode(encoded, result, 0);
+    return result;
+  }
+
+  /**
+   * Decodes {@code encoded} into {@code out}, starting at {@code offset}, e.g. to reuse a buffer
+   * across requests.
+   *
+   * @return the number of bytes written, see {@link #decodedLength}
+   * @throws U2FException if {@code encoded} is not valid base64, or {@code out} is too short
+   */
+  public static int decode(CharSequence encoded, byte[] out, int offset) throws U2FException {
+    int length = unpaddedLength(encoded);
+    int decodedLength = length * 3 / 4;
+    if (length % 4 == 1) {
+      throw new U2FException("Invalid base64: truncated");
+    }
+    if (offset < 0 || decodedLength > out.length - offset) {
+      throw new U2FException("Buffer too small to decode base64");
+    }
+    int bits = 0;
+    int bitCount = 0;
+    int position = offset;
+    for (int i = 0; i < length; i++) {
+      int value = digitValue(encoded.charAt(i));
+      if (value < 0) {
+        throw new U2FException("Invalid base64 digit at index " + i);
+      }
+      bits = (bits << 6) | value;
+      bitCount += 6;
+      if (bitCount >= 8) {
+        bitCount -= 8;
+        out[position++] = (byte) (bits >>> bitCount);
+      }
+    }
+    return position - offset;
+  }
+
+  /**
+   * @return the value of a base64 digit of either alphabet, or -1
+   */
+  static int digitValue(int digit) {
+    return digit >= 0 && digit < VALUES.length ? VALUES[digit] : -1;
+  }
+
+  private static int unpaddedLength(CharSequence encoded) {
+    int length = encoded.length();
+    // at most two padding characters
+    for (int i = 0; i < 2 && length > 0 && encoded.charAt(length - 1) == '='; i++) {
+      length--;
+    }
+    return length;
+  }
+}
@@ -0,0 +1,384 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.codec;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.u2f.U2FException;
+
+/**
+ * Reads the fields a server checks out of the UTF-8 encoded client data JSON, see
+ * {@link ClientDataCodec}.
+ *
+ * <p>The client data is scanned once, without building a JSON tree. Fields are kept as ranges of
+ * the given bytes and only turned into strings when asked for, so the same array can also be
+ * hashed for the signature check. Members other than {@code typ}, {@code challenge},
+ * {@code origin} and {@code cid_pubkey} are skipped. Duplicate members are rejected, as it would
+ * be ambiguous which one the client signed.
+ */
+public class ClientDataReader {
+  private static final int MAX_NESTING_DEPTH = 16;
+
+  private static final byte[] TYPE = ascii(ClientDataCodec.JSON_PROPERTY_REQUEST_TYPE);
+  private static final byte[] CHALLENGE =
+      ascii(ClientDataCodec.JSON_PROPERTY_SERVER_CHALLENGE_BASE64);
+  private static final byte[] ORIGIN = ascii(ClientDataCodec.JSON_PROPERTY_SERVER_ORIGIN);
+  private static final byte[] CHANNEL_ID = ascii(ClientDataCodec.JSON_PROPERTY_CHANNEL_ID);
+
+  private final byte[] clientData;
+  private int position;
+
+  // Each field is the range [start, end) of its value in clientData, or start == -1 if absent.
+  // For strings the range excludes the quotes.
+  private int typeStart = -1;
+  private int typeEnd;
+  private int challengeStart = -1;
+  private int challengeEnd;
+  private int originStart = -1;
+  private int originEnd;
+  private int channelIdStart = -1;
+  private int channelIdEnd;
+
+  private ClientDataReader(byte[] clientData) {
+    this.clientData = clientData;
+  }
+
+  /**
+   * @param clientData the client data as sent by the client. Not copied, so it must not be
+   *     modified while the reader is in use.
+   * @throws U2FException if {@code clientData} is not a well-formed JSON object, or a field the
+   *     server checks is duplicated or not a string
+   */
+  public static ClientDataReader read(byte[] clientData) throws U2FException {
+    ClientDataReader reader = new ClientDataReader(clientData);
+    reader.readObject();
+    return reader;
+  }
+
+  /**
+   * @return the {@code typ} member, or null if absent
+   */
+  public String getType() {
+    return typeStart < 0 ? null : decodeString(typeStart, typeEnd);
+  }
+
+  /**
+   * @return the {@code origin} member, or null if absent
+   */
+  public String getOrigin() {
+    return originStart < 0 ? null : decodeString(originStart, originEnd);
+  }
+
+  public boolean hasChallenge() {
+    return challengeStart >= 0;
+  }
+
+  /**
+   * @return the {@code cid_pubkey} member as JSON text, or null if absent
+   */
+  public String getChannelIdJson() {
+    return channelIdStart < 0 ? null
+        : new String(clientData, channelIdStart, channelIdEnd - channelIdStart,
+            StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Checks whether the base64 encoded {@code challenge} member decodes to {@code expected}. Takes
+   * the same time wherever the first difference is, and allocates nothing.
+   */
+  public boolean challengeMatches(byte[] expected) {
+    if (challengeStart < 0) {
+      return false;
+    }
+    int end = challengeEnd;
+    // trailing padding is optional
+    while (end > challengeStart && clientData[end - 1] == '=') {
+      end--;
+    }
+    int difference = 0;
+    int bits = 0;
+    int bitCount = 0;
+    int decoded = 0;
+    for (int i = challengeStart; i < end; i++) {
+      int value = Base64Url.digitValue(clientData[i]);
+      difference |= value >>> 31;
+      bits = (bits << 6) | (value & 0x3F);
+      bitCount += 6;
+      if (bitCount >= 8) {
+        bitCount -= 8;
+        int b = (bits >>> bitCount) & 0xFF;
+        difference |= decoded < expected.length ? b ^ expected[decoded] & 0xFF : 1;
+        decoded++;
+      }
+    }
+    // a single leftover digit is never valid, and leftover bits must be zero, or a different
+    // encoding would decode to the same bytes
+    difference |= bitCount == 6 ? 1 : bits & ((1 << bitCount) - 1);
+    difference |= decoded ^ expected.length;
+    return difference == 0;
+  }
+
+  private void readObject() throws U2FException {
+    skipWhitespace();
+    expect('{');
+    skipWhitespace();
+    if (peek() == '}') {
+      position++;
+    } else {
+      do {
+        skipWhitespace();
+        int nameStart = position + 1;
+        skipString();
+        int nameEnd = position - 1;
+        skipWhitespace();
+        expect(':');
+        skipWhitespace();
+        readMember(nameStart, nameEnd);
+        skipWhitespace();
+      } while (next() == ',');
+      position--;
+      expect('}');
+    }
+    skipWhitespace();
+    if (position != clientData.length) {
+      throw new U2FException("bad browserdata: unexpected data after the JSON object");
+    }
+  }
+
+  private void readMember(int nameStart, int nameEnd) throws U2FException {
+    if (nameEquals(nameStart, nameEnd, TYPE)) {
+      checkAbsent(typeStart, TYPE);
+      typeStart = position + 1;
+      skipStringMember(TYPE);
+      typeEnd = position - 1;
+    } else if (nameEquals(nameStart, nameEnd, CHALLENGE)) {
+      checkAbsent(challengeStart, CHALLENGE);
+      challengeStart = position + 1;
+      skipStringMember(CHALLENGE);
+      challengeEnd = position - 1;
+    } else if (nameEquals(nameStart, nameEnd, ORIGIN)) {
+      checkAbsent(originStart, ORIGIN);
+      originStart = position + 1;
+      skipStringMember(ORIGIN);
+      originEnd = position - 1;
+    } else if (nameEquals(nameStart, nameEnd, CHANNEL_ID)) {
+      checkAbsent(channelIdStart, CHANNEL_ID);
+      channelIdStart = position;
+      skipValue(0);
+      channelIdEnd = position;
+    } else {
+      skipValue(0);
+    }
+  }
+
+  private void checkAbsent(int start, byte[] name) throws U2FException {
+    if (start >= 0) {
+      throw new U2FException("bad browserdata: duplicate '" + new String(name,
+          StandardCharsets.US_ASCII) + "' param");
+    }
+  }
+
+  private void skipStringMember(byte[] name) throws U2FException {
+    if (peek() != '"') {
+      throw new U2FException("bad browserdata: '" + new String(name, StandardCharsets.US_ASCII)
+          + "' param is not a string");
+    }
+    skipString();
+  }
+
+  private void skipValue(int depth) throws U2FException {
+    if (depth > MAX_NESTING_DEPTH) {
+      throw new U2FException("bad browserdata: nested too deeply");
+    }
+    byte b = peek();
+    switch (b) {
+      case '"':
+        skipString();
+        break;
+      case '{':
+        position++;
+        skipWhitespace();
+        if (peek() == '}') {
+          position++;
+          break;
+        }
+        do {
+          skipWhitespace();
+          skipString();
+          skipWhitespace();
+          expect(':');
+          skipWhitespace();
+          skipValue(depth + 1);
+          skipWhitespace();
+        } while (next() == ',');
+        position--;
+        expect('}');
+        break;
+      case '[':
+        position++;
+        skipWhitespace();
+        if (peek() == ']') {
+          position++;
+          break;
+        }
+        do {
+          skipWhitespace();
+          skipValue(depth + 1);
+          skipWhitespace();
+        } while (next() == ',');
+        position--;
+        expect(']');
+        break;
+      case 't':
+        skipLiteral("true");
+        break;
+      case 'f':
+        skipLiteral("false");
+        break;
+      case 'n':
+        skipLiteral("null");
+        break;
+      default:
+        int start = position;
+        while (position < clientData.length && isNumberByte(clientData[position])) {
+          position++;
+        }
+        if (position == start) {
+          throw malformed();
+        }
+    }
+  }
+
+  /**
+   * Skips a string, including its quotes, checking its escape sequences.
+   */
+  private void skipString() throws U2FException {
+    expect('"');
+    while (true) {
+      byte b = next();
+      if (b == '"') {
+        return;
+      } else if (b == '\\') {
+        byte escaped = next();
+        if (escaped == 'u') {
+          for (int i = 0; i < 4; i++) {
+            if (Character.digit(next(), 16) < 0) {
+              throw malformed();
+            }
+          }
+        } else if ("\"\\/bfnrt".indexOf(escaped) < 0) {
+          throw malformed();
+        }
+      } else if (b >= 0 && b < 0x20) {
+        throw malformed();
+      }
+    }
+  }
+
+  private void skipLiteral(String literal) throws U2FException {
+    for (int i = 0; i < literal.length(); i++) {
+      if (next() != literal.charAt(i)) {
+        throw malformed();
+      }
+    }
+  }
+
+  private void skipWhitespace() {
+    while (position < clientData.length) {
+      byte b = clientData[position];
+      if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+        return;
+      }
+      position++;
+    }
+  }
+
+  private void expect(char expected) throws U2FException {
+    if (next() != expected) {
+      throw malformed();
+    }
+  }
+
+  private byte peek() throws U2FException {
+    if (position >= clientData.length) {
+      throw malformed();
+    }
+    return clientData[position];
+  }
+
+  private byte next() throws U2FException {
+    byte b = peek();
+    position++;
+    return b;
+  }
+
+  private boolean nameEquals(int start, int end, byte[] name) {
+    if (end - start != name.length) {
+      return false;
+    }
+    for (int i = 0; i < name.length; i++) {
+      if (clientData[start + i] != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decodes the already checked string in [start, end), resolving escape sequences.
+   */
+  private String decodeString(int start, int end) {
+    StringBuilder result = new StringBuilder(end - start);
+    int runStart = start;
+    for (int i = start; i < end; i++) {
+      if (clientData[i] != '\\') {
+        continue;
+      }
+      result.append(new String(clientData, runStart, i - runStart, StandardCharsets.UTF_8));
+      byte escaped = clientData[++i];
+      switch (escaped) {
+        case 'b':
+          result.append('\b');
+          break;
+        case 'f':
+          result.append('\f');
+          break;
+        case 'n':
+          result.append('\n');
+          break;
+        case 'r':
+          result.append('\r');
+          break;
+        case 't':
+          result.append('\t');
+          break;
+        case 'u':
+          result.append((char) Integer.parseInt(
+              new String(clientData, i + 1, 4, StandardCharsets.US_ASCII), 16));
+          i += 4;
+          break;
+        default:
+          result.append((char) escaped);
+      }
+      runStart = i + 1;
+    }
+    result.append(new String(clientData, runStart, end - runStart, StandardCharsets.UTF_8));
+    return result.toString();
+  }
+
+  private static boolean isNumberByte(byte b) {
+    return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+  }
+
+  private static U2FException malformed() {
+    return new U2FException("browserdata has wrong format");
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -6,28 +6,34 @@
 
 package com.google.u2f.codec;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.security.Signature;
+import java.security.SignatureException;
 import java.security.cert.CertificateEncodingException;
-import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 
 import com.google.u2f.U2FException;
 import com.google.u2f.key.messages.AuthenticateRequest;
 import com.google.u2f.key.messages.AuthenticateResponse;
+import com.google.u2f.key.messages.AuthenticateResponseView;
 import com.google.u2f.key.messages.RegisterRequest;
 import com.google.u2f.key.messages.RegisterResponse;
+import com.google.u2f.key.messages.RegisterResponseView;
 
 /**
  * Raw message formats, as per FIDO U2F: Raw Message Formats - Draft 4
+ *
+ * <p>Decoding reads straight from a {@link ByteBuffer} and checks every length against the bytes
+ * left before reading a field.
  */
 public class RawMessageCodec {
   public static final byte REGISTRATION_RESERVED_BYTE_VALUE = (byte) 0x05;
   public static final byte REGISTRATION_SIGNED_RESERVED_BYTE_VALUE = (byte) 0x00;
 
+  private static final int SHA256_LENGTH = 32;
+  private static final int USER_PUBLIC_KEY_LENGTH = 65;
+  private static final byte DER_SEQUENCE_TAG = (byte) 0x30;
+
   public static byte[] encodeRegisterRequest(RegisterRequest registerRequest) {
     byte[] appIdSha256 = registerRequest.getApplicationSha256();
     byte[] challengeSha256 = registerRequest.getChallengeSha256();
@@ -40,21 +46,12 @@ public class RawMessageCodec {
   }
 
   public static RegisterRequest decodeRegisterRequest(byte[] data) throws U2FException {
-    try {
-      DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
-      byte[] appIdSha256 = new byte[32];
-      byte[] challengeSha256 = new byte[32];
-      inputStream.readFully(challengeSha256);
-      inputStream.readFully(appIdSha256);
-
-      if (inputStream.available() != 0) {
-        throw new U2FException("Message ends with unexpected data");
-      }
-
-      return new RegisterRequest(appIdSha256, challengeSha256);
-    } catch (IOException e) {
-      throw new U2FException("Error when parsing raw RegisterRequest", e);
-    }
+    ByteBuffer in = ByteBuffer.wrap(data);
+    byte[] challengeSha256 = readBytes(in, SHA256_LENGTH, "RegisterRequest");
+    byte[] appIdSha256 = readBytes(in, SHA256_LENGTH, "RegisterRequest");
+    checkFullyRead(in);
+
+    return new RegisterRequest(appIdSha256, challengeSha256);
   }
 
   public static byte[] encodeRegisterResponse(RegisterResponse registerResponse)
@@ -87,35 +84,39 @@ public class RawMessageCodec {
     return result;
   }
 
+  /**
+   * Decodes a registration response. The attestation certificate is interned by
+   * {@link AttestationCertificateInterner#getDefault()}, so it is only parsed the first time it is
+   * seen.
+   */
   public static RegisterResponse decodeRegisterResponse(byte[] data) throws U2FException {
-    try {
-      DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
-      byte reservedByte = inputStream.readByte();
-      byte[] userPublicKey = new byte[65];
-      inputStream.readFully(userPublicKey);
-      byte[] keyHandle = new byte[inputStream.readUnsignedByte()];
-      inputStream.readFully(keyHandle);
-      X509Certificate attestationCertificate = (X509Certificate) CertificateFactory.getInstance(
-          "X.509").generateCertificate(inputStream);
-      byte[] signature = new byte[inputStream.available()];
-      inputStream.readFully(signature);
-
-      if (inputStream.available() != 0) {
-        throw new U2FException("Message ends with unexpected data");
-      }
-
-      if (reservedByte != REGISTRATION_RESERVED_BYTE_VALUE) {
-        throw new U2FException(String.format(
-            "Incorrect value of reserved byte. Expected: %d. Was: %d",
-            REGISTRATION_RESERVED_BYTE_VALUE, reservedByte));
-      }
-
-      return new RegisterResponse(userPublicKey, keyHandle, attestationCertificate, signature);
-    } catch (IOException e) {
-      throw new U2FException("Error when parsing raw RegisterResponse", e);
-    } catch (CertificateException e) {
-      throw new U2FException("Error when parsing attestation certificate", e);
+    RegisterResponseView view = decodeRegisterResponse(ByteBuffer.wrap(data));
+    X509Certificate attestationCertificate =
+        AttestationCertificateInterner.getDefault().intern(view.getAttestationCertificate());
+    return new RegisterResponse(view.copyUserPublicKey(), view.copyKeyHandle(),
+        attestationCertificate, view.copySignature());
+  }
+
+  /**
+   * Decodes the registration response between the position and the limit of {@code data},
+   * without copying any field. The position of {@code data} isn't changed.
+   */
+  public static RegisterResponseView decodeRegisterResponse(ByteBuffer data)
+      throws U2FException {
+    ByteBuffer in = data.asReadOnlyBuffer();
+    byte reservedByte = readByte(in, "RegisterResponse");
+    if (reservedByte != REGISTRATION_RESERVED_BYTE_VALUE) {
+      throw new U2FException(String.format(
+          "Incorrect value of reserved byte. Expected: %d. Was: %d",
+          REGISTRATION_RESERVED_BYTE_VALUE, reservedByte));
     }
+    ByteBuffer userPublicKey = readSlice(in, USER_PUBLIC_KEY_LENGTH, "RegisterResponse");
+    ByteBuffer keyHandle = readSlice(in, readByte(in, "RegisterResponse") & 0xFF,
+        "RegisterResponse");
+    ByteBuffer attestationCertificate = readSlice(in, derElementLength(in), "RegisterResponse");
+    ByteBuffer signature = readSlice(in, in.remaining(), "RegisterResponse");
+
+    return new RegisterResponseView(userPublicKey, keyHandle, attestationCertificate, signature);
   }
 
   public static byte[] encodeAuthenticateRequest(AuthenticateRequest authenticateRequest)
@@ -140,24 +141,15 @@ public class RawMessageCodec {
   }
 
   public static AuthenticateRequest decodeAuthenticateRequest(byte[] data) throws U2FException {
-    try {
-      DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
-      byte controlByte = inputStream.readByte();
-      byte[] challengeSha256 = new byte[32];
-      inputStream.readFully(challengeSha256);
-      byte[] appIdSha256 = new byte[32];
-      inputStream.readFully(appIdSha256);
-      byte[] keyHandle = new byte[inputStream.readUnsignedByte()];
-      inputStream.readFully(keyHandle);
-
-      if (inputStream.available() != 0) {
-        throw new U2FException("Message ends with unexpected data");
-      }
-
-      return new AuthenticateRequest(controlByte, challengeSha256, appIdSha256, keyHandle);
-    } catch (IOException e) {
-      throw new U2FException("Error when parsing raw AuthenticateRequest", e);
-    }
+    ByteBuffer in = ByteBuffer.wrap(data);
+    byte controlByte = readByte(in, "AuthenticateRequest");
+    byte[] challengeSha256 = readBytes(in, SHA256_LENGTH, "AuthenticateRequest");
+    byte[] appIdSha256 = readBytes(in, SHA256_LENGTH, "AuthenticateRequest");
+    byte[] keyHandle =
+        readBytes(in, readByte(in, "AuthenticateRequest") & 0xFF, "AuthenticateRequest");
+    checkFullyRead(in);
+
+    return new AuthenticateRequest(controlByte, challengeSha256, appIdSha256, keyHandle);
   }
 
   public static byte[] encodeAuthenticateResponse(AuthenticateResponse authenticateResponse)
@@ -175,21 +167,24 @@ public class RawMessageCodec {
   }
 
   public static AuthenticateResponse decodeAuthenticateResponse(byte[] data) throws U2FException {
-    try {
-      DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
-      byte userPresence = inputStream.readByte();
-      int counter = inputStream.readInt();
-      byte[] signature = new byte[inputStream.available()];
-      inputStream.readFully(signature);
-
-      if (inputStream.available() != 0) {
-        throw new U2FException("Message ends with unexpected data");
-      }
-
-      return new AuthenticateResponse(userPresence, counter, signature);
-    } catch (IOException e) {
-      throw new U2FException("Error when parsing raw AuthenticateResponse", e);
+    return decodeAuthenticateResponse(ByteBuffer.wrap(data)).toAuthenticateResponse();
+  }
+
+  /**
+   * Decodes the authentication response between the position and the limit of {@code data},
+   * without copying the signature. The position of {@code data} isn't changed.
+   */
+  public static AuthenticateResponseView decodeAuthenticateResponse(ByteBuffer data)
+      throws U2FException {
+    ByteBuffer in = data.asReadOnlyBuffer();
+    byte userPresence = readByte(in, "AuthenticateResponse");
+    if (in.remaining() < 4) {
+      throw new U2FException("Error when parsing raw AuthenticateResponse: message too short");
     }
+    int counter = in.getInt();
+    ByteBuffer signature = readSlice(in, in.remaining(), "AuthenticateResponse");
+
+    return new AuthenticateResponseView(userPresence, counter, signature);
   }
 
   public static byte[] encodeRegistrationSignedBytes(byte[] applicationSha256,
@@ -215,4 +210,94 @@ public class RawMessageCodec {
     .put(challengeSha256);
     return signedData;
   }
+
+  /**
+   * Feeds the same bytes as {@link #encodeRegistrationSignedBytes} into {@code signature}, one
+   * field at a time, without building the concatenated message.
+   */
+  public static void updateRegistrationSignedBytes(Signature signature, byte[] applicationSha256,
+      byte[] challengeSha256, byte[] keyHandle, byte[] userPublicKey) throws SignatureException {
+    signature.update(REGISTRATION_SIGNED_RESERVED_BYTE_VALUE); // RFU
+    signature.update(applicationSha256);
+    signature.update(challengeSha256);
+    signature.update(keyHandle);
+    signature.update(userPublicKey);
+  }
+
+  /**
+   * Feeds the same bytes as {@link #encodeAuthenticateSignedBytes} into {@code signature}, one
+   * field at a time, without building the concatenated message.
+   */
+  public static void updateAuthenticateSignedBytes(Signature signature, byte[] applicationSha256,
+      byte userPresence, int counter, byte[] challengeSha256) throws SignatureException {
+    signature.update(applicationSha256);
+    signature.update(userPresence);
+    // big-endian, as written by ByteBuffer.putInt()
+    signature.update((byte) (counter >>> 24));
+    signature.update((byte) (counter >>> 16));
+    signature.update((byte) (counter >>> 8));
+    signature.update((byte) counter);
+    signature.update(challengeSha256);
+  }
+
+  private static byte readByte(ByteBuffer in, String message) throws U2FException {
+    if (!in.hasRemaining()) {
+      throw new U2FException("Error when parsing raw " + message + ": message too short");
+    }
+    return in.get();
+  }
+
+  private static byte[] readBytes(ByteBuffer in, int length, String message)
+      throws U2FException {
+    byte[] result = new byte[length];
+    readSlice(in, length, message).get(result);
+    return result;
+  }
+
+  /**
+   * @return the next {@code length} bytes of {@code in} as a slice, after which {@code in} is
+   * positioned
+   */
+  private static ByteBuffer readSlice(ByteBuffer in, int length, String message)
+      throws U2FException {
+    if (length > in.remaining()) {
+      throw new U2FException("Error when parsing raw " + message + ": message too short");
+    }
+    ByteBuffer slice = in.slice();
+    slice.limit(length);
+    in.position(in.position() + length);
+    return slice;
+  }
+
+  private static void checkFullyRead(ByteBuffer in) throws U2FException {
+    if (in.hasRemaining()) {
+      throw new U2FException("Message ends with unexpected data");
+    }
+  }
+
+  /**
+   * @return the length, including tag and length bytes, of the DER SEQUENCE starting at the
+   * position of {@code in}, which isn't changed
+   */
+  private static int derElementLength(ByteBuffer in) throws U2FException {
+    int start = in.position();
+    if (in.remaining() < 2 || in.get(start) != DER_SEQUENCE_TAG) {
+      throw new U2FException("Error when parsing attestation certificate: not a DER SEQUENCE");
+    }
+    int firstLengthByte = in.get(start + 1) & 0xFF;
+    if (firstLengthByte < 0x80) {
+      // short form
+      return 2 + firstLengthByte;
+    }
+    // long form: the low bits count the big-endian length bytes that follow
+    int lengthBytes = firstLengthByte & 0x7F;
+    if (lengthBytes == 0 || lengthBytes > 3 || in.remaining() < 2 + lengthBytes) {
+      throw new U2FException("Error when parsing attestation certificate: bad DER length");
+    }
+    int length = 0;
+    for (int i = 0; i < lengthBytes; i++) {
+      length = (length << 8) | (in.get(start + 2 + i) & 0xFF);
+    }
+    return 2 + lengthBytes + length;
+  }
 }
@@ -9,9 +9,6 @@ package com.google.u2f.key.impl;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
-import java.util.logging.Logger;
-
-import org.apache.commons.codec.binary.Hex;
 
 import com.google.u2f.U2FException;
 import com.google.u2f.codec.RawMessageCodec;
@@ -25,10 +22,11 @@ import com.google.u2f.key.messages.AuthenticateRequest;
 import com.google.u2f.key.messages.AuthenticateResponse;
 import com.google.u2f.key.messages.RegisterRequest;
 import com.google.u2f.key.messages.RegisterResponse;
+import com.google.u2f.trace.CeremonyTrace;
+import com.google.u2f.trace.CeremonyTracer;
+import com.google.u2f.trace.TraceField;
 
 public class U2FKeyReferenceImpl implements U2FKey {
-  private static final Logger Log = Logger.getLogger(U2FKeyReferenceImpl.class.getName());
-
   private final X509Certificate vendorCertificate;
   private final PrivateKey certificatePrivateKey;
   private final KeyPairGenerator keyPairGenerator;
@@ -36,10 +34,19 @@ public class U2FKeyReferenceImpl implements U2FKey {
   private final DataStore dataStore;
   private final UserPresenceVerifier userPresenceVerifier;
   private final Crypto crypto;
+  private final CeremonyTracer ceremonyTracer;
 
   public U2FKeyReferenceImpl(X509Certificate vendorCertificate, PrivateKey certificatePrivateKey,
       KeyPairGenerator keyPairGenerator, KeyHandleGenerator keyHandleGenerator,
       DataStore dataStore, UserPresenceVerifier userPresenceVerifier, Crypto crypto) {
+    this(vendorCertificate, certificatePrivateKey, keyPairGenerator, keyHandleGenerator,
+        dataStore, userPresenceVerifier, crypto, CeremonyTracer.DISABLED);
+  }
+
+  public U2FKeyReferenceImpl(X509Certificate vendorCertificate, PrivateKey certificatePrivateKey,
+      KeyPairGenerator keyPairGenerator, KeyHandleGenerator keyHandleGenerator,
+      DataStore dataStore, UserPresenceVerifier userPresenceVerifier, Crypto crypto,
+      CeremonyTracer ceremonyTracer) {
     this.vendorCertificate = vendorCertificate;
     this.certificatePrivateKey = certificatePrivateKey;
     this.keyPairGenerator = keyPairGenerator;
@@ -47,18 +54,29 @@ public class U2FKeyReferenceImpl implements U2FKey {
     this.dataStore = dataStore;
     this.userPresenceVerifier = userPresenceVerifier;
     this.crypto = crypto;
+    this.ceremonyTracer = ceremonyTracer;
   }
 
   @Override
   public RegisterResponse register(RegisterRequest registerRequest) throws U2FException {
-    Log.info(">> register");
+    CeremonyTrace trace = ceremonyTracer.start("register");
+    try {
+      return register(registerRequest, trace);
+    } catch (U2FException | RuntimeException e) {
+      trace.fail(e);
+      throw e;
+    } finally {
+      trace.finish();
+    }
+  }
 
+  private RegisterResponse register(RegisterRequest registerRequest, CeremonyTrace trace)
+      throws U2FException {
     byte[] applicationSha256 = registerRequest.getApplicationSha256();
     byte[] challengeSha256 = registerRequest.getChallengeSha256();
 
-    Log.info(" -- Inputs --");
-    Log.info("  applicationSha256: " + Hex.encodeHexString(applicationSha256));
-    Log.info("  challengeSha256: " + Hex.encodeHexString(challengeSha256));
+    trace.add(TraceField.APPLICATION_SHA256, applicationSha256)
+        .add(TraceField.CHALLENGE_SHA256, challengeSha256);
 
     byte userPresent = userPresenceVerifier.verifyUserPresence();
     if ((userPresent & UserPresenceVerifier.USER_PRESENT_FLAG) == 0) {
@@ -74,17 +92,14 @@ public class U2FKeyReferenceImpl implements U2FKey {
 
     byte[] signedData = RawMessageCodec.encodeRegistrationSignedBytes(applicationSha256, challengeSha256,
         keyHandle, userPublicKey);
-    Log.info("Signing bytes " + Hex.encodeHexString(signedData));
+    trace.add(TraceField.SIGNED_BYTES, signedData);
 
     byte[] signature = crypto.sign(signedData, certificatePrivateKey);
 
-    Log.info(" -- Outputs --");
-    Log.info("  userPublicKey: " + Hex.encodeHexString(userPublicKey));
-    Log.info("  keyHandle: " + Hex.encodeHexString(keyHandle));
-    Log.info("  vendorCertificate: " + vendorCertificate);
-    Log.info("  signature: " + Hex.encodeHexString(signature));
-
-    Log.info("<< register");
+    trace.add(TraceField.USER_PUBLIC_KEY, userPublicKey)
+        .add(TraceField.KEY_HANDLE, keyHandle)
+        .add(TraceField.ATTESTATION_CERTIFICATE, vendorCertificate)
+        .add(TraceField.SIGNATURE, signature);
 
     return new RegisterResponse(userPublicKey, keyHandle, vendorCertificate, signature);
   }
@@ -92,18 +107,28 @@ public class U2FKeyReferenceImpl implements U2FKey {
   @Override
   public AuthenticateResponse authenticate(AuthenticateRequest authenticateRequest)
       throws U2FException {
-    Log.info(">> authenticate");
+    CeremonyTrace trace = ceremonyTracer.start("authenticate");
+    try {
+      return authenticate(authenticateRequest, trace);
+    } catch (U2FException | RuntimeException e) {
+      trace.fail(e);
+      throw e;
+    } finally {
+      trace.finish();
+    }
+  }
 
+  private AuthenticateResponse authenticate(AuthenticateRequest authenticateRequest,
+      CeremonyTrace trace) throws U2FException {
     byte control = authenticateRequest.getControl();
     byte[] applicationSha256 = authenticateRequest.getApplicationSha256();
     byte[] challengeSha256 = authenticateRequest.getChallengeSha256();
     byte[] keyHandle = authenticateRequest.getKeyHandle();
 
-    Log.info(" -- Inputs --");
-    Log.info("  control: " + control);
-    Log.info("  applicationSha256: " + Hex.encodeHexString(applicationSha256));
-    Log.info("  challengeSha256: " + Hex.encodeHexString(challengeSha256));
-    Log.info("  keyHandle: " + Hex.encodeHexString(keyHandle));
+    trace.add(TraceField.CONTROL, control)
+        .add(TraceField.APPLICATION_SHA256, applicationSha256)
+        .add(TraceField.CHALLENGE_SHA256, challengeSha256)
+        .add(TraceField.KEY_HANDLE, keyHandle);
 
     KeyPair keyPair = dataStore.getKeyPair(keyHandle);
     int counter = dataStore.incrementCounter();
@@ -111,16 +136,13 @@ public class U2FKeyReferenceImpl implements U2FKey {
     byte[] signedData = RawMessageCodec.encodeAuthenticateSignedBytes(applicationSha256, userPresence,
         counter, challengeSha256);
 
-    Log.info("Signing bytes " + Hex.encodeHexString(signedData));
+    trace.add(TraceField.SIGNED_BYTES, signedData);
 
     byte[] signature = crypto.sign(signedData, keyPair.getPrivate());
 
-    Log.info(" -- Outputs --");
-    Log.info("  userPresence: " + userPresence);
-    Log.info("  counter: " + counter);
-    Log.info("  signature: " + Hex.encodeHexString(signature));
-
-    Log.info("<< authenticate");
+    trace.add(TraceField.USER_PRESENCE, userPresence)
+        .add(TraceField.COUNTER, counter)
+        .add(TraceField.SIGNATURE, signature);
 
     return new AuthenticateResponse(userPresence, counter, signature);
   }
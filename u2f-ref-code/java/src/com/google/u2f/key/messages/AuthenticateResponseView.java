@@ -0,0 +1,60 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.key.messages;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link AuthenticateResponse} as it lies in a raw message, see
+ * {@link com.google.u2f.codec.RawMessageCodec#decodeAuthenticateResponse(ByteBuffer)}.
+ *
+ * <p>The signature is a read-only slice of the decoded buffer rather than a copy, so it changes
+ * if the buffer does. Use {@link #copySignature} to keep it beyond the life of the buffer.
+ */
+public class AuthenticateResponseView {
+  private final byte userPresence;
+  private final int counter;
+  private final ByteBuffer signature;
+
+  public AuthenticateResponseView(byte userPresence, int counter, ByteBuffer signature) {
+    this.userPresence = userPresence;
+    this.counter = counter;
+    this.signature = signature;
+  }
+
+  /**
+   * @see AuthenticateResponse#getUserPresence
+   */
+  public byte getUserPresence() {
+    return userPresence;
+  }
+
+  /**
+   * @see AuthenticateResponse#getCounter
+   */
+  public int getCounter() {
+    return counter;
+  }
+
+  /**
+   * @see AuthenticateResponse#getSignature
+   */
+  public ByteBuffer getSignature() {
+    return signature.duplicate();
+  }
+
+  public byte[] copySignature() {
+    return RegisterResponseView.copy(signature);
+  }
+
+  /**
+   * @return a copy of this response that doesn't depend on the decoded buffer
+   */
+  public AuthenticateResponse toAuthenticateResponse() {
+    return new AuthenticateResponse(userPresence, counter, copySignature());
+  }
+}
@@ -0,0 +1,135 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.key.messages;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import com.google.u2f.U2FException;
+
+/**
+ * A {@link RegisterResponse} as it lies in a raw message, see
+ * {@link com.google.u2f.codec.RawMessageCodec#decodeRegisterResponse(ByteBuffer)}.
+ *
+ * <p>The fields are read-only slices of the decoded buffer rather than copies, so they change if
+ * the buffer does. Use the {@code copy} methods to keep a field beyond the life of the buffer.
+ */
+public class RegisterResponseView {
+  private final ByteBuffer userPublicKey;
+  private final ByteBuffer keyHandle;
+  private final ByteBuffer attestationCertificate;
+  private final ByteBuffer signature;
+
+  public RegisterResponseView(ByteBuffer userPublicKey, ByteBuffer keyHandle,
+      ByteBuffer attestationCertificate, ByteBuffer signature) {
+    this.userPublicKey = userPublicKey;
+    this.keyHandle = keyHandle;
+    this.attestationCertificate = attestationCertificate;
+    this.signature = signature;
+  }
+
+  /**
+   * @see RegisterResponse#getUserPublicKey
+   */
+  public ByteBuffer getUserPublicKey() {
+    return userPublicKey.duplicate();
+  }
+
+  /**
+   * @see RegisterResponse#getKeyHandle
+   */
+  public ByteBuffer getKeyHandle() {
+    return keyHandle.duplicate();
+  }
+
+  /**
+   * @return the DER encoding of the attestation certificate
+   */
+  public ByteBuffer getAttestationCertificate() {
+    return attestationCertificate.duplicate();
+  }
+
+  /**
+   * @see RegisterResponse#getSignature
+   */
+  public ByteBuffer getSignature() {
+    return signature.duplicate();
+  }
+
+  public byte[] copyUserPublicKey() {
+    return copy(userPublicKey);
+  }
+
+  public byte[] copyKeyHandle() {
+    return copy(keyHandle);
+  }
+
+  public byte[] copyAttestationCertificate() {
+    return copy(attestationCertificate);
+  }
+
+  public byte[] copySignature() {
+    return copy(signature);
+  }
+
+  public X509Certificate parseAttestationCertificate() throws U2FException {
+    try {
+      return (X509Certificate) CertificateFactory.getInstance("X.509")
+          .generateCertificate(new ByteBufferInputStream(getAttestationCertificate()));
+    } catch (CertificateException e) {
+      throw new U2FException("Error when parsing attestation certificate", e);
+    }
+  }
+
+  /**
+   * @return a copy of this response that doesn't depend on the decoded buffer
+   */
+  public RegisterResponse toRegisterResponse() throws U2FException {
+    return new RegisterResponse(copyUserPublicKey(), copyKeyHandle(),
+        parseAttestationCertificate(), copySignature());
+  }
+
+  static byte[] copy(ByteBuffer field) {
+    byte[] result = new byte[field.remaining()];
+    field.duplicate().get(result);
+    return result;
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
@@ -0,0 +1,40 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server;
+
+import java.util.List;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.u2f.server.data.SecurityKeyData;
+import com.google.u2f.server.messages.RegistrationRequest;
+import com.google.u2f.server.messages.RegistrationResponse;
+import com.google.u2f.server.messages.SignResponse;
+import com.google.u2f.server.messages.U2fSignRequest;
+
+/**
+ * The non-blocking counterpart of {@link U2FServer}. Where a {@link U2FServer} method throws a
+ * {@link com.google.u2f.U2FException}, the future returned here fails with it.
+ */
+public interface AsyncU2FServer {
+
+  // registration //
+  public ListenableFuture<RegistrationRequest> getRegistrationRequest(String accountName,
+      String appId);
+
+  public ListenableFuture<SecurityKeyData> processRegistrationResponse(
+      RegistrationResponse registrationResponse, long currentTimeInMillis);
+
+  // authentication //
+  public ListenableFuture<U2fSignRequest> getSignRequest(String accountName, String appId);
+
+  public ListenableFuture<SecurityKeyData> processSignResponse(SignResponse signResponse);
+
+  // token management //
+  public ListenableFuture<List<SecurityKeyData>> getAllSecurityKeys(String accountName);
+
+  public ListenableFuture<Void> removeSecurityKey(String accountName, byte[] publicKey);
+}
@@ -18,6 +18,22 @@ public interface Crypto {
   boolean verifySignature(PublicKey publicKey, byte[] signedBytes,
       byte[] signature) throws U2FException;
 
+  /**
+   * Verifies a registration signature over the fields of the registration signed bytes, as
+   * laid out by {@link com.google.u2f.codec.RawMessageCodec#encodeRegistrationSignedBytes}.
+   */
+  boolean verifyRegistrationSignature(X509Certificate attestationCertificate,
+      byte[] applicationSha256, byte[] challengeSha256, byte[] keyHandle, byte[] userPublicKey,
+      byte[] signature) throws U2FException;
+
+  /**
+   * Verifies an authentication signature over the fields of the authentication signed bytes, as
+   * laid out by {@link com.google.u2f.codec.RawMessageCodec#encodeAuthenticateSignedBytes}.
+   */
+  boolean verifyAuthenticationSignature(PublicKey publicKey, byte[] applicationSha256,
+      byte userPresence, int counter, byte[] challengeSha256, byte[] signature)
+      throws U2FException;
+
   PublicKey decodePublicKey(byte[] encodedPublicKey) throws U2FException;
 
   byte[] computeSha256(byte[] bytes) throws U2FException;
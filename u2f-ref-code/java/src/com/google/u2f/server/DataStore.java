@@ -29,13 +29,48 @@ public interface DataStore {
 
   public EnrollSessionData getEnrollSessionData(String sessionId);
 
+  /**
+   * Like {@link #getEnrollSessionData}, but also removes the session, so that of several
+   * concurrent calls for one session only one returns it. Stores that keep no state per session
+   * may not be able to remove it, and behave like {@link #getEnrollSessionData}.
+   */
+  public EnrollSessionData consumeEnrollSessionData(String sessionId);
+
+  /**
+   * Like {@link #getSignSessionData}, but also removes the session. See
+   * {@link #consumeEnrollSessionData}.
+   */
+  public SignSessionData consumeSignSessionData(String sessionId);
+
 
   // security key management
   public void addSecurityKeyData(String accountName, SecurityKeyData securityKeyData);
 
   public List<SecurityKeyData> getSecurityKeyData(String accountName);
 
+  /**
+   * @return the security key of {@code accountName} with the given public key, or null if there
+   * is none
+   */
+  public SecurityKeyData getSecurityKeyDataByPublicKey(String accountName, byte[] publicKey);
+
+  /**
+   * @return the security key of {@code accountName} with the given key handle, or null if there
+   * is none
+   */
+  public SecurityKeyData getSecurityKeyDataByKeyHandle(String accountName, byte[] keyHandle);
+
   public void removeSecurityKey(String accountName, byte[] publicKey);
 
   public void updateSecurityKeyCounter(String accountName, byte[] publicKey, int newCounterValue);
+
+  /**
+   * Atomically sets the counter of the key with {@code publicKey} to {@code newCounterValue},
+   * provided it still holds {@code expectedCounterValue}.
+   *
+   * @return whether the counter was updated; false if it changed in the meantime, or if the key
+   * doesn't exist
+   */
+  public boolean compareAndSetSecurityKeyCounter(String accountName, byte[] publicKey,
+      int expectedCounterValue, int newCounterValue);
 }
@@ -0,0 +1,28 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server;
+
+import javax.crypto.SecretKey;
+
+/**
+ * The AES keys session data is sealed with, see
+ * {@link com.google.u2f.server.impl.SessionDataCodec}. Keys are identified by a number from 0 to
+ * 255 that is stored with the sealed data, so keys can be rotated while older sessions are still
+ * open.
+ */
+public interface SessionKeyProvider {
+
+  /**
+   * @return the id of the key to seal new sessions with
+   */
+  int getCurrentKeyId();
+
+  /**
+   * @return the key with {@code keyId}, or null if there is no such key (anymore)
+   */
+  SecretKey getKey(int keyId);
+}
@@ -9,6 +9,7 @@ package com.google.u2f.server;
 import java.util.List;
 
 import com.google.u2f.U2FException;
+import com.google.u2f.server.data.BatchResult;
 import com.google.u2f.server.data.SecurityKeyData;
 import com.google.u2f.server.messages.RegistrationRequest;
 import com.google.u2f.server.messages.RegistrationResponse;
@@ -28,6 +29,26 @@ public interface U2FServer {
 
   public SecurityKeyData processSignResponse(SignResponse signResponse) throws U2FException;
 
+  // batch processing //
+  /**
+   * Processes registration responses that arrive together. Responses are verified independently
+   * of each other, and the resulting security keys are stored in the order of
+   * {@code registrationResponses}.
+   *
+   * @return one result per response, in the order of {@code registrationResponses}
+   */
+  public List<BatchResult> processRegistrationResponses(
+      List<RegistrationResponse> registrationResponses, long currentTimeInMillis);
+
+  /**
+   * Processes sign responses that arrive together. Responses are verified independently of each
+   * other, and counter checks and updates are applied in the order of {@code signResponses}, so
+   * a batch holding the same counter twice for one key accepts only the first.
+   *
+   * @return one result per response, in the order of {@code signResponses}
+   */
+  public List<BatchResult> processSignResponses(List<SignResponse> signResponses);
+
   // token management //
   public List<SecurityKeyData> getAllSecurityKeys(String accountName);
 
@@ -0,0 +1,94 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.data;
+
+import com.google.u2f.server.data.SecurityKeyData.Transports;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * What a vendor published about the security keys behind an attestation certificate.
+ */
+public class AttestationMetadata {
+  private final String vendor;
+  private final String model;
+  private final String certificationLevel;
+  private final List<Transports> transports;
+
+  /**
+   * @param vendor the vendor's name
+   * @param model the model's name, or null if not published
+   * @param certificationLevel the certification level the model reached, e.g. "L1", or null if
+   *     it isn't certified
+   * @param transports the transports the model supports, or null if not published. Kept in the
+   *     order of {@link Transports}.
+   */
+  public AttestationMetadata(String vendor, String model, String certificationLevel,
+      List<Transports> transports) {
+    this.vendor = Objects.requireNonNull(vendor, "vendor");
+    this.model = model;
+    this.certificationLevel = certificationLevel;
+    this.transports = transports == null ? null : sorted(transports);
+  }
+
+  private static List<Transports> sorted(List<Transports> transports) {
+    EnumSet<Transports> transportSet = EnumSet.noneOf(Transports.class);
+    transportSet.addAll(transports);
+    return Collections.unmodifiableList(new ArrayList<Transports>(transportSet));
+  }
+
+  public String getVendor() {
+    return vendor;
+  }
+
+  public String getModel() {
+    return model;
+  }
+
+  public String getCertificationLevel() {
+    return certificationLevel;
+  }
+
+  public List<Transports> getTransports() {
+    return transports;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(vendor, model, certificationLevel, transports);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof AttestationMetadata)) {
+      return false;
+    }
+    AttestationMetadata that = (AttestationMetadata) obj;
+    return Objects.equals(this.vendor, that.vendor)
+        && Objects.equals(this.model, that.model)
+        && Objects.equals(this.certificationLevel, that.certificationLevel)
+        && Objects.equals(this.transports, that.transports);
+  }
+
+  @Override
+  public String toString() {
+    return new StringBuilder()
+      .append(vendor)
+      .append(" ")
+      .append(model)
+      .append(" (certification level: ")
+      .append(certificationLevel)
+      .append(", transports: ")
+      .append(transports)
+      .append(")")
+      .toString();
+  }
+}
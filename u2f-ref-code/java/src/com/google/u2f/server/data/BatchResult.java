@@ -0,0 +1,53 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.data;
+
+import com.google.u2f.U2FException;
+
+/**
+ * The outcome of processing one response of a batch: either the affected security key, or the
+ * reason the response was rejected.
+ */
+public class BatchResult {
+  private final SecurityKeyData securityKeyData;
+  private final U2FException exception;
+
+  private BatchResult(SecurityKeyData securityKeyData, U2FException exception) {
+    this.securityKeyData = securityKeyData;
+    this.exception = exception;
+  }
+
+  public static BatchResult success(SecurityKeyData securityKeyData) {
+    return new BatchResult(securityKeyData, null);
+  }
+
+  public static BatchResult failure(U2FException exception) {
+    return new BatchResult(null, exception);
+  }
+
+  public boolean isSuccess() {
+    return exception == null;
+  }
+
+  /**
+   * @return the security key registered or authenticated by the response
+   * @throws U2FException why the response was rejected
+   */
+  public SecurityKeyData get() throws U2FException {
+    if (exception != null) {
+      throw exception;
+    }
+    return securityKeyData;
+  }
+
+  /**
+   * @return why the response was rejected, or null if it was accepted
+   */
+  public U2FException getException() {
+    return exception;
+  }
+}
@@ -14,11 +14,21 @@ public class EnrollSessionData implements Serializable {
   private final String accountName;
   private final byte[] challenge;
   private final String appId;
+  private final long creationTime;
 
   public EnrollSessionData(String accountName, String appId, byte[] challenge) {
+    this(accountName, appId, challenge, System.currentTimeMillis());
+  }
+
+  /**
+   * Recreates a session created at {@code creationTime}, e.g. when decoding it.
+   */
+  public EnrollSessionData(String accountName, String appId, byte[] challenge,
+      long creationTime) {
     this.accountName = accountName;
     this.challenge = challenge;
     this.appId = appId;
+    this.creationTime = creationTime;
   }
 
   public String getAccountName() {
@@ -32,4 +42,12 @@ public class EnrollSessionData implements Serializable {
   public String getAppId() {
 	return appId;
   }
+
+  /**
+   * When the session was created, in milliseconds since the epoch. Sessions serialized before
+   * this was recorded report 0.
+   */
+  public long getCreationTime() {
+    return creationTime;
+  }
 }
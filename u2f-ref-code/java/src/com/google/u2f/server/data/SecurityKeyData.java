@@ -32,6 +32,19 @@ public class SecurityKeyData {
     public String toString() {
       return mValue;
     }
+
+    /**
+     * @return the transport named {@code value}, e.g. "usb"
+     * @throws IllegalArgumentException if there is no such transport
+     */
+    public static Transports fromString(String value) {
+      for (Transports transport : values()) {
+        if (transport.mValue.equals(value)) {
+          return transport;
+        }
+      }
+      throw new IllegalArgumentException("Unknown transport " + value);
+    }
   }
 
   private final long enrollmentTime;
@@ -39,7 +52,9 @@ public class SecurityKeyData {
   private final byte[] keyHandle;
   private final byte[] publicKey;
   private final X509Certificate attestationCert;
-  private int counter;
+  private final AttestationMetadata attestationMetadata;
+  // updated in place by MemoryDataStore while other threads read it
+  private volatile int counter;
 
   public SecurityKeyData(
       long enrollmentTime,
@@ -57,11 +72,24 @@ public class SecurityKeyData {
       byte[] publicKey,
       X509Certificate attestationCert,
       int counter) {
+    this(enrollmentTime, transports, keyHandle, publicKey, attestationCert,
+        null /* attestationMetadata */, counter);
+  }
+
+  public SecurityKeyData(
+      long enrollmentTime,
+      List<Transports> transports,
+      byte[] keyHandle,
+      byte[] publicKey,
+      X509Certificate attestationCert,
+      AttestationMetadata attestationMetadata,
+      int counter) {
     this.enrollmentTime = enrollmentTime;
     this.transports = transports;
     this.keyHandle = keyHandle;
     this.publicKey = publicKey;
     this.attestationCert = attestationCert;
+    this.attestationMetadata = attestationMetadata;
     this.counter = counter;
   }
 
@@ -88,6 +116,17 @@ public class SecurityKeyData {
     return attestationCert;
   }
 
+  /**
+   * What the vendor published about this key's model, as known at registration. Not part of
+   * {@link #equals}: it is derived from the attestation certificate, and data stores that don't
+   * keep it still hold the same key.
+   *
+   * @return the vendor metadata, or null if the attestation certificate wasn't found in it
+   */
+  public AttestationMetadata getAttestationMetadata() {
+    return attestationMetadata;
+  }
+
   public int getCounter() {
     return counter;
   }
@@ -155,6 +194,9 @@ public class SecurityKeyData {
       .append("transports: ")
       .append(transports)
       .append("\n")
+      .append("attestation metadata: ")
+      .append(attestationMetadata)
+      .append("\n")
       .toString();
   }
 }
@@ -6,17 +6,78 @@
 
 package com.google.u2f.server.data;
 
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
 public class SignSessionData extends EnrollSessionData {
   private static final long serialVersionUID = -1374014642398686120L;
 
   private final byte[] publicKey;
+  private final byte[][] keyHandles;
 
+  /**
+   * Creates a session that only accepts a signature by the key with {@code publicKey}.
+   */
   public SignSessionData(String accountName, String appId, byte[] challenge, byte[] publicKey) {
-    super(accountName, appId, challenge);
+    this(accountName, appId, challenge, publicKey, System.currentTimeMillis());
+  }
+
+  /**
+   * Recreates a session for a single public key created at {@code creationTime}.
+   */
+  public SignSessionData(String accountName, String appId, byte[] challenge, byte[] publicKey,
+      long creationTime) {
+    super(accountName, appId, challenge, creationTime);
     this.publicKey = publicKey;
+    this.keyHandles = null;
+  }
+
+  /**
+   * Creates a session shared by all keys offered in one sign request, which accepts a signature
+   * by any of the keys with {@code keyHandles}.
+   */
+  public SignSessionData(String accountName, String appId, byte[] challenge,
+      List<byte[]> keyHandles) {
+    this(accountName, appId, challenge, keyHandles, System.currentTimeMillis());
   }
 
+  /**
+   * Recreates a session for several key handles created at {@code creationTime}.
+   */
+  public SignSessionData(String accountName, String appId, byte[] challenge,
+      List<byte[]> keyHandles, long creationTime) {
+    super(accountName, appId, challenge, creationTime);
+    this.publicKey = null;
+    this.keyHandles = keyHandles.toArray(new byte[keyHandles.size()][]);
+  }
+
+  /**
+   * @return the public key of the only key this session accepts, or null if the session accepts
+   * any of its {@link #getKeyHandles key handles}
+   */
   public byte[] getPublicKey() {
     return publicKey;
   }
+
+  /**
+   * @return the key handles this session accepts, or null if it accepts a single
+   * {@link #getPublicKey public key}
+   */
+  public List<byte[]> getKeyHandles() {
+    return keyHandles == null ? null : ImmutableList.copyOf(keyHandles);
+  }
+
+  public boolean containsKeyHandle(byte[] keyHandle) {
+    if (keyHandles == null) {
+      return false;
+    }
+    for (byte[] allowedKeyHandle : keyHandles) {
+      if (Arrays.equals(allowedKeyHandle, keyHandle)) {
+        return true;
+      }
+    }
+    return false;
+  }
 }
@@ -0,0 +1,62 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import java.util.Objects;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Deployment settings for a single appId, as handed to {@link AppIdRegistry}.
+ */
+public class AppIdConfig {
+  private final String appId;
+  private final Set<String> allowedOrigins;
+  private final boolean requireTrustedAttestation;
+
+  /**
+   * @param appId the appId these settings apply to
+   * @param allowedOrigins origins that may sign for this appId
+   * @param requireTrustedAttestation whether registrations must carry a trusted attestation
+   * certificate. If false, untrusted attestation certificates are only logged.
+   */
+  public AppIdConfig(String appId, Set<String> allowedOrigins,
+      boolean requireTrustedAttestation) {
+    this.appId = appId;
+    this.allowedOrigins = ImmutableSet.copyOf(allowedOrigins);
+    this.requireTrustedAttestation = requireTrustedAttestation;
+  }
+
+  public String getAppId() {
+    return appId;
+  }
+
+  public Set<String> getAllowedOrigins() {
+    return allowedOrigins;
+  }
+
+  public boolean isTrustedAttestationRequired() {
+    return requireTrustedAttestation;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(appId, allowedOrigins, requireTrustedAttestation);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof AppIdConfig)) {
+      return false;
+    }
+    AppIdConfig that = (AppIdConfig) obj;
+    return Objects.equals(this.appId, that.appId)
+        && Objects.equals(this.allowedOrigins, that.allowedOrigins)
+        && this.requireTrustedAttestation == that.requireTrustedAttestation;
+  }
+}
@@ -0,0 +1,144 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Set;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.u2f.U2FException;
+import com.google.u2f.server.Crypto;
+
+/**
+ * Per-appId state that only depends on the deployment configuration: the appId's SHA-256, its
+ * canonicalized allowed origins and its attestation trust settings.
+ *
+ * <p>AppIds listed in the configuration are prepared up front. Any other appId is prepared on
+ * first use with the registry's default origins. Such appIds come from requests, so only the most
+ * recently used {@link #DEFAULT_ENTRIES_CACHE_SIZE} of them are kept. {@link #reload} swaps in a
+ * new configuration atomically; lookups that are already running keep using the old entries.
+ */
+public class AppIdRegistry {
+  public static final long DEFAULT_ENTRIES_CACHE_SIZE = 1024;
+
+  private final Crypto crypto;
+  private final Set<String> defaultOrigins;
+
+  private volatile ImmutableMap<String, Entry> configuredEntries;
+  private final Cache<String, Entry> defaultEntries =
+      CacheBuilder.newBuilder().maximumSize(DEFAULT_ENTRIES_CACHE_SIZE).build();
+
+  /**
+   * @param crypto used to hash the appIds
+   * @param defaultOrigins origins allowed for appIds that aren't explicitly configured
+   */
+  public AppIdRegistry(Crypto crypto, Set<String> defaultOrigins) {
+    this.crypto = crypto;
+    this.defaultOrigins = canonicalizeOrigins(defaultOrigins);
+    this.configuredEntries = ImmutableMap.of();
+  }
+
+  /**
+   * @return the state for {@code appId}, preparing it first if it hasn't been seen before.
+   */
+  public Entry get(String appId) throws U2FException {
+    Entry entry = configuredEntries.get(appId);
+    if (entry != null) {
+      return entry;
+    }
+
+    entry = defaultEntries.getIfPresent(appId);
+    if (entry == null) {
+      // Racing threads may each prepare the entry; they are equivalent.
+      entry = new Entry(appId, computeSha256(appId), defaultOrigins, false);
+      defaultEntries.put(appId, entry);
+    }
+    return entry;
+  }
+
+  /**
+   * Replaces the configured appIds with {@code appIdConfigs}.
+   */
+  public void reload(Collection<AppIdConfig> appIdConfigs) throws U2FException {
+    ImmutableMap.Builder<String, Entry> entries = ImmutableMap.builder();
+    for (AppIdConfig appIdConfig : appIdConfigs) {
+      String appId = appIdConfig.getAppId();
+      entries.put(appId, new Entry(appId, computeSha256(appId),
+          canonicalizeOrigins(appIdConfig.getAllowedOrigins()),
+          appIdConfig.isTrustedAttestationRequired()));
+    }
+    configuredEntries = entries.build();
+  }
+
+  /**
+   * @return how many unconfigured appIds are currently prepared
+   */
+  long defaultEntriesSize() {
+    return defaultEntries.size();
+  }
+
+  /**
+   * @return the canonicalized origins allowed for appIds that aren't explicitly configured
+   */
+  public Set<String> getDefaultOrigins() {
+    return defaultOrigins;
+  }
+
+  private byte[] computeSha256(String appId) throws U2FException {
+    return crypto.computeSha256(appId.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Set<String> canonicalizeOrigins(Set<String> origins) {
+    ImmutableSet.Builder<String> result = ImmutableSet.builder();
+    for (String origin : origins) {
+      result.add(U2FServerReferenceImpl.canonicalizeOrigin(origin));
+    }
+    return result.build();
+  }
+
+  /**
+   * Prepared state of a single appId. Instances are shared between requests, so the returned
+   * arrays must not be modified.
+   */
+  public static class Entry {
+    private final String appId;
+    private final byte[] applicationSha256;
+    private final Set<String> allowedOrigins;
+    private final boolean requireTrustedAttestation;
+
+    private Entry(String appId, byte[] applicationSha256, Set<String> allowedOrigins,
+        boolean requireTrustedAttestation) {
+      this.appId = appId;
+      this.applicationSha256 = applicationSha256;
+      this.allowedOrigins = allowedOrigins;
+      this.requireTrustedAttestation = requireTrustedAttestation;
+    }
+
+    public String getAppId() {
+      return appId;
+    }
+
+    public byte[] getApplicationSha256() {
+      return applicationSha256;
+    }
+
+    /**
+     * @return the canonicalized origins that may sign for this appId
+     */
+    public Set<String> getAllowedOrigins() {
+      return allowedOrigins;
+    }
+
+    public boolean isTrustedAttestationRequired() {
+      return requireTrustedAttestation;
+    }
+  }
+}
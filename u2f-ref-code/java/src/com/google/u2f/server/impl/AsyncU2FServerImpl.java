@@ -0,0 +1,174 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.u2f.U2FException;
+import com.google.u2f.server.AsyncU2FServer;
+import com.google.u2f.server.data.SecurityKeyData;
+import com.google.u2f.server.impl.U2FServerReferenceImpl.RegistrationContext;
+import com.google.u2f.server.impl.U2FServerReferenceImpl.SignContext;
+import com.google.u2f.server.impl.U2FServerReferenceImpl.Verified;
+import com.google.u2f.server.messages.RegistrationRequest;
+import com.google.u2f.server.messages.RegistrationResponse;
+import com.google.u2f.server.messages.SignResponse;
+import com.google.u2f.server.messages.U2fSignRequest;
+import com.google.u2f.trace.CeremonyTrace;
+
+/**
+ * Runs the ceremonies of a {@link U2FServerReferenceImpl} without blocking the caller.
+ *
+ * <p>Each ceremony runs in stages: reading from the {@link com.google.u2f.server.DataStore} and
+ * writing to it run on the I/O executor, and checking signatures and certificates runs on the CPU
+ * executor in between. The I/O executor should be sized for the number of concurrent requests the
+ * data store can serve, the CPU executor for the number of cores.
+ */
+public class AsyncU2FServerImpl implements AsyncU2FServer {
+  private final U2FServerReferenceImpl server;
+  private final ListeningExecutorService ioExecutor;
+  private final ListeningExecutorService cpuExecutor;
+
+  public AsyncU2FServerImpl(U2FServerReferenceImpl server, ExecutorService ioExecutor,
+      ExecutorService cpuExecutor) {
+    this.server = checkNotNull(server, "server");
+    this.ioExecutor = MoreExecutors.listeningDecorator(checkNotNull(ioExecutor, "ioExecutor"));
+    this.cpuExecutor = MoreExecutors.listeningDecorator(checkNotNull(cpuExecutor, "cpuExecutor"));
+  }
+
+  @Override
+  public ListenableFuture<RegistrationRequest> getRegistrationRequest(final String accountName,
+      final String appId) {
+    final CeremonyTrace trace = server.getCeremonyTracer().start("getRegistrationRequest");
+    return finishWhenDone(trace, ioExecutor.submit(new Callable<RegistrationRequest>() {
+      @Override
+      public RegistrationRequest call() {
+        return server.getRegistrationRequest(accountName, appId, trace);
+      }
+    }));
+  }
+
+  @Override
+  public ListenableFuture<SecurityKeyData> processRegistrationResponse(
+      final RegistrationResponse registrationResponse, final long currentTimeInMillis) {
+    final CeremonyTrace trace = server.getCeremonyTracer().start("processRegistrationResponse");
+    ListenableFuture<RegistrationContext> loaded =
+        ioExecutor.submit(new Callable<RegistrationContext>() {
+          @Override
+          public RegistrationContext call() throws U2FException {
+            return server.loadRegistrationResponse(registrationResponse, trace);
+          }
+        });
+    ListenableFuture<Verified> verified = Futures.transformAsync(loaded,
+        new AsyncFunction<RegistrationContext, Verified>() {
+          @Override
+          public ListenableFuture<Verified> apply(RegistrationContext context)
+              throws U2FException {
+            return Futures.immediateFuture(server.verifyRegistrationResponse(
+                registrationResponse, context, currentTimeInMillis, trace));
+          }
+        }, cpuExecutor);
+    return finishWhenDone(trace, Futures.transformAsync(verified,
+        new AsyncFunction<Verified, SecurityKeyData>() {
+          @Override
+          public ListenableFuture<SecurityKeyData> apply(Verified verified) {
+            return Futures.immediateFuture(server.commitRegistrationResponse(verified));
+          }
+        }, ioExecutor));
+  }
+
+  @Override
+  public ListenableFuture<U2fSignRequest> getSignRequest(final String accountName,
+      final String appId) {
+    final CeremonyTrace trace = server.getCeremonyTracer().start("getSignRequest");
+    return finishWhenDone(trace, ioExecutor.submit(new Callable<U2fSignRequest>() {
+      @Override
+      public U2fSignRequest call() {
+        return server.getSignRequest(accountName, appId, trace);
+      }
+    }));
+  }
+
+  @Override
+  public ListenableFuture<SecurityKeyData> processSignResponse(final SignResponse signResponse) {
+    final CeremonyTrace trace = server.getCeremonyTracer().start("processSignResponse");
+    ListenableFuture<SignContext> loaded = ioExecutor.submit(new Callable<SignContext>() {
+      @Override
+      public SignContext call() throws U2FException {
+        return server.loadSignResponse(signResponse, trace);
+      }
+    });
+    ListenableFuture<Verified> verified = Futures.transformAsync(loaded,
+        new AsyncFunction<SignContext, Verified>() {
+          @Override
+          public ListenableFuture<Verified> apply(SignContext context) throws U2FException {
+            return Futures.immediateFuture(
+                server.verifySignResponse(signResponse, context, trace));
+          }
+        }, cpuExecutor);
+    return finishWhenDone(trace, Futures.transformAsync(verified,
+        new AsyncFunction<Verified, SecurityKeyData>() {
+          @Override
+          public ListenableFuture<SecurityKeyData> apply(Verified verified)
+              throws U2FException {
+            return Futures.immediateFuture(server.commitSignResponse(verified, null));
+          }
+        }, ioExecutor));
+  }
+
+  @Override
+  public ListenableFuture<List<SecurityKeyData>> getAllSecurityKeys(final String accountName) {
+    return ioExecutor.submit(new Callable<List<SecurityKeyData>>() {
+      @Override
+      public List<SecurityKeyData> call() {
+        return server.getAllSecurityKeys(accountName);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> removeSecurityKey(final String accountName,
+      final byte[] publicKey) {
+    return ioExecutor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws U2FException {
+        server.removeSecurityKey(accountName, publicKey);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Hands {@code trace} to its sink once {@code future} is done.
+   */
+  private static <T> ListenableFuture<T> finishWhenDone(final CeremonyTrace trace,
+      ListenableFuture<T> future) {
+    Futures.addCallback(future, new FutureCallback<T>() {
+      @Override
+      public void onSuccess(T result) {
+        trace.finish();
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        trace.fail(t);
+        trace.finish();
+      }
+    }, MoreExecutors.directExecutor());
+    return future;
+  }
+}
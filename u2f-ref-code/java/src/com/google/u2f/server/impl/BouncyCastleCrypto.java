@@ -6,10 +6,12 @@
 
 package com.google.u2f.server.impl;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.security.PublicKey;
 import java.security.Security;
 import java.security.Signature;
@@ -24,7 +26,11 @@ import org.bouncycastle.jce.spec.ECParameterSpec;
 import org.bouncycastle.jce.spec.ECPublicKeySpec;
 import org.bouncycastle.math.ec.ECPoint;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.u2f.U2FException;
+import com.google.u2f.codec.RawMessageCodec;
 import com.google.u2f.server.Crypto;
 
 public class BouncyCastleCrypto implements Crypto {
@@ -32,6 +38,52 @@ public class BouncyCastleCrypto implements Crypto {
     Security.addProvider(new BouncyCastleProvider());
   }
 
+  // User public keys are always points on P-256, so the curve parameters only need to be
+  // looked up once.
+  private static final X9ECParameters CURVE = SECNamedCurves.getByName("secp256r1");
+  private static final ECParameterSpec CURVE_SPEC =
+      new ECParameterSpec(CURVE.getCurve(), CURVE.getG(), CURVE.getN(), CURVE.getH());
+
+  private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  private static final CacheStats EMPTY_STATS = new CacheStats(0, 0, 0, 0, 0, 0);
+
+  /** Decoded user public keys, keyed by their encoded point, or null if caching is disabled. */
+  private final Cache<ByteBuffer, PublicKey> publicKeyCache;
+
+  /** Provider for signature engines, or null to use the highest-priority installed provider. */
+  private final Provider signatureProvider;
+
+  // Engines confined to the calling thread, or null if a new engine is created on every call.
+  // Signature and MessageDigest instances are not thread-safe, but they reset themselves on
+  // initVerify() and digest() respectively, so a thread can safely reuse its own instances.
+  private final ThreadLocal<Signature> signatures;
+  private final ThreadLocal<MessageDigest> digests;
+
+  public BouncyCastleCrypto() {
+    this(new Builder());
+  }
+
+  private BouncyCastleCrypto(Builder builder) {
+    if (builder.publicKeyCacheSize > 0) {
+      this.publicKeyCache = CacheBuilder.newBuilder()
+          .maximumSize(builder.publicKeyCacheSize)
+          .recordStats()
+          .build();
+    } else {
+      this.publicKeyCache = null;
+    }
+    this.signatureProvider = builder.signatureProvider;
+    if (builder.reuseEngines) {
+      this.signatures = new ThreadLocal<Signature>();
+      this.digests = new ThreadLocal<MessageDigest>();
+    } else {
+      this.signatures = null;
+      this.digests = null;
+    }
+  }
+
   @Override
   public boolean verifySignature(X509Certificate attestationCertificate, byte[] signedBytes,
       byte[] signature) throws U2FException {
@@ -42,7 +94,7 @@ public class BouncyCastleCrypto implements Crypto {
   public boolean verifySignature(PublicKey publicKey, byte[] signedBytes,
       byte[] signature) throws U2FException {
     try {
-      Signature ecdsaSignature = Signature.getInstance("SHA256withECDSA");
+      Signature ecdsaSignature = getSignature();
       ecdsaSignature.initVerify(publicKey);
       ecdsaSignature.update(signedBytes);
       return ecdsaSignature.verify(signature);
@@ -55,24 +107,70 @@ public class BouncyCastleCrypto implements Crypto {
     }
   }
 
+  @Override
+  public boolean verifyRegistrationSignature(X509Certificate attestationCertificate,
+      byte[] applicationSha256, byte[] challengeSha256, byte[] keyHandle, byte[] userPublicKey,
+      byte[] signature) throws U2FException {
+    try {
+      Signature ecdsaSignature = getSignature();
+      ecdsaSignature.initVerify(attestationCertificate.getPublicKey());
+      RawMessageCodec.updateRegistrationSignedBytes(
+          ecdsaSignature, applicationSha256, challengeSha256, keyHandle, userPublicKey);
+      return ecdsaSignature.verify(signature);
+    } catch (InvalidKeyException e) {
+      throw new U2FException("Error when verifying signature", e);
+    } catch (SignatureException e) {
+      throw new U2FException("Error when verifying signature", e);
+    } catch (NoSuchAlgorithmException e) {
+      throw new U2FException("Error when verifying signature", e);
+    }
+  }
+
+  @Override
+  public boolean verifyAuthenticationSignature(PublicKey publicKey, byte[] applicationSha256,
+      byte userPresence, int counter, byte[] challengeSha256, byte[] signature)
+      throws U2FException {
+    try {
+      Signature ecdsaSignature = getSignature();
+      ecdsaSignature.initVerify(publicKey);
+      RawMessageCodec.updateAuthenticateSignedBytes(
+          ecdsaSignature, applicationSha256, userPresence, counter, challengeSha256);
+      return ecdsaSignature.verify(signature);
+    } catch (InvalidKeyException e) {
+      throw new U2FException("Error when verifying signature", e);
+    } catch (SignatureException e) {
+      throw new U2FException("Error when verifying signature", e);
+    } catch (NoSuchAlgorithmException e) {
+      throw new U2FException("Error when verifying signature", e);
+    }
+  }
+
   @Override
   public PublicKey decodePublicKey(byte[] encodedPublicKey) throws U2FException {
+    if (publicKeyCache == null) {
+      return doDecodePublicKey(encodedPublicKey);
+    }
+
+    PublicKey publicKey = publicKeyCache.getIfPresent(ByteBuffer.wrap(encodedPublicKey));
+    if (publicKey == null) {
+      publicKey = doDecodePublicKey(encodedPublicKey);
+      // copy the key so that later changes to the caller's array can't corrupt the cache
+      publicKeyCache.put(ByteBuffer.wrap(encodedPublicKey.clone()), publicKey);
+    }
+    return publicKey;
+  }
+
+  private static PublicKey doDecodePublicKey(byte[] encodedPublicKey) throws U2FException {
     try {
-      X9ECParameters curve = SECNamedCurves.getByName("secp256r1");
       ECPoint point;
       try {
-        point = curve.getCurve().decodePoint(encodedPublicKey);
+        point = CURVE.getCurve().decodePoint(encodedPublicKey);
       } catch (RuntimeException e) {
         throw new U2FException("Couldn't parse user public key", e);
       }
 
       return KeyFactory.getInstance("ECDSA").generatePublic(
-          new ECPublicKeySpec(point,
-              new ECParameterSpec(
-                  curve.getCurve(),
-                  curve.getG(),
-                  curve.getN(),
-                  curve.getH())));
+          new ECPublicKeySpec(point, CURVE_SPEC));
     } catch (InvalidKeySpecException e) {
       throw new U2FException("Error when decoding public key", e);
     } catch (NoSuchAlgorithmException e) {
@@ -83,9 +181,94 @@ public class BouncyCastleCrypto implements Crypto {
   @Override
   public byte[] computeSha256(byte[] bytes) throws U2FException {
     try {
-      return MessageDigest.getInstance("SHA-256").digest(bytes);
+      return getDigest().digest(bytes);
     } catch (NoSuchAlgorithmException e) {
       throw new U2FException("Error when computing SHA-256", e);
     }
   }
+
+  private Signature getSignature() throws NoSuchAlgorithmException {
+    if (signatures == null) {
+      return newSignature();
+    }
+    Signature signature = signatures.get();
+    if (signature == null) {
+      signature = newSignature();
+      signatures.set(signature);
+    }
+    return signature;
+  }
+
+  private Signature newSignature() throws NoSuchAlgorithmException {
+    if (signatureProvider == null) {
+      return Signature.getInstance(SIGNATURE_ALGORITHM);
+    }
+    return Signature.getInstance(SIGNATURE_ALGORITHM, signatureProvider);
+  }
+
+  private MessageDigest getDigest() throws NoSuchAlgorithmException {
+    if (digests == null) {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    }
+    MessageDigest digest = digests.get();
+    if (digest == null) {
+      digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+      digests.set(digest);
+    }
+    return digest;
+  }
+
+  /**
+   * @return hit, miss and eviction counts of the decoded public key cache. All counts are zero
+   * if the cache is disabled.
+   */
+  public CacheStats getPublicKeyCacheStats() {
+    return publicKeyCache == null ? EMPTY_STATS : publicKeyCache.stats();
+  }
+
+  public static class Builder {
+    private long publicKeyCacheSize;
+    private boolean reuseEngines;
+    private Provider signatureProvider;
+
+    public Builder() {
+      this.publicKeyCacheSize = 0;
+      this.reuseEngines = false;
+      this.signatureProvider = null;
+    }
+
+    /**
+     * Keeps up to {@code publicKeyCacheSize} decoded user public keys around, evicting the least
+     * recently used ones first. A size of 0 (the default) disables the cache.
+     */
+    public Builder setPublicKeyCacheSize(long publicKeyCacheSize) {
+      if (publicKeyCacheSize < 0) {
+        throw new IllegalArgumentException("publicKeyCacheSize must not be negative");
+      }
+      this.publicKeyCacheSize = publicKeyCacheSize;
+      return this;
+    }
+
+    /**
+     * If set, each thread keeps its own {@link Signature} and {@link MessageDigest} engines and
+     * reuses them across calls instead of looking up and allocating new ones every time.
+     */
+    public Builder setReuseEngines(boolean reuseEngines) {
+      this.reuseEngines = reuseEngines;
+      return this;
+    }
+
+    /**
+     * Binds signature verification to {@code signatureProvider} instead of resolving the
+     * provider from the installed providers on every lookup.
+     */
+    public Builder setSignatureProvider(Provider signatureProvider) {
+      this.signatureProvider = signatureProvider;
+      return this;
+    }
+
+    public BouncyCastleCrypto build() {
+      return new BouncyCastleCrypto(this);
+    }
+  }
 }
@@ -6,61 +6,230 @@
 
 package com.google.u2f.server.impl;
 
+import java.nio.ByteBuffer;
 import java.security.cert.X509Certificate;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
-import com.google.common.base.MoreObjects;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
 import com.google.u2f.server.DataStore;
 import com.google.u2f.server.SessionIdGenerator;
 import com.google.u2f.server.data.EnrollSessionData;
 import com.google.u2f.server.data.SecurityKeyData;
 import com.google.u2f.server.data.SignSessionData;
 
+/**
+ * A {@link DataStore} that keeps everything in memory, safe to share between request threads.
+ *
+ * <p>Reads never block. Changes to the keys of an account are serialized by a lock striped by
+ * account name, so accounts don't contend with each other.
+ *
+ * <p>Sessions expire after a fixed time. Expired sessions are removed with a hashed timing wheel:
+ * each session id is queued in the slot of the tick after which it has expired, and each tick
+ * drains one slot, so only sessions that are due are visited. The wheel is advanced by the calls
+ * to this store rather than by a thread of its own.
+ */
 public class MemoryDataStore implements DataStore {
-  private final Set<X509Certificate> trustedCertificateDataBase = Sets.newHashSet();
-  private final HashMap<String, EnrollSessionData> sessionDataBase = Maps.newHashMap();
-  private final HashMap<String, List<SecurityKeyData>> securityKeyDataBase = Maps.newHashMap();
+  private static final int ACCOUNT_LOCK_STRIPES = 64;
+
+  private static final long DEFAULT_SESSION_TTL_MINUTES = 5;
+  // must be a power of two
+  private static final int EXPIRY_WHEEL_SLOTS = 64;
+
+  private final Set<X509Certificate> trustedCertificateDataBase = Sets.newConcurrentHashSet();
+  private final ConcurrentHashMap<String, StoredSession> sessionDataBase =
+      new ConcurrentHashMap<String, StoredSession>();
+  private final ConcurrentHashMap<String, AccountKeys> securityKeyDataBase =
+      new ConcurrentHashMap<String, AccountKeys>();
+  private final Striped<Lock> accountLocks = Striped.lock(ACCOUNT_LOCK_STRIPES);
   private final SessionIdGenerator sessionIdGenerator;
 
+  private final Ticker ticker;
+  private final long startNanos;
+  private final long sessionTtlNanos;
+  private final long expiryTickNanos;
+  private final List<Queue<String>> expiryWheel;
+  private final AtomicLong expiredThroughTick = new AtomicLong();
+
   public MemoryDataStore(SessionIdGenerator sessionIdGenerator) {
-	  this.sessionIdGenerator = sessionIdGenerator;
+	  this(sessionIdGenerator, DEFAULT_SESSION_TTL_MINUTES, TimeUnit.MINUTES);
+  }
+
+  public MemoryDataStore(SessionIdGenerator sessionIdGenerator, long sessionTtl, TimeUnit unit) {
+    this(sessionIdGenerator, sessionTtl, unit, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  MemoryDataStore(SessionIdGenerator sessionIdGenerator, long sessionTtl, TimeUnit unit,
+      Ticker ticker) {
+    if (sessionTtl <= 0) {
+      throw new IllegalArgumentException("sessionTtl must be positive");
+    }
+    this.sessionIdGenerator = sessionIdGenerator;
+    this.ticker = ticker;
+    this.startNanos = ticker.read();
+    this.sessionTtlNanos = unit.toNanos(sessionTtl);
+    // half a turn of the wheel spans the TTL, so a slot only ever holds sessions of one tick
+    this.expiryTickNanos = Math.max(1, sessionTtlNanos / (EXPIRY_WHEEL_SLOTS / 2));
+    ImmutableList.Builder<Queue<String>> expiryWheel = ImmutableList.builder();
+    for (int i = 0; i < EXPIRY_WHEEL_SLOTS; i++) {
+      expiryWheel.add(new ConcurrentLinkedQueue<String>());
+    }
+    this.expiryWheel = expiryWheel.build();
   }
 
   @Override
   public String storeSessionData(EnrollSessionData sessionData) {
 	String sessionId = sessionIdGenerator.generateSessionId(sessionData.getAccountName());
-    sessionDataBase.put(sessionId, sessionData);
+    long expiresAt = now() + sessionTtlNanos;
+    sessionDataBase.put(sessionId, new StoredSession(sessionData, expiresAt));
+    scheduleExpiry(sessionId, expiresAt);
     return sessionId;
   }
 
   @Override
   public EnrollSessionData getEnrollSessionData(String sessionId) {
-    return sessionDataBase.get(sessionId);
+    long now = now();
+    StoredSession session = sessionDataBase.get(sessionId);
+    return session == null || session.isExpired(now) ? null : session.sessionData;
   }
 
   @Override
   public SignSessionData getSignSessionData(String sessionId) {
-    return (SignSessionData) sessionDataBase.get(sessionId);
+    return (SignSessionData) getEnrollSessionData(sessionId);
+  }
+
+  @Override
+  public EnrollSessionData consumeEnrollSessionData(String sessionId) {
+    long now = now();
+    StoredSession session = sessionDataBase.remove(sessionId);
+    return session == null || session.isExpired(now) ? null : session.sessionData;
+  }
+
+  @Override
+  public SignSessionData consumeSignSessionData(String sessionId) {
+    long now = now();
+    StoredSession session = sessionDataBase.get(sessionId);
+    if (session == null || !(session.sessionData instanceof SignSessionData)) {
+      return null;
+    }
+    // only one of several concurrent callers removes this very session
+    if (!sessionDataBase.remove(sessionId, session) || session.isExpired(now)) {
+      return null;
+    }
+    return (SignSessionData) session.sessionData;
+  }
+
+  /**
+   * @return the current time on the expiry wheel, after removing the sessions that expired by
+   * then
+   */
+  private long now() {
+    long now = ticker.read() - startNanos;
+    long tick = now / expiryTickNanos;
+    long expiredTick = expiredThroughTick.get();
+    if (tick > expiredTick && expiredThroughTick.compareAndSet(expiredTick, tick)) {
+      // a full turn of the wheel drains every slot
+      for (long t = Math.max(expiredTick + 1, tick - EXPIRY_WHEEL_SLOTS + 1); t <= tick; t++) {
+        expireSlot(t, now);
+      }
+    }
+    return now;
+  }
+
+  private void scheduleExpiry(String sessionId, long expiresAt) {
+    expiryWheel.get(slot(expiresAt / expiryTickNanos + 1)).add(sessionId);
+  }
+
+  private void expireSlot(long tick, long now) {
+    Queue<String> slot = expiryWheel.get(slot(tick));
+    List<String> notDue = null;
+    String sessionId;
+    while ((sessionId = slot.poll()) != null) {
+      StoredSession session = sessionDataBase.get(sessionId);
+      if (session == null) {
+        // consumed already
+        continue;
+      }
+      if (session.isExpired(now)) {
+        sessionDataBase.remove(sessionId, session);
+      } else {
+        // the id was stored again since it was queued
+        if (notDue == null) {
+          notDue = Lists.newArrayList();
+        }
+        notDue.add(sessionId);
+      }
+    }
+    if (notDue != null) {
+      for (String id : notDue) {
+        StoredSession session = sessionDataBase.get(id);
+        if (session != null) {
+          scheduleExpiry(id, session.expiresAt);
+        }
+      }
+    }
+  }
+
+  private static int slot(long tick) {
+    return (int) (tick & (EXPIRY_WHEEL_SLOTS - 1));
+  }
+
+  /**
+   * @return the number of sessions held, including expired ones not removed yet
+   */
+  @VisibleForTesting
+  int getSessionCount() {
+    return sessionDataBase.size();
   }
 
   @Override
   public void addSecurityKeyData(String accountName, SecurityKeyData securityKeyData) {
-    List<SecurityKeyData> tokens = getSecurityKeyData(accountName);
-    tokens.add(securityKeyData);
-    securityKeyDataBase.put(accountName, tokens);
+    Lock lock = accountLocks.get(accountName);
+    lock.lock();
+    try {
+      AccountKeys keys = securityKeyDataBase.get(accountName);
+      securityKeyDataBase.put(accountName,
+          (keys == null ? AccountKeys.EMPTY : keys).with(securityKeyData));
+    } finally {
+      lock.unlock();
+    }
   }
 
   @Override
   public List<SecurityKeyData> getSecurityKeyData(String accountName) {
-    return MoreObjects.firstNonNull(
-        securityKeyDataBase.get(accountName),
-        Lists.<SecurityKeyData>newArrayList());
+    AccountKeys keys = securityKeyDataBase.get(accountName);
+    if (keys == null) {
+      return Lists.newArrayList();
+    }
+    return Lists.newArrayList(keys.byPublicKey.values());
+  }
+
+  @Override
+  public SecurityKeyData getSecurityKeyDataByPublicKey(String accountName, byte[] publicKey) {
+    AccountKeys keys = securityKeyDataBase.get(accountName);
+    return keys == null ? null : keys.byPublicKey.get(ByteBuffer.wrap(publicKey));
+  }
+
+  @Override
+  public SecurityKeyData getSecurityKeyDataByKeyHandle(String accountName, byte[] keyHandle) {
+    AccountKeys keys = securityKeyDataBase.get(accountName);
+    return keys == null ? null : keys.byKeyHandle.get(ByteBuffer.wrap(keyHandle));
   }
 
   @Override
@@ -75,24 +244,100 @@ public class MemoryDataStore implements DataStore {
 
   @Override
   public void removeSecurityKey(String accountName, byte[] publicKey) {
-    List<SecurityKeyData> tokens = getSecurityKeyData(accountName);
-    for (SecurityKeyData token : tokens) {
-      if (Arrays.equals(token.getPublicKey(), publicKey)) {
-        tokens.remove(token);
-        break;
+    Lock lock = accountLocks.get(accountName);
+    lock.lock();
+    try {
+      AccountKeys keys = securityKeyDataBase.get(accountName);
+      if (keys != null) {
+        securityKeyDataBase.put(accountName, keys.without(publicKey));
       }
+    } finally {
+      lock.unlock();
     }
   }
 
   @Override
   public void updateSecurityKeyCounter(String accountName, byte[] publicKey,
       int newCounterValue) {
-    List<SecurityKeyData> tokens = getSecurityKeyData(accountName);
-    for (SecurityKeyData token : tokens) {
-      if (Arrays.equals(token.getPublicKey(), publicKey)) {
+    Lock lock = accountLocks.get(accountName);
+    lock.lock();
+    try {
+      SecurityKeyData token = getSecurityKeyDataByPublicKey(accountName, publicKey);
+      if (token != null) {
         token.setCounter(newCounterValue);
-        break;
       }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean compareAndSetSecurityKeyCounter(String accountName, byte[] publicKey,
+      int expectedCounterValue, int newCounterValue) {
+    Lock lock = accountLocks.get(accountName);
+    lock.lock();
+    try {
+      SecurityKeyData token = getSecurityKeyDataByPublicKey(accountName, publicKey);
+      if (token == null || token.getCounter() != expectedCounterValue) {
+        return false;
+      }
+      token.setCounter(newCounterValue);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static class StoredSession {
+    private final EnrollSessionData sessionData;
+    private final long expiresAt;
+
+    StoredSession(EnrollSessionData sessionData, long expiresAt) {
+      this.sessionData = sessionData;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isExpired(long now) {
+      return now >= expiresAt;
+    }
+  }
+
+  /**
+   * The security keys of one account, indexed by public key and by key handle. Iterating
+   * {@link #byPublicKey} yields the keys in the order they were added.
+   *
+   * <p>Instances are never modified, so readers don't need the account lock; changes publish a
+   * new instance instead. Only the counters of the keys themselves change in place.
+   */
+  private static class AccountKeys {
+    static final AccountKeys EMPTY = new AccountKeys(
+        ImmutableMap.<ByteBuffer, SecurityKeyData>of());
+
+    private final ImmutableMap<ByteBuffer, SecurityKeyData> byPublicKey;
+    private final ImmutableMap<ByteBuffer, SecurityKeyData> byKeyHandle;
+
+    private AccountKeys(Map<ByteBuffer, SecurityKeyData> byPublicKey) {
+      this.byPublicKey = ImmutableMap.copyOf(byPublicKey);
+      Map<ByteBuffer, SecurityKeyData> byKeyHandle = Maps.newHashMap();
+      for (SecurityKeyData securityKeyData : byPublicKey.values()) {
+        byKeyHandle.put(ByteBuffer.wrap(securityKeyData.getKeyHandle()), securityKeyData);
+      }
+      this.byKeyHandle = ImmutableMap.copyOf(byKeyHandle);
+    }
+
+    AccountKeys with(SecurityKeyData securityKeyData) {
+      LinkedHashMap<ByteBuffer, SecurityKeyData> keys = Maps.newLinkedHashMap(byPublicKey);
+      // a key registered again replaces its earlier registration
+      ByteBuffer publicKey = ByteBuffer.wrap(securityKeyData.getPublicKey());
+      keys.remove(publicKey);
+      keys.put(publicKey, securityKeyData);
+      return new AccountKeys(keys);
+    }
+
+    AccountKeys without(byte[] publicKey) {
+      LinkedHashMap<ByteBuffer, SecurityKeyData> keys = Maps.newLinkedHashMap(byPublicKey);
+      keys.remove(ByteBuffer.wrap(publicKey));
+      return new AccountKeys(keys);
     }
   }
 }
@@ -0,0 +1,148 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.u2f.U2FException;
+import com.google.u2f.server.DataStore;
+import com.google.u2f.server.SessionKeyProvider;
+import com.google.u2f.server.data.EnrollSessionData;
+import com.google.u2f.server.data.SecurityKeyData;
+import com.google.u2f.server.data.SignSessionData;
+
+/**
+ * A {@link DataStore} that keeps no session state: each session is sealed into its own id with a
+ * {@link SessionDataCodec}, and unsealed again when the id comes back. Any server sharing the
+ * same {@link SessionKeyProvider} can finish a ceremony another one started, without a shared
+ * session store or a write per request. Security keys and trusted certificates are left to the
+ * wrapped store.
+ *
+ * <p>Sessions expire a fixed time after they were created. Until then a session id can't be
+ * revoked, so the same id may be used more than once; {@link #consumeEnrollSessionData} and
+ * {@link #consumeSignSessionData} can't prevent that. Replayed sign responses are still caught by
+ * the counter check.
+ */
+public class SealedSessionDataStore implements DataStore {
+  private static final Logger Log = Logger.getLogger(SealedSessionDataStore.class.getName());
+
+  private final DataStore delegate;
+  private final SessionDataCodec codec;
+  private final long sessionTtlMillis;
+
+  /**
+   * @param delegate stores everything but sessions
+   * @param sessionTtl how long sessions stay valid after they are created. Servers sharing
+   *     sessions should have their clocks synchronized much more closely than this.
+   */
+  public SealedSessionDataStore(DataStore delegate, SessionKeyProvider keyProvider,
+      long sessionTtl, TimeUnit unit) {
+    if (sessionTtl <= 0) {
+      throw new IllegalArgumentException("sessionTtl must be positive");
+    }
+    this.delegate = checkNotNull(delegate, "delegate");
+    this.codec = new SessionDataCodec(keyProvider);
+    this.sessionTtlMillis = unit.toMillis(sessionTtl);
+  }
+
+  @Override
+  public String storeSessionData(EnrollSessionData sessionData) {
+    try {
+      return codec.encode(sessionData);
+    } catch (U2FException e) {
+      throw new IllegalStateException("Cannot seal session data", e);
+    }
+  }
+
+  @Override
+  public EnrollSessionData getEnrollSessionData(String sessionId) {
+    EnrollSessionData sessionData;
+    try {
+      sessionData = codec.decode(sessionId);
+    } catch (U2FException e) {
+      Log.log(Level.FINE, "Rejected session id", e);
+      return null;
+    }
+    // Also reject sessions from the future, in case a server's clock is off.
+    long age = System.currentTimeMillis() - sessionData.getCreationTime();
+    if (Math.abs(age) > sessionTtlMillis) {
+      return null;
+    }
+    return sessionData;
+  }
+
+  @Override
+  public SignSessionData getSignSessionData(String sessionId) {
+    EnrollSessionData sessionData = getEnrollSessionData(sessionId);
+    return sessionData instanceof SignSessionData ? (SignSessionData) sessionData : null;
+  }
+
+  @Override
+  public EnrollSessionData consumeEnrollSessionData(String sessionId) {
+    return getEnrollSessionData(sessionId);
+  }
+
+  @Override
+  public SignSessionData consumeSignSessionData(String sessionId) {
+    return getSignSessionData(sessionId);
+  }
+
+  @Override
+  public void addTrustedCertificate(X509Certificate certificate) {
+    delegate.addTrustedCertificate(certificate);
+  }
+
+  @Override
+  public Set<X509Certificate> getTrustedCertificates() {
+    return delegate.getTrustedCertificates();
+  }
+
+  @Override
+  public void addSecurityKeyData(String accountName, SecurityKeyData securityKeyData) {
+    delegate.addSecurityKeyData(accountName, securityKeyData);
+  }
+
+  @Override
+  public List<SecurityKeyData> getSecurityKeyData(String accountName) {
+    return delegate.getSecurityKeyData(accountName);
+  }
+
+  @Override
+  public SecurityKeyData getSecurityKeyDataByPublicKey(String accountName, byte[] publicKey) {
+    return delegate.getSecurityKeyDataByPublicKey(accountName, publicKey);
+  }
+
+  @Override
+  public SecurityKeyData getSecurityKeyDataByKeyHandle(String accountName, byte[] keyHandle) {
+    return delegate.getSecurityKeyDataByKeyHandle(accountName, keyHandle);
+  }
+
+  @Override
+  public void removeSecurityKey(String accountName, byte[] publicKey) {
+    delegate.removeSecurityKey(accountName, publicKey);
+  }
+
+  @Override
+  public void updateSecurityKeyCounter(String accountName, byte[] publicKey,
+      int newCounterValue) {
+    delegate.updateSecurityKeyCounter(accountName, publicKey, newCounterValue);
+  }
+
+  @Override
+  public boolean compareAndSetSecurityKeyCounter(String accountName, byte[] publicKey,
+      int expectedCounterValue, int newCounterValue) {
+    return delegate.compareAndSetSecurityKeyCounter(
+        accountName, publicKey, expectedCounterValue, newCounterValue);
+  }
+}
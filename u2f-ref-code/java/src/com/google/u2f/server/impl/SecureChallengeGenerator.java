@@ -0,0 +1,189 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import com.google.u2f.server.ChallengeGenerator;
+
+/**
+ * Generates random challenges without contention between threads.
+ *
+ * <p>A single {@link SecureRandom} serializes its callers, and the platform default on Linux
+ * (NativePRNG) shares one lock across all its instances. Instead, each thread gets its own
+ * instance of a pure Java generator (SHA1PRNG by default), seeded from the system entropy source,
+ * and optionally reseeded after a fixed number of challenges.
+ */
+public class SecureChallengeGenerator implements ChallengeGenerator {
+  // Used for its generateSeed(), which reads the system entropy source.
+  private static final SecureRandom SEED_SOURCE = new SecureRandom();
+
+  private final int challengeLength;
+  private final String algorithm;
+  private final long reseedInterval;
+  private final int batchSize;
+  private final int seedLength;
+
+  private final ThreadLocal<Generator> generators = new ThreadLocal<Generator>() {
+    @Override
+    protected Generator initialValue() {
+      return new Generator();
+    }
+  };
+
+  public SecureChallengeGenerator() {
+    this(new Builder());
+  }
+
+  private SecureChallengeGenerator(Builder builder) {
+    this.challengeLength = builder.challengeLength;
+    this.algorithm = builder.algorithm;
+    this.reseedInterval = builder.reseedInterval;
+    this.batchSize = builder.batchSize;
+    this.seedLength = builder.seedLength;
+    // Fail here rather than on the first challenge if the algorithm is not available.
+    newRandom();
+  }
+
+  @Override
+  public byte[] generateChallenge(String accountName) {
+    return generators.get().next();
+  }
+
+  private SecureRandom newRandom() {
+    try {
+      return SecureRandom.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("No SecureRandom for " + algorithm, e);
+    }
+  }
+
+  /**
+   * The state of one thread.
+   */
+  private class Generator {
+    private final SecureRandom random = newRandom();
+    // Challenges generated ahead of time, handed out from position on, or null if batching is
+    // disabled.
+    private final byte[] batch = batchSize > 1 ? new byte[batchSize * challengeLength] : null;
+    private int position;
+    private long generatedSinceSeed;
+
+    Generator() {
+      // Instances of SHA1PRNG seed themselves on first use, but they are seeded explicitly here
+      // so that all generators draw from the same source.
+      random.setSeed(SEED_SOURCE.generateSeed(seedLength));
+      position = batch == null ? 0 : batch.length;
+    }
+
+    byte[] next() {
+      byte[] challenge = new byte[challengeLength];
+      if (batch == null) {
+        maybeReseed(1);
+        random.nextBytes(challenge);
+        return challenge;
+      }
+      if (position == batch.length) {
+        maybeReseed(batchSize);
+        random.nextBytes(batch);
+        position = 0;
+      }
+      System.arraycopy(batch, position, challenge, 0, challengeLength);
+      // Handed out challenges don't stay around in memory.
+      for (int i = position; i < position + challengeLength; i++) {
+        batch[i] = 0;
+      }
+      position += challengeLength;
+      return challenge;
+    }
+
+    private void maybeReseed(int challenges) {
+      generatedSinceSeed += challenges;
+      if (reseedInterval > 0 && generatedSinceSeed > reseedInterval) {
+        // setSeed() adds to the existing seed rather than replacing it.
+        random.setSeed(SEED_SOURCE.generateSeed(seedLength));
+        generatedSinceSeed = challenges;
+      }
+    }
+  }
+
+  public static class Builder {
+    private int challengeLength;
+    private String algorithm;
+    private long reseedInterval;
+    private int batchSize;
+    private int seedLength;
+
+    public Builder() {
+      this.challengeLength = 32;
+      this.algorithm = "SHA1PRNG";
+      this.reseedInterval = 1 << 20;
+      this.batchSize = 1;
+      this.seedLength = 32;
+    }
+
+    /**
+     * Sets the number of bytes per challenge, 32 by default.
+     */
+    public Builder setChallengeLength(int challengeLength) {
+      if (challengeLength < 8) {
+        throw new IllegalArgumentException("challengeLength must be at least 8");
+      }
+      this.challengeLength = challengeLength;
+      return this;
+    }
+
+    /**
+     * Sets the {@link SecureRandom} algorithm each thread uses. Should be one without shared
+     * state, so not NativePRNG.
+     */
+    public Builder setAlgorithm(String algorithm) {
+      this.algorithm = algorithm;
+      return this;
+    }
+
+    /**
+     * Mixes fresh system entropy into a thread's generator after every {@code reseedInterval}
+     * challenges it generated. 0 only seeds each generator once.
+     */
+    public Builder setReseedInterval(long reseedInterval) {
+      if (reseedInterval < 0) {
+        throw new IllegalArgumentException("reseedInterval must not be negative");
+      }
+      this.reseedInterval = reseedInterval;
+      return this;
+    }
+
+    /**
+     * Generates {@code batchSize} challenges at a time per thread, trading a little memory for
+     * fewer calls into the generator. 1 (the default) generates each challenge on demand.
+     */
+    public Builder setBatchSize(int batchSize) {
+      if (batchSize < 1) {
+        throw new IllegalArgumentException("batchSize must be positive");
+      }
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Sets the number of bytes of system entropy per seed, 32 by default.
+     */
+    public Builder setSeedLength(int seedLength) {
+      if (seedLength < 16) {
+        throw new IllegalArgumentException("seedLength must be at least 16");
+      }
+      this.seedLength = seedLength;
+      return this;
+    }
+
+    public SecureChallengeGenerator build() {
+      return new SecureChallengeGenerator(this);
+    }
+  }
+}
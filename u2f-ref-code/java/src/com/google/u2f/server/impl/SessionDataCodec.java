@@ -0,0 +1,266 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import com.google.u2f.U2FException;
+import com.google.u2f.codec.Base64Url;
+import com.google.u2f.server.SessionKeyProvider;
+import com.google.u2f.server.data.EnrollSessionData;
+import com.google.u2f.server.data.SignSessionData;
+
+/**
+ * Seals session data into a compact, self-contained token, so a server can hand the session to
+ * the client as its id instead of storing it.
+ *
+ * <p>A token is the websafe-base64 encoding of:
+ * <pre>
+ *   version     1 byte, currently 1
+ *   keyId       1 byte, see {@link SessionKeyProvider}
+ *   nonce       12 bytes
+ *   ciphertext  AES-GCM encryption of the session, with version and keyId as associated data
+ *   tag         16 bytes
+ * </pre>
+ * where the session is laid out as:
+ * <pre>
+ *   type          1 byte: 0 enroll, 1 sign for a public key, 2 sign for key handles
+ *   creationTime  8 bytes
+ *   challenge     1 byte length, bytes
+ *   accountName   2 byte length, UTF-8
+ *   appId         2 byte length, UTF-8
+ *   type 1:       publicKey as 1 byte length, bytes
+ *   type 2:       1 byte count, then each key handle as 1 byte length, bytes
+ * </pre>
+ * All integers are big-endian and unsigned. Tokens that were modified, or sealed with an unknown
+ * key, are rejected.
+ */
+public class SessionDataCodec {
+  public static final int VERSION = 1;
+
+  private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+  private static final int HEADER_LENGTH = 2;
+  private static final int NONCE_LENGTH = 12;
+  private static final int TAG_LENGTH = 16;
+
+  private static final byte TYPE_ENROLL = 0;
+  private static final byte TYPE_SIGN_PUBLIC_KEY = 1;
+  private static final byte TYPE_SIGN_KEY_HANDLES = 2;
+
+  static {
+    // AES-GCM is only built into the JDK from Java 8 on.
+    Security.addProvider(new BouncyCastleProvider());
+  }
+
+  private final SessionKeyProvider keyProvider;
+  private final SecureRandom random = new SecureRandom();
+
+  // Cipher instances are not thread-safe, but are reset by every init(), so a thread can safely
+  // reuse its own instance.
+  private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>();
+
+  public SessionDataCodec(SessionKeyProvider keyProvider) {
+    this.keyProvider = checkNotNull(keyProvider, "keyProvider");
+  }
+
+  public String encode(EnrollSessionData sessionData) throws U2FException {
+    byte[] plaintext = serialize(sessionData);
+    int keyId = keyProvider.getCurrentKeyId();
+    if (keyId < 0 || keyId > 0xFF) {
+      throw new U2FException("Session key id out of range: " + keyId);
+    }
+    SecretKey key = keyProvider.getKey(keyId);
+    if (key == null) {
+      throw new U2FException("No session key with id " + keyId);
+    }
+
+    byte[] token = new byte[HEADER_LENGTH + NONCE_LENGTH + plaintext.length + TAG_LENGTH];
+    token[0] = VERSION;
+    token[1] = (byte) keyId;
+    byte[] nonce = new byte[NONCE_LENGTH];
+    random.nextBytes(nonce);
+    System.arraycopy(nonce, 0, token, HEADER_LENGTH, NONCE_LENGTH);
+    try {
+      Cipher cipher = getCipher();
+      cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+      cipher.updateAAD(token, 0, HEADER_LENGTH);
+      cipher.doFinal(plaintext, 0, plaintext.length, token, HEADER_LENGTH + NONCE_LENGTH);
+    } catch (GeneralSecurityException e) {
+      throw new U2FException("Cannot seal session data", e);
+    }
+    return Base64.encodeBase64URLSafeString(token);
+  }
+
+  /**
+   * @return the session sealed into {@code token}, an {@link EnrollSessionData} or a
+   * {@link SignSessionData}
+   * @throws U2FException if {@code token} is malformed, was modified or was sealed with a key the
+   * {@link SessionKeyProvider} doesn't know
+   */
+  public EnrollSessionData decode(String token) throws U2FException {
+    byte[] bytes = Base64Url.decode(token);
+    if (bytes.length < HEADER_LENGTH + NONCE_LENGTH + TAG_LENGTH) {
+      throw new U2FException("Session token too short");
+    }
+    if (bytes[0] != VERSION) {
+      throw new U2FException("Unsupported session token version: " + bytes[0]);
+    }
+    int keyId = bytes[1] & 0xFF;
+    SecretKey key = keyProvider.getKey(keyId);
+    if (key == null) {
+      throw new U2FException("No session key with id " + keyId);
+    }
+
+    byte[] plaintext;
+    try {
+      Cipher cipher = getCipher();
+      cipher.init(Cipher.DECRYPT_MODE, key,
+          new GCMParameterSpec(TAG_LENGTH * 8, bytes, HEADER_LENGTH, NONCE_LENGTH));
+      cipher.updateAAD(bytes, 0, HEADER_LENGTH);
+      plaintext = cipher.doFinal(bytes, HEADER_LENGTH + NONCE_LENGTH,
+          bytes.length - HEADER_LENGTH - NONCE_LENGTH);
+    } catch (GeneralSecurityException e) {
+      throw new U2FException("Session token is not authentic", e);
+    }
+    return deserialize(plaintext);
+  }
+
+  private Cipher getCipher() throws GeneralSecurityException {
+    Cipher cipher = ciphers.get();
+    if (cipher == null) {
+      cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+      ciphers.set(cipher);
+    }
+    return cipher;
+  }
+
+  private static byte[] serialize(EnrollSessionData sessionData) throws U2FException {
+    byte[] challenge = sessionData.getChallenge();
+    byte[] accountName = sessionData.getAccountName().getBytes(StandardCharsets.UTF_8);
+    byte[] appId = sessionData.getAppId().getBytes(StandardCharsets.UTF_8);
+    byte[] publicKey = null;
+    List<byte[]> keyHandles = null;
+    byte type = TYPE_ENROLL;
+    int length = 1 + 8 + 1 + challenge.length + 2 + accountName.length + 2 + appId.length;
+    if (sessionData instanceof SignSessionData) {
+      SignSessionData signSessionData = (SignSessionData) sessionData;
+      publicKey = signSessionData.getPublicKey();
+      keyHandles = signSessionData.getKeyHandles();
+      if (keyHandles != null) {
+        type = TYPE_SIGN_KEY_HANDLES;
+        checkLength("key handles", keyHandles.size(), 0xFF);
+        length += 1;
+        for (byte[] keyHandle : keyHandles) {
+          length += 1 + keyHandle.length;
+        }
+      } else {
+        type = TYPE_SIGN_PUBLIC_KEY;
+        length += 1 + publicKey.length;
+      }
+    }
+
+    ByteBuffer out = ByteBuffer.allocate(length);
+    out.put(type);
+    out.putLong(sessionData.getCreationTime());
+    putShortField(out, "challenge", challenge);
+    putLongField(out, "accountName", accountName);
+    putLongField(out, "appId", appId);
+    if (type == TYPE_SIGN_PUBLIC_KEY) {
+      putShortField(out, "publicKey", publicKey);
+    } else if (type == TYPE_SIGN_KEY_HANDLES) {
+      out.put((byte) keyHandles.size());
+      for (byte[] keyHandle : keyHandles) {
+        putShortField(out, "keyHandle", keyHandle);
+      }
+    }
+    return out.array();
+  }
+
+  private static EnrollSessionData deserialize(byte[] plaintext) throws U2FException {
+    ByteBuffer in = ByteBuffer.wrap(plaintext);
+    try {
+      byte type = in.get();
+      long creationTime = in.getLong();
+      byte[] challenge = getShortField(in);
+      String accountName = new String(getLongField(in), StandardCharsets.UTF_8);
+      String appId = new String(getLongField(in), StandardCharsets.UTF_8);
+      EnrollSessionData sessionData;
+      switch (type) {
+        case TYPE_ENROLL:
+          sessionData = new EnrollSessionData(accountName, appId, challenge, creationTime);
+          break;
+        case TYPE_SIGN_PUBLIC_KEY:
+          sessionData = new SignSessionData(
+              accountName, appId, challenge, getShortField(in), creationTime);
+          break;
+        case TYPE_SIGN_KEY_HANDLES:
+          int count = in.get() & 0xFF;
+          List<byte[]> keyHandles = new ArrayList<byte[]>(count);
+          for (int i = 0; i < count; i++) {
+            keyHandles.add(getShortField(in));
+          }
+          sessionData =
+              new SignSessionData(accountName, appId, challenge, keyHandles, creationTime);
+          break;
+        default:
+          throw new U2FException("Unknown session type: " + type);
+      }
+      if (in.hasRemaining()) {
+        throw new U2FException("Session data ends with unexpected data");
+      }
+      return sessionData;
+    } catch (BufferUnderflowException e) {
+      throw new U2FException("Session data too short", e);
+    }
+  }
+
+  private static void putShortField(ByteBuffer out, String name, byte[] value)
+      throws U2FException {
+    checkLength(name, value.length, 0xFF);
+    out.put((byte) value.length).put(value);
+  }
+
+  private static void putLongField(ByteBuffer out, String name, byte[] value)
+      throws U2FException {
+    checkLength(name, value.length, 0xFFFF);
+    out.putShort((short) value.length).put(value);
+  }
+
+  private static byte[] getShortField(ByteBuffer in) {
+    byte[] value = new byte[in.get() & 0xFF];
+    in.get(value);
+    return value;
+  }
+
+  private static byte[] getLongField(ByteBuffer in) {
+    byte[] value = new byte[in.getShort() & 0xFFFF];
+    in.get(value);
+    return value;
+  }
+
+  private static void checkLength(String name, int length, int max) throws U2FException {
+    if (length > max) {
+      throw new U2FException(String.format("Too long to encode %s: %d > %d", name, length, max));
+    }
+  }
+}
@@ -6,14 +6,20 @@
 
 package com.google.u2f.server.impl;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import com.google.common.base.Joiner;
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.u2f.U2FConsts;
 import com.google.u2f.U2FException;
+import com.google.u2f.codec.ClientDataCodec;
+import com.google.u2f.codec.ClientDataReader;
 import com.google.u2f.codec.RawMessageCodec;
 import com.google.u2f.key.UserPresenceVerifier;
 import com.google.u2f.key.messages.AuthenticateResponse;
@@ -22,39 +28,42 @@ import com.google.u2f.server.ChallengeGenerator;
 import com.google.u2f.server.Crypto;
 import com.google.u2f.server.DataStore;
 import com.google.u2f.server.U2FServer;
+import com.google.u2f.server.data.AttestationMetadata;
+import com.google.u2f.server.data.BatchResult;
 import com.google.u2f.server.data.EnrollSessionData;
 import com.google.u2f.server.data.SecurityKeyData;
 import com.google.u2f.server.data.SecurityKeyData.Transports;
 import com.google.u2f.server.data.SignSessionData;
-import com.google.u2f.server.impl.attestation.u2f.U2fAttestation;
+import com.google.u2f.server.impl.attestation.AttestationAnalysisCache;
+import com.google.u2f.server.impl.attestation.AttestationMetadataIndex;
+import com.google.u2f.server.impl.attestation.AttestationTrustStore;
 import com.google.u2f.server.messages.RegisteredKey;
 import com.google.u2f.server.messages.RegistrationRequest;
 import com.google.u2f.server.messages.RegistrationResponse;
 import com.google.u2f.server.messages.SignResponse;
 import com.google.u2f.server.messages.U2fSignRequest;
+import com.google.u2f.trace.CeremonyTrace;
+import com.google.u2f.trace.CeremonyTracer;
+import com.google.u2f.trace.TraceField;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.binary.Hex;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.cert.CertificateEncodingException;
-import java.security.cert.CertificateParsingException;
+import java.nio.ByteBuffer;
+import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 public class U2FServerReferenceImpl implements U2FServer {
-  private static final String TYPE_PARAM = "typ";
-  private static final String CHALLENGE_PARAM = "challenge";
-  private static final String ORIGIN_PARAM = "origin";
-
-  // TODO: use these for channel id checks in verifyBrowserData
-  @SuppressWarnings("unused")
-  private static final String CHANNEL_ID_PARAM = "cid_pubkey";
-
+  // TODO: use this for channel id checks in verifyBrowserData
   @SuppressWarnings("unused")
   private static final String UNUSED_CHANNEL_ID = "";
 
@@ -63,20 +72,63 @@ public class U2FServerReferenceImpl implements U2FServer {
   private final ChallengeGenerator challengeGenerator;
   private final DataStore dataStore;
   private final Crypto crypto;
-  private final Set<String> allowedOrigins;
+  private final AppIdRegistry appIdRegistry;
+  private final CeremonyTracer ceremonyTracer;
+  private final ExecutorService batchExecutor;
+  // set if the trusted certificates don't come from the data store
+  private final AttestationTrustStore attestationTrustStore;
+  // the trust store built from the data store's trusted certificates, and the set it was built from
+  private volatile DataStoreTrust dataStoreTrust;
+  // vendor metadata of attestation certificates, or null if not configured
+  private final AttestationMetadataIndex attestationMetadataIndex;
 
   public U2FServerReferenceImpl(ChallengeGenerator challengeGenerator, DataStore dataStore,
       Crypto crypto, Set<String> origins) {
-    this.challengeGenerator = challengeGenerator;
-    this.dataStore = dataStore;
-    this.crypto = crypto;
-    this.allowedOrigins = canonicalizeOrigins(origins);
+    this(new Builder()
+        .setChallengeGenerator(challengeGenerator)
+        .setDataStore(dataStore)
+        .setCrypto(crypto)
+        .setOrigins(origins));
+  }
+
+  private U2FServerReferenceImpl(Builder builder) {
+    this.challengeGenerator = checkNotNull(builder.challengeGenerator, "challengeGenerator");
+    this.dataStore = checkNotNull(builder.dataStore, "dataStore");
+    this.crypto = checkNotNull(builder.crypto, "crypto");
+    if (builder.appIdRegistry != null) {
+      this.appIdRegistry = builder.appIdRegistry;
+    } else {
+      this.appIdRegistry =
+          new AppIdRegistry(crypto, checkNotNull(builder.origins, "origins"));
+    }
+    this.ceremonyTracer = builder.ceremonyTracer;
+    this.batchExecutor = builder.batchExecutor;
+    this.attestationTrustStore = builder.attestationTrustStore;
+    this.attestationMetadataIndex = builder.attestationMetadataIndex;
+  }
+
+  /**
+   * @return the registry holding the per-appId state of this server, e.g. to reload it
+   */
+  public AppIdRegistry getAppIdRegistry() {
+    return appIdRegistry;
   }
 
   @Override
   public RegistrationRequest getRegistrationRequest(String accountName, String appId) {
-    Log.info(">> getRegistrationRequest " + accountName);
+    CeremonyTrace trace = ceremonyTracer.start("getRegistrationRequest");
+    try {
+      return getRegistrationRequest(accountName, appId, trace);
+    } catch (RuntimeException e) {
+      trace.fail(e);
+      throw e;
+    } finally {
+      trace.finish();
+    }
+  }
 
+  RegistrationRequest getRegistrationRequest(String accountName, String appId,
+      CeremonyTrace trace) {
     byte[] challenge = challengeGenerator.generateChallenge(accountName);
     EnrollSessionData sessionData = new EnrollSessionData(accountName, appId, challenge);
 
@@ -84,11 +136,10 @@ public class U2FServerReferenceImpl implements U2FServer {
 
     String challengeBase64 = Base64.encodeBase64URLSafeString(challenge);
 
-    Log.info("-- Output --");
-    Log.info("  sessionId: " + sessionId);
-    Log.info("  challenge: " + Hex.encodeHexString(challenge));
-
-    Log.info("<< getRegistrationRequest " + accountName);
+    trace.add(TraceField.ACCOUNT_NAME, accountName)
+        .add(TraceField.APP_ID, appId)
+        .add(TraceField.SESSION_ID, sessionId)
+        .add(TraceField.CHALLENGE, challenge);
 
     return new RegistrationRequest(U2FConsts.U2F_V2, challengeBase64, appId, sessionId);
   }
@@ -96,28 +147,129 @@ public class U2FServerReferenceImpl implements U2FServer {
   @Override
   public SecurityKeyData processRegistrationResponse(
       RegistrationResponse registrationResponse, long currentTimeInMillis) throws U2FException {
-    Log.info(">> processRegistrationResponse");
+    CeremonyTrace trace = ceremonyTracer.start("processRegistrationResponse");
+    try {
+      return processRegistrationResponse(registrationResponse, currentTimeInMillis, trace);
+    } catch (U2FException | RuntimeException e) {
+      trace.fail(e);
+      throw e;
+    } finally {
+      trace.finish();
+    }
+  }
+
+  private SecurityKeyData processRegistrationResponse(RegistrationResponse registrationResponse,
+      long currentTimeInMillis, CeremonyTrace trace) throws U2FException {
+    return commitRegistrationResponse(
+        verifyRegistrationResponse(registrationResponse, currentTimeInMillis, trace));
+  }
 
+  @Override
+  public List<BatchResult> processRegistrationResponses(
+      List<RegistrationResponse> registrationResponses, final long currentTimeInMillis) {
+    List<Future<Verified>> verifications =
+        Lists.newArrayListWithCapacity(registrationResponses.size());
+    for (final RegistrationResponse registrationResponse : registrationResponses) {
+      verifications.add(batchExecutor.submit(new Callable<Verified>() {
+        @Override
+        public Verified call() throws U2FException {
+          CeremonyTrace trace = ceremonyTracer.start("processRegistrationResponse");
+          try {
+            return verifyRegistrationResponse(registrationResponse, currentTimeInMillis, trace);
+          } catch (U2FException | RuntimeException e) {
+            trace.fail(e);
+            trace.finish();
+            throw e;
+          }
+        }
+      }));
+    }
+
+    ImmutableList.Builder<BatchResult> results = ImmutableList.builder();
+    for (Future<Verified> verification : verifications) {
+      Verified verified;
+      try {
+        verified = getVerified(verification);
+      } catch (U2FException e) {
+        results.add(BatchResult.failure(e));
+        continue;
+      }
+      try {
+        results.add(BatchResult.success(commitRegistrationResponse(verified)));
+      } catch (RuntimeException e) {
+        verified.trace.fail(e);
+        results.add(BatchResult.failure(new U2FException("Could not store security key", e)));
+      } finally {
+        verified.trace.finish();
+      }
+    }
+    return results.build();
+  }
+
+  /**
+   * Checks a registration response without changing any stored security key, so that it can
+   * run concurrently with the verification of other responses.
+   */
+  private Verified verifyRegistrationResponse(RegistrationResponse registrationResponse,
+      long currentTimeInMillis, CeremonyTrace trace) throws U2FException {
+    return verifyRegistrationResponse(registrationResponse,
+        loadRegistrationResponse(registrationResponse, trace), currentTimeInMillis, trace);
+  }
+
+  /**
+   * Reads what verifying a registration response needs from the {@link DataStore}.
+   */
+  RegistrationContext loadRegistrationResponse(RegistrationResponse registrationResponse,
+      CeremonyTrace trace) throws U2FException {
     String sessionId = registrationResponse.getSessionId();
-    String clientDataBase64 = registrationResponse.getClientData();
-    String rawRegistrationDataBase64 = registrationResponse.getRegistrationData();
 
-    Log.info(">> rawRegistrationDataBase64: " + rawRegistrationDataBase64);
-    EnrollSessionData sessionData = dataStore.getEnrollSessionData(sessionId);
+    trace.add(TraceField.SESSION_ID, sessionId);
+    EnrollSessionData sessionData = dataStore.consumeEnrollSessionData(sessionId);
 
     if (sessionData == null) {
       throw new U2FException("Unknown session_id");
     }
 
-    String appId = sessionData.getAppId();
-    String clientData = new String(Base64.decodeBase64(clientDataBase64));
-    byte[] rawRegistrationData = Base64.decodeBase64(rawRegistrationDataBase64);
-    Log.info("-- Input --");
-    Log.info("  sessionId: " + sessionId);
-    Log.info("  challenge: " + Hex.encodeHexString(sessionData.getChallenge()));
-    Log.info("  accountName: " + sessionData.getAccountName());
-    Log.info("  clientData: " + clientData);
-    Log.info("  rawRegistrationData: " + Hex.encodeHexString(rawRegistrationData));
+    return new RegistrationContext(sessionData, getAttestationTrustStore());
+  }
+
+  /**
+   * Returns the trust store set on the builder, or else one built from
+   * {@link DataStore#getTrustedCertificates}. The latter is only rebuilt when the data store's
+   * trusted certificates change, so verdicts stay memoized across registrations.
+   */
+  private AttestationTrustStore getAttestationTrustStore() throws U2FException {
+    if (attestationTrustStore != null) {
+      return attestationTrustStore;
+    }
+    Set<X509Certificate> trustedCertificates = dataStore.getTrustedCertificates();
+    DataStoreTrust current = dataStoreTrust;
+    if (current != null && current.isBuiltFrom(trustedCertificates)) {
+      return current.trustStore;
+    }
+    // Copy first, so that certificates added meanwhile make the next call rebuild.
+    Set<X509Certificate> copy = ImmutableSet.copyOf(trustedCertificates);
+    current = new DataStoreTrust(trustedCertificates, copy, new AttestationTrustStore(copy));
+    dataStoreTrust = current;
+    return current.trustStore;
+  }
+
+  /**
+   * Checks a registration response against what {@link #loadRegistrationResponse} read. Does no
+   * I/O.
+   */
+  Verified verifyRegistrationResponse(RegistrationResponse registrationResponse,
+      RegistrationContext context, long currentTimeInMillis, CeremonyTrace trace)
+      throws U2FException {
+    EnrollSessionData sessionData = context.sessionData;
+
+    AppIdRegistry.Entry appIdEntry = appIdRegistry.get(sessionData.getAppId());
+    byte[] clientData = registrationResponse.decodeClientData();
+    byte[] rawRegistrationData = registrationResponse.decodeRegistrationData();
+    trace.add(TraceField.CHALLENGE, sessionData.getChallenge())
+        .add(TraceField.ACCOUNT_NAME, sessionData.getAccountName())
+        .add(TraceField.CLIENT_DATA, clientData)
+        .add(TraceField.REGISTRATION_DATA, rawRegistrationData);
 
     RegisterResponse registerResponse = RawMessageCodec.decodeRegisterResponse(rawRegistrationData);
 
@@ -127,39 +279,41 @@ public class U2FServerReferenceImpl implements U2FServer {
     byte[] signature = registerResponse.getSignature();
     List<Transports> transports = null;
     try {
-      transports = U2fAttestation.Parse(attestationCertificate).getTransports();
-    } catch (CertificateParsingException e) {
+      transports = AttestationAnalysisCache.getDefault().analyze(attestationCertificate)
+          .getTransports();
+    } catch (CertificateException e) {
       Log.warning("Could not parse transports extension " + e.getMessage());
     }
-
-    Log.info("-- Parsed rawRegistrationResponse --");
-    Log.info("  userPublicKey: " + Hex.encodeHexString(userPublicKey));
-    Log.info("  keyHandle: " + Hex.encodeHexString(keyHandle));
-    Log.info("  attestationCertificate: " + attestationCertificate.toString());
-    Log.info("  transports: " + transports);
-    try {
-      Log.info("  attestationCertificate bytes: "
-          + Hex.encodeHexString(attestationCertificate.getEncoded()));
-    } catch (CertificateEncodingException e) {
-      throw new U2FException("Cannot encode certificate", e);
+    AttestationMetadata attestationMetadata = null;
+    if (attestationMetadataIndex != null) {
+      attestationMetadata = lookupAttestationMetadata(attestationCertificate, appIdEntry);
+      if (attestationMetadata != null) {
+        transports = restrictTransports(transports, attestationMetadata.getTransports());
+      }
     }
-    Log.info("  signature: " + Hex.encodeHexString(signature));
 
-    byte[] appIdSha256 = crypto.computeSha256(appId.getBytes());
-    byte[] clientDataSha256 = crypto.computeSha256(clientData.getBytes());
-    byte[] signedBytes = RawMessageCodec.encodeRegistrationSignedBytes(
-        appIdSha256, clientDataSha256, keyHandle, userPublicKey);
+    trace.add(TraceField.USER_PUBLIC_KEY, userPublicKey)
+        .add(TraceField.KEY_HANDLE, keyHandle)
+        .add(TraceField.ATTESTATION_CERTIFICATE, attestationCertificate)
+        .add(TraceField.ATTESTATION_METADATA, attestationMetadata)
+        .add(TraceField.TRANSPORTS, transports)
+        .add(TraceField.SIGNATURE, signature);
 
-    Set<X509Certificate> trustedCertificates = dataStore.getTrustedCertificates();
-    if (!trustedCertificates.contains(attestationCertificate)) {
+    byte[] clientDataSha256 = crypto.computeSha256(clientData);
+
+    if (!context.trustStore.isTrusted(attestationCertificate)) {
+      if (appIdEntry.isTrustedAttestationRequired()) {
+        throw new U2FException("Attestation certificate is not trusted");
+      }
       Log.warning("attestion cert is not trusted");
     }
 
-    verifyBrowserData(
-        new JsonParser().parse(clientData), "navigator.id.finishEnrollment", sessionData);
+    verifyBrowserData(ClientDataReader.read(clientData), ClientDataCodec.REQUEST_TYPE_REGISTER,
+        sessionData, appIdEntry);
 
-    Log.info("Verifying signature of bytes " + Hex.encodeHexString(signedBytes));
-    if (!crypto.verifySignature(attestationCertificate, signedBytes, signature)) {
+    if (!crypto.verifyRegistrationSignature(attestationCertificate,
+        appIdEntry.getApplicationSha256(), clientDataSha256, keyHandle, userPublicKey,
+        signature)) {
       throw new U2FException("Signature is invalid");
     }
 
@@ -167,38 +321,109 @@ public class U2FServerReferenceImpl implements U2FServer {
     // We don't actually know what the counter value of the real device is - but it will
     // be something bigger (or equal) to 0, so subsequent signatures will check out ok.
     SecurityKeyData securityKeyData = new SecurityKeyData(currentTimeInMillis, transports,
-        keyHandle, userPublicKey, attestationCertificate, /* initial counter value */ 0);
-    dataStore.addSecurityKeyData(sessionData.getAccountName(), securityKeyData);
+        keyHandle, userPublicKey, attestationCertificate, attestationMetadata,
+        /* initial counter value */ 0);
+
+    return new Verified(sessionData.getAccountName(), securityKeyData, 0, 0, trace);
+  }
+
+  /**
+   * @return the vendor metadata of {@code attestationCertificate}, or null if the index has none
+   * @throws U2FException if the index has none and the appId requires trusted attestation
+   */
+  private AttestationMetadata lookupAttestationMetadata(X509Certificate attestationCertificate,
+      AppIdRegistry.Entry appIdEntry) throws U2FException {
+    AttestationMetadata attestationMetadata = null;
+    try {
+      attestationMetadata = attestationMetadataIndex.lookup(attestationCertificate);
+    } catch (CertificateException | IOException e) {
+      Log.warning("Could not look up attestation metadata " + e.getMessage());
+    }
+    if (attestationMetadata == null) {
+      if (appIdEntry.isTrustedAttestationRequired()) {
+        throw new U2FException("Attestation certificate has no vendor metadata");
+      }
+      Log.warning("attestation cert has no vendor metadata");
+    }
+    return attestationMetadata;
+  }
+
+  /**
+   * @return the transports the attestation certificate lists that its model supports, or all the
+   *     transports its model supports if the certificate doesn't list any
+   */
+  static List<Transports> restrictTransports(List<Transports> transports,
+      List<Transports> supportedTransports) {
+    if (supportedTransports == null) {
+      return transports;
+    }
+    if (transports == null) {
+      return supportedTransports;
+    }
+    List<Transports> restricted = Lists.newArrayListWithCapacity(transports.size());
+    for (Transports transport : transports) {
+      if (supportedTransports.contains(transport)) {
+        restricted.add(transport);
+      } else {
+        Log.warning("Dropping transport " + transport + " not supported by the model");
+      }
+    }
+    return restricted;
+  }
 
-    Log.info("<< processRegistrationResponse");
-    return securityKeyData;
+  SecurityKeyData commitRegistrationResponse(Verified verified) {
+    dataStore.addSecurityKeyData(verified.accountName, verified.securityKeyData);
+    return verified.securityKeyData;
   }
 
   @Override
   public U2fSignRequest getSignRequest(String accountName, String appId) throws U2FException {
-    Log.info(">> getSignRequest " + accountName);
+    CeremonyTrace trace = ceremonyTracer.start("getSignRequest");
+    try {
+      return getSignRequest(accountName, appId, trace);
+    } catch (RuntimeException e) {
+      trace.fail(e);
+      throw e;
+    } finally {
+      trace.finish();
+    }
+  }
 
+  U2fSignRequest getSignRequest(String accountName, String appId, CeremonyTrace trace) {
     List<SecurityKeyData> securityKeyDataList = dataStore.getSecurityKeyData(accountName);
 
     byte[] challenge = challengeGenerator.generateChallenge(accountName);
     String challengeBase64 = Base64.encodeBase64URLSafeString(challenge);
 
-    ImmutableList.Builder<RegisteredKey> registeredKeys = ImmutableList.builder();
-    Log.info("  challenge: " + Hex.encodeHexString(challenge));
+    if (securityKeyDataList.isEmpty()) {
+      // no key could ever answer, so don't store a session for it
+      trace.add(TraceField.ACCOUNT_NAME, accountName)
+          .add(TraceField.APP_ID, appId)
+          .add(TraceField.CHALLENGE, challenge);
+      return new U2fSignRequest(challengeBase64, ImmutableList.<RegisteredKey>of());
+    }
+
+    List<byte[]> keyHandles = Lists.newArrayListWithCapacity(securityKeyDataList.size());
     for (SecurityKeyData securityKeyData : securityKeyDataList) {
-      SignSessionData sessionData =
-          new SignSessionData(accountName, appId, challenge, securityKeyData.getPublicKey());
-      String sessionId = dataStore.storeSessionData(sessionData);
+      keyHandles.add(securityKeyData.getKeyHandle());
+    }
+
+    // one session, shared by all the keys offered to the client
+    SignSessionData sessionData = new SignSessionData(accountName, appId, challenge, keyHandles);
+    String sessionId = dataStore.storeSessionData(sessionData);
 
+    ImmutableList.Builder<RegisteredKey> registeredKeys = ImmutableList.builder();
+    trace.add(TraceField.ACCOUNT_NAME, accountName)
+        .add(TraceField.APP_ID, appId)
+        .add(TraceField.CHALLENGE, challenge)
+        .add(TraceField.SESSION_ID, sessionId);
+    for (SecurityKeyData securityKeyData : securityKeyDataList) {
       byte[] keyHandle = securityKeyData.getKeyHandle();
       List<Transports> transports = securityKeyData.getTransports();
-      Log.info("-- Output --");
-      Log.info("  sessionId: " + sessionId);
-      Log.info("  keyHandle: " + Hex.encodeHexString(keyHandle));
+      trace.add(TraceField.KEY_HANDLE, keyHandle);
 
       String keyHandleBase64 = Base64.encodeBase64URLSafeString(keyHandle);
 
-      Log.info("<< getRegisteredKey " + accountName);
       registeredKeys.add(
           new RegisteredKey(U2FConsts.U2F_V2, keyHandleBase64, transports, appId, sessionId));
     }
@@ -208,45 +433,132 @@ public class U2FServerReferenceImpl implements U2FServer {
 
   @Override
   public SecurityKeyData processSignResponse(SignResponse signResponse) throws U2FException {
-    Log.info(">> processSignResponse");
+    CeremonyTrace trace = ceremonyTracer.start("processSignResponse");
+    try {
+      return processSignResponse(signResponse, trace);
+    } catch (U2FException | RuntimeException e) {
+      trace.fail(e);
+      throw e;
+    } finally {
+      trace.finish();
+    }
+  }
+
+  private SecurityKeyData processSignResponse(SignResponse signResponse, CeremonyTrace trace)
+      throws U2FException {
+    return commitSignResponse(verifySignResponse(signResponse, trace), null);
+  }
+
+  @Override
+  public List<BatchResult> processSignResponses(List<SignResponse> signResponses) {
+    List<Future<Verified>> verifications = Lists.newArrayListWithCapacity(signResponses.size());
+    for (final SignResponse signResponse : signResponses) {
+      verifications.add(batchExecutor.submit(new Callable<Verified>() {
+        @Override
+        public Verified call() throws U2FException {
+          CeremonyTrace trace = ceremonyTracer.start("processSignResponse");
+          try {
+            return verifySignResponse(signResponse, trace);
+          } catch (U2FException | RuntimeException e) {
+            trace.fail(e);
+            trace.finish();
+            throw e;
+          }
+        }
+      }));
+    }
+
+    // counters committed by earlier responses of this batch, by account and public key
+    Table<String, ByteBuffer, Integer> committedCounters = HashBasedTable.create();
+    ImmutableList.Builder<BatchResult> results = ImmutableList.builder();
+    for (Future<Verified> verification : verifications) {
+      Verified verified;
+      try {
+        verified = getVerified(verification);
+      } catch (U2FException e) {
+        results.add(BatchResult.failure(e));
+        continue;
+      }
+      try {
+        results.add(BatchResult.success(commitSignResponse(verified, committedCounters)));
+      } catch (U2FException e) {
+        verified.trace.fail(e);
+        results.add(BatchResult.failure(e));
+      } catch (RuntimeException e) {
+        verified.trace.fail(e);
+        results.add(BatchResult.failure(new U2FException("Could not update counter", e)));
+      } finally {
+        verified.trace.finish();
+      }
+    }
+    return results.build();
+  }
+
+  /**
+   * Checks a sign response without changing any stored security key, so that it can run
+   * concurrently with the verification of other responses.
+   */
+  private Verified verifySignResponse(SignResponse signResponse, CeremonyTrace trace)
+      throws U2FException {
+    return verifySignResponse(signResponse, loadSignResponse(signResponse, trace), trace);
+  }
 
+  /**
+   * Reads what verifying a sign response needs from the {@link DataStore}.
+   */
+  SignContext loadSignResponse(SignResponse signResponse, CeremonyTrace trace)
+      throws U2FException {
     String sessionId = signResponse.getSessionId();
-    String browserDataBase64 = signResponse.getClientData();
-    String rawSignDataBase64 = signResponse.getSignatureData();
 
-    SignSessionData sessionData = dataStore.getSignSessionData(sessionId);
+    trace.add(TraceField.SESSION_ID, sessionId);
+    SignSessionData sessionData = dataStore.consumeSignSessionData(sessionId);
 
     if (sessionData == null) {
       throw new U2FException("Unknown session_id");
     }
 
-    String appId = sessionData.getAppId();
-    SecurityKeyData securityKeyData = null;
-
-    for (SecurityKeyData temp : dataStore.getSecurityKeyData(sessionData.getAccountName())) {
-      if (Arrays.equals(sessionData.getPublicKey(), temp.getPublicKey())) {
-        securityKeyData = temp;
-        break;
+    SecurityKeyData securityKeyData;
+    if (sessionData.getPublicKey() != null) {
+      // a session created for a single key
+      securityKeyData = dataStore.getSecurityKeyDataByPublicKey(
+          sessionData.getAccountName(), sessionData.getPublicKey());
+    } else {
+      byte[] keyHandle = signResponse.decodeKeyHandle();
+      trace.add(TraceField.KEY_HANDLE, keyHandle);
+      if (!sessionData.containsKeyHandle(keyHandle)) {
+        throw new U2FException("Key handle was not part of the sign request");
       }
+      securityKeyData =
+          dataStore.getSecurityKeyDataByKeyHandle(sessionData.getAccountName(), keyHandle);
     }
 
     if (securityKeyData == null) {
       throw new U2FException("No security keys registered for this user");
     }
 
-    String browserData = new String(Base64.decodeBase64(browserDataBase64));
-    byte[] rawSignData = Base64.decodeBase64(rawSignDataBase64);
+    return new SignContext(sessionData, securityKeyData);
+  }
 
-    Log.info("-- Input --");
-    Log.info("  sessionId: " + sessionId);
-    Log.info("  publicKey: " + Hex.encodeHexString(securityKeyData.getPublicKey()));
-    Log.info("  challenge: " + Hex.encodeHexString(sessionData.getChallenge()));
-    Log.info("  accountName: " + sessionData.getAccountName());
-    Log.info("  browserData: " + browserData);
-    Log.info("  rawSignData: " + Hex.encodeHexString(rawSignData));
+  /**
+   * Checks a sign response against what {@link #loadSignResponse} read. Does no I/O.
+   */
+  Verified verifySignResponse(SignResponse signResponse, SignContext context,
+      CeremonyTrace trace) throws U2FException {
+    SignSessionData sessionData = context.sessionData;
+    SecurityKeyData securityKeyData = context.securityKeyData;
 
-    verifyBrowserData(
-        new JsonParser().parse(browserData), "navigator.id.getAssertion", sessionData);
+    AppIdRegistry.Entry appIdEntry = appIdRegistry.get(sessionData.getAppId());
+    byte[] browserData = signResponse.decodeClientData();
+    byte[] rawSignData = signResponse.decodeSignatureData();
+
+    trace.add(TraceField.USER_PUBLIC_KEY, securityKeyData.getPublicKey())
+        .add(TraceField.CHALLENGE, sessionData.getChallenge())
+        .add(TraceField.ACCOUNT_NAME, sessionData.getAccountName())
+        .add(TraceField.CLIENT_DATA, browserData)
+        .add(TraceField.SIGNATURE_DATA, rawSignData);
+
+    verifyBrowserData(ClientDataReader.read(browserData),
+        ClientDataCodec.REQUEST_TYPE_AUTHENTICATE, sessionData, appIdEntry);
 
     AuthenticateResponse authenticateResponse =
         RawMessageCodec.decodeAuthenticateResponse(rawSignData);
@@ -254,76 +566,119 @@ public class U2FServerReferenceImpl implements U2FServer {
     int counter = authenticateResponse.getCounter();
     byte[] signature = authenticateResponse.getSignature();
 
-    Log.info("-- Parsed rawSignData --");
-    Log.info("  userPresence: " + Integer.toHexString(userPresence & 0xFF));
-    Log.info("  counter: " + counter);
-    Log.info("  signature: " + Hex.encodeHexString(signature));
+    trace.add(TraceField.USER_PRESENCE, userPresence)
+        .add(TraceField.COUNTER, counter)
+        .add(TraceField.SIGNATURE, signature);
 
     if ((userPresence & UserPresenceVerifier.USER_PRESENT_FLAG) == 0) {
       throw new U2FException("User presence invalid during authentication");
     }
 
-    if (counter <= securityKeyData.getCounter()) {
+    // the counter is only read here; commitSignResponse stores it atomically
+    int storedCounter = securityKeyData.getCounter();
+    if (counter <= storedCounter) {
       throw new U2FException("Counter value smaller than expected!");
     }
 
-    byte[] appIdSha256 = crypto.computeSha256(appId.getBytes());
-    byte[] browserDataSha256 = crypto.computeSha256(browserData.getBytes());
-    byte[] signedBytes = RawMessageCodec.encodeAuthenticateSignedBytes(
-        appIdSha256, userPresence, counter, browserDataSha256);
+    byte[] browserDataSha256 = crypto.computeSha256(browserData);
 
-    Log.info("Verifying signature of bytes " + Hex.encodeHexString(signedBytes));
-    if (!crypto.verifySignature(
-            crypto.decodePublicKey(securityKeyData.getPublicKey()), signedBytes, signature)) {
+    if (!crypto.verifyAuthenticationSignature(
+            crypto.decodePublicKey(securityKeyData.getPublicKey()),
+            appIdEntry.getApplicationSha256(), userPresence, counter, browserDataSha256,
+            signature)) {
       throw new U2FException("Signature is invalid");
     }
 
-    dataStore.updateSecurityKeyCounter(
-        sessionData.getAccountName(), securityKeyData.getPublicKey(), counter);
-
-    Log.info("<< processSignResponse");
-    return securityKeyData;
+    return new Verified(
+        sessionData.getAccountName(), securityKeyData, storedCounter, counter, trace);
   }
 
-  private void verifyBrowserData(JsonElement browserDataAsElement, String messageType,
-      EnrollSessionData sessionData) throws U2FException {
-    if (!browserDataAsElement.isJsonObject()) {
-      throw new U2FException("browserdata has wrong format");
+  /**
+   * Stores the counter of a verified sign response, provided it is still larger than the stored
+   * one. The counter is compared and set atomically, so of two concurrent responses carrying the
+   * same counter only one is accepted.
+   *
+   * <p>{@code committedCounters} holds the counters stored by earlier responses of the same
+   * batch, which the security key loaded during verification doesn't reflect yet; it is null
+   * outside of a batch.
+   */
+  SecurityKeyData commitSignResponse(Verified verified,
+      Table<String, ByteBuffer, Integer> committedCounters) throws U2FException {
+    byte[] publicKey = verified.securityKeyData.getPublicKey();
+    ByteBuffer publicKeyBuffer = null;
+    int storedCounter = verified.storedCounter;
+    if (committedCounters != null) {
+      publicKeyBuffer = ByteBuffer.wrap(publicKey);
+      Integer committedCounter = committedCounters.get(verified.accountName, publicKeyBuffer);
+      if (committedCounter != null) {
+        if (verified.counter <= committedCounter) {
+          throw new U2FException("Counter value smaller than expected!");
+        }
+        storedCounter = committedCounter;
+      }
     }
 
-    JsonObject browserData = browserDataAsElement.getAsJsonObject();
+    while (!dataStore.compareAndSetSecurityKeyCounter(
+        verified.accountName, publicKey, storedCounter, verified.counter)) {
+      // another ceremony stored a counter since this one was verified
+      SecurityKeyData securityKeyData =
+          dataStore.getSecurityKeyDataByPublicKey(verified.accountName, publicKey);
+      if (securityKeyData == null) {
+        throw new U2FException("No security keys registered for this user");
+      }
+      storedCounter = securityKeyData.getCounter();
+      if (verified.counter <= storedCounter) {
+        throw new U2FException("Counter value smaller than expected!");
+      }
+    }
 
+    if (committedCounters != null) {
+      committedCounters.put(verified.accountName, publicKeyBuffer, verified.counter);
+    }
+    return verified.securityKeyData;
+  }
+
+  private static Verified getVerified(Future<Verified> verification) throws U2FException {
+    try {
+      return Uninterruptibles.getUninterruptibly(verification);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof U2FException) {
+        throw (U2FException) e.getCause();
+      }
+      throw new U2FException("Could not verify response", e.getCause());
+    }
+  }
+
+  private void verifyBrowserData(ClientDataReader browserData, String messageType,
+      EnrollSessionData sessionData, AppIdRegistry.Entry appIdEntry) throws U2FException {
     // check that the right "typ" parameter is present in the browserdata JSON
-    if (!browserData.has(TYPE_PARAM)) {
+    String type = browserData.getType();
+    if (type == null) {
       throw new U2FException("bad browserdata: missing 'typ' param");
     }
 
-    String type = browserData.get(TYPE_PARAM).getAsString();
     if (!messageType.equals(type)) {
       throw new U2FException("bad browserdata: bad type " + type);
     }
 
     // check that the right challenge is in the browserdata
-    if (!browserData.has(CHALLENGE_PARAM)) {
+    if (!browserData.hasChallenge()) {
       throw new U2FException("bad browserdata: missing 'challenge' param");
     }
 
-    if (browserData.has(ORIGIN_PARAM)) {
-      verifyOrigin(browserData.get(ORIGIN_PARAM).getAsString());
+    String origin = browserData.getOrigin();
+    if (origin != null) {
+      verifyOrigin(origin, appIdEntry.getAllowedOrigins());
     }
 
-    byte[] challengeFromBrowserData =
-        Base64.decodeBase64(browserData.get(CHALLENGE_PARAM).getAsString());
-
-
-    if (!Arrays.equals(challengeFromBrowserData, sessionData.getChallenge())) {
+    if (!browserData.challengeMatches(sessionData.getChallenge())) {
       throw new U2FException("wrong challenge signed in browserdata");
     }
 
     // TODO: Deal with ChannelID
   }
 
-  private void verifyOrigin(String origin) throws U2FException {
+  private void verifyOrigin(String origin, Set<String> allowedOrigins) throws U2FException {
     if (!allowedOrigins.contains(canonicalizeOrigin(origin))) {
       throw new U2FException(origin + " is not a recognized home origin for this backend"
           + Joiner.on(", ").join(allowedOrigins));
@@ -340,18 +695,6 @@ public class U2FServerReferenceImpl implements U2FServer {
     dataStore.removeSecurityKey(accountName, publicKey);
   }
 
-  private static Set<String> canonicalizeOrigins(Set<String> origins) {
-    ImmutableSet.Builder<String> result = ImmutableSet.builder();
-    for (String origin : origins) {
-      if (origin.startsWith("android:apk-key-hash:")) {
-        result.add(origin);
-      } else {
-        result.add(canonicalizeOrigin(origin));
-      }
-    }
-    return result.build();
-  }
-
   static String canonicalizeOrigin(String origin) {
     if (origin.startsWith("android:apk-key-hash:")) {
       return origin;
@@ -365,4 +708,177 @@ public class U2FServerReferenceImpl implements U2FServer {
     }
     return uri.getScheme() + "://" + uri.getAuthority();
   }
+
+  CeremonyTracer getCeremonyTracer() {
+    return ceremonyTracer;
+  }
+
+  /**
+   * What verifying a registration response needs from the {@link DataStore}.
+   */
+  static class RegistrationContext {
+    private final EnrollSessionData sessionData;
+    private final AttestationTrustStore trustStore;
+
+    private RegistrationContext(EnrollSessionData sessionData, AttestationTrustStore trustStore) {
+      this.sessionData = sessionData;
+      this.trustStore = trustStore;
+    }
+  }
+
+  /**
+   * A trust store built from the trusted certificates of the {@link DataStore}.
+   */
+  private static class DataStoreTrust {
+    // the set returned by the data store, which may change later, and the certificates it held
+    private final Set<X509Certificate> source;
+    private final Set<X509Certificate> certificates;
+    private final AttestationTrustStore trustStore;
+
+    private DataStoreTrust(Set<X509Certificate> source, Set<X509Certificate> certificates,
+        AttestationTrustStore trustStore) {
+      this.source = source;
+      this.certificates = certificates;
+      this.trustStore = trustStore;
+    }
+
+    boolean isBuiltFrom(Set<X509Certificate> trustedCertificates) {
+      // Data stores can only add trusted certificates, so an unchanged size means unchanged
+      // contents. Stores that return a new set every time are compared in full.
+      if (trustedCertificates == source) {
+        return trustedCertificates.size() == certificates.size();
+      }
+      return trustedCertificates.equals(certificates);
+    }
+  }
+
+  /**
+   * What verifying a sign response needs from the {@link DataStore}.
+   */
+  static class SignContext {
+    private final SignSessionData sessionData;
+    private final SecurityKeyData securityKeyData;
+
+    private SignContext(SignSessionData sessionData, SecurityKeyData securityKeyData) {
+      this.sessionData = sessionData;
+      this.securityKeyData = securityKeyData;
+    }
+  }
+
+  /**
+   * A response that passed verification, along with what committing it will store.
+   */
+  static class Verified {
+    private final String accountName;
+    private final SecurityKeyData securityKeyData;
+    // the counter stored when the response was verified, and the one it carries
+    private final int storedCounter;
+    private final int counter;
+    private final CeremonyTrace trace;
+
+    private Verified(String accountName, SecurityKeyData securityKeyData, int storedCounter,
+        int counter, CeremonyTrace trace) {
+      this.accountName = accountName;
+      this.securityKeyData = securityKeyData;
+      this.storedCounter = storedCounter;
+      this.counter = counter;
+      this.trace = trace;
+    }
+  }
+
+  public static class Builder {
+    private ChallengeGenerator challengeGenerator;
+    private DataStore dataStore;
+    private Crypto crypto;
+    private Set<String> origins;
+    private AppIdRegistry appIdRegistry;
+    private CeremonyTracer ceremonyTracer;
+    private ExecutorService batchExecutor;
+    private AttestationTrustStore attestationTrustStore;
+    private AttestationMetadataIndex attestationMetadataIndex;
+
+    public Builder() {
+      this.challengeGenerator = null;
+      this.dataStore = null;
+      this.crypto = null;
+      this.origins = null;
+      this.appIdRegistry = null;
+      this.ceremonyTracer = CeremonyTracer.DISABLED;
+      this.batchExecutor = MoreExecutors.newDirectExecutorService();
+      this.attestationTrustStore = null;
+      this.attestationMetadataIndex = null;
+    }
+
+    public Builder setChallengeGenerator(ChallengeGenerator challengeGenerator) {
+      this.challengeGenerator = challengeGenerator;
+      return this;
+    }
+
+    public Builder setDataStore(DataStore dataStore) {
+      this.dataStore = dataStore;
+      return this;
+    }
+
+    public Builder setCrypto(Crypto crypto) {
+      this.crypto = crypto;
+      return this;
+    }
+
+    /**
+     * Sets the origins accepted for every appId. Not needed if an {@link AppIdRegistry} is set.
+     */
+    public Builder setOrigins(Set<String> origins) {
+      this.origins = origins;
+      return this;
+    }
+
+    /**
+     * Sets the registry of per-appId state. If not set, a registry that accepts the origins
+     * given to {@link #setOrigins} for every appId is used.
+     */
+    public Builder setAppIdRegistry(AppIdRegistry appIdRegistry) {
+      this.appIdRegistry = appIdRegistry;
+      return this;
+    }
+
+    /**
+     * Sets where the details of each ceremony are reported. Tracing is disabled by default.
+     */
+    public Builder setCeremonyTracer(CeremonyTracer ceremonyTracer) {
+      this.ceremonyTracer = ceremonyTracer;
+      return this;
+    }
+
+    /**
+     * Sets the executor that verifies the responses of a batch, e.g. a {@code ForkJoinPool}
+     * sized to the number of cores. By default, batches are verified on the calling thread.
+     */
+    public Builder setBatchExecutor(ExecutorService batchExecutor) {
+      this.batchExecutor = batchExecutor;
+      return this;
+    }
+
+    /**
+     * Sets the certificates attestation certificates are checked against. If not set, the
+     * trusted certificates of the {@link DataStore} are used.
+     */
+    public Builder setAttestationTrustStore(AttestationTrustStore attestationTrustStore) {
+      this.attestationTrustStore = attestationTrustStore;
+      return this;
+    }
+
+    /**
+     * Sets the vendor metadata registered keys are enriched with, see
+     * {@link SecurityKeyData#getAttestationMetadata}. AppIds that require trusted attestation
+     * then also require the attestation certificate to be in the index. Not set by default.
+     */
+    public Builder setAttestationMetadataIndex(AttestationMetadataIndex attestationMetadataIndex) {
+      this.attestationMetadataIndex = attestationMetadataIndex;
+      return this;
+    }
+
+    public U2FServerReferenceImpl build() {
+      return new U2FServerReferenceImpl(this);
+    }
+  }
 }
@@ -0,0 +1,74 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.google.u2f.server.ChallengeGenerator;
+import com.google.u2f.server.SessionIdGenerator;
+
+/**
+ * Generates unique, unguessable, websafe session ids without locking.
+ *
+ * <p>An id is the websafe-base64 encoding of 24 bytes:
+ * <pre>
+ *   nodeId     2 bytes, distinguishes the servers sharing a data store
+ *   timestamp  6 bytes, milliseconds since the epoch
+ *   counter    4 bytes, increments with every id of this generator
+ *   random     12 bytes
+ * </pre>
+ * Node, timestamp and counter make ids unique, as long as each server has its own node id and
+ * issues fewer than 2^32 ids per millisecond. The random part makes them unguessable. The account
+ * name is not part of the id.
+ */
+public class UniqueSessionIdGenerator implements SessionIdGenerator {
+  private static final int ID_LENGTH = 24;
+  private static final int RANDOM_LENGTH = 12;
+
+  private final short nodeId;
+  private final AtomicLong counter = new AtomicLong();
+
+  // Draws the random part from a per-thread SHA1PRNG, see SecureChallengeGenerator. A
+  // NativePRNG per thread wouldn't help, as all its instances share one lock.
+  private final ChallengeGenerator randomSource =
+      new SecureChallengeGenerator.Builder().setChallengeLength(RANDOM_LENGTH).build();
+
+  /**
+   * Creates a generator with a random node id, for servers that don't have an id assigned. Ids
+   * are still unique unless two servers pick the same node id and also draw the same random part.
+   */
+  public UniqueSessionIdGenerator() {
+    this(new SecureRandom().nextInt(1 << 16));
+  }
+
+  /**
+   * @param nodeId from 0 to 65535, different for each server sharing a data store
+   */
+  public UniqueSessionIdGenerator(int nodeId) {
+    if (nodeId < 0 || nodeId > 0xFFFF) {
+      throw new IllegalArgumentException("nodeId must be between 0 and 65535");
+    }
+    this.nodeId = (short) nodeId;
+  }
+
+  @Override
+  public String generateSessionId(String accountName) {
+    byte[] random = randomSource.generateChallenge(accountName);
+    long timestamp = System.currentTimeMillis();
+    ByteBuffer id = ByteBuffer.allocate(ID_LENGTH)
+        .putShort(nodeId)
+        .putShort((short) (timestamp >>> 32))
+        .putInt((int) timestamp)
+        .putInt((int) counter.getAndIncrement())
+        .put(random);
+    return Base64.encodeBase64URLSafeString(id.array());
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl.attestation;
+
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import javax.security.auth.x500.X500Principal;
+
+import com.google.u2f.server.data.SecurityKeyData.Transports;
+import com.google.u2f.server.impl.attestation.android.AndroidKeyStoreAttestation;
+import com.google.u2f.server.impl.attestation.u2f.U2fAttestation;
+
+/**
+ * What the attestation extensions of a certificate say, parsed once. Instances are immutable and
+ * shared, see {@link AttestationAnalysisCache}.
+ *
+ * <p>A malformed extension doesn't make the whole analysis fail: the getters for that extension
+ * throw the error the parser reported, and the others work as usual.
+ */
+public class AttestationAnalysis {
+  private final byte[] fingerprint;
+  private final X500Principal issuer;
+  private final U2fAttestation u2fAttestation;
+  private final CertificateParsingException u2fAttestationError;
+  private final AndroidKeyStoreAttestation androidKeyStoreAttestation;
+  private final CertificateParsingException androidKeyStoreAttestationError;
+
+  AttestationAnalysis(byte[] fingerprint, X509Certificate certificate) {
+    this.fingerprint = fingerprint;
+    this.issuer = certificate.getIssuerX500Principal();
+
+    U2fAttestation u2fAttestation = null;
+    CertificateParsingException u2fAttestationError = null;
+    try {
+      u2fAttestation = U2fAttestation.Parse(certificate);
+    } catch (CertificateParsingException e) {
+      u2fAttestationError = e;
+    }
+    this.u2fAttestation = u2fAttestation;
+    this.u2fAttestationError = u2fAttestationError;
+
+    AndroidKeyStoreAttestation androidKeyStoreAttestation = null;
+    CertificateParsingException androidKeyStoreAttestationError = null;
+    try {
+      androidKeyStoreAttestation = AndroidKeyStoreAttestation.Parse(certificate);
+    } catch (CertificateParsingException e) {
+      androidKeyStoreAttestationError = e;
+    }
+    this.androidKeyStoreAttestation = androidKeyStoreAttestation;
+    this.androidKeyStoreAttestationError = androidKeyStoreAttestationError;
+  }
+
+  /**
+   * @return the SHA-256 of the certificate's encoding
+   */
+  public byte[] getFingerprint() {
+    return fingerprint.clone();
+  }
+
+  public X500Principal getIssuer() {
+    return issuer;
+  }
+
+  /**
+   * @see U2fAttestation#Parse
+   */
+  public U2fAttestation getU2fAttestation() throws CertificateParsingException {
+    if (u2fAttestationError != null) {
+      throw new CertificateParsingException(u2fAttestationError.getMessage(), u2fAttestationError);
+    }
+    return u2fAttestation;
+  }
+
+  /**
+   * @return the transports of the U2F attestation, or null if the certificate doesn't list them
+   */
+  public List<Transports> getTransports() throws CertificateParsingException {
+    return getU2fAttestation().getTransports();
+  }
+
+  /**
+   * @return the Android KeyStore attestation, or null if the certificate has none
+   * @see AndroidKeyStoreAttestation#Parse
+   */
+  public AndroidKeyStoreAttestation getAndroidKeyStoreAttestation()
+      throws CertificateParsingException {
+    if (androidKeyStoreAttestationError != null) {
+      throw new CertificateParsingException(
+          androidKeyStoreAttestationError.getMessage(), androidKeyStoreAttestationError);
+    }
+    return androidKeyStoreAttestation;
+  }
+}
@@ -0,0 +1,110 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl.attestation;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.u2f.U2FException;
+import com.google.u2f.codec.AttestationCertificateInterner;
+
+/**
+ * Hands out one {@link AttestationAnalysis} per distinct attestation certificate.
+ *
+ * <p>Every device of a vendor's batch carries the same attestation certificate, and stored
+ * certificates are parsed again each time a key is shown or used. Analyses are looked up by the
+ * SHA-256 of the certificate's encoding rather than by instance, so certificates parsed separately
+ * still share one analysis, and extensions are only parsed when the certificate isn't in the cache.
+ */
+public class AttestationAnalysisCache {
+  public static final long DEFAULT_MAXIMUM_SIZE = 1024;
+
+  private static final AttestationAnalysisCache DEFAULT =
+      new AttestationAnalysisCache(DEFAULT_MAXIMUM_SIZE);
+
+  private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+  /** Analyses, keyed by the SHA-256 of the certificate's encoding. */
+  private final Cache<ByteBuffer, AttestationAnalysis> analyses;
+
+  /**
+   * @param maximumSize how many analyses to keep, evicting the least recently used ones
+   */
+  public AttestationAnalysisCache(long maximumSize) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize must be positive");
+    }
+    this.analyses = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+  }
+
+  public static AttestationAnalysisCache getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * @throws CertificateException if the certificate can't be encoded
+   */
+  public AttestationAnalysis analyze(X509Certificate certificate) throws CertificateException {
+    byte[] fingerprint = fingerprint(certificate.getEncoded());
+    AttestationAnalysis analysis = analyses.getIfPresent(ByteBuffer.wrap(fingerprint));
+    if (analysis == null) {
+      analysis = put(fingerprint, certificate);
+    }
+    return analysis;
+  }
+
+  /**
+   * Analyzes a DER encoded certificate, which is only parsed if it isn't in the cache. The
+   * certificate comes from {@link AttestationCertificateInterner#getDefault()}, so a certificate
+   * already seen in a registration isn't parsed again either.
+   *
+   * @throws CertificateException if the certificate can't be parsed
+   */
+  public AttestationAnalysis analyze(byte[] encodedCertificate) throws CertificateException {
+    byte[] fingerprint = fingerprint(encodedCertificate);
+    AttestationAnalysis analysis = analyses.getIfPresent(ByteBuffer.wrap(fingerprint));
+    if (analysis == null) {
+      X509Certificate certificate;
+      try {
+        certificate = AttestationCertificateInterner.getDefault()
+            .intern(ByteBuffer.wrap(encodedCertificate));
+      } catch (U2FException e) {
+        throw new CertificateException(e.getMessage(), e);
+      }
+      analysis = put(fingerprint, certificate);
+    }
+    return analysis;
+  }
+
+  public CacheStats stats() {
+    return analyses.stats();
+  }
+
+  private AttestationAnalysis put(byte[] fingerprint, X509Certificate certificate) {
+    // Two threads may analyze the same certificate at once; either result is fine to keep.
+    AttestationAnalysis analysis = new AttestationAnalysis(fingerprint, certificate);
+    analyses.put(ByteBuffer.wrap(fingerprint), analysis);
+    return analysis;
+  }
+
+  private static byte[] fingerprint(byte[] encodedCertificate) throws CertificateException {
+    try {
+      return MessageDigest.getInstance(FINGERPRINT_ALGORITHM).digest(encodedCertificate);
+    } catch (NoSuchAlgorithmException e) {
+      throw new CertificateException("Error when fingerprinting certificate", e);
+    }
+  }
+}
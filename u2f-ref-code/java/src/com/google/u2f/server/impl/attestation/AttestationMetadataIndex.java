@@ -0,0 +1,288 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl.attestation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.u2f.server.data.AttestationMetadata;
+import com.google.u2f.server.data.SecurityKeyData.Transports;
+
+/**
+ * Vendor metadata of attestation certificates, read from an index file written by
+ * {@link AttestationMetadataIndexWriter}.
+ *
+ * <p>The file is memory-mapped rather than loaded, so thousands of vendor entries cost no heap
+ * and nothing is parsed at startup; a lookup hashes into the file and decodes the one record it
+ * finds. Attestation certificates are looked up by the SHA-256 of their encoding, and otherwise
+ * by the key identifier of their issuer, so one entry covers all batches signed by a vendor's CA.
+ * As any certificate can name any authority key identifier, an issuer entry only matches
+ * certificates whose signature verifies with the issuer's public key, which the index keeps.
+ *
+ * <p>File format, all integers big-endian:
+ * <pre>
+ *   header:   magic "U2MI", version, number of fingerprint slots, number of issuer slots
+ *   slots:    fingerprint slots, then issuer slots, each a 32-byte key and the offset of its
+ *             record, 0 if the slot is empty
+ *   records:  metadata records, which fingerprint slots point to: transports as a bit mask by
+ *             {@link Transports} ordinal (-1 if not published), then vendor, model and
+ *             certification level, each an unsigned 16-bit length (0xffff for null) followed by
+ *             UTF-8;
+ *             then issuer records, which issuer slots point to: the algorithm of the issuer's
+ *             key as such a string, the X.509 encoding of the key as an unsigned 16-bit length
+ *             followed by the bytes, and the offset of the issuer's metadata record
+ * </pre>
+ * Keys are the certificate fingerprint, or the SHA-256 of the issuer's key identifier. Each table
+ * has a power of two slots, at most half of them used, and is probed linearly from the slot
+ * given by the key's first four bytes.
+ */
+public class AttestationMetadataIndex {
+  static final int MAGIC = 0x55324d49;
+  static final int VERSION = 2;
+  static final int HEADER_SIZE = 16;
+  static final int KEY_SIZE = 32;
+  static final int SLOT_SIZE = KEY_SIZE + 4;
+  static final int NO_TRANSPORTS = -1;
+  static final int NULL_STRING = 0xffff;
+
+  private static final String KEY_ALGORITHM = "SHA-256";
+
+  // only read through absolute gets or duplicates, so lookups don't need to synchronize
+  private final ByteBuffer buffer;
+  private final int fingerprintSlots;
+  private final int issuerSlots;
+  private final int recordsOffset;
+
+  private AttestationMetadataIndex(ByteBuffer buffer, int fingerprintSlots, int issuerSlots) {
+    this.buffer = buffer;
+    this.fingerprintSlots = fingerprintSlots;
+    this.issuerSlots = issuerSlots;
+    this.recordsOffset = HEADER_SIZE + (fingerprintSlots + issuerSlots) * SLOT_SIZE;
+  }
+
+  /**
+   * Maps {@code indexFile} into memory. The mapping stays valid until the index is garbage
+   * collected, so the file must not be changed in place; write a new one and open that instead.
+   *
+   * @throws IOException if the file can't be read or isn't an index
+   */
+  public static AttestationMetadataIndex open(File indexFile) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Attestation metadata index too large: " + channel.size());
+      }
+      return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * @param index the contents of an index file, e.g. as written by
+   *     {@link AttestationMetadataIndexWriter#toByteArray}
+   * @throws IOException if {@code index} isn't an index
+   */
+  public static AttestationMetadataIndex wrap(ByteBuffer index) throws IOException {
+    ByteBuffer buffer = index.slice();
+    if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not an attestation metadata index");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported attestation metadata index version " + buffer.getInt(4));
+    }
+    int fingerprintSlots = buffer.getInt(8);
+    int issuerSlots = buffer.getInt(12);
+    if (!isValidSlotCount(fingerprintSlots) || !isValidSlotCount(issuerSlots)
+        || HEADER_SIZE + ((long) fingerprintSlots + issuerSlots) * SLOT_SIZE > buffer.limit()) {
+      throw new IOException("Truncated attestation metadata index");
+    }
+    return new AttestationMetadataIndex(buffer, fingerprintSlots, issuerSlots);
+  }
+
+  /**
+   * Looks up {@code attestationCertificate} by its fingerprint, and else by the key identifier of
+   * its issuer, if it is signed by that issuer.
+   *
+   * @return the metadata, or null if the index has none for this certificate
+   * @throws CertificateException if the certificate can't be encoded, or its authority key
+   *     identifier can't be parsed
+   * @throws IOException if the index is corrupt
+   */
+  public AttestationMetadata lookup(X509Certificate attestationCertificate)
+      throws CertificateException, IOException {
+    AttestationMetadata metadata = lookupByFingerprint(sha256(attestationCertificate.getEncoded()));
+    if (metadata != null) {
+      return metadata;
+    }
+    byte[] authorityKeyIdentifier =
+        X509ExtensionParsingUtil.getAuthorityKeyIdentifier(attestationCertificate);
+    if (authorityKeyIdentifier == null) {
+      return null;
+    }
+    int issuerOffset = find(HEADER_SIZE + fingerprintSlots * SLOT_SIZE, issuerSlots,
+        sha256(authorityKeyIdentifier));
+    if (issuerOffset == 0) {
+      return null;
+    }
+    return readIssuerRecord(issuerOffset, attestationCertificate);
+  }
+
+  /**
+   * @param fingerprint the SHA-256 of the attestation certificate's encoding
+   * @return the metadata, or null if the index has none for this fingerprint
+   * @throws IOException if the index is corrupt
+   */
+  public AttestationMetadata lookupByFingerprint(byte[] fingerprint) throws IOException {
+    int recordOffset = find(HEADER_SIZE, fingerprintSlots, fingerprint);
+    return recordOffset == 0 ? null : readRecord(recordOffset);
+  }
+
+  /**
+   * @return the offset of the record of {@code key}, or 0 if the table has none
+   */
+  private int find(int tableOffset, int slots, byte[] key) throws IOException {
+    if (key.length != KEY_SIZE) {
+      return 0;
+    }
+    int slot = slotOf(key, slots);
+    // Tables are never full, but don't spin on a corrupt file.
+    for (int probes = 0; probes < slots; probes++) {
+      int slotOffset = tableOffset + slot * SLOT_SIZE;
+      int recordOffset = buffer.getInt(slotOffset + KEY_SIZE);
+      if (recordOffset == 0) {
+        return 0;
+      }
+      if (keyEquals(slotOffset, key)) {
+        return checkRecordOffset(recordOffset);
+      }
+      slot = (slot + 1) & (slots - 1);
+    }
+    return 0;
+  }
+
+  private int checkRecordOffset(int recordOffset) throws IOException {
+    if (recordOffset < recordsOffset || recordOffset >= buffer.limit()) {
+      throw new IOException("Corrupt attestation metadata index: record offset " + recordOffset);
+    }
+    return recordOffset;
+  }
+
+  private boolean keyEquals(int slotOffset, byte[] key) {
+    for (int i = 0; i < KEY_SIZE; i++) {
+      if (buffer.get(slotOffset + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the metadata of the issuer record at {@code issuerOffset}, or null if
+   *     {@code attestationCertificate} isn't signed by that issuer
+   */
+  private AttestationMetadata readIssuerRecord(int issuerOffset,
+      X509Certificate attestationCertificate) throws IOException {
+    PublicKey issuerKey;
+    int recordOffset;
+    try {
+      ByteBuffer record = buffer.duplicate();
+      record.position(issuerOffset);
+      String algorithm = readString(record);
+      if (algorithm == null) {
+        throw new IOException("Attestation issuer record without key algorithm");
+      }
+      byte[] encodedKey = new byte[record.getShort() & 0xffff];
+      record.get(encodedKey);
+      recordOffset = record.getInt();
+      issuerKey = KeyFactory.getInstance(algorithm).generatePublic(
+          new X509EncodedKeySpec(encodedKey));
+    } catch (IllegalArgumentException | BufferUnderflowException | GeneralSecurityException e) {
+      throw new IOException("Corrupt attestation metadata index", e);
+    }
+    try {
+      attestationCertificate.verify(issuerKey);
+    } catch (GeneralSecurityException e) {
+      // names the issuer's key identifier, but isn't signed by it
+      return null;
+    }
+    return readRecord(checkRecordOffset(recordOffset));
+  }
+
+  private AttestationMetadata readRecord(int recordOffset) throws IOException {
+    try {
+      ByteBuffer record = buffer.duplicate();
+      record.position(recordOffset);
+      int transportMask = record.getInt();
+      String vendor = readString(record);
+      String model = readString(record);
+      String certificationLevel = readString(record);
+      if (vendor == null) {
+        throw new IOException("Attestation metadata record without vendor");
+      }
+      return new AttestationMetadata(
+          vendor, model, certificationLevel, toTransports(transportMask));
+    } catch (IllegalArgumentException | BufferUnderflowException e) {
+      throw new IOException("Corrupt attestation metadata index", e);
+    }
+  }
+
+  private static String readString(ByteBuffer record) {
+    int length = record.getShort() & 0xffff;
+    if (length == NULL_STRING) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    record.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static List<Transports> toTransports(int transportMask) {
+    if (transportMask == NO_TRANSPORTS) {
+      return null;
+    }
+    List<Transports> transports = new ArrayList<Transports>();
+    for (Transports transport : Transports.values()) {
+      if ((transportMask & (1 << transport.ordinal())) != 0) {
+        transports.add(transport);
+      }
+    }
+    return transports;
+  }
+
+  static int slotOf(byte[] key, int slots) {
+    return ByteBuffer.wrap(key).getInt() & (slots - 1);
+  }
+
+  private static boolean isValidSlotCount(int slots) {
+    return slots > 0 && Integer.bitCount(slots) == 1;
+  }
+
+  static byte[] sha256(byte[] bytes) {
+    try {
+      return MessageDigest.getInstance(KEY_ALGORITHM).digest(bytes);
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,212 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl.attestation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.u2f.server.data.AttestationMetadata;
+import com.google.u2f.server.data.SecurityKeyData.Transports;
+
+/**
+ * Writes the index files read by {@link AttestationMetadataIndex}. Meant for offline tools; the
+ * whole index is built in memory.
+ */
+public class AttestationMetadataIndexWriter {
+  private final Map<ByteBuffer, AttestationMetadata> byFingerprint = Maps.newLinkedHashMap();
+  private final Map<ByteBuffer, AttestationMetadata> byIssuer = Maps.newLinkedHashMap();
+  private final Map<ByteBuffer, PublicKey> issuerKeys = Maps.newHashMap();
+
+  /**
+   * Adds the metadata of the devices carrying {@code attestationCertificate}.
+   *
+   * @throws CertificateException if the certificate can't be encoded
+   * @throws IllegalArgumentException if the certificate was added with other metadata before
+   */
+  public AttestationMetadataIndexWriter addAttestationCertificate(
+      X509Certificate attestationCertificate, AttestationMetadata metadata)
+      throws CertificateException {
+    put(byFingerprint, AttestationMetadataIndex.sha256(attestationCertificate.getEncoded()),
+        metadata);
+    return this;
+  }
+
+  /**
+   * Adds the metadata of the devices whose attestation certificate is issued by
+   * {@code issuerCertificate}.
+   *
+   * @throws CertificateException if the certificate has no subject key identifier
+   * @throws IllegalArgumentException if the issuer was added with other metadata before
+   */
+  public AttestationMetadataIndexWriter addIssuerCertificate(X509Certificate issuerCertificate,
+      AttestationMetadata metadata) throws CertificateException {
+    byte[] keyIdentifier = X509ExtensionParsingUtil.getSubjectKeyIdentifier(issuerCertificate);
+    if (keyIdentifier == null) {
+      throw new CertificateException("Issuer certificate has no subject key identifier: "
+          + issuerCertificate.getSubjectX500Principal());
+    }
+    return addIssuerKey(keyIdentifier, issuerCertificate.getPublicKey(), metadata);
+  }
+
+  /**
+   * Adds the metadata of the devices whose attestation certificate names {@code keyIdentifier}
+   * as its authority key identifier, and is signed by {@code issuerKey}.
+   *
+   * @throws IllegalArgumentException if the key identifier was added with other metadata or
+   *     another key before
+   */
+  public AttestationMetadataIndexWriter addIssuerKey(byte[] keyIdentifier, PublicKey issuerKey,
+      AttestationMetadata metadata) {
+    byte[] key = AttestationMetadataIndex.sha256(keyIdentifier);
+    PublicKey previousKey = issuerKeys.put(ByteBuffer.wrap(key), issuerKey);
+    if (previousKey != null && !Arrays.equals(previousKey.getEncoded(), issuerKey.getEncoded())) {
+      throw new IllegalArgumentException("Conflicting keys for one issuer key identifier");
+    }
+    put(byIssuer, key, metadata);
+    return this;
+  }
+
+  public byte[] toByteArray() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      writeTo(bytes);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    int fingerprintSlots = slotCount(byFingerprint.size());
+    int issuerSlots = slotCount(byIssuer.size());
+    int recordsOffset = AttestationMetadataIndex.HEADER_SIZE
+        + (fingerprintSlots + issuerSlots) * AttestationMetadataIndex.SLOT_SIZE;
+
+    // Devices of one model usually share their record across certificates and issuers.
+    Map<AttestationMetadata, Integer> recordOffsets = Maps.newLinkedHashMap();
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    DataOutputStream recordsOut = new DataOutputStream(records);
+    for (Map<ByteBuffer, AttestationMetadata> table : ImmutableList.of(byFingerprint, byIssuer)) {
+      for (AttestationMetadata metadata : table.values()) {
+        if (!recordOffsets.containsKey(metadata)) {
+          recordOffsets.put(metadata, recordsOffset + recordsOut.size());
+          writeRecord(recordsOut, metadata);
+        }
+      }
+    }
+    Map<ByteBuffer, Integer> issuerRecordOffsets = Maps.newHashMap();
+    for (Map.Entry<ByteBuffer, AttestationMetadata> issuer : byIssuer.entrySet()) {
+      issuerRecordOffsets.put(issuer.getKey(), recordsOffset + recordsOut.size());
+      writeIssuerRecord(recordsOut, issuerKeys.get(issuer.getKey()),
+          recordOffsets.get(issuer.getValue()));
+    }
+    Map<ByteBuffer, Integer> fingerprintRecordOffsets = Maps.newHashMap();
+    for (Map.Entry<ByteBuffer, AttestationMetadata> entry : byFingerprint.entrySet()) {
+      fingerprintRecordOffsets.put(entry.getKey(), recordOffsets.get(entry.getValue()));
+    }
+
+    DataOutputStream dataOut = new DataOutputStream(out);
+    dataOut.writeInt(AttestationMetadataIndex.MAGIC);
+    dataOut.writeInt(AttestationMetadataIndex.VERSION);
+    dataOut.writeInt(fingerprintSlots);
+    dataOut.writeInt(issuerSlots);
+    dataOut.write(buildTable(fingerprintRecordOffsets, fingerprintSlots));
+    dataOut.write(buildTable(issuerRecordOffsets, issuerSlots));
+    records.writeTo(dataOut);
+    dataOut.flush();
+  }
+
+  private static void put(Map<ByteBuffer, AttestationMetadata> table, byte[] key,
+      AttestationMetadata metadata) {
+    AttestationMetadata previous = table.put(ByteBuffer.wrap(key), metadata);
+    if (previous != null && !previous.equals(metadata)) {
+      throw new IllegalArgumentException(
+          "Conflicting attestation metadata: " + previous + " and " + metadata);
+    }
+  }
+
+  /**
+   * @return the smallest power of two that keeps the table at most half full
+   */
+  private static int slotCount(int entries) {
+    return Integer.highestOneBit(Math.max(1, entries * 2 - 1)) << 1;
+  }
+
+  /**
+   * @param recordOffsets the offset of the record of each key
+   */
+  private static byte[] buildTable(Map<ByteBuffer, Integer> recordOffsets, int slots) {
+    ByteBuffer table = ByteBuffer.allocate(slots * AttestationMetadataIndex.SLOT_SIZE);
+    for (Map.Entry<ByteBuffer, Integer> entry : recordOffsets.entrySet()) {
+      byte[] key = entry.getKey().array();
+      int slot = AttestationMetadataIndex.slotOf(key, slots);
+      while (table.getInt(slot * AttestationMetadataIndex.SLOT_SIZE
+          + AttestationMetadataIndex.KEY_SIZE) != 0) {
+        slot = (slot + 1) & (slots - 1);
+      }
+      table.position(slot * AttestationMetadataIndex.SLOT_SIZE);
+      table.put(key);
+      table.putInt(entry.getValue());
+    }
+    return table.array();
+  }
+
+  private static void writeRecord(DataOutputStream out, AttestationMetadata metadata)
+      throws IOException {
+    out.writeInt(toTransportMask(metadata.getTransports()));
+    writeString(out, metadata.getVendor());
+    writeString(out, metadata.getModel());
+    writeString(out, metadata.getCertificationLevel());
+  }
+
+  private static void writeIssuerRecord(DataOutputStream out, PublicKey issuerKey,
+      int recordOffset) throws IOException {
+    writeString(out, issuerKey.getAlgorithm());
+    byte[] encodedKey = issuerKey.getEncoded();
+    if (encodedKey == null || encodedKey.length > 0xffff) {
+      throw new IllegalArgumentException("Issuer key can't be indexed: " + issuerKey);
+    }
+    out.writeShort(encodedKey.length);
+    out.write(encodedKey);
+    out.writeInt(recordOffset);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeShort(AttestationMetadataIndex.NULL_STRING);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length >= AttestationMetadataIndex.NULL_STRING) {
+      throw new IllegalArgumentException("Attestation metadata too long: " + value);
+    }
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  private static int toTransportMask(Iterable<Transports> transports) {
+    if (transports == null) {
+      return AttestationMetadataIndex.NO_TRANSPORTS;
+    }
+    int transportMask = 0;
+    for (Transports transport : transports) {
+      transportMask |= 1 << transport.ordinal();
+    }
+    return transportMask;
+  }
+}
@@ -0,0 +1,173 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl.attestation;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.security.auth.x500.X500Principal;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import com.google.u2f.U2FException;
+
+/**
+ * Decides whether attestation certificates are trusted.
+ *
+ * <p>An attestation certificate is trusted if it is one of the trusted certificates itself, or if
+ * it is signed by a trusted certificate that is allowed to issue certificates. Trusted certificates
+ * are indexed by the SHA-256 of their encoding, by subject key identifier and by subject, so
+ * finding the issuer doesn't try every trusted certificate. Validity periods aren't checked:
+ * devices keep their attestation certificate for as long as they live.
+ *
+ * <p>Every device of a vendor's batch carries the same attestation certificate, so the verdict is
+ * memoized by its fingerprint, and the signature is only checked once per batch. Instances are
+ * immutable apart from that memo; to change the trusted certificates, build a new one.
+ */
+public class AttestationTrustStore {
+  private static final Logger Log = Logger.getLogger(AttestationTrustStore.class.getName());
+
+  public static final long DEFAULT_VERDICT_CACHE_SIZE = 1024;
+
+  private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+  private final Map<ByteBuffer, X509Certificate> byFingerprint;
+  private final ListMultimap<ByteBuffer, X509Certificate> bySubjectKeyIdentifier;
+  private final ListMultimap<X500Principal, X509Certificate> bySubject;
+  /** Whether an attestation certificate is trusted, keyed by its fingerprint. */
+  private final Cache<ByteBuffer, Boolean> verdicts;
+
+  public AttestationTrustStore(Collection<X509Certificate> trustedCertificates)
+      throws U2FException {
+    this(trustedCertificates, DEFAULT_VERDICT_CACHE_SIZE);
+  }
+
+  /**
+   * @param verdictCacheSize how many verdicts to keep, evicting the least recently used ones
+   */
+  public AttestationTrustStore(Collection<X509Certificate> trustedCertificates,
+      long verdictCacheSize) throws U2FException {
+    if (verdictCacheSize <= 0) {
+      throw new IllegalArgumentException("verdictCacheSize must be positive");
+    }
+    Map<ByteBuffer, X509Certificate> byFingerprint = Maps.newHashMap();
+    this.bySubjectKeyIdentifier = ArrayListMultimap.create();
+    this.bySubject = ArrayListMultimap.create();
+    for (X509Certificate certificate : trustedCertificates) {
+      if (byFingerprint.put(fingerprint(certificate), certificate) != null) {
+        continue;
+      }
+      bySubject.put(certificate.getSubjectX500Principal(), certificate);
+      byte[] subjectKeyIdentifier = getSubjectKeyIdentifier(certificate);
+      if (subjectKeyIdentifier != null) {
+        bySubjectKeyIdentifier.put(ByteBuffer.wrap(subjectKeyIdentifier), certificate);
+      }
+    }
+    this.byFingerprint = ImmutableMap.copyOf(byFingerprint);
+    this.verdicts = CacheBuilder.newBuilder()
+        .maximumSize(verdictCacheSize)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * @return whether {@code attestationCertificate} is trusted
+   * @throws U2FException if the certificate can't be encoded
+   */
+  public boolean isTrusted(X509Certificate attestationCertificate) throws U2FException {
+    ByteBuffer fingerprint = fingerprint(attestationCertificate);
+    Boolean verdict = verdicts.getIfPresent(fingerprint);
+    if (verdict == null) {
+      // Two threads may check the same certificate at once; they reach the same verdict.
+      verdict = byFingerprint.containsKey(fingerprint)
+          || findTrustedIssuer(attestationCertificate) != null;
+      verdicts.put(fingerprint, verdict);
+    }
+    return verdict;
+  }
+
+  /**
+   * @return the number of trusted certificates
+   */
+  public int size() {
+    return byFingerprint.size();
+  }
+
+  public CacheStats stats() {
+    return verdicts.stats();
+  }
+
+  /**
+   * @return the trusted certificate that issued {@code certificate}, or {@code null} if there is
+   *     none
+   */
+  private X509Certificate findTrustedIssuer(X509Certificate certificate) {
+    for (X509Certificate candidate : getIssuerCandidates(certificate)) {
+      if (!candidate.getSubjectX500Principal().equals(certificate.getIssuerX500Principal())
+          || candidate.getBasicConstraints() < 0) {
+        continue;
+      }
+      try {
+        certificate.verify(candidate.getPublicKey());
+        return candidate;
+      } catch (GeneralSecurityException e) {
+        // try the next one, in case the issuer has more than one key
+      }
+    }
+    return null;
+  }
+
+  private List<X509Certificate> getIssuerCandidates(X509Certificate certificate) {
+    byte[] authorityKeyIdentifier = null;
+    try {
+      authorityKeyIdentifier = X509ExtensionParsingUtil.getAuthorityKeyIdentifier(certificate);
+    } catch (CertificateParsingException e) {
+      Log.warning("Could not parse authority key identifier " + e.getMessage());
+    }
+    if (authorityKeyIdentifier != null) {
+      List<X509Certificate> candidates =
+          bySubjectKeyIdentifier.get(ByteBuffer.wrap(authorityKeyIdentifier));
+      if (!candidates.isEmpty()) {
+        return candidates;
+      }
+    }
+    // Many attestation certificates don't identify the issuer's key, so fall back to its name.
+    return bySubject.get(certificate.getIssuerX500Principal());
+  }
+
+  private static byte[] getSubjectKeyIdentifier(X509Certificate certificate)
+      throws U2FException {
+    try {
+      return X509ExtensionParsingUtil.getSubjectKeyIdentifier(certificate);
+    } catch (CertificateParsingException e) {
+      throw new U2FException("Could not parse subject key identifier of trusted certificate", e);
+    }
+  }
+
+  private static ByteBuffer fingerprint(X509Certificate certificate) throws U2FException {
+    try {
+      return ByteBuffer.wrap(
+          MessageDigest.getInstance(FINGERPRINT_ALGORITHM).digest(certificate.getEncoded()));
+    } catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+      throw new U2FException("Error when fingerprinting certificate", e);
+    }
+  }
+}
@@ -5,16 +5,13 @@ import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.ASN1Object;
 import org.bouncycastle.asn1.ASN1OctetString;
-import org.bouncycastle.asn1.ASN1Primitive;
-import org.bouncycastle.asn1.ASN1Sequence;
-import org.bouncycastle.asn1.ASN1TaggedObject;
-import org.bouncycastle.asn1.DLSequence;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
 
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
-import java.util.HashMap;
 
 /**
  * A set of utilities for parsing X509 Extensions
@@ -24,6 +21,9 @@ public class X509ExtensionParsingUtil {
   private static final int MAX_INT_BITS = 32;
   private static final int MAX_LONG_BITS = 64;
 
+  private static final String SUBJECT_KEY_IDENTIFIER_OID = "2.5.29.14";
+  private static final String AUTHORITY_KEY_IDENTIFIER_OID = "2.5.29.35";
+
   /**
    * Extract a {@link ASN1OctetString} that represents the value of a given extension
    *
@@ -50,6 +50,44 @@ public class X509ExtensionParsingUtil {
     return (ASN1OctetString) asn1Object;
   }
 
+  /**
+   * @return the key identifier of the subject key identifier extension, or {@code null} if the
+   * certificate has none
+   * @throws CertificateParsingException if the extension is malformed
+   */
+  public static byte[] getSubjectKeyIdentifier(X509Certificate cert)
+      throws CertificateParsingException {
+    ASN1OctetString extension = extractExtensionValue(cert, SUBJECT_KEY_IDENTIFIER_OID);
+    if (extension == null) {
+      return null;
+    }
+    try {
+      return SubjectKeyIdentifier.getInstance(getAsn1Object(extension.getOctets()))
+          .getKeyIdentifier();
+    } catch (IllegalArgumentException e) {
+      throw new CertificateParsingException(e);
+    }
+  }
+
+  /**
+   * @return the key identifier of the authority key identifier extension, or {@code null} if the
+   * certificate has none or it only names the issuer
+   * @throws CertificateParsingException if the extension is malformed
+   */
+  public static byte[] getAuthorityKeyIdentifier(X509Certificate cert)
+      throws CertificateParsingException {
+    ASN1OctetString extension = extractExtensionValue(cert, AUTHORITY_KEY_IDENTIFIER_OID);
+    if (extension == null) {
+      return null;
+    }
+    try {
+      return AuthorityKeyIdentifier.getInstance(getAsn1Object(extension.getOctets()))
+          .getKeyIdentifier();
+    } catch (IllegalArgumentException e) {
+      throw new CertificateParsingException(e);
+    }
+  }
+
   /**
    * Extracts an {@link ASN1Object} from an array of octets
    * @throws CertificateParsingException
@@ -113,23 +151,4 @@ public class X509ExtensionParsingUtil {
     ASN1OctetString derOctectString = (ASN1OctetString) asn1Encodable;
     return derOctectString.getOctets();
   }
-
-  /**
-   * Returns a {@link HashMap} whose keys represent the tags and whose values represent the values
-   * of a {@link DLSequence}.
-   */
-  public static HashMap<Integer, ASN1Primitive> extractTaggedObjects(ASN1Sequence asn1Sequence)
-      throws CertificateParsingException {
-    HashMap<Integer, ASN1Primitive> taggedObjects = new HashMap<Integer, ASN1Primitive>();
-
-    for (ASN1Encodable asn1EncodablePurpose : asn1Sequence.toArray()) {
-      if (asn1EncodablePurpose == null || !(asn1EncodablePurpose instanceof ASN1TaggedObject)) {
-        throw new CertificateParsingException("Expected DERTagged object");
-      }
-      ASN1TaggedObject asn1TaggedObject = (ASN1TaggedObject) asn1EncodablePurpose;
-      taggedObjects.put(Integer.valueOf(asn1TaggedObject.getTagNo()), asn1TaggedObject.getObject());
-    }
-
-    return taggedObjects;
-  }
 }
@@ -5,7 +5,7 @@ import java.security.cert.CertificateParsingException;
 /**
  * Keysmaster algorithm values as taken from: keymaster_defs.h / KeymasterDefs.java
  */
-public enum Algorithm {
+public enum Algorithm implements KeymasterValue {
   /* Asymmetric algorithms. */
   KM_ALGORITHM_RSA(1, "rsa"),
   KM_ALGORITHM_EC(3, "ec"),
@@ -34,6 +34,7 @@ public enum Algorithm {
     this.description = description;
   }
 
+  @Override
   public int getValue() {
     return value;
   }
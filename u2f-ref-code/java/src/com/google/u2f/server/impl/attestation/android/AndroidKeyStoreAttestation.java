@@ -7,22 +7,17 @@ import org.apache.commons.codec.binary.Hex;
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Object;
 import org.bouncycastle.asn1.ASN1OctetString;
-import org.bouncycastle.asn1.ASN1Primitive;
 import org.bouncycastle.asn1.ASN1Sequence;
-import org.bouncycastle.asn1.ASN1Set;
 
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Objects;
 
 /**
  * Parses and contains an Android KeyStore attestation.
  */
 public class AndroidKeyStoreAttestation {
-  private static final String KEY_DESCRIPTION_OID = "1.3.6.1.4.1.11129.2.1.17";
+  static final String KEY_DESCRIPTION_OID = "1.3.6.1.4.1.11129.2.1.17";
 
   // Indexes for data in KeyDescription sequence
   private static final int DESCRIPTION_LENGTH = 4;
@@ -31,12 +26,6 @@ public class AndroidKeyStoreAttestation {
   private static final int DESCRIPTION_SOFTWARE_ENFORCED_INDEX = 2;
   private static final int DESCRIPTION_TEE_ENFORCED_INDEX = 3;
 
-  // Tags for Authorization List
-  private static final int AUTHZ_PURPOSE_TAG = 1;
-  private static final int AUTHZ_ALGORITHM_TAG = 2;
-  private static final int AUTHZ_KEY_SIZE_TAG = 3;
-  private static final int AUTHZ_BLOCK_MODE_TAG = 4;
-
   private final int keymasterVersion;
   private final byte[] attestationChallenge;
   private final AuthorizationList softwareAuthorizationList;
@@ -52,9 +41,8 @@ public class AndroidKeyStoreAttestation {
 
   /**
    * Parses the key description extension.  Note that this method only parses the description
-   * extension in the leaf cert.  It *does not* validate the certificate (or any chain).
-   *
-   * TODO(aczeskis): Add chain validation and remove/clarify the above comment.
+   * extension in the leaf cert.  It *does not* validate the certificate (or any chain); use
+   * {@link AttestationChainValidator} for that.
    *
    * Expected format of the description extension is:
    *   KeyDescription ::= SEQUENCE {
@@ -131,9 +119,13 @@ public class AndroidKeyStoreAttestation {
    *
    *   RootOfTrust ::= SEQUENCE {
    *       verifiedBootKey OCTET_STRING,
-   *       osVersion   INTEGER,
-   *       patchMonthYear  INTEGER,
+   *       deviceLocked    BOOLEAN,
+   *       verifiedBootState   VerifiedBootState,
+   *       -- only from Keymaster version 3 on
+   *       verifiedBootHash    OCTET_STRING,
    *   }
+   *
+   * All tags of the AuthorizationList are decoded, see {@link AuthorizationTag}.
    */
   public static AndroidKeyStoreAttestation Parse(X509Certificate cert)
       throws CertificateParsingException {
@@ -185,7 +177,8 @@ public class AndroidKeyStoreAttestation {
    * @return the parsed attestation challenge
    */
   public byte[] getAttestationChallenge() {
-    return attestationChallenge;
+    // parsed attestations are shared, see AttestationAnalysisCache
+    return attestationChallenge == null ? null : attestationChallenge.clone();
   }
 
   /**
@@ -300,86 +293,8 @@ public class AndroidKeyStoreAttestation {
     return X509ExtensionParsingUtil.getByteArray(asn1Encodable);
   }
 
-  private static List<Purpose> getPurpose(HashMap<Integer, ASN1Primitive> taggedObjects)
-      throws CertificateParsingException {
-    return getListFromTaggedObjectSet(taggedObjects, AUTHZ_PURPOSE_TAG, Purpose.class);
-  }
-
-  private static Algorithm getAlgorithm(HashMap<Integer, ASN1Primitive> taggedObjects)
-      throws CertificateParsingException {
-    ASN1Primitive asn1Primitive = taggedObjects.get(AUTHZ_ALGORITHM_TAG);
-    if (asn1Primitive == null) {
-      // No algorithm found
-      return null;
-    }
-    return Algorithm.fromValue(X509ExtensionParsingUtil.getInt(asn1Primitive));
-  }
-
-  private static Integer getKeySize(HashMap<Integer, ASN1Primitive> taggedObjects)
-      throws CertificateParsingException {
-    ASN1Primitive asn1Primitive = taggedObjects.get(AUTHZ_KEY_SIZE_TAG);
-    if (asn1Primitive == null) {
-      // No key size found
-      return null;
-    }
-    return X509ExtensionParsingUtil.getInt(asn1Primitive);
-  }
-
-  private static List<BlockMode> getBlockMode(
-      HashMap<Integer, ASN1Primitive> softwareEnforcedTaggedObjects)
-      throws CertificateParsingException {
-    return getListFromTaggedObjectSet(
-        softwareEnforcedTaggedObjects, AUTHZ_BLOCK_MODE_TAG, BlockMode.class);
-  }
-
-  // TODO(aczeskis): There is a cleaner way of doing this in Java 8.  In Java 8, we can make Purpose
-  // & BlockMode implement an interface (so the function could call .fromInt() on the
-  // parameterized type).  Unfortunately, Java 7 does not allow interfaces to have static methods!
-  // This decision was fixed in Java 8.
-  private static <T> List<T> getListFromTaggedObjectSet(
-      HashMap<Integer, ASN1Primitive> taggedObjects, int tag, Class<T> type)
-      throws CertificateParsingException {
-    ASN1Primitive asn1Primitive = taggedObjects.get(tag);
-    if (asn1Primitive == null) {
-      // No tagged object mode found
-      return null;
-    }
-
-    if (!(asn1Primitive instanceof ASN1Set)) {
-      throw new CertificateParsingException("Expected ASN1Set");
-    }
-
-    ASN1Set set = (ASN1Set) asn1Primitive;
-    List<T> list = new ArrayList<T>();
-    for (ASN1Encodable asn1Encodable : set.toArray()) {
-      list.add(buildTypeFromInt(X509ExtensionParsingUtil.getInt(asn1Encodable), type));
-    }
-
-    return list;
-  }
-
-  @SuppressWarnings("unchecked")
-  private static <T> T buildTypeFromInt(int value, Class<T> type)
-      throws CertificateParsingException {
-    if (type == Purpose.class) {
-      return (T) Purpose.fromValue(value);
-    } else if (type == BlockMode.class) {
-      return (T) BlockMode.fromValue(value);
-    } else {
-      throw new CertificateParsingException("Cannot build type " + type.getSimpleName());
-    }
-  }
-
   private static AuthorizationList extractAuthorizationList(ASN1Sequence authorizationSequence)
       throws CertificateParsingException {
-    HashMap<Integer, ASN1Primitive> taggedObjects =
-        X509ExtensionParsingUtil.extractTaggedObjects(authorizationSequence);
-
-    return new AuthorizationList.Builder()
-        .setPurpose(getPurpose(taggedObjects))
-        .setAlgorithm(getAlgorithm(taggedObjects))
-        .setKeySize(getKeySize(taggedObjects))
-        .setBlockMode(getBlockMode(taggedObjects))
-        .build();
+    return AuthorizationListDecoder.decode(authorizationSequence);
   }
 }
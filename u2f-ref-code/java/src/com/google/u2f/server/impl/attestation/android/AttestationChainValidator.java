@@ -0,0 +1,208 @@
+package com.google.u2f.server.impl.attestation.android;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
+import com.google.u2f.U2FException;
+import com.google.u2f.server.impl.attestation.AttestationAnalysisCache;
+import com.google.u2f.server.impl.attestation.AttestationTrustStore;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validates the certificate chain of an Android KeyStore attestation up to a set of configured
+ * roots, e.g. the Google attestation roots.
+ *
+ * <p>Every certificate of the chain must be valid at the time of validation and must not be
+ * revoked by the {@link AttestationStatusList}. Each certificate must be signed by the next one,
+ * and the last one must be a root or be signed by one. Every certificate but the leaf must be a
+ * CA allowed to sign certificates, within its path length constraint, and must not carry an
+ * attestation of its own, so a leaf can't pose as the issuer of a forged attestation.
+ *
+ * <p>The same intermediates sign the attestations of many devices, so intermediates that were
+ * verified up to a root are remembered by fingerprint, and later chains through them only have
+ * their leaf signature checked. Validity and revocation don't depend on that and are checked for
+ * every chain.
+ */
+public class AttestationChainValidator {
+  public static final long DEFAULT_VERIFIED_INTERMEDIATES_CACHE_SIZE = 1024;
+
+  // Android attestation chains have three or four certificates.
+  private static final int MAX_CHAIN_LENGTH = 10;
+
+  private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+  // index of keyCertSign in X509Certificate.getKeyUsage()
+  private static final int KEY_CERT_SIGN = 5;
+
+  private final AttestationTrustStore roots;
+  /**
+   * Intermediates verified up to a root, keyed by the SHA-256 of their encoding, with the most
+   * CA certificates they had below them. The path length constraints above them are known to
+   * hold for that many, and fewer.
+   */
+  private final Cache<ByteBuffer, Integer> verifiedIntermediates;
+  private volatile AttestationStatusList statusList;
+
+  public AttestationChainValidator(Collection<X509Certificate> roots,
+      AttestationStatusList statusList) throws U2FException {
+    this(roots, statusList, DEFAULT_VERIFIED_INTERMEDIATES_CACHE_SIZE);
+  }
+
+  /**
+   * @param verifiedIntermediatesCacheSize how many verified intermediates to remember, evicting
+   *     the least recently used ones
+   */
+  public AttestationChainValidator(Collection<X509Certificate> roots,
+      AttestationStatusList statusList, long verifiedIntermediatesCacheSize)
+      throws U2FException {
+    this.roots = new AttestationTrustStore(roots);
+    this.statusList = checkNotNull(statusList, "statusList");
+    this.verifiedIntermediates = CacheBuilder.newBuilder()
+        .maximumSize(verifiedIntermediatesCacheSize)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Replaces the status list, e.g. after downloading a newer one. Applies to all later
+   * validations, including of chains through remembered intermediates.
+   */
+  public void setStatusList(AttestationStatusList statusList) {
+    this.statusList = checkNotNull(statusList, "statusList");
+  }
+
+  /**
+   * Validates {@code chain} and parses the attestation of its leaf.
+   *
+   * @param chain the leaf first, each following certificate the issuer of the previous one. The
+   *     root may be left out.
+   * @return the attestation of the leaf
+   * @throws CertificateException if the chain is not valid, or the leaf has no attestation
+   */
+  public AndroidKeyStoreAttestation validate(List<X509Certificate> chain,
+      long currentTimeInMillis) throws CertificateException {
+    if (chain.isEmpty() || chain.size() > MAX_CHAIN_LENGTH) {
+      throw new CertificateException("Chain has " + chain.size() + " certificates");
+    }
+
+    AttestationStatusList statusList = this.statusList;
+    Date now = new Date(currentTimeInMillis);
+    for (X509Certificate certificate : chain) {
+      certificate.checkValidity(now);
+      if (statusList.isRevoked(certificate)) {
+        throw new CertificateException("Certificate " + certificate.getSerialNumber().toString(16)
+            + " is revoked: " + certificate.getSubjectX500Principal());
+      }
+    }
+
+    verifySignatures(chain);
+
+    AndroidKeyStoreAttestation attestation =
+        AttestationAnalysisCache.getDefault().analyze(chain.get(0)).getAndroidKeyStoreAttestation();
+    if (attestation == null) {
+      throw new CertificateException("Leaf has no Android KeyStore attestation");
+    }
+    return attestation;
+  }
+
+  public CacheStats stats() {
+    return verifiedIntermediates.stats();
+  }
+
+  private void verifySignatures(List<X509Certificate> chain) throws CertificateException {
+    Map<ByteBuffer, Integer> newlyVerified = Maps.newHashMap();
+    for (int i = 0; ; i++) {
+      X509Certificate certificate = chain.get(i);
+      if (i > 0) {
+        // checked even for remembered intermediates, as constraints depend on the position
+        checkIssuer(certificate, i - 1);
+        ByteBuffer fingerprint = fingerprint(certificate);
+        Integer verifiedDepth = verifiedIntermediates.getIfPresent(fingerprint);
+        if (verifiedDepth != null && verifiedDepth >= i - 1) {
+          break;
+        }
+        newlyVerified.put(fingerprint, i - 1);
+      }
+      if (i == chain.size() - 1) {
+        if (!isTrustedRoot(certificate)) {
+          throw new CertificateException(
+              "Chain doesn't end at a trusted root: " + certificate.getIssuerX500Principal());
+        }
+        break;
+      }
+      verifySignature(certificate, chain.get(i + 1));
+    }
+    // Only now that the chain reached a root are its intermediates known to be good.
+    verifiedIntermediates.putAll(newlyVerified);
+  }
+
+  private boolean isTrustedRoot(X509Certificate certificate) throws CertificateException {
+    try {
+      return roots.isTrusted(certificate);
+    } catch (U2FException e) {
+      throw new CertificateException(e);
+    }
+  }
+
+  /**
+   * Checks that {@code issuer} may issue certificates, with {@code caCertificatesBelow} CA
+   * certificates between it and the leaf.
+   */
+  private static void checkIssuer(X509Certificate issuer, int caCertificatesBelow)
+      throws CertificateException {
+    if (issuer.getExtensionValue(AndroidKeyStoreAttestation.KEY_DESCRIPTION_OID) != null) {
+      throw new CertificateException(
+          "Attestation outside the leaf: " + issuer.getSubjectX500Principal());
+    }
+    // the path length constraint, Integer.MAX_VALUE if there is none, or -1 if not a CA
+    int pathLength = issuer.getBasicConstraints();
+    if (pathLength < 0) {
+      throw new CertificateException("Issuer is not a CA: " + issuer.getSubjectX500Principal());
+    }
+    if (caCertificatesBelow > pathLength) {
+      throw new CertificateException(
+          "Path length constraint of " + issuer.getSubjectX500Principal() + " exceeded");
+    }
+    boolean[] keyUsage = issuer.getKeyUsage();
+    if (keyUsage != null && (keyUsage.length <= KEY_CERT_SIGN || !keyUsage[KEY_CERT_SIGN])) {
+      throw new CertificateException(
+          "Issuer may not sign certificates: " + issuer.getSubjectX500Principal());
+    }
+  }
+
+  private static void verifySignature(X509Certificate certificate, X509Certificate issuer)
+      throws CertificateException {
+    if (!certificate.getIssuerX500Principal().equals(issuer.getSubjectX500Principal())) {
+      throw new CertificateException("Certificate " + certificate.getSubjectX500Principal()
+          + " is not issued by " + issuer.getSubjectX500Principal());
+    }
+    try {
+      certificate.verify(issuer.getPublicKey());
+    } catch (GeneralSecurityException e) {
+      throw new CertificateException(
+          "Invalid signature on " + certificate.getSubjectX500Principal(), e);
+    }
+  }
+
+  private static ByteBuffer fingerprint(X509Certificate certificate)
+      throws CertificateException {
+    try {
+      return ByteBuffer.wrap(
+          MessageDigest.getInstance(FINGERPRINT_ALGORITHM).digest(certificate.getEncoded()));
+    } catch (NoSuchAlgorithmException e) {
+      throw new CertificateException("Error when fingerprinting certificate", e);
+    }
+  }
+}
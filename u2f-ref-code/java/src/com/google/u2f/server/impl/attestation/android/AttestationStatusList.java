@@ -0,0 +1,92 @@
+package com.google.u2f.server.impl.attestation.android;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+
+/**
+ * The revocation status of Android attestation certificates, as published by Google at
+ * https://android.googleapis.com/attestation/status and loaded from a local copy.
+ *
+ * <p>Expected format:
+ * <pre>
+ *   {
+ *     "entries": {
+ *       "2c8cdddfd5e03bfc": { "status": "REVOKED", "reason": "KEY_COMPROMISE" },
+ *       ...
+ *     }
+ *   }
+ * </pre>
+ * Entries are keyed by the serial number of the certificate, in hex. Certificates that are
+ * {@code REVOKED} or {@code SUSPENDED} are considered revoked.
+ */
+public class AttestationStatusList {
+  public static final AttestationStatusList EMPTY =
+      new AttestationStatusList(ImmutableMap.<BigInteger, String>of());
+
+  private static final String ENTRIES = "entries";
+  private static final String STATUS = "status";
+  private static final String STATUS_REVOKED = "REVOKED";
+  private static final String STATUS_SUSPENDED = "SUSPENDED";
+
+  // The status of each listed certificate, by serial number
+  private final Map<BigInteger, String> statuses;
+
+  private AttestationStatusList(Map<BigInteger, String> statuses) {
+    this.statuses = statuses;
+  }
+
+  /**
+   * @throws IOException if the status list can't be read or is malformed
+   */
+  public static AttestationStatusList parse(Reader json) throws IOException {
+    try {
+      JsonElement root = JsonParser.parseReader(json);
+      if (!root.isJsonObject() || !root.getAsJsonObject().has(ENTRIES)) {
+        throw new IOException("Status list has no entries");
+      }
+      ImmutableMap.Builder<BigInteger, String> statuses = ImmutableMap.builder();
+      for (Map.Entry<String, JsonElement> entry
+          : root.getAsJsonObject().getAsJsonObject(ENTRIES).entrySet()) {
+        JsonObject value = entry.getValue().getAsJsonObject();
+        if (!value.has(STATUS)) {
+          throw new IOException("Status list entry " + entry.getKey() + " has no status");
+        }
+        statuses.put(new BigInteger(entry.getKey(), 16), value.get(STATUS).getAsString());
+      }
+      return new AttestationStatusList(statuses.build());
+    } catch (JsonParseException | IllegalStateException | ClassCastException
+        | UnsupportedOperationException | IllegalArgumentException e) {
+      // Gson throws most of these for values of the wrong type, BigInteger for malformed serial
+      // numbers, and the map builder for serial numbers listed twice.
+      throw new IOException("Malformed status list", e);
+    }
+  }
+
+  /**
+   * @return the status of the certificate with this serial number, or null if it isn't listed
+   */
+  public String getStatus(BigInteger serialNumber) {
+    return statuses.get(serialNumber);
+  }
+
+  public boolean isRevoked(X509Certificate certificate) {
+    String status = statuses.get(certificate.getSerialNumber());
+    return STATUS_REVOKED.equals(status) || STATUS_SUSPENDED.equals(status);
+  }
+
+  /**
+   * @return the number of listed certificates
+   */
+  public int size() {
+    return statuses.size();
+  }
+}
@@ -4,19 +4,40 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.u2f.server.impl.attestation.android.AuthorizationTag.Kind;
+
+import org.apache.commons.codec.binary.Hex;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
 /**
  * Authorization List that describes a Keymaster key
+ *
+ * <p>Values are kept by the ordinal of their {@link AuthorizationTag}: numbers, including the
+ * values of enumerated tags, as primitives, and the other kinds in arrays of their own. The typed
+ * getters convert on each call.
  */
 public class AuthorizationList {
-  private final List<Purpose> purposeList;
-  private final Algorithm algorithm;
-  private final Integer keySize;
-  private final List<BlockMode> blockModeList;
+  private static final AuthorizationTag[] TAGS = AuthorizationTag.values();
+
+  static {
+    if (TAGS.length > Long.SIZE) {
+      throw new AssertionError("Too many tags for the presence bits");
+    }
+  }
+
+  // Bit i is set if the tag with ordinal i is present
+  private final long present;
+  // by tag ordinal: the values of INTEGER tags, of INTEGER_SET tags (sorted) and INTEGER_SEQUENCE
+  // tags, and of OCTET_STRING tags
+  private final long[] integers;
+  private final int[][] integerLists;
+  private final byte[][] octetStrings;
+  private final RootOfTrust rootOfTrust;
 
   @VisibleForTesting
   public static final String JSON_ALGORITHM_KEY = "algorithm";
@@ -29,31 +50,152 @@ public class AuthorizationList {
 
   protected AuthorizationList(List<Purpose> purposeList, Algorithm algorithm, Integer keySize,
       List<BlockMode> blockModeList) {
-    this.purposeList = purposeList;
-    this.algorithm = algorithm;
-    this.keySize = keySize;
-    this.blockModeList = blockModeList;
+    this(new Builder()
+        .setPurpose(purposeList)
+        .setAlgorithm(algorithm)
+        .setKeySize(keySize)
+        .setBlockMode(blockModeList));
+  }
+
+  private AuthorizationList(Builder builder) {
+    // parsed authorization lists are shared, see AttestationAnalysisCache
+    this.present = builder.present;
+    this.integers = builder.integers.clone();
+    this.integerLists = new int[TAGS.length][];
+    for (int i = 0; i < TAGS.length; i++) {
+      if (builder.integerLists[i] != null) {
+        integerLists[i] = builder.integerLists[i].clone();
+        if (TAGS[i].getKind() == Kind.INTEGER_SET) {
+          Arrays.sort(integerLists[i]);
+        }
+      }
+    }
+    this.octetStrings = new byte[TAGS.length][];
+    for (int i = 0; i < TAGS.length; i++) {
+      if (builder.octetStrings[i] != null) {
+        octetStrings[i] = builder.octetStrings[i].clone();
+      }
+    }
+    this.rootOfTrust = builder.rootOfTrust;
   }
 
   public List<Purpose> getPurposeList() {
-    return purposeList;
+    return getEnumList(AuthorizationTag.PURPOSE, Purpose.class);
   }
 
   public Algorithm getAlgorithm() {
-    return algorithm;
+    return getEnum(AuthorizationTag.ALGORITHM, Algorithm.class);
   }
 
   public Integer getKeySize() {
-    return keySize;
+    return has(AuthorizationTag.KEY_SIZE) ? (int) getInteger(AuthorizationTag.KEY_SIZE) : null;
   }
 
   public List<BlockMode> getBlockModeList() {
-    return blockModeList;
+    return getEnumList(AuthorizationTag.BLOCK_MODE, BlockMode.class);
+  }
+
+  public List<Digest> getDigestList() {
+    return getEnumList(AuthorizationTag.DIGEST, Digest.class);
+  }
+
+  public List<Padding> getPaddingList() {
+    return getEnumList(AuthorizationTag.PADDING, Padding.class);
+  }
+
+  public EcCurve getEcCurve() {
+    return getEnum(AuthorizationTag.EC_CURVE, EcCurve.class);
+  }
+
+  public KeyOrigin getOrigin() {
+    return getEnum(AuthorizationTag.ORIGIN, KeyOrigin.class);
+  }
+
+  public RootOfTrust getRootOfTrust() {
+    return rootOfTrust;
+  }
+
+  /**
+   * @return the creation time in milliseconds since the epoch, or null if not present
+   */
+  public Long getCreationDateTime() {
+    return has(AuthorizationTag.CREATION_DATE_TIME)
+        ? getInteger(AuthorizationTag.CREATION_DATE_TIME) : null;
+  }
+
+  public Integer getOsVersion() {
+    return has(AuthorizationTag.OS_VERSION) ? (int) getInteger(AuthorizationTag.OS_VERSION) : null;
+  }
+
+  public Integer getPatchLevel() {
+    return has(AuthorizationTag.PATCH_LEVEL)
+        ? (int) getInteger(AuthorizationTag.PATCH_LEVEL) : null;
+  }
+
+  /**
+   * @return whether {@code tag} is present. For tags of kind NULL, that is their value.
+   */
+  public boolean has(AuthorizationTag tag) {
+    return (present & (1L << tag.ordinal())) != 0;
+  }
+
+  /**
+   * @return the value of an INTEGER tag, or 0 if it isn't present
+   */
+  public long getInteger(AuthorizationTag tag) {
+    checkKind(tag, Kind.INTEGER);
+    return integers[tag.ordinal()];
+  }
+
+  /**
+   * @return the values of an INTEGER_SET or INTEGER_SEQUENCE tag, or null if it isn't present
+   */
+  public int[] getIntegers(AuthorizationTag tag) {
+    if (tag.getKind() != Kind.INTEGER_SEQUENCE) {
+      checkKind(tag, Kind.INTEGER_SET);
+    }
+    int[] values = integerLists[tag.ordinal()];
+    return values == null ? null : values.clone();
+  }
+
+  /**
+   * @return the value of an OCTET_STRING tag, or null if it isn't present
+   */
+  public byte[] getOctetString(AuthorizationTag tag) {
+    checkKind(tag, Kind.OCTET_STRING);
+    byte[] value = octetStrings[tag.ordinal()];
+    return value == null ? null : value.clone();
+  }
+
+  private <T extends KeymasterValue> T getEnum(AuthorizationTag tag, Class<T> type) {
+    if (!has(tag)) {
+      return null;
+    }
+    return type.cast(tag.lookup(integers[tag.ordinal()]));
+  }
+
+  private <T extends KeymasterValue> List<T> getEnumList(AuthorizationTag tag, Class<T> type) {
+    int[] values = integerLists[tag.ordinal()];
+    if (values == null) {
+      return null;
+    }
+    List<T> list = new ArrayList<T>(values.length);
+    for (int value : values) {
+      list.add(type.cast(tag.lookup(value)));
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+  private static void checkKind(AuthorizationTag tag, Kind kind) {
+    if (tag.getKind() != kind) {
+      throw new IllegalArgumentException(tag + " is not of kind " + kind);
+    }
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(purposeList, algorithm, keySize, blockModeList);
+    return Objects.hash(present, Arrays.hashCode(integers), Arrays.deepHashCode(integerLists),
+        Arrays.deepHashCode(octetStrings), rootOfTrust);
   }
 
   @Override
@@ -65,11 +207,13 @@ public class AuthorizationList {
     if (getClass() != obj.getClass())
       return false;
 
+    // sets are sorted, so their order doesn't matter
     AuthorizationList other = (AuthorizationList) obj;
-    return Objects.equals(algorithm, other.algorithm)
-        && areEqualIgnoringOrder(purposeList, other.purposeList)
-        && Objects.equals(keySize, other.keySize)
-        && areEqualIgnoringOrder(blockModeList, other.blockModeList);
+    return present == other.present
+        && Arrays.equals(integers, other.integers)
+        && Arrays.deepEquals(integerLists, other.integerLists)
+        && Arrays.deepEquals(octetStrings, other.octetStrings)
+        && Objects.equals(rootOfTrust, other.rootOfTrust);
   }
 
   @Override
@@ -77,24 +221,35 @@ public class AuthorizationList {
     StringBuilder stringRepresentation = new StringBuilder();
     stringRepresentation.append("[");
 
-    if (purposeList != null) {
-      stringRepresentation.append("\n  purpose list: ");
-      stringRepresentation.append(purposeList);
-    }
-
-    if (algorithm != null) {
-      stringRepresentation.append("\n  algorithm: ");
-      stringRepresentation.append(algorithm);
-    }
-
-    if (keySize != null) {
-      stringRepresentation.append("\n  key size: ");
-      stringRepresentation.append(keySize);
-    }
-
-    if (blockModeList != null) {
-      stringRepresentation.append("\n  block mode list: ");
-      stringRepresentation.append(blockModeList);
+    for (AuthorizationTag tag : TAGS) {
+      if (!has(tag)) {
+        continue;
+      }
+      stringRepresentation.append("\n  ");
+      stringRepresentation.append(tag.getLabel());
+      stringRepresentation.append(": ");
+      int i = tag.ordinal();
+      switch (tag.getKind()) {
+        case INTEGER:
+          stringRepresentation.append(
+              tag.isEnumerated() ? tag.lookup(integers[i]) : Long.toString(integers[i]));
+          break;
+        case INTEGER_SET:
+        case INTEGER_SEQUENCE:
+          stringRepresentation.append(tag.isEnumerated()
+              ? getEnumList(tag, KeymasterValue.class) : Arrays.toString(integerLists[i]));
+          break;
+        case NULL:
+          stringRepresentation.append(true);
+          break;
+        case OCTET_STRING:
+          stringRepresentation.append("0x");
+          stringRepresentation.append(Hex.encodeHexString(octetStrings[i]));
+          break;
+        case ROOT_OF_TRUST:
+          stringRepresentation.append(rootOfTrust.toString().replaceAll("\n", "\n  "));
+          break;
+      }
     }
 
     stringRepresentation.append("\n]");
@@ -104,76 +259,180 @@ public class AuthorizationList {
 
   public JsonObject toJson() {
     JsonObject json = new JsonObject();
-    if (purposeList != null) {
-      JsonArray purposeJsonArray = new JsonArray();
-      for (Purpose purpose : purposeList) {
-        purposeJsonArray.add(new JsonPrimitive(purpose.toString()));
+    for (AuthorizationTag tag : TAGS) {
+      if (!has(tag)) {
+        continue;
       }
-      json.add(JSON_PURPOSE_KEY, purposeJsonArray);
-    }
-    if (algorithm != null) {
-      json.addProperty(JSON_ALGORITHM_KEY, algorithm.toString());
-    }
-    if (keySize != null) {
-      json.addProperty(JSON_KEY_SIZE_KEY, keySize);
-    }
-    if (blockModeList != null) {
-      JsonArray blockModeJsonArray = new JsonArray();
-      for (BlockMode blockMode : blockModeList) {
-        blockModeJsonArray.add(new JsonPrimitive(blockMode.toString()));
+      int i = tag.ordinal();
+      switch (tag.getKind()) {
+        case INTEGER:
+          if (tag.isEnumerated()) {
+            json.addProperty(tag.getJsonKey(), tag.lookup(integers[i]).toString());
+          } else {
+            json.addProperty(tag.getJsonKey(), integers[i]);
+          }
+          break;
+        case INTEGER_SET:
+        case INTEGER_SEQUENCE:
+          JsonArray jsonArray = new JsonArray();
+          for (int value : integerLists[i]) {
+            jsonArray.add(tag.isEnumerated()
+                ? new JsonPrimitive(tag.lookup(value).toString()) : new JsonPrimitive(value));
+          }
+          json.add(tag.getJsonKey(), jsonArray);
+          break;
+        case NULL:
+          json.addProperty(tag.getJsonKey(), true);
+          break;
+        case OCTET_STRING:
+          json.addProperty(tag.getJsonKey(), Hex.encodeHexString(octetStrings[i]));
+          break;
+        case ROOT_OF_TRUST:
+          json.add(tag.getJsonKey(), rootOfTrust.toJson());
+          break;
       }
-      json.add(JSON_BLOCK_MODE_KEY, blockModeJsonArray);
     }
     return json;
   }
 
   public static class Builder {
-    private List<Purpose> purpose;
-    private Algorithm algorithm;
-    private Integer keySize;
-    private List<BlockMode> blockMode;
+    private long present;
+    private final long[] integers;
+    private final int[][] integerLists;
+    private final byte[][] octetStrings;
+    private RootOfTrust rootOfTrust;
 
     public Builder() {
-      this.purpose = null;
-      this.algorithm = null;
-      this.keySize = null;
-      this.blockMode = null;
+      this.present = 0;
+      this.integers = new long[TAGS.length];
+      this.integerLists = new int[TAGS.length][];
+      this.octetStrings = new byte[TAGS.length][];
+      this.rootOfTrust = null;
     }
 
     public Builder setPurpose(List<Purpose> purpose) {
-      if (purpose != null) {
-        this.purpose = new ArrayList<Purpose>(purpose);
-      }
-      return this;
+      return setEnumList(AuthorizationTag.PURPOSE, purpose);
     }
 
     public Builder setAlgorithm(Algorithm algorithm) {
-      this.algorithm = algorithm;
-      return this;
+      return setEnum(AuthorizationTag.ALGORITHM, algorithm);
     }
 
     public Builder setKeySize(Integer keySize) {
-      this.keySize = keySize;
-      return this;
+      if (keySize == null) {
+        return clear(AuthorizationTag.KEY_SIZE);
+      }
+      return setInteger(AuthorizationTag.KEY_SIZE, keySize);
     }
 
     public Builder setBlockMode(List<BlockMode> blockMode) {
-      if (blockMode != null) {
-        this.blockMode = new ArrayList<BlockMode>(blockMode);
+      return setEnumList(AuthorizationTag.BLOCK_MODE, blockMode);
+    }
+
+    public Builder setDigest(List<Digest> digest) {
+      return setEnumList(AuthorizationTag.DIGEST, digest);
+    }
+
+    public Builder setPadding(List<Padding> padding) {
+      return setEnumList(AuthorizationTag.PADDING, padding);
+    }
+
+    public Builder setEcCurve(EcCurve ecCurve) {
+      return setEnum(AuthorizationTag.EC_CURVE, ecCurve);
+    }
+
+    public Builder setOrigin(KeyOrigin origin) {
+      return setEnum(AuthorizationTag.ORIGIN, origin);
+    }
+
+    public Builder setRootOfTrust(RootOfTrust rootOfTrust) {
+      this.rootOfTrust = rootOfTrust;
+      return rootOfTrust == null ? clear(AuthorizationTag.ROOT_OF_TRUST)
+          : markPresent(AuthorizationTag.ROOT_OF_TRUST);
+    }
+
+    /**
+     * Sets the value of an INTEGER tag. The values of enumerated tags must be known.
+     */
+    public Builder setInteger(AuthorizationTag tag, long value) {
+      checkKind(tag, Kind.INTEGER);
+      if (tag.isEnumerated() && tag.lookup(value) == null) {
+        throw new IllegalArgumentException("Invalid " + tag + " value: " + value);
       }
-      return this;
+      integers[tag.ordinal()] = value;
+      return markPresent(tag);
+    }
+
+    /**
+     * Sets the values of an INTEGER_SET or INTEGER_SEQUENCE tag. The values of enumerated tags
+     * must be known.
+     */
+    public Builder setIntegers(AuthorizationTag tag, int[] values) {
+      if (tag.getKind() != Kind.INTEGER_SEQUENCE) {
+        checkKind(tag, Kind.INTEGER_SET);
+      }
+      if (tag.isEnumerated()) {
+        for (int value : values) {
+          if (tag.lookup(value) == null) {
+            throw new IllegalArgumentException("Invalid " + tag + " value: " + value);
+          }
+        }
+      }
+      integerLists[tag.ordinal()] = values.clone();
+      return markPresent(tag);
+    }
+
+    /**
+     * Sets a tag of kind NULL.
+     */
+    public Builder setFlag(AuthorizationTag tag) {
+      checkKind(tag, Kind.NULL);
+      return markPresent(tag);
+    }
+
+    public Builder setOctetString(AuthorizationTag tag, byte[] value) {
+      checkKind(tag, Kind.OCTET_STRING);
+      octetStrings[tag.ordinal()] = value.clone();
+      return markPresent(tag);
+    }
+
+    boolean has(AuthorizationTag tag) {
+      return (present & (1L << tag.ordinal())) != 0;
     }
 
     public AuthorizationList build() {
-      return new AuthorizationList(this.purpose, this.algorithm, this.keySize, this.blockMode);
+      return new AuthorizationList(this);
+    }
+
+    private Builder setEnum(AuthorizationTag tag, KeymasterValue value) {
+      if (value == null) {
+        return clear(tag);
+      }
+      return setInteger(tag, value.getValue());
+    }
+
+    private Builder setEnumList(AuthorizationTag tag, List<? extends KeymasterValue> list) {
+      if (list == null) {
+        return clear(tag);
+      }
+      int[] values = new int[list.size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = list.get(i).getValue();
+      }
+      return setIntegers(tag, values);
     }
-  }
 
-  private <T> boolean areEqualIgnoringOrder(List<T> list1, List<T> list2) {
-    if (list1 != null && list2 != null) {
-      return list1.containsAll(list2) && list2.containsAll(list1);
+    private Builder markPresent(AuthorizationTag tag) {
+      present |= 1L << tag.ordinal();
+      return this;
     }
 
-    return list1 == null && list2 == null;
+    private Builder clear(AuthorizationTag tag) {
+      present &= ~(1L << tag.ordinal());
+      integers[tag.ordinal()] = 0;
+      integerLists[tag.ordinal()] = null;
+      octetStrings[tag.ordinal()] = null;
+      return this;
+    }
   }
 }
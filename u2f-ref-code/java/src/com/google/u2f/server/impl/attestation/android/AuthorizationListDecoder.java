@@ -0,0 +1,89 @@
+package com.google.u2f.server.impl.attestation.android;
+
+import com.google.u2f.server.impl.attestation.X509ExtensionParsingUtil;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Null;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1Set;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+
+import java.security.cert.CertificateParsingException;
+
+/**
+ * Decodes an AuthorizationList in a single pass over its elements. Each element's tag number
+ * selects its {@link AuthorizationTag}, whose kind says how to decode the value, and the value goes
+ * straight into the {@link AuthorizationList.Builder} slot of that tag. Tags of newer Keymaster
+ * versions are skipped.
+ */
+class AuthorizationListDecoder {
+  private AuthorizationListDecoder() {}
+
+  static AuthorizationList decode(ASN1Sequence authorizationSequence)
+      throws CertificateParsingException {
+    AuthorizationList.Builder builder = new AuthorizationList.Builder();
+    for (int i = 0; i < authorizationSequence.size(); i++) {
+      ASN1Encodable element = authorizationSequence.getObjectAt(i);
+      if (!(element instanceof ASN1TaggedObject)) {
+        throw new CertificateParsingException("Expected DERTagged object");
+      }
+      ASN1TaggedObject taggedObject = (ASN1TaggedObject) element;
+      AuthorizationTag tag = AuthorizationTag.fromNumber(taggedObject.getTagNo());
+      if (tag == null) {
+        continue;
+      }
+      if (builder.has(tag)) {
+        throw new CertificateParsingException("Duplicate tag " + taggedObject.getTagNo());
+      }
+      try {
+        decodeValue(builder, tag, taggedObject.getObject());
+      } catch (IllegalArgumentException e) {
+        // unknown value of an enumerated tag
+        throw new CertificateParsingException(e.getMessage(), e);
+      }
+    }
+    return builder.build();
+  }
+
+  private static void decodeValue(AuthorizationList.Builder builder, AuthorizationTag tag,
+      ASN1Primitive value) throws CertificateParsingException {
+    switch (tag.getKind()) {
+      case INTEGER:
+        builder.setInteger(tag, X509ExtensionParsingUtil.getLong(value));
+        break;
+      case INTEGER_SET:
+        if (!(value instanceof ASN1Set)) {
+          throw new CertificateParsingException("Expected ASN1Set");
+        }
+        builder.setIntegers(tag, getInts(((ASN1Set) value).toArray()));
+        break;
+      case INTEGER_SEQUENCE:
+        if (!(value instanceof ASN1Sequence)) {
+          throw new CertificateParsingException("Expected ASN1Sequence");
+        }
+        builder.setIntegers(tag, getInts(((ASN1Sequence) value).toArray()));
+        break;
+      case NULL:
+        if (!(value instanceof ASN1Null)) {
+          throw new CertificateParsingException("Expected NULL type.");
+        }
+        builder.setFlag(tag);
+        break;
+      case OCTET_STRING:
+        builder.setOctetString(tag, X509ExtensionParsingUtil.getByteArray(value));
+        break;
+      case ROOT_OF_TRUST:
+        builder.setRootOfTrust(RootOfTrust.decode(value));
+        break;
+    }
+  }
+
+  private static int[] getInts(ASN1Encodable[] elements) throws CertificateParsingException {
+    int[] values = new int[elements.length];
+    for (int i = 0; i < elements.length; i++) {
+      values[i] = X509ExtensionParsingUtil.getInt(elements[i]);
+    }
+    return values;
+  }
+}
@@ -0,0 +1,133 @@
+package com.google.u2f.server.impl.attestation.android;
+
+import java.util.Locale;
+
+/**
+ * The fields of an {@link AuthorizationList}, with their tag numbers and how their values are
+ * encoded, as taken from: keymaster_defs.h / KeymasterDefs.java
+ */
+public enum AuthorizationTag {
+  PURPOSE(1, Kind.INTEGER_SET, Purpose.values()),
+  ALGORITHM(2, Kind.INTEGER, Algorithm.values()),
+  KEY_SIZE(3, Kind.INTEGER),
+  BLOCK_MODE(4, Kind.INTEGER_SET, BlockMode.values()),
+  DIGEST(5, Kind.INTEGER_SET, Digest.values()),
+  PADDING(6, Kind.INTEGER_SET, Padding.values()),
+  CALLER_NONCE(7, Kind.NULL),
+  MIN_MAC_LENGTH(8, Kind.INTEGER),
+  KDF(9, Kind.INTEGER_SEQUENCE),
+  EC_CURVE(10, Kind.INTEGER, EcCurve.values()),
+  RSA_PUBLIC_EXPONENT(200, Kind.INTEGER),
+  ECIES_SINGLE_HASH_MODE(201, Kind.NULL),
+  INCLUDE_UNIQUE_ID(202, Kind.NULL),
+  BLOB_USAGE_REQUIREMENTS(301, Kind.INTEGER),
+  BOOTLOADER_ONLY(302, Kind.NULL),
+  ACTIVE_DATE_TIME(400, Kind.INTEGER),
+  ORIGINATION_EXPIRE_DATE_TIME(401, Kind.INTEGER),
+  USAGE_EXPIRE_DATE_TIME(402, Kind.INTEGER),
+  MIN_SECONDS_BETWEEN_OPS(403, Kind.INTEGER),
+  MAX_USES_PER_BOOT(404, Kind.INTEGER),
+  NO_AUTH_REQUIRED(503, Kind.NULL),
+  USER_AUTH_TYPE(504, Kind.INTEGER),
+  AUTH_TIMEOUT(505, Kind.INTEGER),
+  ALL_APPLICATIONS(600, Kind.NULL),
+  APPLICATION_ID(601, Kind.OCTET_STRING),
+  APPLICATION_DATA(700, Kind.OCTET_STRING),
+  CREATION_DATE_TIME(701, Kind.INTEGER),
+  ORIGIN(702, Kind.INTEGER, KeyOrigin.values()),
+  ROLLBACK_RESISTANT(703, Kind.NULL),
+  ROOT_OF_TRUST(704, Kind.ROOT_OF_TRUST),
+  OS_VERSION(705, Kind.INTEGER),
+  PATCH_LEVEL(706, Kind.INTEGER),
+  UNIQUE_ID(707, Kind.NULL);
+
+  /**
+   * How the value of a tag is encoded.
+   */
+  public enum Kind {
+    INTEGER,
+    INTEGER_SET,
+    INTEGER_SEQUENCE,
+    NULL,
+    OCTET_STRING,
+    ROOT_OF_TRUST
+  }
+
+  // The tags by number, so decoding a tag doesn't search or box.
+  private static final AuthorizationTag[] BY_NUMBER;
+
+  static {
+    int maxNumber = 0;
+    for (AuthorizationTag tag : values()) {
+      maxNumber = Math.max(maxNumber, tag.number);
+    }
+    BY_NUMBER = new AuthorizationTag[maxNumber + 1];
+    for (AuthorizationTag tag : values()) {
+      BY_NUMBER[tag.number] = tag;
+    }
+  }
+
+  private final int number;
+  private final Kind kind;
+  // The values an INTEGER or INTEGER_SET tag may have, or null if it is a plain number
+  private final KeymasterValue[] constants;
+
+  private AuthorizationTag(int number, Kind kind) {
+    this(number, kind, null);
+  }
+
+  private AuthorizationTag(int number, Kind kind, KeymasterValue[] constants) {
+    this.number = number;
+    this.kind = kind;
+    this.constants = constants;
+  }
+
+  /**
+   * @return the tag with the given number, or null if the number isn't known
+   */
+  public static AuthorizationTag fromNumber(int number) {
+    return number >= 0 && number < BY_NUMBER.length ? BY_NUMBER[number] : null;
+  }
+
+  public int getNumber() {
+    return number;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * @return whether the values of this tag are constants of a {@link KeymasterValue} enum
+   */
+  public boolean isEnumerated() {
+    return constants != null;
+  }
+
+  /**
+   * @return the constant of this tag's enum encoded as {@code value}, or null if there is none
+   */
+  KeymasterValue lookup(long value) {
+    for (KeymasterValue constant : constants) {
+      if (constant.getValue() == value) {
+        return constant;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the key of this tag in {@link AuthorizationList#toJson}
+   */
+  String getJsonKey() {
+    return name().toLowerCase(Locale.ROOT).replace("_", "");
+  }
+
+  /**
+   * @return the label of this tag in {@link AuthorizationList#toString}
+   */
+  String getLabel() {
+    String label = name().toLowerCase(Locale.ROOT).replace('_', ' ');
+    return kind == Kind.INTEGER_SET || kind == Kind.INTEGER_SEQUENCE ? label + " list" : label;
+  }
+}
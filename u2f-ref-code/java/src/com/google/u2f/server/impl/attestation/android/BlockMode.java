@@ -5,7 +5,7 @@ import java.security.cert.CertificateParsingException;
 /**
  * Keymaster block mode values as taken from: keymaster_defs.h / KeymasterDefs.java
  */
-public enum BlockMode {
+public enum BlockMode implements KeymasterValue {
   KM_MODE_ECB(1, "ecb"),
   KM_MODE_CBC(2, "cbc"),
   KM_MODE_CTR(3, "ctr"),
@@ -39,6 +39,7 @@ public enum BlockMode {
     this.description = description;
   }
 
+  @Override
   public int getValue() {
     return value;
   }
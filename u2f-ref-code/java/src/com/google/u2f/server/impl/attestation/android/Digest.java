@@ -0,0 +1,32 @@
+package com.google.u2f.server.impl.attestation.android;
+
+/**
+ * Keymaster digest values as taken from: keymaster_defs.h / KeymasterDefs.java
+ */
+public enum Digest implements KeymasterValue {
+  KM_DIGEST_NONE(0, "none"),
+  KM_DIGEST_MD5(1, "md5"),
+  KM_DIGEST_SHA1(2, "sha1"),
+  KM_DIGEST_SHA_2_224(3, "sha224"),
+  KM_DIGEST_SHA_2_256(4, "sha256"),
+  KM_DIGEST_SHA_2_384(5, "sha384"),
+  KM_DIGEST_SHA_2_512(6, "sha512");
+
+  private final int value;
+  private final String description;
+
+  private Digest(int value, String description) {
+    this.value = value;
+    this.description = description;
+  }
+
+  @Override
+  public int getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+}
@@ -0,0 +1,30 @@
+package com.google.u2f.server.impl.attestation.android;
+
+/**
+ * Keymaster elliptic curve values as taken from: keymaster_defs.h / KeymasterDefs.java
+ */
+public enum EcCurve implements KeymasterValue {
+  KM_EC_CURVE_P_224(0, "p-224"),
+  KM_EC_CURVE_P_256(1, "p-256"),
+  KM_EC_CURVE_P_384(2, "p-384"),
+  KM_EC_CURVE_P_521(3, "p-521"),
+  KM_EC_CURVE_CURVE_25519(4, "curve25519");
+
+  private final int value;
+  private final String description;
+
+  private EcCurve(int value, String description) {
+    this.value = value;
+    this.description = description;
+  }
+
+  @Override
+  public int getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+}
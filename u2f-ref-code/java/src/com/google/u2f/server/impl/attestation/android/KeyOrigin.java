@@ -0,0 +1,30 @@
+package com.google.u2f.server.impl.attestation.android;
+
+/**
+ * Keymaster key origin values as taken from: keymaster_defs.h / KeymasterDefs.java
+ */
+public enum KeyOrigin implements KeymasterValue {
+  KM_ORIGIN_GENERATED(0, "generated"),
+  KM_ORIGIN_DERIVED(1, "derived"),
+  KM_ORIGIN_IMPORTED(2, "imported"),
+  KM_ORIGIN_UNKNOWN(3, "unknown"),
+  KM_ORIGIN_SECURELY_IMPORTED(4, "securely imported");
+
+  private final int value;
+  private final String description;
+
+  private KeyOrigin(int value, String description) {
+    this.value = value;
+    this.description = description;
+  }
+
+  @Override
+  public int getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+}
@@ -0,0 +1,11 @@
+package com.google.u2f.server.impl.attestation.android;
+
+/**
+ * An enum of Keymaster values, as taken from: keymaster_defs.h / KeymasterDefs.java
+ */
+public interface KeymasterValue {
+  /**
+   * @return the value Keymaster encodes this constant as
+   */
+  int getValue();
+}
@@ -0,0 +1,31 @@
+package com.google.u2f.server.impl.attestation.android;
+
+/**
+ * Keymaster padding values as taken from: keymaster_defs.h / KeymasterDefs.java
+ */
+public enum Padding implements KeymasterValue {
+  KM_PAD_NONE(1, "none"),
+  KM_PAD_RSA_OAEP(2, "rsa-oaep"),
+  KM_PAD_RSA_PSS(3, "rsa-pss"),
+  KM_PAD_RSA_PKCS1_1_5_ENCRYPT(4, "rsa-pkcs1-1.5-encrypt"),
+  KM_PAD_RSA_PKCS1_1_5_SIGN(5, "rsa-pkcs1-1.5-sign"),
+  KM_PAD_PKCS7(64, "pkcs7");
+
+  private final int value;
+  private final String description;
+
+  private Padding(int value, String description) {
+    this.value = value;
+    this.description = description;
+  }
+
+  @Override
+  public int getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+}
@@ -5,7 +5,7 @@ import java.security.cert.CertificateParsingException;
 /**
  * Keysmaster purpose values as taken from: keymaster_defs.h / KeymasterDefs.java
  */
-public enum Purpose {
+public enum Purpose implements KeymasterValue {
   KM_PURPOSE_ENCRYPT(0, "encrypt"),
   KM_PURPOSE_DECRYPT(1, "decrypt"),
   KM_PURPOSE_SIGN(2, "sign"),
@@ -39,6 +39,7 @@ public enum Purpose {
     this.description = description;
   }
 
+  @Override
   public int getValue() {
     return value;
   }
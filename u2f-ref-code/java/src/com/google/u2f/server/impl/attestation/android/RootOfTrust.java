@@ -0,0 +1,154 @@
+package com.google.u2f.server.impl.attestation.android;
+
+import com.google.gson.JsonObject;
+import com.google.u2f.server.impl.attestation.X509ExtensionParsingUtil;
+
+import org.apache.commons.codec.binary.Hex;
+import org.bouncycastle.asn1.ASN1Boolean;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1Sequence;
+
+import java.security.cert.CertificateParsingException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The state of the device's verified boot when a Keymaster key was created.
+ *
+ * <p>Expected format:
+ *   RootOfTrust ::= SEQUENCE {
+ *       verifiedBootKey     OCTET_STRING,
+ *       deviceLocked        BOOLEAN,
+ *       verifiedBootState   VerifiedBootState,
+ *       -- only from Keymaster version 3 on
+ *       verifiedBootHash    OCTET_STRING,
+ *   }
+ */
+public class RootOfTrust {
+  private static final int VERIFIED_BOOT_KEY_INDEX = 0;
+  private static final int DEVICE_LOCKED_INDEX = 1;
+  private static final int VERIFIED_BOOT_STATE_INDEX = 2;
+  private static final int VERIFIED_BOOT_HASH_INDEX = 3;
+  private static final int MIN_LENGTH = 3;
+  private static final int MAX_LENGTH = 4;
+
+  private final byte[] verifiedBootKey;
+  private final boolean deviceLocked;
+  private final VerifiedBootState verifiedBootState;
+  private final byte[] verifiedBootHash;
+
+  public RootOfTrust(byte[] verifiedBootKey, boolean deviceLocked,
+      VerifiedBootState verifiedBootState, byte[] verifiedBootHash) {
+    this.verifiedBootKey = verifiedBootKey.clone();
+    this.deviceLocked = deviceLocked;
+    this.verifiedBootState = verifiedBootState;
+    this.verifiedBootHash = verifiedBootHash == null ? null : verifiedBootHash.clone();
+  }
+
+  static RootOfTrust decode(ASN1Encodable asn1Encodable) throws CertificateParsingException {
+    if (!(asn1Encodable instanceof ASN1Sequence)) {
+      throw new CertificateParsingException("Expected RootOfTrust Sequence.");
+    }
+    ASN1Sequence sequence = (ASN1Sequence) asn1Encodable;
+    if (sequence.size() < MIN_LENGTH || sequence.size() > MAX_LENGTH) {
+      throw new CertificateParsingException(
+          "RootOfTrust Sequence has " + sequence.size() + " elements.");
+    }
+
+    byte[] verifiedBootKey =
+        X509ExtensionParsingUtil.getByteArray(sequence.getObjectAt(VERIFIED_BOOT_KEY_INDEX));
+
+    ASN1Encodable deviceLocked = sequence.getObjectAt(DEVICE_LOCKED_INDEX);
+    if (!(deviceLocked instanceof ASN1Boolean)) {
+      throw new CertificateParsingException("Expected BOOLEAN type.");
+    }
+
+    ASN1Encodable verifiedBootState = sequence.getObjectAt(VERIFIED_BOOT_STATE_INDEX);
+    if (!(verifiedBootState instanceof ASN1Enumerated)) {
+      throw new CertificateParsingException("Expected ENUMERATED type.");
+    }
+    ASN1Enumerated state = (ASN1Enumerated) verifiedBootState;
+    if (state.getValue().bitLength() > Integer.SIZE - 1) {
+      throw new CertificateParsingException("ENUMERATED too big");
+    }
+
+    byte[] verifiedBootHash = null;
+    if (sequence.size() > VERIFIED_BOOT_HASH_INDEX) {
+      verifiedBootHash =
+          X509ExtensionParsingUtil.getByteArray(sequence.getObjectAt(VERIFIED_BOOT_HASH_INDEX));
+    }
+
+    return new RootOfTrust(verifiedBootKey, ((ASN1Boolean) deviceLocked).isTrue(),
+        VerifiedBootState.fromValue(state.getValue().intValue()), verifiedBootHash);
+  }
+
+  public byte[] getVerifiedBootKey() {
+    return verifiedBootKey.clone();
+  }
+
+  public boolean isDeviceLocked() {
+    return deviceLocked;
+  }
+
+  public VerifiedBootState getVerifiedBootState() {
+    return verifiedBootState;
+  }
+
+  /**
+   * @return the hash of the verified boot data, or null before Keymaster version 3
+   */
+  public byte[] getVerifiedBootHash() {
+    return verifiedBootHash == null ? null : verifiedBootHash.clone();
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(Arrays.hashCode(verifiedBootKey), deviceLocked, verifiedBootState,
+        Arrays.hashCode(verifiedBootHash));
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+
+    RootOfTrust other = (RootOfTrust) obj;
+    return Arrays.equals(verifiedBootKey, other.verifiedBootKey)
+        && deviceLocked == other.deviceLocked
+        && verifiedBootState == other.verifiedBootState
+        && Arrays.equals(verifiedBootHash, other.verifiedBootHash);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder stringRepresentation = new StringBuilder();
+    stringRepresentation.append("[\n  verified boot key: 0x");
+    stringRepresentation.append(Hex.encodeHexString(verifiedBootKey));
+    stringRepresentation.append("\n  device locked: ");
+    stringRepresentation.append(deviceLocked);
+    stringRepresentation.append("\n  verified boot state: ");
+    stringRepresentation.append(verifiedBootState);
+    if (verifiedBootHash != null) {
+      stringRepresentation.append("\n  verified boot hash: 0x");
+      stringRepresentation.append(Hex.encodeHexString(verifiedBootHash));
+    }
+    stringRepresentation.append("\n]");
+    return stringRepresentation.toString();
+  }
+
+  public JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    json.addProperty("verified_boot_key", Hex.encodeHexString(verifiedBootKey));
+    json.addProperty("device_locked", deviceLocked);
+    json.addProperty("verified_boot_state", verifiedBootState.toString());
+    if (verifiedBootHash != null) {
+      json.addProperty("verified_boot_hash", Hex.encodeHexString(verifiedBootHash));
+    }
+    return json;
+  }
+}
@@ -0,0 +1,41 @@
+package com.google.u2f.server.impl.attestation.android;
+
+import java.security.cert.CertificateParsingException;
+
+/**
+ * Verified boot states of a device, as taken from: keymaster_defs.h / KeymasterDefs.java
+ */
+public enum VerifiedBootState implements KeymasterValue {
+  KM_VERIFIED_BOOT_VERIFIED(0, "verified"),
+  KM_VERIFIED_BOOT_SELF_SIGNED(1, "self-signed"),
+  KM_VERIFIED_BOOT_UNVERIFIED(2, "unverified"),
+  KM_VERIFIED_BOOT_FAILED(3, "failed");
+
+  private final int value;
+  private final String description;
+
+  public static VerifiedBootState fromValue(int value) throws CertificateParsingException {
+    for (VerifiedBootState constant : VerifiedBootState.values()) {
+      if (constant.getValue() == value) {
+        return constant;
+      }
+    }
+
+    throw new CertificateParsingException("Invalid verified boot state value: " + value);
+  }
+
+  private VerifiedBootState(int value, String description) {
+    this.value = value;
+    this.description = description;
+  }
+
+  @Override
+  public int getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+}
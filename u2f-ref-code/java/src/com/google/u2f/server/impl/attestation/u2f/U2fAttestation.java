@@ -11,6 +11,7 @@ import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 
 public class U2fAttestation {
@@ -85,7 +86,7 @@ public class U2fAttestation {
   }
 
   private U2fAttestation(List<Transports> transports) {
-    this.transports = transports;
+    this.transports = transports == null ? null : Collections.unmodifiableList(transports);
   }
 
   /**
@@ -8,6 +8,9 @@ package com.google.u2f.server.messages;
 
 import java.util.Objects;
 
+import com.google.u2f.U2FException;
+import com.google.u2f.codec.Base64Url;
+
 public class RegistrationResponse {
   /** websafe-base64(raw registration response message) */
   private final String registrationData;
@@ -36,6 +39,20 @@ public class RegistrationResponse {
     return sessionId;
   }
 
+  /**
+   * @return {@link #getRegistrationData} decoded, in a new array on every call
+   */
+  public byte[] decodeRegistrationData() throws U2FException {
+    return Base64Url.decode(registrationData);
+  }
+
+  /**
+   * @return {@link #getClientData} decoded, in a new array on every call
+   */
+  public byte[] decodeClientData() throws U2FException {
+    return Base64Url.decode(clientData);
+  }
+
   @Override
   public int hashCode() {
     return Objects.hash(registrationData, clientData, sessionId);
@@ -8,6 +8,9 @@ package com.google.u2f.server.messages;
 
 import java.util.Objects;
 
+import com.google.u2f.U2FException;
+import com.google.u2f.codec.Base64Url;
+
 public class SignResponse {
 
   /** websafe-base64 key handle from U2F device */
@@ -46,6 +49,27 @@ public class SignResponse {
     return sessionId;
   }
 
+  /**
+   * @return {@link #getKeyHandle} decoded, in a new array on every call
+   */
+  public byte[] decodeKeyHandle() throws U2FException {
+    return Base64Url.decode(keyHandle);
+  }
+
+  /**
+   * @return {@link #getClientData} decoded, in a new array on every call
+   */
+  public byte[] decodeClientData() throws U2FException {
+    return Base64Url.decode(clientData);
+  }
+
+  /**
+   * @return {@link #getSignatureData} decoded, in a new array on every call
+   */
+  public byte[] decodeSignatureData() throws U2FException {
+    return Base64Url.decode(signatureData);
+  }
+
   @Override
   public int hashCode() {
     return Objects.hash(keyHandle, clientData, signatureData, sessionId);
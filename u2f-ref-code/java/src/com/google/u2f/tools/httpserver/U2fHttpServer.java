@@ -12,6 +12,7 @@ import java.net.InetSocketAddress;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.codec.DecoderException;
@@ -23,54 +24,41 @@ import org.simpleframework.transport.connect.SocketConnection;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.u2f.server.ChallengeGenerator;
+import com.google.u2f.server.Crypto;
 import com.google.u2f.server.DataStore;
 import com.google.u2f.server.SessionIdGenerator;
 import com.google.u2f.server.U2FServer;
 import com.google.u2f.server.impl.BouncyCastleCrypto;
 import com.google.u2f.server.impl.MemoryDataStore;
+import com.google.u2f.server.impl.SecureChallengeGenerator;
 import com.google.u2f.server.impl.U2FServerReferenceImpl;
+import com.google.u2f.server.impl.UniqueSessionIdGenerator;
 import com.google.u2f.tools.httpserver.servlets.EnrollDataServlet;
 import com.google.u2f.tools.httpserver.servlets.EnrollFinishServlet;
 import com.google.u2f.tools.httpserver.servlets.RequestDispatcher;
 import com.google.u2f.tools.httpserver.servlets.SignDataServlet;
 import com.google.u2f.tools.httpserver.servlets.SignFinishServlet;
 import com.google.u2f.tools.httpserver.servlets.StaticHandler;
+import com.google.u2f.trace.CeremonyTracer;
+import com.google.u2f.trace.LoggingTraceSink;
 
 public class U2fHttpServer {
   private final static Logger Log = Logger.getLogger(U2fHttpServer.class.getSimpleName());
 
+  // number of decoded user public keys kept in memory
+  private static final int PUBLIC_KEY_CACHE_SIZE = 1000;
+
   private final Object lock = new Object();
   private final U2FServer u2fServer;
 
-  private long sessionIdCounter = 0;
-
   public static void main(String[] args) throws InterruptedException {
     new U2fHttpServer();
   }
 
   public U2fHttpServer() {
-    ChallengeGenerator challengeGenerator = new ChallengeGenerator() {
-      @Override
-      public byte[] generateChallenge(String accountName) {
-        try {
-          return Hex.decodeHex("1234".toCharArray());
-        } catch (DecoderException e) {
-          throw new RuntimeException(e);
-        }
-      }
-    };
-
-    SessionIdGenerator sessionIdGenerator = new SessionIdGenerator() {
-      @Override
-      public String generateSessionId(String accountName) {
-        return new StringBuilder()
-          .append("sessionId_")
-          .append(sessionIdCounter++)
-          .append("_")
-          .append(accountName)
-          .toString();
-      }
-    };
+    ChallengeGenerator challengeGenerator = new SecureChallengeGenerator();
+
+    SessionIdGenerator sessionIdGenerator = new UniqueSessionIdGenerator();
 
     X509Certificate trustedCertificate;
     try {
@@ -95,9 +83,18 @@ public class U2fHttpServer {
     DataStore dataStore = new MemoryDataStore(sessionIdGenerator);
     dataStore.addTrustedCertificate(trustedCertificate);
 
+    Crypto crypto = new BouncyCastleCrypto.Builder()
+        .setPublicKeyCacheSize(PUBLIC_KEY_CACHE_SIZE)
+        .build();
+
     // this implementation will only accept signatures from http://localhost:8080
-    u2fServer = new U2FServerReferenceImpl(challengeGenerator, dataStore,
-        new BouncyCastleCrypto(), ImmutableSet.of("http://localhost:8080"));
+    u2fServer = new U2FServerReferenceImpl.Builder()
+        .setChallengeGenerator(challengeGenerator)
+        .setDataStore(dataStore)
+        .setCrypto(crypto)
+        .setOrigins(ImmutableSet.of("http://localhost:8080"))
+        .setCeremonyTracer(CeremonyTracer.all(new LoggingTraceSink(Log, Level.INFO)))
+        .build();
     Container dispatchContainer = new RequestDispatcher()
         .registerContainer("/", new StaticHandler("text/html","html/index.html"))
         .registerContainer("/enroll", new StaticHandler("text/html","html/enroll.html"))
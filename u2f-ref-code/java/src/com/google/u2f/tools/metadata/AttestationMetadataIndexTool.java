@@ -0,0 +1,170 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.tools.metadata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.u2f.server.data.AttestationMetadata;
+import com.google.u2f.server.data.SecurityKeyData.Transports;
+import com.google.u2f.server.impl.attestation.AttestationMetadataIndex;
+import com.google.u2f.server.impl.attestation.AttestationMetadataIndexWriter;
+
+/**
+ * Builds the index file read by {@link AttestationMetadataIndex} from a directory of vendor
+ * metadata.
+ *
+ * <p>Usage: {@code AttestationMetadataIndexTool <metadata directory> <index file>}
+ *
+ * <p>Each {@code .json} file of the directory describes one model:
+ * <pre>
+ *   {
+ *     "vendor": "Example",
+ *     "model": "Example Security Key",
+ *     "certificationLevel": "L1",
+ *     "transports": ["usb", "nfc"],
+ *     "attestationCertificates": ["example-batch-1.pem"],
+ *     "issuerCertificates": ["example-attestation-ca.pem"]
+ *   }
+ * </pre>
+ * Only {@code vendor} is required. Certificates are PEM or DER files, relative to the directory.
+ * Attestation certificates are matched by fingerprint; issuer certificates match the attestation
+ * certificates naming their subject key identifier and signed by their key.
+ */
+public class AttestationMetadataIndexTool {
+  private static final Logger Log =
+      Logger.getLogger(AttestationMetadataIndexTool.class.getSimpleName());
+
+  private static final String VENDOR = "vendor";
+  private static final String MODEL = "model";
+  private static final String CERTIFICATION_LEVEL = "certificationLevel";
+  private static final String TRANSPORTS = "transports";
+  private static final String ATTESTATION_CERTIFICATES = "attestationCertificates";
+  private static final String ISSUER_CERTIFICATES = "issuerCertificates";
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println(
+          "Usage: AttestationMetadataIndexTool <metadata directory> <index file>");
+      System.exit(1);
+    }
+    AttestationMetadataIndexWriter writer = buildIndex(new File(args[0]));
+    OutputStream out = new FileOutputStream(args[1]);
+    try {
+      writer.writeTo(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @throws IOException if the directory or one of its files can't be read or is malformed
+   */
+  public static AttestationMetadataIndexWriter buildIndex(File metadataDirectory)
+      throws IOException {
+    File[] metadataFiles = metadataDirectory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".json");
+      }
+    });
+    if (metadataFiles == null) {
+      throw new IOException("Not a directory: " + metadataDirectory);
+    }
+    // sorted, so the same directory always gives the same index
+    Arrays.sort(metadataFiles);
+
+    AttestationMetadataIndexWriter writer = new AttestationMetadataIndexWriter();
+    for (File metadataFile : metadataFiles) {
+      try {
+        addMetadataFile(writer, metadataFile);
+      } catch (CertificateException | JsonParseException | IllegalStateException
+          | ClassCastException | UnsupportedOperationException | IllegalArgumentException e) {
+        throw new IOException("Malformed metadata file " + metadataFile, e);
+      }
+    }
+    Log.info("Indexed " + metadataFiles.length + " metadata files");
+    return writer;
+  }
+
+  private static void addMetadataFile(AttestationMetadataIndexWriter writer, File metadataFile)
+      throws IOException, CertificateException {
+    JsonObject json;
+    Reader reader =
+        new InputStreamReader(new FileInputStream(metadataFile), StandardCharsets.UTF_8);
+    try {
+      json = JsonParser.parseReader(reader).getAsJsonObject();
+    } finally {
+      reader.close();
+    }
+    if (!json.has(VENDOR)) {
+      throw new IOException("Metadata file " + metadataFile + " has no vendor");
+    }
+
+    List<Transports> transports = null;
+    if (json.has(TRANSPORTS)) {
+      transports = Lists.newArrayList();
+      for (JsonElement transport : json.getAsJsonArray(TRANSPORTS)) {
+        transports.add(Transports.fromString(transport.getAsString()));
+      }
+    }
+    AttestationMetadata metadata = new AttestationMetadata(json.get(VENDOR).getAsString(),
+        getOptionalString(json, MODEL), getOptionalString(json, CERTIFICATION_LEVEL), transports);
+
+    File directory = metadataFile.getParentFile();
+    for (X509Certificate certificate
+        : readCertificates(directory, json, ATTESTATION_CERTIFICATES)) {
+      writer.addAttestationCertificate(certificate, metadata);
+    }
+    for (X509Certificate certificate : readCertificates(directory, json, ISSUER_CERTIFICATES)) {
+      writer.addIssuerCertificate(certificate, metadata);
+    }
+  }
+
+  private static String getOptionalString(JsonObject json, String member) {
+    return json.has(member) ? json.get(member).getAsString() : null;
+  }
+
+  private static List<X509Certificate> readCertificates(File directory, JsonObject json,
+      String member) throws IOException, CertificateException {
+    List<X509Certificate> certificates = Lists.newArrayList();
+    if (!json.has(member)) {
+      return certificates;
+    }
+    JsonArray fileNames = json.getAsJsonArray(member);
+    CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+    for (JsonElement fileName : fileNames) {
+      InputStream in = new FileInputStream(new File(directory, fileName.getAsString()));
+      try {
+        certificates.add((X509Certificate) certificateFactory.generateCertificate(in));
+      } finally {
+        in.close();
+      }
+    }
+    return certificates;
+  }
+}
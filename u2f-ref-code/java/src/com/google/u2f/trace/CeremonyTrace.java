@@ -0,0 +1,139 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The fields recorded during a single registration or authentication ceremony.
+ *
+ * <p>Values are stored as given and only formatted when a {@link TraceSink} asks for it. The
+ * {@link #DISABLED} trace ignores everything, so recording into it costs no more than the call.
+ * A trace is not thread-safe and belongs to the thread running the ceremony.
+ */
+public class CeremonyTrace {
+  /** A trace that drops all fields. */
+  public static final CeremonyTrace DISABLED = new CeremonyTrace(null, null);
+
+  private final String ceremony;
+  private final TraceSink sink;
+  private final List<Entry> entries;
+  private Throwable failure;
+
+  CeremonyTrace(String ceremony, TraceSink sink) {
+    this.ceremony = ceremony;
+    this.sink = sink;
+    this.entries = sink == null ? Collections.<Entry>emptyList() : new ArrayList<Entry>();
+  }
+
+  /**
+   * @return whether fields added to this trace will be consumed. Only needed to avoid computing
+   * values that aren't already at hand.
+   */
+  public boolean isEnabled() {
+    return sink != null;
+  }
+
+  public CeremonyTrace add(TraceField field, Object value) {
+    if (sink != null) {
+      entries.add(new Entry(field, value));
+    }
+    return this;
+  }
+
+  public CeremonyTrace add(TraceField field, int value) {
+    if (sink != null) {
+      entries.add(new Entry(field, value));
+    }
+    return this;
+  }
+
+  public CeremonyTrace add(TraceField field, byte value) {
+    if (sink != null) {
+      entries.add(new Entry(field, value));
+    }
+    return this;
+  }
+
+  /**
+   * Records that the ceremony failed with {@code failure}.
+   */
+  public void fail(Throwable failure) {
+    if (sink != null) {
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * Hands the trace to its sink. Must be called once, when the ceremony is over.
+   */
+  public void finish() {
+    if (sink != null) {
+      sink.consume(this);
+    }
+  }
+
+  /**
+   * @return the name of the traced ceremony, e.g. "processSignResponse"
+   */
+  public String getCeremony() {
+    return ceremony;
+  }
+
+  /**
+   * @return the recorded fields, in the order they were added
+   */
+  public List<Entry> getEntries() {
+    return Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * @return why the ceremony failed, or null if it succeeded
+   */
+  public Throwable getFailure() {
+    return failure;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(ceremony);
+    for (Entry entry : entries) {
+      result.append("\n  ").append(entry.getField()).append(": ").append(entry.formatValue());
+    }
+    if (failure != null) {
+      result.append("\n  failure: ").append(failure);
+    }
+    return result.toString();
+  }
+
+  public static class Entry {
+    private final TraceField field;
+    private final Object value;
+
+    private Entry(TraceField field, Object value) {
+      this.field = field;
+      this.value = value;
+    }
+
+    public TraceField getField() {
+      return field;
+    }
+
+    /**
+     * @return the value as recorded, e.g. a {@code byte[]} or an {@code X509Certificate}
+     */
+    public Object getValue() {
+      return value;
+    }
+
+    public String formatValue() {
+      return field.format(value);
+    }
+  }
+}
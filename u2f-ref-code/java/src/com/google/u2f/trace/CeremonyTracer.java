@@ -0,0 +1,57 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which ceremonies are traced and where their traces go.
+ */
+public class CeremonyTracer {
+  /** Traces nothing. */
+  public static final CeremonyTracer DISABLED = new CeremonyTracer(null, 1);
+
+  private final TraceSink sink;
+  private final int sampleRate;
+  private final AtomicLong ceremonyCount = new AtomicLong();
+
+  private CeremonyTracer(TraceSink sink, int sampleRate) {
+    if (sampleRate < 1) {
+      throw new IllegalArgumentException("sampleRate must be positive");
+    }
+    this.sink = sink;
+    this.sampleRate = sampleRate;
+  }
+
+  /**
+   * @return a tracer that sends every ceremony to {@code sink}
+   */
+  public static CeremonyTracer all(TraceSink sink) {
+    return new CeremonyTracer(sink, 1);
+  }
+
+  /**
+   * @return a tracer that sends one in {@code sampleRate} ceremonies to {@code sink}
+   */
+  public static CeremonyTracer sampled(TraceSink sink, int sampleRate) {
+    return new CeremonyTracer(sink, sampleRate);
+  }
+
+  /**
+   * @return a new trace for {@code ceremony}, or {@link CeremonyTrace#DISABLED} if this
+   * ceremony isn't traced
+   */
+  public CeremonyTrace start(String ceremony) {
+    if (sink == null) {
+      return CeremonyTrace.DISABLED;
+    }
+    if (sampleRate > 1 && ceremonyCount.getAndIncrement() % sampleRate != 0) {
+      return CeremonyTrace.DISABLED;
+    }
+    return new CeremonyTrace(ceremony, sink);
+  }
+}
@@ -0,0 +1,30 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.trace;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes each trace to a {@link Logger} as a single record.
+ */
+public class LoggingTraceSink implements TraceSink {
+  private final Logger logger;
+  private final Level level;
+
+  public LoggingTraceSink(Logger logger, Level level) {
+    this.logger = logger;
+    this.level = level;
+  }
+
+  @Override
+  public void consume(CeremonyTrace trace) {
+    if (logger.isLoggable(level)) {
+      logger.log(level, trace.toString());
+    }
+  }
+}
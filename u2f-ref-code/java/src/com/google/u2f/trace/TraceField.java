@@ -0,0 +1,86 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.trace;
+
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * The fields a {@link CeremonyTrace} can carry, each with the way its value is formatted.
+ */
+public enum TraceField {
+  SESSION_ID("sessionId", Format.TEXT),
+  ACCOUNT_NAME("accountName", Format.TEXT),
+  APP_ID("appId", Format.TEXT),
+  CHALLENGE("challenge", Format.HEX),
+  CLIENT_DATA("clientData", Format.UTF8),
+  REGISTRATION_DATA("rawRegistrationData", Format.HEX),
+  SIGNATURE_DATA("rawSignData", Format.HEX),
+  CONTROL("control", Format.HEX),
+  APPLICATION_SHA256("applicationSha256", Format.HEX),
+  CHALLENGE_SHA256("challengeSha256", Format.HEX),
+  USER_PUBLIC_KEY("userPublicKey", Format.HEX),
+  KEY_HANDLE("keyHandle", Format.HEX),
+  ATTESTATION_CERTIFICATE("attestationCertificate", Format.CERTIFICATE),
+  TRANSPORTS("transports", Format.TEXT),
+  ATTESTATION_METADATA("attestationMetadata", Format.TEXT),
+  USER_PRESENCE("userPresence", Format.HEX),
+  COUNTER("counter", Format.TEXT),
+  SIGNED_BYTES("signedBytes", Format.HEX),
+  SIGNATURE("signature", Format.HEX);
+
+  private enum Format {
+    TEXT,
+    UTF8,
+    HEX,
+    CERTIFICATE
+  }
+
+  private final String name;
+  private final Format format;
+
+  private TraceField(String name, Format format) {
+    this.name = name;
+    this.format = format;
+  }
+
+  /**
+   * Renders a value of this field as text. This is where the cost of tracing is paid, so it
+   * should only be called by sinks that actually output the value.
+   */
+  public String format(Object value) {
+    if (value == null) {
+      return "null";
+    }
+    switch (format) {
+      case UTF8:
+        return new String((byte[]) value, StandardCharsets.UTF_8);
+      case HEX:
+        if (value instanceof Byte) {
+          return Hex.encodeHexString(new byte[] {(Byte) value});
+        }
+        return Hex.encodeHexString((byte[]) value);
+      case CERTIFICATE:
+        X509Certificate certificate = (X509Certificate) value;
+        try {
+          return certificate + "\n  bytes: " + Hex.encodeHexString(certificate.getEncoded());
+        } catch (CertificateEncodingException e) {
+          return certificate + "\n  bytes: <cannot encode certificate>";
+        }
+      default:
+        return String.valueOf(value);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,15 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.trace;
+
+/**
+ * Receives finished {@link CeremonyTrace}s. Called on the thread that ran the ceremony.
+ */
+public interface TraceSink {
+
+  void consume(CeremonyTrace trace);
+}
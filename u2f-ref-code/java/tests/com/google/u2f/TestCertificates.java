@@ -0,0 +1,149 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.cert.CertIOException;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Generates P-256 keys and certificates signed with them, for tests that need certificate
+ * chains the test vectors don't have.
+ */
+public class TestCertificates {
+  private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+
+  public static KeyPair generateKeyPair() {
+    try {
+      KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+      generator.initialize(new ECGenParameterSpec("secp256r1"));
+      return generator.generateKeyPair();
+    } catch (GeneralSecurityException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return a builder for a certificate of {@code subjectKey}, self-issued, with serial number 1
+   *     and valid from now for one day unless set otherwise
+   */
+  public static Builder newCertificate(X500Principal subject, PublicKey subjectKey) {
+    return new Builder(subject, subjectKey);
+  }
+
+  public static class Builder {
+    private final X500Principal subject;
+    private final PublicKey subjectKey;
+    private X500Principal issuer;
+    private BigInteger serialNumber = BigInteger.ONE;
+    private Date notBefore = new Date();
+    private Date notAfter = new Date(notBefore.getTime() + TimeUnit.DAYS.toMillis(1));
+    private final List<Extension> extensions = new ArrayList<Extension>();
+
+    private Builder(X500Principal subject, PublicKey subjectKey) {
+      this.subject = subject;
+      this.subjectKey = subjectKey;
+      this.issuer = subject;
+    }
+
+    public Builder setIssuer(X500Principal issuer) {
+      this.issuer = issuer;
+      return this;
+    }
+
+    public Builder setSerialNumber(long serialNumber) {
+      this.serialNumber = BigInteger.valueOf(serialNumber);
+      return this;
+    }
+
+    public Builder setValidity(long notBefore, long notAfter) {
+      this.notBefore = new Date(notBefore);
+      this.notAfter = new Date(notAfter);
+      return this;
+    }
+
+    /**
+     * Marks the certificate as a CA without a path length constraint.
+     */
+    public Builder setCa() {
+      return addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+    }
+
+    /**
+     * Marks the certificate as a CA that may have at most {@code pathLength} CAs below it.
+     */
+    public Builder setCa(int pathLength) {
+      return addExtension(Extension.basicConstraints, true, new BasicConstraints(pathLength));
+    }
+
+    /**
+     * @param usage the {@link KeyUsage} bits, e.g. {@code KeyUsage.digitalSignature}
+     */
+    public Builder setKeyUsage(int usage) {
+      return addExtension(Extension.keyUsage, true, new KeyUsage(usage));
+    }
+
+    public Builder setSubjectKeyIdentifier(byte[] keyIdentifier) {
+      return addExtension(
+          Extension.subjectKeyIdentifier, false, new SubjectKeyIdentifier(keyIdentifier));
+    }
+
+    public Builder setAuthorityKeyIdentifier(byte[] keyIdentifier) {
+      return addExtension(
+          Extension.authorityKeyIdentifier, false, new AuthorityKeyIdentifier(keyIdentifier));
+    }
+
+    public Builder addExtension(ASN1ObjectIdentifier oid, boolean critical, ASN1Encodable value) {
+      try {
+        extensions.add(new Extension(oid, critical, value.toASN1Primitive().getEncoded()));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return this;
+    }
+
+    public X509Certificate sign(PrivateKey issuerKey) {
+      X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+          issuer, serialNumber, notBefore, notAfter, subject, subjectKey);
+      try {
+        for (Extension extension : extensions) {
+          builder.addExtension(extension);
+        }
+        return new JcaX509CertificateConverter().getCertificate(
+            builder.build(new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).build(issuerKey)));
+      } catch (CertIOException | OperatorCreationException | GeneralSecurityException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,49 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.google.u2f.TestVectors;
+import com.google.u2f.U2FException;
+
+public class AttestationCertificateInternerTest extends TestVectors {
+  private final AttestationCertificateInterner interner = new AttestationCertificateInterner(1);
+
+  @Test
+  public void testIntern() throws Exception {
+    ByteBuffer encoded = ByteBuffer.wrap(VENDOR_CERTIFICATE.getEncoded());
+
+    assertEquals(VENDOR_CERTIFICATE, interner.intern(encoded));
+    assertEquals(0, encoded.position());
+    assertSame(interner.intern(encoded),
+        interner.intern(ByteBuffer.wrap(VENDOR_CERTIFICATE.getEncoded())));
+    assertEquals(1, interner.stats().missCount());
+  }
+
+  @Test
+  public void testIntern_evictsLeastRecentlyUsed() throws Exception {
+    ByteBuffer vendor = ByteBuffer.wrap(VENDOR_CERTIFICATE.getEncoded());
+    ByteBuffer trusted = ByteBuffer.wrap(TRUSTED_CERTIFICATE_2.getEncoded());
+
+    interner.intern(vendor);
+    assertEquals(TRUSTED_CERTIFICATE_2, interner.intern(trusted));
+    interner.intern(vendor);
+
+    assertEquals(3, interner.stats().missCount());
+  }
+
+  @Test(expected = U2FException.class)
+  public void testIntern_malformedCertificate() throws Exception {
+    interner.intern(ByteBuffer.wrap(new byte[] {0x30, 0x03, 0x02, 0x01, 0x00}));
+  }
+}
@@ -0,0 +1,71 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.codec;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.u2f.TestVectors;
+import com.google.u2f.U2FException;
+
+/**
+ * Compares decoding the client data of a sign response the way the server used to (commons-codec,
+ * then a String in the platform charset, then back to bytes for hashing) with {@link Base64Url}.
+ *
+ * <p>Run with:
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=com.google.u2f.codec.Base64UrlBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Base64UrlBenchmark extends TestVectors {
+  private final byte[] buffer = new byte[BROWSER_DATA_SIGN.length()];
+
+  @Benchmark
+  public byte[] commonsCodecRoundTrip() {
+    String browserData = new String(Base64.decodeBase64(BROWSER_DATA_SIGN_BASE64));
+    return browserData.getBytes();
+  }
+
+  @Benchmark
+  public byte[] commonsCodec() {
+    return Base64.decodeBase64(BROWSER_DATA_SIGN_BASE64);
+  }
+
+  @Benchmark
+  public byte[] base64Url() throws U2FException {
+    return Base64Url.decode(BROWSER_DATA_SIGN_BASE64);
+  }
+
+  @Benchmark
+  public int base64UrlIntoBuffer() throws U2FException {
+    return Base64Url.decode(BROWSER_DATA_SIGN_BASE64, buffer, 0);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(Base64UrlBenchmark.class.getSimpleName())
+        .forks(1)
+        .warmupIterations(5)
+        .measurementIterations(5)
+        .build())
+        .run();
+  }
+}
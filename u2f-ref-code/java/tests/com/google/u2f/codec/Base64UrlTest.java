@@ -0,0 +1,65 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import com.google.u2f.TestVectors;
+import com.google.u2f.U2FException;
+
+public class Base64UrlTest extends TestVectors {
+
+  @Test
+  public void testDecode_matchesCommonsCodec() throws Exception {
+    Random random = new Random(42);
+    for (int length = 0; length < 100; length++) {
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+
+      assertArrayEquals(data, Base64Url.decode(Base64.encodeBase64URLSafeString(data)));
+      assertArrayEquals(data, Base64Url.decode(Base64.encodeBase64String(data)));
+    }
+  }
+
+  @Test
+  public void testDecode_intoBuffer() throws Exception {
+    byte[] buffer = new byte[100];
+
+    int length = Base64Url.decode(SERVER_CHALLENGE_SIGN_BASE64, buffer, 10);
+
+    assertEquals(SERVER_CHALLENGE_SIGN.length, length);
+    assertEquals(length, Base64Url.decodedLength(SERVER_CHALLENGE_SIGN_BASE64));
+    assertArrayEquals(SERVER_CHALLENGE_SIGN, Arrays.copyOfRange(buffer, 10, 10 + length));
+  }
+
+  @Test(expected = U2FException.class)
+  public void testDecode_bufferTooSmall() throws Exception {
+    Base64Url.decode(SERVER_CHALLENGE_SIGN_BASE64, new byte[SERVER_CHALLENGE_SIGN.length], 1);
+  }
+
+  @Test(expected = U2FException.class)
+  public void testDecode_invalidDigit() throws Exception {
+    Base64Url.decode("AAAA AAAA");
+  }
+
+  @Test(expected = U2FException.class)
+  public void testDecode_truncated() throws Exception {
+    Base64Url.decode("AAAAA");
+  }
+
+  @Test(expected = U2FException.class)
+  public void testDecode_paddingInTheMiddle() throws Exception {
+    Base64Url.decode("AA==AA");
+  }
+}
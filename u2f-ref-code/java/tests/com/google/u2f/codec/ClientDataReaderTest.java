@@ -0,0 +1,116 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.gson.JsonParser;
+import com.google.u2f.TestVectors;
+import com.google.u2f.U2FException;
+
+public class ClientDataReaderTest extends TestVectors {
+
+  @Test
+  public void testRead() throws Exception {
+    ClientDataReader reader = read(BROWSER_DATA_ENROLL);
+
+    assertEquals(ClientDataCodec.REQUEST_TYPE_REGISTER, reader.getType());
+    assertEquals(ORIGIN, reader.getOrigin());
+    assertTrue(reader.hasChallenge());
+    assertTrue(reader.challengeMatches(SERVER_CHALLENGE_ENROLL));
+    assertEquals(JsonParser.parseString(CHANNEL_ID_STRING),
+        JsonParser.parseString(reader.getChannelIdJson()));
+  }
+
+  @Test
+  public void testRead_skipsUnknownMembersAndDecodesEscapes() throws Exception {
+    ClientDataReader reader = read("{ \"extra\" : [1, -2.5e3, true, null, {\"a\": [\"}\"]}],\n"
+        + "\"typ\":\"navigator.id.getAssertion\", \"origin\":\"http:\\/\\/ex\\u0061mple.com\"}");
+
+    assertEquals(ClientDataCodec.REQUEST_TYPE_AUTHENTICATE, reader.getType());
+    assertEquals(ORIGIN, reader.getOrigin());
+    assertFalse(reader.hasChallenge());
+    assertFalse(reader.challengeMatches(SERVER_CHALLENGE_SIGN));
+    assertNull(reader.getChannelIdJson());
+  }
+
+  @Test
+  public void testChallengeMatches() throws Exception {
+    assertTrue(readChallenge(SERVER_CHALLENGE_SIGN_BASE64).challengeMatches(SERVER_CHALLENGE_SIGN));
+    // padded and standard alphabet encodings are accepted too
+    assertTrue(readChallenge("opsXqUifDriAAmWclinfbS0e+USY0CgyJHe/Otd7z8o=")
+        .challengeMatches(SERVER_CHALLENGE_SIGN));
+
+    assertFalse(readChallenge(SERVER_CHALLENGE_ENROLL_BASE64)
+        .challengeMatches(SERVER_CHALLENGE_SIGN));
+    assertFalse(readChallenge(SERVER_CHALLENGE_SIGN_BASE64)
+        .challengeMatches(Arrays.copyOf(SERVER_CHALLENGE_SIGN, 31)));
+    assertFalse(readChallenge(SERVER_CHALLENGE_SIGN_BASE64 + "AA")
+        .challengeMatches(SERVER_CHALLENGE_SIGN));
+    // last digit with non-zero unused bits
+    assertFalse(readChallenge("opsXqUifDriAAmWclinfbS0e-USY0CgyJHe_Otd7z8p")
+        .challengeMatches(SERVER_CHALLENGE_SIGN));
+    assertFalse(readChallenge("opsXqUifDriAAmWclinfbS0e.USY0CgyJHe_Otd7z8o")
+        .challengeMatches(SERVER_CHALLENGE_SIGN));
+  }
+
+  @Test
+  public void testRead_rejectsMalformedJson() throws Exception {
+    assertRejected("");
+    assertRejected("[]");
+    assertRejected("{\"typ\":\"navigator.id.getAssertion\"");
+    assertRejected("{\"typ\":\"navigator.id.getAssertion\",}");
+    assertRejected("{\"typ\":\"navigator\u0001\"}");
+    assertRejected("{\"typ\":\"a\\x\"}");
+    assertRejected("{\"a\":tru}");
+    assertRejected("{} {}");
+  }
+
+  @Test
+  public void testRead_rejectsDuplicateMembers() throws Exception {
+    assertRejected("{\"challenge\":\"AA\",\"challenge\":\"AB\"}");
+  }
+
+  @Test
+  public void testRead_rejectsNonStringFields() throws Exception {
+    assertRejected("{\"origin\":{\"a\":1}}");
+  }
+
+  @Test
+  public void testRead_rejectsDeepNesting() throws Exception {
+    char[] open = new char[1000];
+    char[] close = new char[1000];
+    Arrays.fill(open, '[');
+    Arrays.fill(close, ']');
+    assertRejected("{\"a\":" + new String(open) + new String(close) + "}");
+  }
+
+  private static ClientDataReader read(String clientData) throws U2FException {
+    return ClientDataReader.read(clientData.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static ClientDataReader readChallenge(String challenge) throws U2FException {
+    return read("{\"challenge\":\"" + challenge + "\"}");
+  }
+
+  private static void assertRejected(String clientData) {
+    try {
+      read(clientData);
+      fail("expected U2FException for " + clientData);
+    } catch (U2FException expected) {
+    }
+  }
+}
@@ -8,15 +8,24 @@ package com.google.u2f.codec;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.junit.Test;
 
 import com.google.u2f.TestVectors;
+import com.google.u2f.U2FException;
 import com.google.u2f.key.UserPresenceVerifier;
 import com.google.u2f.key.messages.AuthenticateRequest;
 import com.google.u2f.key.messages.AuthenticateResponse;
+import com.google.u2f.key.messages.AuthenticateResponseView;
 import com.google.u2f.key.messages.RegisterRequest;
 import com.google.u2f.key.messages.RegisterResponse;
+import com.google.u2f.key.messages.RegisterResponseView;
 
 public class RawCodecTest extends TestVectors {
 
@@ -64,6 +73,14 @@ public class RawCodecTest extends TestVectors {
         KEY_HANDLE, VENDOR_CERTIFICATE, SIGNATURE_ENROLL), registerResponse);
   }
 
+  @Test
+  public void testDecodeRegisterResponse_internsAttestationCertificate() throws Exception {
+    RegisterResponse first = RawMessageCodec.decodeRegisterResponse(REGISTRATION_RESPONSE_DATA);
+    RegisterResponse second = RawMessageCodec.decodeRegisterResponse(REGISTRATION_RESPONSE_DATA);
+
+    assertSame(first.getAttestationCertificate(), second.getAttestationCertificate());
+  }
+
   @Test
   public void testEncodeAuthenticateRequest() throws Exception {
     AuthenticateRequest authenticateRequest = new AuthenticateRequest(
@@ -108,4 +125,87 @@ public class RawCodecTest extends TestVectors {
 
     assertArrayEquals(EXPECTED_AUTHENTICATE_SIGNED_BYTES, encodedBytes);
   }
+
+  @Test
+  public void testDecodeRegisterResponseView() throws Exception {
+    ByteBuffer data = ByteBuffer.allocateDirect(REGISTRATION_RESPONSE_DATA.length + 2);
+    data.put((byte) 0xAA).put(REGISTRATION_RESPONSE_DATA).put((byte) 0xBB).flip();
+    data.position(1).limit(REGISTRATION_RESPONSE_DATA.length + 1);
+
+    RegisterResponseView view = RawMessageCodec.decodeRegisterResponse(data);
+
+    assertEquals(1, data.position());
+    assertArrayEquals(USER_PUBLIC_KEY_ENROLL_HEX, view.copyUserPublicKey());
+    assertArrayEquals(KEY_HANDLE, view.copyKeyHandle());
+    assertArrayEquals(VENDOR_CERTIFICATE.getEncoded(), view.copyAttestationCertificate());
+    assertArrayEquals(SIGNATURE_ENROLL, view.copySignature());
+    assertEquals(VENDOR_CERTIFICATE, view.parseAttestationCertificate());
+    assertTrue(view.getKeyHandle().isReadOnly());
+  }
+
+  @Test
+  public void testDecodeAuthenticateResponseView() throws Exception {
+    ByteBuffer data = ByteBuffer.wrap(SIGN_RESPONSE_DATA);
+
+    AuthenticateResponseView view = RawMessageCodec.decodeAuthenticateResponse(data);
+
+    assertEquals(0, data.position());
+    assertEquals(UserPresenceVerifier.USER_PRESENT_FLAG, view.getUserPresence());
+    assertEquals(COUNTER_VALUE, view.getCounter());
+    assertArrayEquals(SIGNATURE_AUTHENTICATE, view.copySignature());
+  }
+
+  @Test
+  public void testDecodeRegisterResponse_truncated() throws Exception {
+    // cut inside the attestation certificate
+    assertRegisterResponseRejected(Arrays.copyOf(REGISTRATION_RESPONSE_DATA, 1 + 65 + 1 + 100));
+    // cut inside the key handle
+    assertRegisterResponseRejected(Arrays.copyOf(REGISTRATION_RESPONSE_DATA, 1 + 65 + 10));
+  }
+
+  @Test
+  public void testDecodeRegisterResponse_badCertificateTag() throws Exception {
+    byte[] data = REGISTRATION_RESPONSE_DATA.clone();
+    data[1 + 65 + 1 + KEY_HANDLE.length] = 0x31;
+
+    assertRegisterResponseRejected(data);
+  }
+
+  @Test
+  public void testDecodeRegisterResponse_certificateLongerThanMessage() throws Exception {
+    byte[] data = REGISTRATION_RESPONSE_DATA.clone();
+    int certificateStart = 1 + 65 + 1 + KEY_HANDLE.length;
+    // a four byte length field announcing more bytes than could ever be there
+    data[certificateStart + 1] = (byte) 0x84;
+
+    assertRegisterResponseRejected(data);
+  }
+
+  @Test
+  public void testDecodeAuthenticateResponse_truncated() throws Exception {
+    try {
+      RawMessageCodec.decodeAuthenticateResponse(Arrays.copyOf(SIGN_RESPONSE_DATA, 3));
+      fail("expected U2FException");
+    } catch (U2FException expected) {
+    }
+  }
+
+  @Test
+  public void testDecodeAuthenticateRequest_unexpectedData() throws Exception {
+    try {
+      RawMessageCodec.decodeAuthenticateRequest(
+          Arrays.copyOf(SIGN_REQUEST_DATA, SIGN_REQUEST_DATA.length + 1));
+      fail("expected U2FException");
+    } catch (U2FException expected) {
+      assertEquals("Message ends with unexpected data", expected.getMessage());
+    }
+  }
+
+  private static void assertRegisterResponseRejected(byte[] data) {
+    try {
+      RawMessageCodec.decodeRegisterResponse(data);
+      fail("expected U2FException");
+    } catch (U2FException expected) {
+    }
+  }
 }
@@ -0,0 +1,62 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.u2f.TestVectors;
+import com.google.u2f.U2FException;
+
+public class AppIdRegistryTest extends TestVectors {
+  private final AppIdRegistry appIdRegistry =
+      new AppIdRegistry(new BouncyCastleCrypto(), ImmutableSet.of("http://example.com/path"));
+
+  @Test
+  public void testGet_unconfiguredAppIdUsesDefaults() throws U2FException {
+    AppIdRegistry.Entry entry = appIdRegistry.get(APP_ID_SIGN);
+
+    assertEquals(APP_ID_SIGN, entry.getAppId());
+    assertArrayEquals(APP_ID_SIGN_SHA256, entry.getApplicationSha256());
+    assertEquals(ImmutableSet.of("http://example.com"), entry.getAllowedOrigins());
+    assertFalse(entry.isTrustedAttestationRequired());
+    assertSame(entry, appIdRegistry.get(APP_ID_SIGN));
+  }
+
+  @Test
+  public void testGet_unconfiguredAppIdsAreBounded() throws U2FException {
+    for (int i = 0; i < 2 * AppIdRegistry.DEFAULT_ENTRIES_CACHE_SIZE; i++) {
+      appIdRegistry.get("https://host" + i + ".example.com");
+    }
+
+    assertTrue(appIdRegistry.defaultEntriesSize() <= AppIdRegistry.DEFAULT_ENTRIES_CACHE_SIZE);
+    assertEquals(APP_ID_SIGN, appIdRegistry.get(APP_ID_SIGN).getAppId());
+  }
+
+  @Test
+  public void testReload() throws U2FException {
+    AppIdRegistry.Entry defaultEntry = appIdRegistry.get(APP_ID_ENROLL);
+
+    appIdRegistry.reload(ImmutableList.of(
+        new AppIdConfig(APP_ID_ENROLL, ImmutableSet.of("https://example.org/"), true)));
+    AppIdRegistry.Entry configuredEntry = appIdRegistry.get(APP_ID_ENROLL);
+
+    assertArrayEquals(APP_ID_ENROLL_SHA256, configuredEntry.getApplicationSha256());
+    assertEquals(ImmutableSet.of("https://example.org"), configuredEntry.getAllowedOrigins());
+    assertTrue(configuredEntry.isTrustedAttestationRequired());
+
+    appIdRegistry.reload(ImmutableList.<AppIdConfig>of());
+    assertSame(defaultEntry, appIdRegistry.get(APP_ID_ENROLL));
+  }
+}
@@ -0,0 +1,127 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.security.PublicKey;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.u2f.TestVectors;
+import com.google.u2f.U2FException;
+import com.google.u2f.server.ChallengeGenerator;
+import com.google.u2f.server.Crypto;
+import com.google.u2f.server.DataStore;
+import com.google.u2f.server.data.SecurityKeyData;
+import com.google.u2f.server.data.SignSessionData;
+import com.google.u2f.server.messages.SignResponse;
+
+public class AsyncU2FServerImplTest extends TestVectors {
+  @Mock ChallengeGenerator mockChallengeGenerator;
+  @Mock DataStore mockDataStore;
+
+  private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(named("io"));
+  private final ExecutorService cpuExecutor = Executors.newSingleThreadExecutor(named("cpu"));
+  private final SecurityKeyData securityKeyData =
+      new SecurityKeyData(0L, KEY_HANDLE, USER_PUBLIC_KEY_SIGN_HEX, VENDOR_CERTIFICATE, 0);
+  private AsyncU2FServerImpl asyncServer;
+
+  // the threads the stages of the last ceremony ran on
+  private volatile String loadThread;
+  private volatile String verifyThread;
+
+  @Before
+  public void setup() throws Exception {
+    initMocks(this);
+
+    when(mockDataStore.consumeSignSessionData(SESSION_ID)).thenAnswer(
+        new Answer<SignSessionData>() {
+          @Override
+          public SignSessionData answer(InvocationOnMock invocation) {
+            loadThread = Thread.currentThread().getName();
+            return new SignSessionData(ACCOUNT_NAME, APP_ID_SIGN, SERVER_CHALLENGE_SIGN,
+                ImmutableList.of(KEY_HANDLE));
+          }
+        });
+    when(mockDataStore.getSecurityKeyDataByKeyHandle(eq(ACCOUNT_NAME), aryEq(KEY_HANDLE)))
+        .thenReturn(securityKeyData);
+    when(mockDataStore.compareAndSetSecurityKeyCounter(eq(ACCOUNT_NAME),
+        aryEq(USER_PUBLIC_KEY_SIGN_HEX), anyInt(), anyInt())).thenReturn(true);
+
+    Crypto crypto = new BouncyCastleCrypto() {
+      @Override
+      public boolean verifyAuthenticationSignature(PublicKey publicKey,
+          byte[] applicationSha256, byte userPresence, int counter, byte[] challengeSha256,
+          byte[] signature) throws U2FException {
+        verifyThread = Thread.currentThread().getName();
+        return super.verifyAuthenticationSignature(publicKey, applicationSha256, userPresence,
+            counter, challengeSha256, signature);
+      }
+    };
+    asyncServer = new AsyncU2FServerImpl(
+        new U2FServerReferenceImpl(mockChallengeGenerator, mockDataStore, crypto,
+            TRUSTED_DOMAINS),
+        ioExecutor, cpuExecutor);
+  }
+
+  @After
+  public void tearDown() {
+    ioExecutor.shutdown();
+    cpuExecutor.shutdown();
+  }
+
+  @Test
+  public void testProcessSignResponse() throws Exception {
+    SignResponse signResponse = new SignResponse(KEY_HANDLE_BASE64, SIGN_RESPONSE_DATA_BASE64,
+        BROWSER_DATA_SIGN_BASE64, SESSION_ID);
+
+    assertEquals(securityKeyData, asyncServer.processSignResponse(signResponse).get());
+    assertEquals("io", loadThread);
+    assertEquals("cpu", verifyThread);
+  }
+
+  @Test
+  public void testProcessSignResponse_unknownSession() throws Exception {
+    SignResponse signResponse = new SignResponse(KEY_HANDLE_BASE64, SIGN_RESPONSE_DATA_BASE64,
+        BROWSER_DATA_SIGN_BASE64, "unknown");
+
+    try {
+      asyncServer.processSignResponse(signResponse).get();
+      fail("expected exception, but didn't get it");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof U2FException);
+      assertEquals("Unknown session_id", e.getCause().getMessage());
+    }
+  }
+
+  private static ThreadFactory named(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, name);
+      }
+    };
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.u2f.TestVectors;
+import com.google.u2f.U2FException;
+
+/**
+ * Compares creating new engines on every call (the default) with per-thread engine reuse and
+ * provider binding.
+ *
+ * <p>Run with:
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=com.google.u2f.server.impl.BouncyCastleCryptoBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BouncyCastleCryptoBenchmark extends TestVectors {
+
+  @Param({"default", "reuseEngines", "reuseEnginesWithProvider"})
+  public String mode;
+
+  private BouncyCastleCrypto crypto;
+  private PublicKey publicKey;
+  private byte[] browserData;
+
+  @Setup
+  public void setup() throws U2FException {
+    BouncyCastleCrypto.Builder builder = new BouncyCastleCrypto.Builder();
+    if (!mode.equals("default")) {
+      builder.setReuseEngines(true);
+    }
+    if (mode.equals("reuseEnginesWithProvider")) {
+      builder.setSignatureProvider(new BouncyCastleProvider());
+    }
+    crypto = builder.build();
+    publicKey = crypto.decodePublicKey(USER_PUBLIC_KEY_SIGN_HEX);
+    browserData = BROWSER_DATA_SIGN.getBytes();
+  }
+
+  @Benchmark
+  public boolean verifySignature() throws U2FException {
+    return crypto.verifySignature(
+        publicKey, EXPECTED_AUTHENTICATE_SIGNED_BYTES, SIGNATURE_AUTHENTICATE);
+  }
+
+  @Benchmark
+  public byte[] computeSha256() throws U2FException {
+    return crypto.computeSha256(browserData);
+  }
+
+  /** The three digests and one verification done for each authentication. */
+  @Benchmark
+  public boolean authenticationCeremony() throws U2FException {
+    crypto.computeSha256(browserData);
+    crypto.computeSha256(browserData);
+    crypto.computeSha256(browserData);
+    return crypto.verifySignature(
+        publicKey, EXPECTED_AUTHENTICATE_SIGNED_BYTES, SIGNATURE_AUTHENTICATE);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(BouncyCastleCryptoBenchmark.class.getSimpleName())
+        .forks(1)
+        .warmupIterations(5)
+        .measurementIterations(5)
+        .threads(Runtime.getRuntime().availableProcessors())
+        .build())
+        .run();
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.PublicKey;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Test;
+
+import com.google.common.cache.CacheStats;
+import com.google.u2f.TestVectors;
+import com.google.u2f.U2FException;
+
+public class BouncyCastleCryptoTest extends TestVectors {
+
+  @Test
+  public void testDecodePublicKey_uncached() throws U2FException {
+    BouncyCastleCrypto crypto = new BouncyCastleCrypto();
+
+    assertEquals(USER_PUBLIC_KEY_SIGN, crypto.decodePublicKey(USER_PUBLIC_KEY_SIGN_HEX));
+    assertEquals(new CacheStats(0, 0, 0, 0, 0, 0), crypto.getPublicKeyCacheStats());
+  }
+
+  @Test
+  public void testDecodePublicKey_cached() throws U2FException {
+    BouncyCastleCrypto crypto = new BouncyCastleCrypto.Builder()
+        .setPublicKeyCacheSize(10)
+        .build();
+
+    PublicKey first = crypto.decodePublicKey(USER_PUBLIC_KEY_SIGN_HEX);
+    PublicKey second = crypto.decodePublicKey(USER_PUBLIC_KEY_SIGN_HEX.clone());
+
+    assertEquals(USER_PUBLIC_KEY_SIGN, first);
+    assertSame(first, second);
+    assertEquals(1, crypto.getPublicKeyCacheStats().hitCount());
+    assertEquals(1, crypto.getPublicKeyCacheStats().missCount());
+  }
+
+  @Test
+  public void testDecodePublicKey_evictsWhenFull() throws U2FException {
+    BouncyCastleCrypto crypto = new BouncyCastleCrypto.Builder()
+        .setPublicKeyCacheSize(1)
+        .build();
+
+    crypto.decodePublicKey(USER_PUBLIC_KEY_SIGN_HEX);
+    crypto.decodePublicKey(USER_PUBLIC_KEY_ENROLL_HEX);
+
+    assertEquals(1, crypto.getPublicKeyCacheStats().evictionCount());
+  }
+
+  @Test
+  public void testDecodePublicKey_cacheIsNotAffectedByCallerMutation() throws U2FException {
+    BouncyCastleCrypto crypto = new BouncyCastleCrypto.Builder()
+        .setPublicKeyCacheSize(10)
+        .build();
+    byte[] encodedPublicKey = USER_PUBLIC_KEY_SIGN_HEX.clone();
+
+    crypto.decodePublicKey(encodedPublicKey);
+    encodedPublicKey[1] ^= 0x01;
+
+    assertEquals(USER_PUBLIC_KEY_SIGN, crypto.decodePublicKey(USER_PUBLIC_KEY_SIGN_HEX));
+    assertEquals(1, crypto.getPublicKeyCacheStats().hitCount());
+  }
+
+  @Test
+  public void testVerifySignature_reusedEngines() throws U2FException {
+    BouncyCastleCrypto crypto = new BouncyCastleCrypto.Builder()
+        .setReuseEngines(true)
+        .build();
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(crypto.verifySignature(
+          USER_PUBLIC_KEY_SIGN, EXPECTED_AUTHENTICATE_SIGNED_BYTES, SIGNATURE_AUTHENTICATE));
+      assertFalse(crypto.verifySignature(
+          USER_PUBLIC_KEY_SIGN, EXPECTED_REGISTER_SIGNED_BYTES, SIGNATURE_AUTHENTICATE));
+      assertArrayEquals(
+          BROWSER_DATA_SIGN_SHA256, crypto.computeSha256(BROWSER_DATA_SIGN.getBytes()));
+    }
+  }
+
+  @Test
+  public void testVerifySignature_reusedEngineRecoversFromMalformedSignature()
+      throws U2FException {
+    BouncyCastleCrypto crypto = new BouncyCastleCrypto.Builder()
+        .setReuseEngines(true)
+        .build();
+
+    try {
+      crypto.verifySignature(
+          USER_PUBLIC_KEY_SIGN, EXPECTED_AUTHENTICATE_SIGNED_BYTES, new byte[] {0x30, 0x01});
+    } catch (U2FException expected) {
+      // the engine is left in an undefined state, which initVerify() has to clear
+    }
+
+    assertTrue(crypto.verifySignature(
+        USER_PUBLIC_KEY_SIGN, EXPECTED_AUTHENTICATE_SIGNED_BYTES, SIGNATURE_AUTHENTICATE));
+  }
+
+  @Test
+  public void testVerifySignature_signatureProvider() throws U2FException {
+    BouncyCastleCrypto crypto = new BouncyCastleCrypto.Builder()
+        .setSignatureProvider(new BouncyCastleProvider())
+        .setReuseEngines(true)
+        .build();
+
+    assertTrue(crypto.verifySignature(
+        USER_PUBLIC_KEY_SIGN, EXPECTED_AUTHENTICATE_SIGNED_BYTES, SIGNATURE_AUTHENTICATE));
+  }
+
+  @Test
+  public void testComputeSha256_reusedEngines() throws U2FException {
+    BouncyCastleCrypto crypto = new BouncyCastleCrypto.Builder()
+        .setReuseEngines(true)
+        .build();
+
+    assertArrayEquals(APP_ID_SIGN_SHA256, crypto.computeSha256(APP_ID_SIGN.getBytes()));
+    assertArrayEquals(APP_ID_ENROLL_SHA256, crypto.computeSha256(APP_ID_ENROLL.getBytes()));
+  }
+
+  @Test
+  public void testVerifyRegistrationSignature() throws U2FException {
+    BouncyCastleCrypto crypto = new BouncyCastleCrypto();
+
+    assertTrue(crypto.verifyRegistrationSignature(VENDOR_CERTIFICATE, APP_ID_ENROLL_SHA256,
+        BROWSER_DATA_ENROLL_SHA256, KEY_HANDLE, USER_PUBLIC_KEY_ENROLL_HEX, SIGNATURE_ENROLL));
+    assertFalse(crypto.verifyRegistrationSignature(VENDOR_CERTIFICATE, APP_ID_SIGN_SHA256,
+        BROWSER_DATA_ENROLL_SHA256, KEY_HANDLE, USER_PUBLIC_KEY_ENROLL_HEX, SIGNATURE_ENROLL));
+  }
+
+  @Test
+  public void testVerifyAuthenticationSignature() throws U2FException {
+    BouncyCastleCrypto crypto = new BouncyCastleCrypto();
+
+    assertTrue(crypto.verifyAuthenticationSignature(USER_PUBLIC_KEY_SIGN, APP_ID_SIGN_SHA256,
+        (byte) 0x01, COUNTER_VALUE, BROWSER_DATA_SIGN_SHA256, SIGNATURE_AUTHENTICATE));
+    assertFalse(crypto.verifyAuthenticationSignature(USER_PUBLIC_KEY_SIGN, APP_ID_SIGN_SHA256,
+        (byte) 0x01, COUNTER_VALUE + 1, BROWSER_DATA_SIGN_SHA256, SIGNATURE_AUTHENTICATE));
+  }
+}
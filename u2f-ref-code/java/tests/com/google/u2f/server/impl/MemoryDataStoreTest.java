@@ -0,0 +1,161 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.u2f.TestVectors;
+import com.google.u2f.server.SessionIdGenerator;
+import com.google.u2f.server.data.EnrollSessionData;
+import com.google.u2f.server.data.SecurityKeyData;
+import com.google.u2f.server.data.SignSessionData;
+
+public class MemoryDataStoreTest extends TestVectors {
+  private static final byte[] OTHER_KEY_HANDLE = {0x01, 0x02, 0x03};
+  private static final byte[] OTHER_PUBLIC_KEY = {0x04, 0x05, 0x06};
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final MemoryDataStore dataStore = new MemoryDataStore(new SessionIdGenerator() {
+    private int sessionCount = 0;
+
+    @Override
+    public String generateSessionId(String accountName) {
+      return SESSION_ID + sessionCount++;
+    }
+  }, 60, TimeUnit.SECONDS, ticker);
+
+  private final SecurityKeyData securityKeyData =
+      new SecurityKeyData(0L, KEY_HANDLE, USER_PUBLIC_KEY_SIGN_HEX, VENDOR_CERTIFICATE, 0);
+  private final SecurityKeyData otherSecurityKeyData =
+      new SecurityKeyData(0L, OTHER_KEY_HANDLE, OTHER_PUBLIC_KEY, VENDOR_CERTIFICATE, 0);
+
+  @Test
+  public void testGetSecurityKeyData() {
+    dataStore.addSecurityKeyData(ACCOUNT_NAME, securityKeyData);
+    dataStore.addSecurityKeyData(ACCOUNT_NAME, otherSecurityKeyData);
+
+    assertEquals(ImmutableList.of(securityKeyData, otherSecurityKeyData),
+        dataStore.getSecurityKeyData(ACCOUNT_NAME));
+    assertSame(securityKeyData,
+        dataStore.getSecurityKeyDataByPublicKey(ACCOUNT_NAME, USER_PUBLIC_KEY_SIGN_HEX.clone()));
+    assertSame(otherSecurityKeyData,
+        dataStore.getSecurityKeyDataByKeyHandle(ACCOUNT_NAME, OTHER_KEY_HANDLE.clone()));
+    assertNull(dataStore.getSecurityKeyDataByKeyHandle("other_account", KEY_HANDLE));
+    assertEquals(ImmutableList.of(), dataStore.getSecurityKeyData("other_account"));
+  }
+
+  @Test
+  public void testRemoveSecurityKey() {
+    dataStore.addSecurityKeyData(ACCOUNT_NAME, securityKeyData);
+    dataStore.addSecurityKeyData(ACCOUNT_NAME, otherSecurityKeyData);
+
+    dataStore.removeSecurityKey(ACCOUNT_NAME, USER_PUBLIC_KEY_SIGN_HEX);
+
+    assertEquals(ImmutableList.of(otherSecurityKeyData),
+        dataStore.getSecurityKeyData(ACCOUNT_NAME));
+    assertNull(dataStore.getSecurityKeyDataByPublicKey(ACCOUNT_NAME, USER_PUBLIC_KEY_SIGN_HEX));
+    assertNull(dataStore.getSecurityKeyDataByKeyHandle(ACCOUNT_NAME, KEY_HANDLE));
+  }
+
+  @Test
+  public void testCompareAndSetSecurityKeyCounter() {
+    dataStore.addSecurityKeyData(ACCOUNT_NAME, securityKeyData);
+
+    assertTrue(dataStore.compareAndSetSecurityKeyCounter(
+        ACCOUNT_NAME, USER_PUBLIC_KEY_SIGN_HEX, 0, 5));
+    assertFalse(dataStore.compareAndSetSecurityKeyCounter(
+        ACCOUNT_NAME, USER_PUBLIC_KEY_SIGN_HEX, 0, 6));
+    assertFalse(dataStore.compareAndSetSecurityKeyCounter(
+        ACCOUNT_NAME, OTHER_PUBLIC_KEY, 0, 6));
+    assertEquals(5, securityKeyData.getCounter());
+  }
+
+  @Test
+  public void testUpdateSecurityKeyCounter() {
+    dataStore.addSecurityKeyData(ACCOUNT_NAME, securityKeyData);
+
+    dataStore.updateSecurityKeyCounter(ACCOUNT_NAME, USER_PUBLIC_KEY_SIGN_HEX, 5);
+
+    assertEquals(5,
+        dataStore.getSecurityKeyDataByKeyHandle(ACCOUNT_NAME, KEY_HANDLE).getCounter());
+  }
+
+  @Test
+  public void testConsumeSessionData() {
+    String sessionId = dataStore.storeSessionData(
+        new SignSessionData(ACCOUNT_NAME, APP_ID_SIGN, SERVER_CHALLENGE_SIGN,
+            ImmutableList.of(KEY_HANDLE)));
+
+    assertNull(dataStore.consumeSignSessionData("unknown"));
+    assertNotNull(dataStore.getSignSessionData(sessionId));
+    assertNotNull(dataStore.consumeSignSessionData(sessionId));
+    assertNull(dataStore.consumeSignSessionData(sessionId));
+    assertNull(dataStore.getEnrollSessionData(sessionId));
+  }
+
+  @Test
+  public void testConsumeSignSessionData_enrollSession() {
+    String sessionId = dataStore.storeSessionData(
+        new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
+
+    assertNull(dataStore.consumeSignSessionData(sessionId));
+    assertNotNull(dataStore.consumeEnrollSessionData(sessionId));
+  }
+
+  @Test
+  public void testSessionExpiry() {
+    String sessionId = dataStore.storeSessionData(
+        new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
+
+    ticker.advance(59, TimeUnit.SECONDS);
+    assertNotNull(dataStore.getEnrollSessionData(sessionId));
+
+    ticker.advance(1, TimeUnit.SECONDS);
+    assertNull(dataStore.getEnrollSessionData(sessionId));
+    assertNull(dataStore.consumeEnrollSessionData(sessionId));
+  }
+
+  @Test
+  public void testSessionExpiry_sessionsRemoved() {
+    for (int i = 0; i < 1000; i++) {
+      dataStore.storeSessionData(
+          new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
+      ticker.advance(1, TimeUnit.SECONDS);
+    }
+
+    // only the sessions of the last minute, and of at most one tick of the wheel before it
+    assertTrue(dataStore.getSessionCount() <= 60 + 2);
+
+    ticker.advance(1, TimeUnit.HOURS);
+    dataStore.getEnrollSessionData(SESSION_ID);
+    assertEquals(0, dataStore.getSessionCount());
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long nanos = 0;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long time, TimeUnit unit) {
+      nanos += unit.toNanos(time);
+    }
+  }
+}
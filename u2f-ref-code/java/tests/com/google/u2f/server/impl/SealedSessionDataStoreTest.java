@@ -0,0 +1,112 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.u2f.TestVectors;
+import com.google.u2f.server.DataStore;
+import com.google.u2f.server.SessionKeyProvider;
+import com.google.u2f.server.data.EnrollSessionData;
+import com.google.u2f.server.data.SecurityKeyData;
+import com.google.u2f.server.data.SignSessionData;
+
+public class SealedSessionDataStoreTest extends TestVectors {
+  private static final SessionKeyProvider KEYS = new SessionKeyProvider() {
+    private final SecretKey key = new SecretKeySpec(new byte[16], "AES");
+
+    @Override
+    public int getCurrentKeyId() {
+      return 0;
+    }
+
+    @Override
+    public SecretKey getKey(int keyId) {
+      return keyId == 0 ? key : null;
+    }
+  };
+
+  private final DataStore delegate = mock(DataStore.class);
+  private final SealedSessionDataStore dataStore =
+      new SealedSessionDataStore(delegate, KEYS, 1, TimeUnit.MINUTES);
+
+  @Test
+  public void testSessionsAreSharedWithoutState() {
+    String sessionId = dataStore.storeSessionData(new SignSessionData(ACCOUNT_NAME, APP_ID_SIGN,
+        SERVER_CHALLENGE_SIGN, ImmutableList.of(KEY_HANDLE)));
+    // another server, sharing only the keys
+    SealedSessionDataStore otherDataStore =
+        new SealedSessionDataStore(mock(DataStore.class), KEYS, 1, TimeUnit.MINUTES);
+
+    SignSessionData sessionData = otherDataStore.consumeSignSessionData(sessionId);
+
+    assertEquals(ACCOUNT_NAME, sessionData.getAccountName());
+    assertArrayEquals(SERVER_CHALLENGE_SIGN, sessionData.getChallenge());
+    assertTrue(sessionData.containsKeyHandle(KEY_HANDLE));
+    verifyZeroInteractions(delegate);
+  }
+
+  @Test
+  public void testGetSignSessionData_enrollSession() {
+    String sessionId = dataStore.storeSessionData(
+        new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
+
+    assertEquals(APP_ID_ENROLL, dataStore.getEnrollSessionData(sessionId).getAppId());
+    assertNull(dataStore.getSignSessionData(sessionId));
+  }
+
+  @Test
+  public void testExpiredSession() {
+    long now = System.currentTimeMillis();
+    String expired = dataStore.storeSessionData(new EnrollSessionData(
+        ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL, now - 61 * 1000));
+    String fromTheFuture = dataStore.storeSessionData(new EnrollSessionData(
+        ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL, now + 61 * 1000));
+
+    assertNull(dataStore.getEnrollSessionData(expired));
+    assertNull(dataStore.consumeEnrollSessionData(fromTheFuture));
+  }
+
+  @Test
+  public void testForgedSession() {
+    assertNull(dataStore.getEnrollSessionData(SESSION_ID));
+    assertNull(dataStore.getSignSessionData(""));
+  }
+
+  @Test
+  public void testSecurityKeysAreDelegated() {
+    SecurityKeyData securityKeyData =
+        new SecurityKeyData(0L, KEY_HANDLE, USER_PUBLIC_KEY_SIGN_HEX, VENDOR_CERTIFICATE, 0);
+    when(delegate.getSecurityKeyDataByKeyHandle(ACCOUNT_NAME, KEY_HANDLE))
+        .thenReturn(securityKeyData);
+    when(delegate.compareAndSetSecurityKeyCounter(ACCOUNT_NAME, USER_PUBLIC_KEY_SIGN_HEX, 0, 1))
+        .thenReturn(true);
+
+    dataStore.addSecurityKeyData(ACCOUNT_NAME, securityKeyData);
+
+    verify(delegate).addSecurityKeyData(ACCOUNT_NAME, securityKeyData);
+    assertEquals(securityKeyData,
+        dataStore.getSecurityKeyDataByKeyHandle(ACCOUNT_NAME, KEY_HANDLE));
+    assertTrue(dataStore.compareAndSetSecurityKeyCounter(
+        ACCOUNT_NAME, USER_PUBLIC_KEY_SIGN_HEX, 0, 1));
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.u2f.server.ChallengeGenerator;
+
+/**
+ * Compares a single shared {@link SecureRandom}, as the App Engine demo used to have, with
+ * {@link SecureChallengeGenerator} under 1 to 64 threads.
+ *
+ * <p>Run with:
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=com.google.u2f.server.impl.SecureChallengeGeneratorBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SecureChallengeGeneratorBenchmark {
+  private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+  @Param({"sharedSecureRandom", "perThread", "perThreadBatched"})
+  public String mode;
+
+  private ChallengeGenerator generator;
+
+  @Setup
+  public void setup() {
+    if (mode.equals("sharedSecureRandom")) {
+      final SecureRandom random = new SecureRandom();
+      generator = new ChallengeGenerator() {
+        @Override
+        public byte[] generateChallenge(String accountName) {
+          byte[] challenge = new byte[32];
+          random.nextBytes(challenge);
+          return challenge;
+        }
+      };
+    } else {
+      generator = new SecureChallengeGenerator.Builder()
+          .setBatchSize(mode.equals("perThreadBatched") ? 64 : 1)
+          .build();
+    }
+  }
+
+  @Benchmark
+  public byte[] generateChallenge() {
+    return generator.generateChallenge("test@example.com");
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    for (int threads : THREADS) {
+      new Runner(new OptionsBuilder()
+          .include(SecureChallengeGeneratorBenchmark.class.getSimpleName())
+          .forks(1)
+          .warmupIterations(3)
+          .measurementIterations(5)
+          .threads(threads)
+          .build())
+          .run();
+    }
+  }
+}
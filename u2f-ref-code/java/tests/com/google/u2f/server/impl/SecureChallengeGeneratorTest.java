@@ -0,0 +1,91 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.google.u2f.TestVectors;
+
+public class SecureChallengeGeneratorTest extends TestVectors {
+
+  @Test
+  public void testGenerateChallenge() {
+    SecureChallengeGenerator generator = new SecureChallengeGenerator();
+
+    assertEquals(32, generator.generateChallenge(ACCOUNT_NAME).length);
+    assertUnique(generator, 1000);
+  }
+
+  @Test
+  public void testGenerateChallenge_batchedAndReseeded() {
+    SecureChallengeGenerator generator = new SecureChallengeGenerator.Builder()
+        .setChallengeLength(16)
+        .setBatchSize(7)
+        .setReseedInterval(10)
+        .build();
+
+    assertEquals(16, generator.generateChallenge(ACCOUNT_NAME).length);
+    assertUnique(generator, 1000);
+  }
+
+  @Test
+  public void testGenerateChallenge_concurrently() throws Exception {
+    final SecureChallengeGenerator generator =
+        new SecureChallengeGenerator.Builder().setBatchSize(16).build();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<List<byte[]>>> results = new ArrayList<Future<List<byte[]>>>();
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit(new Callable<List<byte[]>>() {
+          @Override
+          public List<byte[]> call() {
+            List<byte[]> challenges = new ArrayList<byte[]>();
+            for (int j = 0; j < 500; j++) {
+              challenges.add(generator.generateChallenge(ACCOUNT_NAME));
+            }
+            return challenges;
+          }
+        }));
+      }
+
+      Set<ByteBuffer> unique = Sets.newHashSet();
+      for (Future<List<byte[]>> result : results) {
+        for (byte[] challenge : result.get()) {
+          unique.add(ByteBuffer.wrap(challenge));
+        }
+      }
+      assertEquals(8 * 500, unique.size());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testUnknownAlgorithm() {
+    new SecureChallengeGenerator.Builder().setAlgorithm("NoSuchPRNG").build();
+  }
+
+  private static void assertUnique(SecureChallengeGenerator generator, int count) {
+    Set<ByteBuffer> unique = Sets.newHashSet();
+    for (int i = 0; i < count; i++) {
+      assertTrue(unique.add(ByteBuffer.wrap(generator.generateChallenge(ACCOUNT_NAME))));
+    }
+  }
+}
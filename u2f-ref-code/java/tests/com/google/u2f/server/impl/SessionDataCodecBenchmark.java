@@ -0,0 +1,121 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SealedObject;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.u2f.TestVectors;
+import com.google.u2f.U2FException;
+import com.google.u2f.server.SessionKeyProvider;
+import com.google.u2f.server.data.EnrollSessionData;
+import com.google.u2f.server.data.SignSessionData;
+
+/**
+ * Compares {@link SessionDataCodec} with sealing a serialized session into a serialized
+ * {@link SealedObject}, as the App Engine demo used to.
+ *
+ * <p>Run with:
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=com.google.u2f.server.impl.SessionDataCodecBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionDataCodecBenchmark extends TestVectors {
+  private final SecretKey key = new SecretKeySpec(new byte[16], "AES");
+  private final SecureRandom random = new SecureRandom();
+  private final SignSessionData sessionData = new SignSessionData(
+      ACCOUNT_NAME, APP_ID_SIGN, SERVER_CHALLENGE_SIGN, USER_PUBLIC_KEY_SIGN_HEX);
+  private final SessionDataCodec codec = new SessionDataCodec(new SessionKeyProvider() {
+    @Override
+    public int getCurrentKeyId() {
+      return 0;
+    }
+
+    @Override
+    public SecretKey getKey(int keyId) {
+      return key;
+    }
+  });
+
+  private String codecToken;
+  private String sealedObjectToken;
+
+  @Setup
+  public void setup() throws Exception {
+    codecToken = codec.encode(sessionData);
+    sealedObjectToken = sealedObjectEncode();
+  }
+
+  @Benchmark
+  public String codecEncode() throws U2FException {
+    return codec.encode(sessionData);
+  }
+
+  @Benchmark
+  public EnrollSessionData codecDecode() throws U2FException {
+    return codec.decode(codecToken);
+  }
+
+  @Benchmark
+  public String sealedObjectEncode() throws GeneralSecurityException, IOException {
+    byte[] iv = new byte[16];
+    random.nextBytes(iv);
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ObjectOutputStream outer = new ObjectOutputStream(out);
+    outer.writeObject(new SealedObject(sessionData, cipher));
+    outer.flush();
+    return Base64.encodeBase64URLSafeString(out.toByteArray());
+  }
+
+  @Benchmark
+  public EnrollSessionData sealedObjectDecode()
+      throws GeneralSecurityException, IOException, ClassNotFoundException {
+    ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(Base64.decodeBase64(sealedObjectToken)));
+    return (EnrollSessionData) ((SealedObject) in.readObject()).getObject(key);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(SessionDataCodecBenchmark.class.getSimpleName())
+        .forks(1)
+        .warmupIterations(5)
+        .measurementIterations(5)
+        .build())
+        .run();
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.u2f.TestVectors;
+import com.google.u2f.U2FException;
+import com.google.u2f.server.SessionKeyProvider;
+import com.google.u2f.server.data.EnrollSessionData;
+import com.google.u2f.server.data.SignSessionData;
+
+public class SessionDataCodecTest extends TestVectors {
+  private static final long CREATION_TIME = 1234567890123L;
+
+  private final FakeKeyProvider keyProvider = new FakeKeyProvider();
+  private final SessionDataCodec codec = new SessionDataCodec(keyProvider);
+
+  @Test
+  public void testEnrollSessionData() throws Exception {
+    String token = codec.encode(
+        new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL, CREATION_TIME));
+
+    EnrollSessionData sessionData = codec.decode(token);
+
+    assertFalse(sessionData instanceof SignSessionData);
+    assertEquals(ACCOUNT_NAME, sessionData.getAccountName());
+    assertEquals(APP_ID_ENROLL, sessionData.getAppId());
+    assertArrayEquals(SERVER_CHALLENGE_ENROLL, sessionData.getChallenge());
+    assertEquals(CREATION_TIME, sessionData.getCreationTime());
+    // 2 + 12 + 16 bytes of overhead
+    assertTrue(token.length() < 150);
+  }
+
+  @Test
+  public void testSignSessionData_publicKey() throws Exception {
+    SignSessionData sessionData = (SignSessionData) codec.decode(codec.encode(new SignSessionData(
+        ACCOUNT_NAME, APP_ID_SIGN, SERVER_CHALLENGE_SIGN, USER_PUBLIC_KEY_SIGN_HEX)));
+
+    assertEquals(APP_ID_SIGN, sessionData.getAppId());
+    assertArrayEquals(USER_PUBLIC_KEY_SIGN_HEX, sessionData.getPublicKey());
+    assertNull(sessionData.getKeyHandles());
+  }
+
+  @Test
+  public void testSignSessionData_keyHandles() throws Exception {
+    SignSessionData sessionData = (SignSessionData) codec.decode(codec.encode(new SignSessionData(
+        ACCOUNT_NAME, APP_ID_SIGN, SERVER_CHALLENGE_SIGN,
+        ImmutableList.of(KEY_HANDLE, new byte[] {1, 2, 3}))));
+
+    assertNull(sessionData.getPublicKey());
+    assertEquals(2, sessionData.getKeyHandles().size());
+    assertTrue(sessionData.containsKeyHandle(KEY_HANDLE));
+    assertTrue(sessionData.containsKeyHandle(new byte[] {1, 2, 3}));
+  }
+
+  @Test
+  public void testDecode_afterKeyRotation() throws Exception {
+    String token = codec.encode(
+        new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
+
+    keyProvider.rotate();
+
+    assertEquals(ACCOUNT_NAME, codec.decode(token).getAccountName());
+    assertEquals(1, Base64.decodeBase64(codec.encode(
+        new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL)))[1]);
+  }
+
+  @Test
+  public void testDecode_rejectsRetiredKey() throws Exception {
+    String token = codec.encode(
+        new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
+
+    keyProvider.rotate();
+    keyProvider.keys.remove(0);
+
+    assertRejected(token);
+  }
+
+  @Test
+  public void testDecode_rejectsModifiedToken() throws Exception {
+    byte[] token = Base64.decodeBase64(codec.encode(
+        new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL)));
+
+    for (int i = 0; i < token.length; i++) {
+      byte[] modified = token.clone();
+      modified[i] ^= 0x01;
+      assertRejected(Base64.encodeBase64URLSafeString(modified));
+    }
+  }
+
+  @Test
+  public void testDecode_rejectsTruncatedToken() throws Exception {
+    assertRejected("AQA");
+  }
+
+  private void assertRejected(String token) {
+    try {
+      codec.decode(token);
+      fail("expected U2FException");
+    } catch (U2FException expected) {
+    }
+  }
+
+  private static class FakeKeyProvider implements SessionKeyProvider {
+    private final Map<Integer, SecretKey> keys = new HashMap<Integer, SecretKey>();
+    private int currentKeyId;
+
+    FakeKeyProvider() {
+      keys.put(0, new SecretKeySpec(new byte[16], "AES"));
+    }
+
+    void rotate() {
+      currentKeyId++;
+      byte[] key = new byte[16];
+      key[0] = (byte) currentKeyId;
+      keys.put(currentKeyId, new SecretKeySpec(key, "AES"));
+    }
+
+    @Override
+    public int getCurrentKeyId() {
+      return currentKeyId;
+    }
+
+    @Override
+    public SecretKey getKey(int keyId) {
+      return keys.get(keyId);
+    }
+  }
+}
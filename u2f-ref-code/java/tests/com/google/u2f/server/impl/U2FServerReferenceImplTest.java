@@ -7,20 +7,33 @@
 package com.google.u2f.server.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.nio.ByteBuffer;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 
@@ -33,10 +46,14 @@ import com.google.u2f.server.Crypto;
 import com.google.u2f.server.DataStore;
 import com.google.u2f.server.SessionIdGenerator;
 import com.google.u2f.server.U2FServer;
+import com.google.u2f.server.data.AttestationMetadata;
+import com.google.u2f.server.data.BatchResult;
 import com.google.u2f.server.data.EnrollSessionData;
 import com.google.u2f.server.data.SecurityKeyData;
 import com.google.u2f.server.data.SecurityKeyData.Transports;
 import com.google.u2f.server.data.SignSessionData;
+import com.google.u2f.server.impl.attestation.AttestationMetadataIndex;
+import com.google.u2f.server.impl.attestation.AttestationMetadataIndexWriter;
 import com.google.u2f.server.messages.RegisteredKey;
 import com.google.u2f.server.messages.RegistrationRequest;
 import com.google.u2f.server.messages.RegistrationResponse;
@@ -44,6 +61,9 @@ import com.google.u2f.server.messages.SignResponse;
 import com.google.u2f.server.messages.U2fSignRequest;
 
 public class U2FServerReferenceImplTest extends TestVectors {
+  private static final byte[] OTHER_KEY_HANDLE = {0x01, 0x02, 0x03};
+  private static final byte[] OTHER_PUBLIC_KEY = {0x04, 0x05, 0x06};
+
   @Mock ChallengeGenerator mockChallengeGenerator;
   @Mock SessionIdGenerator mockSessionIdGenerator;
   @Mock DataStore mockDataStore;
@@ -63,8 +83,16 @@ public class U2FServerReferenceImplTest extends TestVectors {
     when(mockSessionIdGenerator.generateSessionId(ACCOUNT_NAME)).thenReturn(SESSION_ID);
     when(mockDataStore.storeSessionData(Matchers.<EnrollSessionData>any())).thenReturn(SESSION_ID);
     when(mockDataStore.getTrustedCertificates()).thenReturn(trustedCertificates);
+    SecurityKeyData securityKeyData =
+        new SecurityKeyData(0L, KEY_HANDLE, USER_PUBLIC_KEY_SIGN_HEX, VENDOR_CERTIFICATE, 0);
     when(mockDataStore.getSecurityKeyData(ACCOUNT_NAME)).thenReturn(
-        ImmutableList.of(new SecurityKeyData(0L, KEY_HANDLE, USER_PUBLIC_KEY_SIGN_HEX, VENDOR_CERTIFICATE, 0)));
+        ImmutableList.of(securityKeyData));
+    when(mockDataStore.getSecurityKeyDataByPublicKey(eq(ACCOUNT_NAME), aryEq(USER_PUBLIC_KEY_SIGN_HEX)))
+        .thenReturn(securityKeyData);
+    when(mockDataStore.getSecurityKeyDataByKeyHandle(eq(ACCOUNT_NAME), aryEq(KEY_HANDLE)))
+        .thenReturn(securityKeyData);
+    when(mockDataStore.compareAndSetSecurityKeyCounter(eq(ACCOUNT_NAME),
+        aryEq(USER_PUBLIC_KEY_SIGN_HEX), Matchers.anyInt(), Matchers.anyInt())).thenReturn(true);
   }
 
   @Test
@@ -91,7 +119,7 @@ public class U2FServerReferenceImplTest extends TestVectors {
 
   @Test
   public void testProcessRegistrationResponse_noTransports() throws U2FException {
-	  when(mockDataStore.getEnrollSessionData(SESSION_ID)).thenReturn(
+	  when(mockDataStore.consumeEnrollSessionData(SESSION_ID)).thenReturn(
         new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
     u2fServer = new U2FServerReferenceImpl(mockChallengeGenerator,
         mockDataStore, crypto, TRUSTED_DOMAINS);
@@ -107,7 +135,7 @@ public class U2FServerReferenceImplTest extends TestVectors {
 
   @Test
   public void testProcessRegistrationResponse_oneTransport() throws U2FException {
-    when(mockDataStore.getEnrollSessionData(SESSION_ID)).thenReturn(
+    when(mockDataStore.consumeEnrollSessionData(SESSION_ID)).thenReturn(
         new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
     HashSet<X509Certificate> trustedCertificates = new HashSet<X509Certificate>();
     trustedCertificates.add(TRUSTED_CERTIFICATE_ONE_TRANSPORT);
@@ -129,7 +157,7 @@ public class U2FServerReferenceImplTest extends TestVectors {
 
   @Test
   public void testProcessRegistrationResponse_multipleTransports() throws U2FException {
-    when(mockDataStore.getEnrollSessionData(SESSION_ID)).thenReturn(
+    when(mockDataStore.consumeEnrollSessionData(SESSION_ID)).thenReturn(
         new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
     HashSet<X509Certificate> trustedCertificates = new HashSet<X509Certificate>();
     trustedCertificates.add(TRUSTED_CERTIFICATE_MULTIPLE_TRANSPORTS);
@@ -153,7 +181,7 @@ public class U2FServerReferenceImplTest extends TestVectors {
 
   @Test
   public void testProcessRegistrationResponse_malformedTransports() throws U2FException {
-    when(mockDataStore.getEnrollSessionData(SESSION_ID)).thenReturn(
+    when(mockDataStore.consumeEnrollSessionData(SESSION_ID)).thenReturn(
         new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
     HashSet<X509Certificate> trustedCertificates = new HashSet<X509Certificate>();
     trustedCertificates.add(TRUSTED_CERTIFICATE_MALFORMED_TRANSPORTS_EXTENSION);
@@ -173,7 +201,7 @@ public class U2FServerReferenceImplTest extends TestVectors {
 
   @Test
   public void testProcessRegistrationResponse2() throws U2FException {
-    when(mockDataStore.getEnrollSessionData(SESSION_ID)).thenReturn(
+    when(mockDataStore.consumeEnrollSessionData(SESSION_ID)).thenReturn(
         new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
     HashSet<X509Certificate> trustedCertificates = new HashSet<X509Certificate>();
     trustedCertificates.add(VENDOR_CERTIFICATE);
@@ -191,6 +219,123 @@ public class U2FServerReferenceImplTest extends TestVectors {
             TRUSTED_CERTIFICATE_2, 0)));
   }
 
+  @Test
+  public void testProcessRegistrationResponse_untrustedAttestationRejected()
+      throws U2FException {
+    when(mockDataStore.consumeEnrollSessionData(SESSION_ID)).thenReturn(
+        new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
+    when(mockDataStore.getTrustedCertificates()).thenReturn(new HashSet<X509Certificate>());
+    AppIdRegistry appIdRegistry = new AppIdRegistry(crypto, TRUSTED_DOMAINS);
+    appIdRegistry.reload(ImmutableList.of(
+        new AppIdConfig(APP_ID_ENROLL, TRUSTED_DOMAINS, true /* requireTrustedAttestation */)));
+    u2fServer = new U2FServerReferenceImpl.Builder()
+        .setChallengeGenerator(mockChallengeGenerator)
+        .setDataStore(mockDataStore)
+        .setCrypto(crypto)
+        .setAppIdRegistry(appIdRegistry)
+        .build();
+
+    RegistrationResponse registrationResponse = new RegistrationResponse(REGISTRATION_DATA_BASE64,
+        BROWSER_DATA_ENROLL_BASE64, SESSION_ID);
+
+    try {
+      u2fServer.processRegistrationResponse(registrationResponse, 0L);
+      fail("expected exception, but didn't get it");
+    } catch (U2FException e) {
+      assertTrue(e.getMessage().contains("not trusted"));
+    }
+  }
+
+  @Test
+  public void testProcessRegistrationResponse_attestationMetadata() throws Exception {
+    when(mockDataStore.consumeEnrollSessionData(SESSION_ID)).thenReturn(
+        new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
+    HashSet<X509Certificate> trustedCertificates = new HashSet<X509Certificate>();
+    trustedCertificates.add(TRUSTED_CERTIFICATE_MULTIPLE_TRANSPORTS);
+    when(mockDataStore.getTrustedCertificates()).thenReturn(trustedCertificates);
+    AttestationMetadata metadata = new AttestationMetadata("Vendor", "Vendor Key", "L1",
+        ImmutableList.of(Transports.BLUETOOTH_LOW_ENERGY, Transports.NFC, Transports.USB));
+    u2fServer = new U2FServerReferenceImpl.Builder()
+        .setChallengeGenerator(mockChallengeGenerator)
+        .setDataStore(mockDataStore)
+        .setCrypto(crypto)
+        .setOrigins(TRUSTED_DOMAINS)
+        .setAttestationMetadataIndex(AttestationMetadataIndex.wrap(ByteBuffer.wrap(
+            new AttestationMetadataIndexWriter()
+                .addAttestationCertificate(TRUSTED_CERTIFICATE_MULTIPLE_TRANSPORTS, metadata)
+                .toByteArray())))
+        .build();
+
+    RegistrationResponse registrationResponse = new RegistrationResponse(
+        REGISTRATION_RESPONSE_DATA_MULTIPLE_TRANSPORTS_BASE64,
+        BROWSER_DATA_ENROLL_BASE64, SESSION_ID);
+    SecurityKeyData securityKeyData =
+        u2fServer.processRegistrationResponse(registrationResponse, 0L);
+
+    assertEquals(metadata, securityKeyData.getAttestationMetadata());
+    // the certificate also claims classic Bluetooth, which the model doesn't support
+    assertEquals(ImmutableList.of(Transports.BLUETOOTH_LOW_ENERGY, Transports.NFC),
+        securityKeyData.getTransports());
+  }
+
+  @Test
+  public void testProcessRegistrationResponse_corruptAttestationMetadataIgnored()
+      throws Exception {
+    when(mockDataStore.consumeEnrollSessionData(SESSION_ID)).thenReturn(
+        new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
+    HashSet<X509Certificate> trustedCertificates = new HashSet<X509Certificate>();
+    trustedCertificates.add(TRUSTED_CERTIFICATE_MULTIPLE_TRANSPORTS);
+    when(mockDataStore.getTrustedCertificates()).thenReturn(trustedCertificates);
+    byte[] index = new AttestationMetadataIndexWriter()
+        .addAttestationCertificate(TRUSTED_CERTIFICATE_MULTIPLE_TRANSPORTS,
+            new AttestationMetadata("Vendor", "Vendor Key", "L1", null))
+        .toByteArray();
+    u2fServer = new U2FServerReferenceImpl.Builder()
+        .setChallengeGenerator(mockChallengeGenerator)
+        .setDataStore(mockDataStore)
+        .setCrypto(crypto)
+        .setOrigins(TRUSTED_DOMAINS)
+        // cuts off the end of the certificate's record
+        .setAttestationMetadataIndex(
+            AttestationMetadataIndex.wrap(ByteBuffer.wrap(index, 0, index.length - 1)))
+        .build();
+
+    RegistrationResponse registrationResponse = new RegistrationResponse(
+        REGISTRATION_RESPONSE_DATA_MULTIPLE_TRANSPORTS_BASE64,
+        BROWSER_DATA_ENROLL_BASE64, SESSION_ID);
+    SecurityKeyData securityKeyData =
+        u2fServer.processRegistrationResponse(registrationResponse, 0L);
+
+    assertNull(securityKeyData.getAttestationMetadata());
+  }
+
+  @Test
+  public void testProcessRegistrationResponse_unknownAttestationRejected() throws Exception {
+    when(mockDataStore.consumeEnrollSessionData(SESSION_ID)).thenReturn(
+        new EnrollSessionData(ACCOUNT_NAME, APP_ID_ENROLL, SERVER_CHALLENGE_ENROLL));
+    AppIdRegistry appIdRegistry = new AppIdRegistry(crypto, TRUSTED_DOMAINS);
+    appIdRegistry.reload(ImmutableList.of(
+        new AppIdConfig(APP_ID_ENROLL, TRUSTED_DOMAINS, true /* requireTrustedAttestation */)));
+    u2fServer = new U2FServerReferenceImpl.Builder()
+        .setChallengeGenerator(mockChallengeGenerator)
+        .setDataStore(mockDataStore)
+        .setCrypto(crypto)
+        .setAppIdRegistry(appIdRegistry)
+        .setAttestationMetadataIndex(AttestationMetadataIndex.wrap(ByteBuffer.wrap(
+            new AttestationMetadataIndexWriter().toByteArray())))
+        .build();
+
+    RegistrationResponse registrationResponse = new RegistrationResponse(REGISTRATION_DATA_BASE64,
+        BROWSER_DATA_ENROLL_BASE64, SESSION_ID);
+
+    try {
+      u2fServer.processRegistrationResponse(registrationResponse, 0L);
+      fail("expected exception, but didn't get it");
+    } catch (U2FException e) {
+      assertTrue(e.getMessage().contains("no vendor metadata"));
+    }
+  }
+
   @Test
   public void testGetSignRequest() throws U2FException {
     u2fServer = new U2FServerReferenceImpl(mockChallengeGenerator,
@@ -202,9 +347,42 @@ public class U2FServerReferenceImplTest extends TestVectors {
        SESSION_ID), signRequest.getRegisteredKeys().get(0));
   }
 
+  @Test
+  public void testGetSignRequest_oneSessionForAllKeys() throws U2FException {
+    u2fServer = new U2FServerReferenceImpl(mockChallengeGenerator,
+        mockDataStore, crypto, TRUSTED_DOMAINS);
+    when(mockChallengeGenerator.generateChallenge(ACCOUNT_NAME)).thenReturn(SERVER_CHALLENGE_SIGN);
+    when(mockDataStore.getSecurityKeyData(ACCOUNT_NAME)).thenReturn(ImmutableList.of(
+        new SecurityKeyData(0L, KEY_HANDLE, USER_PUBLIC_KEY_SIGN_HEX, VENDOR_CERTIFICATE, 0),
+        new SecurityKeyData(0L, OTHER_KEY_HANDLE, OTHER_PUBLIC_KEY, VENDOR_CERTIFICATE, 0)));
+
+    U2fSignRequest signRequest = u2fServer.getSignRequest(ACCOUNT_NAME, APP_ID_SIGN);
+
+    assertEquals(2, signRequest.getRegisteredKeys().size());
+    assertEquals(SESSION_ID, signRequest.getRegisteredKeys().get(1).getSessionId());
+    ArgumentCaptor<EnrollSessionData> sessionData = ArgumentCaptor.forClass(EnrollSessionData.class);
+    verify(mockDataStore, times(1)).storeSessionData(sessionData.capture());
+    assertTrue(((SignSessionData) sessionData.getValue()).containsKeyHandle(KEY_HANDLE));
+    assertTrue(((SignSessionData) sessionData.getValue()).containsKeyHandle(OTHER_KEY_HANDLE));
+  }
+
+  @Test
+  public void testGetSignRequest_noKeysStoresNoSession() throws U2FException {
+    u2fServer = new U2FServerReferenceImpl(mockChallengeGenerator,
+        mockDataStore, crypto, TRUSTED_DOMAINS);
+    when(mockChallengeGenerator.generateChallenge(ACCOUNT_NAME)).thenReturn(SERVER_CHALLENGE_SIGN);
+    when(mockDataStore.getSecurityKeyData(ACCOUNT_NAME))
+        .thenReturn(ImmutableList.<SecurityKeyData>of());
+
+    U2fSignRequest signRequest = u2fServer.getSignRequest(ACCOUNT_NAME, APP_ID_SIGN);
+
+    assertTrue(signRequest.getRegisteredKeys().isEmpty());
+    verify(mockDataStore, never()).storeSessionData(any(EnrollSessionData.class));
+  }
+
   @Test
   public void testProcessSignResponse() throws U2FException {
-    when(mockDataStore.getSignSessionData(SESSION_ID)).thenReturn(
+    when(mockDataStore.consumeSignSessionData(SESSION_ID)).thenReturn(
         new SignSessionData(ACCOUNT_NAME, APP_ID_SIGN, SERVER_CHALLENGE_SIGN, USER_PUBLIC_KEY_SIGN_HEX));
     u2fServer = new U2FServerReferenceImpl(mockChallengeGenerator,
         mockDataStore, crypto, TRUSTED_DOMAINS);
@@ -214,9 +392,120 @@ public class U2FServerReferenceImplTest extends TestVectors {
     u2fServer.processSignResponse(signResponse);
   }
 
+  @Test
+  public void testProcessSignResponses_replayedCounterRejected() throws U2FException {
+    when(mockDataStore.consumeSignSessionData(SESSION_ID)).thenReturn(
+        new SignSessionData(ACCOUNT_NAME, APP_ID_SIGN, SERVER_CHALLENGE_SIGN, USER_PUBLIC_KEY_SIGN_HEX));
+    ExecutorService batchExecutor = Executors.newFixedThreadPool(2);
+    u2fServer = new U2FServerReferenceImpl.Builder()
+        .setChallengeGenerator(mockChallengeGenerator)
+        .setDataStore(mockDataStore)
+        .setCrypto(crypto)
+        .setOrigins(TRUSTED_DOMAINS)
+        .setBatchExecutor(batchExecutor)
+        .build();
+    SignResponse signResponse = new SignResponse(KEY_HANDLE_BASE64, SIGN_RESPONSE_DATA_BASE64,
+        BROWSER_DATA_SIGN_BASE64, SESSION_ID);
+    SignResponse unknownSession = new SignResponse(KEY_HANDLE_BASE64, SIGN_RESPONSE_DATA_BASE64,
+        BROWSER_DATA_SIGN_BASE64, "unknown");
+
+    List<BatchResult> results;
+    try {
+      results = u2fServer.processSignResponses(
+          ImmutableList.of(signResponse, unknownSession, signResponse));
+    } finally {
+      batchExecutor.shutdown();
+    }
+
+    assertEquals(3, results.size());
+    assertTrue(results.get(0).isSuccess());
+    assertEquals("Unknown session_id", results.get(1).getException().getMessage());
+    assertEquals("Counter value smaller than expected!",
+        results.get(2).getException().getMessage());
+    verify(mockDataStore, times(1)).compareAndSetSecurityKeyCounter(
+        eq(ACCOUNT_NAME), eq(USER_PUBLIC_KEY_SIGN_HEX), Matchers.anyInt(), Matchers.anyInt());
+  }
+
+  @Test
+  public void testProcessSignResponse_sharedSession() throws U2FException {
+    when(mockDataStore.consumeSignSessionData(SESSION_ID)).thenReturn(
+        new SignSessionData(ACCOUNT_NAME, APP_ID_SIGN, SERVER_CHALLENGE_SIGN,
+            ImmutableList.of(OTHER_KEY_HANDLE, KEY_HANDLE)));
+    u2fServer = new U2FServerReferenceImpl(mockChallengeGenerator,
+        mockDataStore, crypto, TRUSTED_DOMAINS);
+    SignResponse signResponse = new SignResponse(KEY_HANDLE_BASE64, SIGN_RESPONSE_DATA_BASE64,
+        BROWSER_DATA_SIGN_BASE64, SESSION_ID);
+
+    u2fServer.processSignResponse(signResponse);
+
+    verify(mockDataStore).compareAndSetSecurityKeyCounter(
+        eq(ACCOUNT_NAME), aryEq(USER_PUBLIC_KEY_SIGN_HEX), eq(0), Matchers.anyInt());
+  }
+
+  @Test
+  public void testProcessSignResponse_keyHandleNotInSession() throws U2FException {
+    when(mockDataStore.consumeSignSessionData(SESSION_ID)).thenReturn(
+        new SignSessionData(ACCOUNT_NAME, APP_ID_SIGN, SERVER_CHALLENGE_SIGN,
+            ImmutableList.of(OTHER_KEY_HANDLE)));
+    u2fServer = new U2FServerReferenceImpl(mockChallengeGenerator,
+        mockDataStore, crypto, TRUSTED_DOMAINS);
+    SignResponse signResponse = new SignResponse(KEY_HANDLE_BASE64, SIGN_RESPONSE_DATA_BASE64,
+        BROWSER_DATA_SIGN_BASE64, SESSION_ID);
+
+    try {
+      u2fServer.processSignResponse(signResponse);
+      fail("expected exception, but didn't get it");
+    } catch (U2FException e) {
+      assertEquals("Key handle was not part of the sign request", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testProcessSignResponse_concurrentReplaysRejected() throws Exception {
+    MemoryDataStore dataStore = new MemoryDataStore(mockSessionIdGenerator);
+    dataStore.addSecurityKeyData(ACCOUNT_NAME,
+        new SecurityKeyData(0L, KEY_HANDLE, USER_PUBLIC_KEY_SIGN_HEX, VENDOR_CERTIFICATE, 0));
+    dataStore.storeSessionData(new SignSessionData(ACCOUNT_NAME, APP_ID_SIGN,
+        SERVER_CHALLENGE_SIGN, ImmutableList.of(KEY_HANDLE)));
+    final U2FServer server = new U2FServerReferenceImpl(mockChallengeGenerator,
+        dataStore, crypto, TRUSTED_DOMAINS);
+    final SignResponse signResponse = new SignResponse(KEY_HANDLE_BASE64,
+        SIGN_RESPONSE_DATA_BASE64, BROWSER_DATA_SIGN_BASE64, SESSION_ID);
+
+    int replays = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(replays);
+    List<Future<Boolean>> accepted = new ArrayList<Future<Boolean>>();
+    try {
+      for (int i = 0; i < replays; i++) {
+        accepted.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws InterruptedException {
+            start.await();
+            try {
+              server.processSignResponse(signResponse);
+              return true;
+            } catch (U2FException e) {
+              return false;
+            }
+          }
+        }));
+      }
+      start.countDown();
+
+      int acceptedCount = 0;
+      for (Future<Boolean> future : accepted) {
+        acceptedCount += future.get() ? 1 : 0;
+      }
+      assertEquals(1, acceptedCount);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void testProcessSignResponse_badOrigin() throws U2FException {
-    when(mockDataStore.getSignSessionData(SESSION_ID)).thenReturn(
+    when(mockDataStore.consumeSignSessionData(SESSION_ID)).thenReturn(
         new SignSessionData(ACCOUNT_NAME, APP_ID_SIGN, SERVER_CHALLENGE_SIGN, USER_PUBLIC_KEY_SIGN_HEX));
     u2fServer = new U2FServerReferenceImpl(mockChallengeGenerator,
         mockDataStore, crypto, ImmutableSet.of("some-other-domain.com"));
@@ -235,7 +524,7 @@ public class U2FServerReferenceImplTest extends TestVectors {
   // TODO: put test back in once we have signature sample on a correct browserdata json
   // (currently, this test uses an enrollment browserdata during a signature)
   public void testProcessSignResponse2() throws U2FException {
-    when(mockDataStore.getSignSessionData(SESSION_ID)).thenReturn(
+    when(mockDataStore.consumeSignSessionData(SESSION_ID)).thenReturn(
         new SignSessionData(ACCOUNT_NAME, APP_ID_2, SERVER_CHALLENGE_SIGN, USER_PUBLIC_KEY_2));
     when(mockDataStore.getSecurityKeyData(ACCOUNT_NAME)).thenReturn(
         ImmutableList.of(new SecurityKeyData(0l, KEY_HANDLE_2, USER_PUBLIC_KEY_2, VENDOR_CERTIFICATE, 0)));
@@ -0,0 +1,76 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.google.u2f.TestVectors;
+
+public class UniqueSessionIdGeneratorTest extends TestVectors {
+
+  @Test
+  public void testGenerateSessionId() {
+    long before = System.currentTimeMillis();
+    String sessionId = new UniqueSessionIdGenerator(0x1234).generateSessionId(ACCOUNT_NAME);
+    long after = System.currentTimeMillis();
+
+    assertEquals(32, sessionId.length());
+    assertTrue(sessionId.matches("[A-Za-z0-9_-]+"));
+    ByteBuffer id = ByteBuffer.wrap(Base64.decodeBase64(sessionId));
+    assertEquals(0x1234, id.getShort());
+    long timestamp = ((id.getShort() & 0xFFFFL) << 32) | (id.getInt() & 0xFFFFFFFFL);
+    assertTrue(timestamp >= before && timestamp <= after);
+    assertEquals(0, id.getInt());
+  }
+
+  @Test
+  public void testGenerateSessionId_uniqueAcrossThreadsAndNodes() throws Exception {
+    final UniqueSessionIdGenerator node0 = new UniqueSessionIdGenerator(0);
+    final UniqueSessionIdGenerator node1 = new UniqueSessionIdGenerator(1);
+    final Set<String> sessionIds = Sets.newConcurrentHashSet();
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int i = 0; i < 8; i++) {
+      final UniqueSessionIdGenerator generator = i % 2 == 0 ? node0 : node1;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < 1000; j++) {
+            sessionIds.add(generator.generateSessionId(ACCOUNT_NAME));
+          }
+        }
+      });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+    assertEquals(8 * 1000, sessionIds.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNodeIdOutOfRange() {
+    new UniqueSessionIdGenerator(1 << 16);
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl.attestation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.security.cert.CertificateParsingException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.u2f.TestVectors;
+import com.google.u2f.codec.AttestationCertificateInterner;
+import com.google.u2f.server.data.SecurityKeyData.Transports;
+
+/**
+ * Unit tests for {@link AttestationAnalysisCache}
+ */
+@RunWith(JUnit4.class)
+public class AttestationAnalysisCacheTest extends TestVectors {
+  @Test
+  public void testAnalyze() throws Exception {
+    AttestationAnalysis analysis =
+        new AttestationAnalysisCache(16).analyze(TRUSTED_CERTIFICATE_MULTIPLE_TRANSPORTS);
+
+    assertEquals(TRUSTED_CERTIFICATE_MULTIPLE_TRANSPORTS.getIssuerX500Principal(),
+        analysis.getIssuer());
+    assertEquals(3, analysis.getTransports().size());
+    assertTrue(analysis.getTransports().contains(Transports.NFC));
+    assertNull(analysis.getAndroidKeyStoreAttestation());
+  }
+
+  @Test
+  public void testAnalyzeAndroidKeyStoreAttestation() throws Exception {
+    AttestationAnalysis analysis =
+        new AttestationAnalysisCache(16).analyze(ANDROID_KEYSTORE_ATTESTATION_CERT_CHAIN[0]);
+
+    assertNotNull(analysis.getAndroidKeyStoreAttestation());
+    assertNull(analysis.getTransports());
+  }
+
+  @Test
+  public void testSameCertificateSharesAnalysis() throws Exception {
+    AttestationAnalysisCache cache = new AttestationAnalysisCache(16);
+
+    AttestationAnalysis analysis = cache.analyze(VENDOR_CERTIFICATE);
+
+    // by encoding, so separately parsed certificates hit as well
+    assertSame(analysis, cache.analyze(VENDOR_CERTIFICATE.getEncoded()));
+    assertSame(analysis, cache.analyze(VENDOR_CERTIFICATE));
+    assertEquals(1, cache.stats().missCount());
+    assertEquals(2, cache.stats().hitCount());
+  }
+
+  @Test
+  public void testEncodedCertificateIsInterned() throws Exception {
+    AttestationCertificateInterner interner = AttestationCertificateInterner.getDefault();
+    interner.intern(ByteBuffer.wrap(TRUSTED_CERTIFICATE_2.getEncoded()));
+    long hits = interner.stats().hitCount();
+
+    new AttestationAnalysisCache(16).analyze(TRUSTED_CERTIFICATE_2.getEncoded());
+
+    assertEquals(hits + 1, interner.stats().hitCount());
+  }
+
+  @Test
+  public void testMalformedExtension() throws Exception {
+    AttestationAnalysisCache cache = new AttestationAnalysisCache(16);
+
+    AttestationAnalysis analysis =
+        cache.analyze(TRUSTED_CERTIFICATE_MALFORMED_TRANSPORTS_EXTENSION);
+
+    assertNull(analysis.getAndroidKeyStoreAttestation());
+    try {
+      analysis.getTransports();
+      fail("expected CertificateParsingException");
+    } catch (CertificateParsingException expected) {
+    }
+    // the error is remembered too
+    assertSame(analysis, cache.analyze(TRUSTED_CERTIFICATE_MALFORMED_TRANSPORTS_EXTENSION));
+  }
+}
@@ -0,0 +1,209 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl.attestation;
+
+import static com.google.u2f.TestCertificates.generateKeyPair;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.u2f.TestCertificates;
+import com.google.u2f.TestVectors;
+import com.google.u2f.server.data.AttestationMetadata;
+import com.google.u2f.server.data.SecurityKeyData.Transports;
+
+/**
+ * Unit tests for {@link AttestationMetadataIndex}
+ */
+@RunWith(JUnit4.class)
+public class AttestationMetadataIndexTest extends TestVectors {
+  private static final AttestationMetadata VENDOR_METADATA = new AttestationMetadata("Vendor",
+      "Vendor Key", "L1", Arrays.asList(Transports.USB, Transports.NFC));
+  private static final AttestationMetadata OTHER_METADATA =
+      new AttestationMetadata("Other Vendor", null, null, null);
+  private static final X500Principal ISSUER_NAME = new X500Principal("CN=Test U2F Root CA");
+  private static final byte[] ISSUER_KEY_ID = {1, 2, 3, 4};
+  private static final KeyPair ISSUER_KEY = generateKeyPair();
+  private static final KeyPair BATCH_KEY = generateKeyPair();
+
+  @Test
+  public void testLookupByFingerprint() throws Exception {
+    AttestationMetadataIndex index = AttestationMetadataIndex.wrap(ByteBuffer.wrap(
+        new AttestationMetadataIndexWriter()
+            .addAttestationCertificate(VENDOR_CERTIFICATE, VENDOR_METADATA)
+            .addAttestationCertificate(TRUSTED_CERTIFICATE_2, OTHER_METADATA)
+            .toByteArray()));
+
+    assertEquals(VENDOR_METADATA, index.lookup(VENDOR_CERTIFICATE));
+    assertEquals(OTHER_METADATA, index.lookup(TRUSTED_CERTIFICATE_2));
+    assertNull(index.lookup(TRUSTED_CERTIFICATE_ONE_TRANSPORT));
+  }
+
+  @Test
+  public void testLookupByIssuer() throws Exception {
+    AttestationMetadataIndex index = AttestationMetadataIndex.wrap(ByteBuffer.wrap(
+        new AttestationMetadataIndexWriter()
+            .addIssuerKey(ISSUER_KEY_ID, ISSUER_KEY.getPublic(), VENDOR_METADATA)
+            .toByteArray()));
+
+    assertEquals(VENDOR_METADATA, index.lookup(generateCertificate(ISSUER_KEY_ID, ISSUER_KEY)));
+    assertNull(index.lookup(generateCertificate(new byte[] {5, 6, 7, 8}, ISSUER_KEY)));
+    assertNull(index.lookup(generateCertificate(null, ISSUER_KEY)));
+  }
+
+  @Test
+  public void testLookupByIssuerCertificate() throws Exception {
+    X509Certificate issuer = TestCertificates.newCertificate(ISSUER_NAME, ISSUER_KEY.getPublic())
+        .setCa()
+        .setSubjectKeyIdentifier(ISSUER_KEY_ID)
+        .sign(ISSUER_KEY.getPrivate());
+    AttestationMetadataIndex index = AttestationMetadataIndex.wrap(ByteBuffer.wrap(
+        new AttestationMetadataIndexWriter()
+            .addIssuerCertificate(issuer, VENDOR_METADATA)
+            .toByteArray()));
+
+    assertEquals(VENDOR_METADATA, index.lookup(generateCertificate(ISSUER_KEY_ID, ISSUER_KEY)));
+  }
+
+  @Test
+  public void testIssuerMustHaveSigned() throws Exception {
+    AttestationMetadataIndex index = AttestationMetadataIndex.wrap(ByteBuffer.wrap(
+        new AttestationMetadataIndexWriter()
+            .addIssuerKey(ISSUER_KEY_ID, ISSUER_KEY.getPublic(), VENDOR_METADATA)
+            .toByteArray()));
+
+    // names the vendor's key identifier, but is signed by somebody else
+    assertNull(index.lookup(generateCertificate(ISSUER_KEY_ID, generateKeyPair())));
+  }
+
+  @Test
+  public void testManyEntries() throws Exception {
+    AttestationMetadataIndexWriter writer = new AttestationMetadataIndexWriter();
+    for (int i = 0; i < 1000; i++) {
+      writer.addIssuerKey(BigInteger.valueOf(i).toByteArray(), ISSUER_KEY.getPublic(),
+          new AttestationMetadata("Vendor " + i % 10, "Key " + i, null,
+              Arrays.asList(Transports.values()[i % 6])));
+    }
+    AttestationMetadataIndex index =
+        AttestationMetadataIndex.wrap(ByteBuffer.wrap(writer.toByteArray()));
+
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(new AttestationMetadata("Vendor " + i % 10, "Key " + i, null,
+              Arrays.asList(Transports.values()[i % 6])),
+          index.lookup(generateCertificate(BigInteger.valueOf(i).toByteArray(), ISSUER_KEY)));
+    }
+    assertNull(index.lookup(generateCertificate(BigInteger.valueOf(1000).toByteArray(),
+        ISSUER_KEY)));
+  }
+
+  @Test
+  public void testOpenMapsFile() throws Exception {
+    File indexFile = File.createTempFile("attestation-metadata", ".idx");
+    indexFile.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(indexFile);
+    try {
+      new AttestationMetadataIndexWriter()
+          .addAttestationCertificate(VENDOR_CERTIFICATE, VENDOR_METADATA)
+          .writeTo(out);
+    } finally {
+      out.close();
+    }
+
+    AttestationMetadataIndex index = AttestationMetadataIndex.open(indexFile);
+
+    assertEquals(VENDOR_METADATA, index.lookup(VENDOR_CERTIFICATE));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConflictingMetadata() throws Exception {
+    new AttestationMetadataIndexWriter()
+        .addAttestationCertificate(VENDOR_CERTIFICATE, VENDOR_METADATA)
+        .addAttestationCertificate(VENDOR_CERTIFICATE, OTHER_METADATA);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConflictingIssuerKeys() throws Exception {
+    new AttestationMetadataIndexWriter()
+        .addIssuerKey(ISSUER_KEY_ID, ISSUER_KEY.getPublic(), VENDOR_METADATA)
+        .addIssuerKey(ISSUER_KEY_ID, generateKeyPair().getPublic(), VENDOR_METADATA);
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotAnIndex() throws Exception {
+    AttestationMetadataIndex.wrap(ByteBuffer.wrap(VENDOR_CERTIFICATE.getEncoded()));
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedIndex() throws Exception {
+    byte[] index = new AttestationMetadataIndexWriter()
+        .addAttestationCertificate(VENDOR_CERTIFICATE, VENDOR_METADATA)
+        .toByteArray();
+
+    AttestationMetadataIndex.wrap(ByteBuffer.wrap(index, 0, 40));
+  }
+
+  @Test(expected = IOException.class)
+  public void testRecordOffsetOutsideRecords() throws Exception {
+    ByteBuffer index = ByteBuffer.wrap(new AttestationMetadataIndexWriter()
+        .addAttestationCertificate(VENDOR_CERTIFICATE, VENDOR_METADATA)
+        .toByteArray());
+    // point the certificate's slot into the header
+    index.putInt(fingerprintSlotOffset(index, VENDOR_CERTIFICATE)
+        + AttestationMetadataIndex.KEY_SIZE, 4);
+
+    AttestationMetadataIndex.wrap(index).lookup(VENDOR_CERTIFICATE);
+  }
+
+  @Test(expected = IOException.class)
+  public void testCorruptRecord() throws Exception {
+    ByteBuffer index = ByteBuffer.wrap(new AttestationMetadataIndexWriter()
+        .addAttestationCertificate(VENDOR_CERTIFICATE, VENDOR_METADATA)
+        .toByteArray());
+    int recordOffset = index.getInt(
+        fingerprintSlotOffset(index, VENDOR_CERTIFICATE) + AttestationMetadataIndex.KEY_SIZE);
+    // make the vendor's name longer than the file
+    index.putShort(recordOffset + 4, (short) 0x7fff);
+
+    AttestationMetadataIndex.wrap(index).lookup(VENDOR_CERTIFICATE);
+  }
+
+  private static int fingerprintSlotOffset(ByteBuffer index, X509Certificate certificate)
+      throws Exception {
+    int slots = index.getInt(8);
+    int slot = AttestationMetadataIndex.slotOf(
+        AttestationMetadataIndex.sha256(certificate.getEncoded()), slots);
+    return AttestationMetadataIndex.HEADER_SIZE + slot * AttestationMetadataIndex.SLOT_SIZE;
+  }
+
+  /**
+   * @param authorityKeyId the authority key identifier to include, or {@code null}
+   */
+  private static X509Certificate generateCertificate(byte[] authorityKeyId, KeyPair issuerKey) {
+    TestCertificates.Builder builder =
+        TestCertificates.newCertificate(new X500Principal("CN=Batch 1"), BATCH_KEY.getPublic())
+            .setIssuer(ISSUER_NAME)
+            .setSubjectKeyIdentifier(new byte[] {9});
+    if (authorityKeyId != null) {
+      builder.setAuthorityKeyIdentifier(authorityKeyId);
+    }
+    return builder.sign(issuerKey.getPrivate());
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.server.impl.attestation;
+
+import static com.google.u2f.TestCertificates.generateKeyPair;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.ImmutableList;
+import com.google.u2f.TestCertificates;
+import com.google.u2f.TestVectors;
+
+/**
+ * Unit tests for {@link AttestationTrustStore}
+ */
+@RunWith(JUnit4.class)
+public class AttestationTrustStoreTest extends TestVectors {
+  private static final X500Principal ROOT_NAME = new X500Principal("CN=Test U2F Root CA");
+  private static final byte[] ROOT_KEY_ID = {1, 2, 3, 4};
+
+  @Test
+  public void testTrustedCertificateIsTrusted() throws Exception {
+    AttestationTrustStore trustStore =
+        new AttestationTrustStore(ImmutableList.of(VENDOR_CERTIFICATE, TRUSTED_CERTIFICATE_2));
+
+    assertEquals(2, trustStore.size());
+    assertTrue(trustStore.isTrusted(VENDOR_CERTIFICATE));
+    assertTrue(trustStore.isTrusted(TRUSTED_CERTIFICATE_2));
+    assertFalse(trustStore.isTrusted(TRUSTED_CERTIFICATE_ONE_TRANSPORT));
+  }
+
+  @Test
+  public void testCertificateIssuedByTrustedCertificate() throws Exception {
+    KeyPair rootKey = generateKeyPair();
+    X509Certificate root = generateCertificate(ROOT_NAME, rootKey, ROOT_NAME, rootKey, true, null);
+    X509Certificate attestation = generateCertificate(
+        new X500Principal("CN=Batch 1"), generateKeyPair(), ROOT_NAME, rootKey, false, ROOT_KEY_ID);
+
+    AttestationTrustStore trustStore = new AttestationTrustStore(ImmutableList.of(root));
+
+    assertTrue(trustStore.isTrusted(attestation));
+  }
+
+  @Test
+  public void testIssuerFoundByName() throws Exception {
+    KeyPair rootKey = generateKeyPair();
+    X509Certificate root = generateCertificate(ROOT_NAME, rootKey, ROOT_NAME, rootKey, true, null);
+    X509Certificate attestation = generateCertificate(
+        new X500Principal("CN=Batch 1"), generateKeyPair(), ROOT_NAME, rootKey, false, null);
+
+    AttestationTrustStore trustStore = new AttestationTrustStore(ImmutableList.of(root));
+
+    assertTrue(trustStore.isTrusted(attestation));
+  }
+
+  @Test
+  public void testCertificateSignedByOtherKeyIsNotTrusted() throws Exception {
+    KeyPair rootKey = generateKeyPair();
+    X509Certificate root = generateCertificate(ROOT_NAME, rootKey, ROOT_NAME, rootKey, true, null);
+    X509Certificate attestation = generateCertificate(new X500Principal("CN=Batch 1"),
+        generateKeyPair(), ROOT_NAME, generateKeyPair(), false, ROOT_KEY_ID);
+
+    AttestationTrustStore trustStore = new AttestationTrustStore(ImmutableList.of(root));
+
+    assertFalse(trustStore.isTrusted(attestation));
+  }
+
+  @Test
+  public void testCertificateIssuedByNonCaIsNotTrusted() throws Exception {
+    KeyPair issuerKey = generateKeyPair();
+    X509Certificate issuer =
+        generateCertificate(ROOT_NAME, issuerKey, ROOT_NAME, issuerKey, false, null);
+    X509Certificate attestation = generateCertificate(
+        new X500Principal("CN=Batch 1"), generateKeyPair(), ROOT_NAME, issuerKey, false, null);
+
+    AttestationTrustStore trustStore = new AttestationTrustStore(ImmutableList.of(issuer));
+
+    assertFalse(trustStore.isTrusted(attestation));
+  }
+
+  @Test
+  public void testVerdictIsMemoized() throws Exception {
+    AttestationTrustStore trustStore =
+        new AttestationTrustStore(ImmutableList.of(VENDOR_CERTIFICATE));
+
+    assertTrue(trustStore.isTrusted(VENDOR_CERTIFICATE));
+    assertTrue(trustStore.isTrusted(VENDOR_CERTIFICATE));
+    assertFalse(trustStore.isTrusted(TRUSTED_CERTIFICATE_2));
+    assertFalse(trustStore.isTrusted(TRUSTED_CERTIFICATE_2));
+
+    assertEquals(2, trustStore.stats().missCount());
+    assertEquals(2, trustStore.stats().hitCount());
+  }
+
+  /**
+   * @param authorityKeyId the authority key identifier to include, or {@code null}
+   */
+  private static X509Certificate generateCertificate(X500Principal subject, KeyPair subjectKey,
+      X500Principal issuer, KeyPair issuerKey, boolean ca, byte[] authorityKeyId) {
+    TestCertificates.Builder builder =
+        TestCertificates.newCertificate(subject, subjectKey.getPublic()).setIssuer(issuer);
+    if (ca) {
+      builder.setCa().setSubjectKeyIdentifier(ROOT_KEY_ID);
+    }
+    if (authorityKeyId != null) {
+      builder.setAuthorityKeyIdentifier(authorityKeyId);
+    }
+    return builder.sign(issuerKey.getPrivate());
+  }
+}
@@ -2,7 +2,9 @@ package com.google.u2f.server.impl.attestation.android;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.google.u2f.TestVectors;
@@ -12,6 +14,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.security.cert.CertificateParsingException;
+import java.util.Arrays;
 
 /**
  * Unit tests for {@link AndroidKeyStoreAttestation}
@@ -67,6 +70,23 @@ public class AndroidKeyStoreAttestationTest extends TestVectors {
         teeAuthorizationList.getAlgorithm());
   }
 
+  @Test
+  public void testValidCertOtherTags() throws Exception {
+    AuthorizationList softwareAuthorizationList =
+        AndroidKeyStoreAttestation.Parse(ANDROID_KEYSTORE_ATTESTATION_CERT_CHAIN[0])
+            .getSoftwareAuthorizationList();
+
+    assertEquals(Arrays.asList(Digest.KM_DIGEST_SHA_2_256),
+        softwareAuthorizationList.getDigestList());
+    assertEquals(1, softwareAuthorizationList.getInteger(AuthorizationTag.USER_AUTH_TYPE));
+    assertEquals(300, softwareAuthorizationList.getInteger(AuthorizationTag.AUTH_TIMEOUT));
+    assertEquals(1454529852000L, softwareAuthorizationList.getCreationDateTime().longValue());
+    assertEquals(KeyOrigin.KM_ORIGIN_GENERATED, softwareAuthorizationList.getOrigin());
+    assertNull(softwareAuthorizationList.getPaddingList());
+    assertNull(softwareAuthorizationList.getRootOfTrust());
+    assertFalse(softwareAuthorizationList.has(AuthorizationTag.NO_AUTH_REQUIRED));
+  }
+
   @Test(expected = CertificateParsingException.class)
   public void testInvalidCertNotEnoughInDescriptionTest() throws Exception {
     AndroidKeyStoreAttestation.Parse(ANDROID_KEYSTORE_ATTESTATION_CERT_NO_VERSION);
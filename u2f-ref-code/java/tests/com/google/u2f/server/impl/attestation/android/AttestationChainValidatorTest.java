@@ -0,0 +1,295 @@
+package com.google.u2f.server.impl.attestation.android;
+
+import static com.google.u2f.TestCertificates.generateKeyPair;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.u2f.TestCertificates;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Unit tests for {@link AttestationChainValidator}
+ */
+@RunWith(JUnit4.class)
+public class AttestationChainValidatorTest {
+  private static final X500Principal ROOT_NAME = new X500Principal("CN=Test Attestation Root");
+  private static final X500Principal INTERMEDIATE_NAME =
+      new X500Principal("CN=Test Attestation Intermediate");
+  private static final X500Principal LEAF_NAME = new X500Principal("CN=Android Keystore Key");
+  private static final ASN1ObjectIdentifier KEY_DESCRIPTION_OID =
+      new ASN1ObjectIdentifier(AndroidKeyStoreAttestation.KEY_DESCRIPTION_OID);
+  private static final byte[] CHALLENGE = "challenge".getBytes(StandardCharsets.UTF_8);
+  private static final DERSequence KEY_DESCRIPTION = new DERSequence(new ASN1Encodable[] {
+      new ASN1Integer(2),
+      new DEROctetString(CHALLENGE),
+      new DERSequence(),
+      new DERSequence()});
+  private static final long NOW = System.currentTimeMillis();
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+  private KeyPair rootKey;
+  private KeyPair intermediateKey;
+  private X509Certificate root;
+  private X509Certificate intermediate;
+  private X509Certificate leaf;
+
+  @Before
+  public void setUp() throws Exception {
+    rootKey = generateKeyPair();
+    intermediateKey = generateKeyPair();
+    root = generateCertificate(ROOT_NAME, rootKey, ROOT_NAME, rootKey, 1, NOW + DAY);
+    intermediate =
+        generateCertificate(INTERMEDIATE_NAME, intermediateKey, ROOT_NAME, rootKey, 2, NOW + DAY);
+    leaf = generateLeaf(intermediateKey, 3);
+  }
+
+  @Test
+  public void testValidChain() throws Exception {
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(root), AttestationStatusList.EMPTY);
+
+    AndroidKeyStoreAttestation attestation =
+        validator.validate(ImmutableList.of(leaf, intermediate, root), NOW);
+
+    assertEquals(Integer.valueOf(2), attestation.getKeyMasterVersion());
+    assertArrayEquals(CHALLENGE, attestation.getAttestationChallenge());
+  }
+
+  @Test
+  public void testValidChainWithoutRoot() throws Exception {
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(root), AttestationStatusList.EMPTY);
+
+    validator.validate(ImmutableList.of(leaf, intermediate), NOW);
+  }
+
+  @Test
+  public void testVerifiedIntermediateIsCached() throws Exception {
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(root), AttestationStatusList.EMPTY);
+
+    validator.validate(ImmutableList.of(leaf, intermediate, root), NOW);
+    validator.validate(ImmutableList.of(generateLeaf(intermediateKey, 4), intermediate, root), NOW);
+
+    assertEquals(1, validator.stats().hitCount());
+  }
+
+  @Test
+  public void testLeafSignatureIsCheckedForCachedIntermediate() throws Exception {
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(root), AttestationStatusList.EMPTY);
+    validator.validate(ImmutableList.of(leaf, intermediate, root), NOW);
+
+    assertInvalid(validator, ImmutableList.of(generateLeaf(generateKeyPair(), 4), intermediate));
+  }
+
+  @Test
+  public void testUntrustedRoot() throws Exception {
+    KeyPair otherKey = generateKeyPair();
+    X509Certificate otherRoot =
+        generateCertificate(ROOT_NAME, otherKey, ROOT_NAME, otherKey, 1, NOW + DAY);
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(otherRoot), AttestationStatusList.EMPTY);
+
+    assertInvalid(validator, ImmutableList.of(leaf, intermediate, root));
+    assertInvalid(validator, ImmutableList.of(leaf, intermediate));
+    assertEquals(0, validator.stats().hitCount());
+  }
+
+  @Test
+  public void testRevokedIntermediate() throws Exception {
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(root), AttestationStatusList.EMPTY);
+    validator.validate(ImmutableList.of(leaf, intermediate, root), NOW);
+
+    validator.setStatusList(AttestationStatusList.parse(new StringReader(
+        "{\"entries\": {\"2\": {\"status\": \"REVOKED\", \"reason\": \"KEY_COMPROMISE\"}}}")));
+
+    assertInvalid(validator, ImmutableList.of(leaf, intermediate, root));
+  }
+
+  @Test
+  public void testExpiredIntermediate() throws Exception {
+    X509Certificate expired =
+        generateCertificate(INTERMEDIATE_NAME, intermediateKey, ROOT_NAME, rootKey, 2, NOW - 1);
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(root), AttestationStatusList.EMPTY);
+
+    assertInvalid(validator, ImmutableList.of(leaf, expired, root));
+  }
+
+  @Test
+  public void testLeafWithoutAttestation() throws Exception {
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(root), AttestationStatusList.EMPTY);
+
+    assertInvalid(validator, ImmutableList.of(intermediate, root));
+  }
+
+  @Test
+  public void testLeafCannotIssueAttestation() throws Exception {
+    KeyPair leafKey = generateKeyPair();
+    X509Certificate realLeaf = TestCertificates.newCertificate(LEAF_NAME, leafKey.getPublic())
+        .setIssuer(INTERMEDIATE_NAME)
+        .setSerialNumber(3)
+        .setValidity(NOW - DAY, NOW + DAY)
+        .addExtension(KEY_DESCRIPTION_OID, false, KEY_DESCRIPTION)
+        .sign(intermediateKey.getPrivate());
+    X509Certificate forged = TestCertificates
+        .newCertificate(new X500Principal("CN=Forged Key"), generateKeyPair().getPublic())
+        .setIssuer(LEAF_NAME)
+        .setSerialNumber(4)
+        .setValidity(NOW - DAY, NOW + DAY)
+        .addExtension(KEY_DESCRIPTION_OID, false, KEY_DESCRIPTION)
+        .sign(leafKey.getPrivate());
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(root), AttestationStatusList.EMPTY);
+
+    assertInvalid(validator, ImmutableList.of(forged, realLeaf, intermediate, root));
+    assertInvalid(validator, ImmutableList.of(forged, realLeaf, intermediate, root));
+    // the real leaf was not remembered as a verified intermediate
+    assertEquals(0, validator.stats().hitCount());
+    validator.validate(ImmutableList.of(realLeaf, intermediate, root), NOW);
+  }
+
+  @Test
+  public void testCaWithAttestationIsNotAnIssuer() throws Exception {
+    X509Certificate attestingIntermediate =
+        newCaCertificate(INTERMEDIATE_NAME, intermediateKey, ROOT_NAME, 2, NOW + DAY)
+            .setCa()
+            .addExtension(KEY_DESCRIPTION_OID, false, KEY_DESCRIPTION)
+            .sign(rootKey.getPrivate());
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(root), AttestationStatusList.EMPTY);
+
+    assertInvalid(validator, ImmutableList.of(leaf, attestingIntermediate, root));
+  }
+
+  @Test
+  public void testNonCaIntermediate() throws Exception {
+    X509Certificate nonCa =
+        newCaCertificate(INTERMEDIATE_NAME, intermediateKey, ROOT_NAME, 2, NOW + DAY)
+            .sign(rootKey.getPrivate());
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(root), AttestationStatusList.EMPTY);
+
+    assertInvalid(validator, ImmutableList.of(leaf, nonCa, root));
+  }
+
+  @Test
+  public void testIntermediateWithoutKeyCertSign() throws Exception {
+    X509Certificate signingOnly =
+        newCaCertificate(INTERMEDIATE_NAME, intermediateKey, ROOT_NAME, 2, NOW + DAY)
+            .setCa()
+            .setKeyUsage(KeyUsage.digitalSignature)
+            .sign(rootKey.getPrivate());
+    X509Certificate certSigning =
+        newCaCertificate(INTERMEDIATE_NAME, intermediateKey, ROOT_NAME, 2, NOW + DAY)
+            .setCa()
+            .setKeyUsage(KeyUsage.keyCertSign)
+            .sign(rootKey.getPrivate());
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(root), AttestationStatusList.EMPTY);
+
+    assertInvalid(validator, ImmutableList.of(leaf, signingOnly, root));
+    validator.validate(ImmutableList.of(leaf, certSigning, root), NOW);
+  }
+
+  @Test
+  public void testPathLengthConstraint() throws Exception {
+    X500Principal subordinateName = new X500Principal("CN=Test Attestation Subordinate");
+    KeyPair subordinateKey = generateKeyPair();
+    X509Certificate subordinate = generateCertificate(
+        subordinateName, subordinateKey, INTERMEDIATE_NAME, intermediateKey, 5, NOW + DAY);
+    X509Certificate subordinateLeaf = TestCertificates
+        .newCertificate(LEAF_NAME, generateKeyPair().getPublic())
+        .setIssuer(subordinateName)
+        .setSerialNumber(6)
+        .setValidity(NOW - DAY, NOW + DAY)
+        .addExtension(KEY_DESCRIPTION_OID, false, KEY_DESCRIPTION)
+        .sign(subordinateKey.getPrivate());
+    AttestationChainValidator validator =
+        new AttestationChainValidator(ImmutableList.of(root), AttestationStatusList.EMPTY);
+
+    X509Certificate constrained =
+        newCaCertificate(INTERMEDIATE_NAME, intermediateKey, ROOT_NAME, 2, NOW + DAY)
+            .setCa(0)
+            .sign(rootKey.getPrivate());
+    assertInvalid(validator, ImmutableList.of(subordinateLeaf, subordinate, constrained, root));
+
+    X509Certificate allowed =
+        newCaCertificate(INTERMEDIATE_NAME, intermediateKey, ROOT_NAME, 2, NOW + DAY)
+            .setCa(1)
+            .sign(rootKey.getPrivate());
+    validator.validate(ImmutableList.of(subordinateLeaf, subordinate, allowed, root), NOW);
+
+    // remembered with no CA below it, the subordinate doesn't vouch for a deeper chain
+    X500Principal deepName = new X500Principal("CN=Test Attestation Deep Subordinate");
+    KeyPair deepKey = generateKeyPair();
+    X509Certificate deep =
+        generateCertificate(deepName, deepKey, subordinateName, subordinateKey, 7, NOW + DAY);
+    X509Certificate deepLeaf = TestCertificates
+        .newCertificate(LEAF_NAME, generateKeyPair().getPublic())
+        .setIssuer(deepName)
+        .setSerialNumber(8)
+        .setValidity(NOW - DAY, NOW + DAY)
+        .addExtension(KEY_DESCRIPTION_OID, false, KEY_DESCRIPTION)
+        .sign(deepKey.getPrivate());
+    assertInvalid(validator, ImmutableList.of(deepLeaf, deep, subordinate, allowed, root));
+  }
+
+  private static void assertInvalid(AttestationChainValidator validator,
+      List<X509Certificate> chain) {
+    try {
+      validator.validate(chain, NOW);
+      fail("Expected CertificateException");
+    } catch (CertificateException expected) {
+    }
+  }
+
+  private static X509Certificate generateLeaf(KeyPair issuerKey, long serialNumber) {
+    return TestCertificates.newCertificate(LEAF_NAME, generateKeyPair().getPublic())
+        .setIssuer(INTERMEDIATE_NAME)
+        .setSerialNumber(serialNumber)
+        .setValidity(NOW - DAY, NOW + DAY)
+        .addExtension(KEY_DESCRIPTION_OID, false, KEY_DESCRIPTION)
+        .sign(issuerKey.getPrivate());
+  }
+
+  private static X509Certificate generateCertificate(X500Principal subject, KeyPair subjectKey,
+      X500Principal issuer, KeyPair issuerKey, long serialNumber, long notAfter) {
+    return newCaCertificate(subject, subjectKey, issuer, serialNumber, notAfter)
+        .setCa()
+        .sign(issuerKey.getPrivate());
+  }
+
+  private static TestCertificates.Builder newCaCertificate(X500Principal subject,
+      KeyPair subjectKey, X500Principal issuer, long serialNumber, long notAfter) {
+    return TestCertificates.newCertificate(subject, subjectKey.getPublic())
+        .setIssuer(issuer)
+        .setSerialNumber(serialNumber)
+        .setValidity(NOW - DAY, notAfter);
+  }
+}
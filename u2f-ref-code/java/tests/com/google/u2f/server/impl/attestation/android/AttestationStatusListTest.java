@@ -0,0 +1,48 @@
+package com.google.u2f.server.impl.attestation.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+
+/**
+ * Unit tests for {@link AttestationStatusList}
+ */
+@RunWith(JUnit4.class)
+public class AttestationStatusListTest {
+  @Test
+  public void testParse() throws Exception {
+    AttestationStatusList statusList = AttestationStatusList.parse(new StringReader(
+        "{\"entries\": {"
+            + "\"2c8cdddfd5e03bfc\": {\"status\": \"REVOKED\", \"reason\": \"KEY_COMPROMISE\"},"
+            + "\"c35747a084470c3135aeefe2b8d40cd6\": {\"status\": \"SUSPENDED\"}}}"));
+
+    assertEquals(2, statusList.size());
+    assertEquals("REVOKED", statusList.getStatus(new BigInteger("2c8cdddfd5e03bfc", 16)));
+    assertEquals("SUSPENDED",
+        statusList.getStatus(new BigInteger("c35747a084470c3135aeefe2b8d40cd6", 16)));
+    assertNull(statusList.getStatus(BigInteger.ONE));
+  }
+
+  @Test(expected = IOException.class)
+  public void testParseNoEntries() throws Exception {
+    AttestationStatusList.parse(new StringReader("{}"));
+  }
+
+  @Test(expected = IOException.class)
+  public void testParseMalformedSerialNumber() throws Exception {
+    AttestationStatusList.parse(
+        new StringReader("{\"entries\": {\"xyz\": {\"status\": \"REVOKED\"}}}"));
+  }
+
+  @Test(expected = IOException.class)
+  public void testParseNoStatus() throws Exception {
+    AttestationStatusList.parse(new StringReader("{\"entries\": {\"01\": {}}}"));
+  }
+}
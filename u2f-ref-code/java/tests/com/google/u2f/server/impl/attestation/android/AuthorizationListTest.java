@@ -1,13 +1,24 @@
 package com.google.u2f.server.impl.attestation.android;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
+import org.bouncycastle.asn1.ASN1Boolean;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.DERTaggedObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -127,6 +138,93 @@ public class AuthorizationListTest {
     assertTrue(extractedBlockMode.containsAll(TWO_BLOCKMODE));
   }
 
+  @Test
+  public void equals_ignoresSetOrder() throws Exception {
+    assertEquals(new AuthorizationList(TWO_PURPOSES, null, null, null),
+        new AuthorizationList(
+            Arrays.asList(Purpose.KM_PURPOSE_VERIFY, Purpose.KM_PURPOSE_SIGN), null, null, null));
+  }
+
+  @Test
+  public void toJson_otherTags() throws Exception {
+    JsonObject json = new AuthorizationList.Builder()
+        .setDigest(Arrays.asList(Digest.KM_DIGEST_SHA_2_256))
+        .setOrigin(KeyOrigin.KM_ORIGIN_GENERATED)
+        .setInteger(AuthorizationTag.OS_VERSION, 70000)
+        .setFlag(AuthorizationTag.NO_AUTH_REQUIRED)
+        .build()
+        .toJson();
+
+    assertEquals("sha256", json.get("digest").getAsJsonArray().get(0).getAsString());
+    assertEquals("generated", json.get("origin").getAsString());
+    assertEquals(70000, json.get("osversion").getAsInt());
+    assertTrue(json.get("noauthrequired").getAsBoolean());
+  }
+
+  @Test
+  public void decode_allKinds() throws Exception {
+    AuthorizationList authorizationList = AuthorizationListDecoder.decode(new DERSequence(
+        new ASN1Encodable[] {
+            tagged(AuthorizationTag.PURPOSE, new DERSet(new ASN1Encodable[] {
+                new ASN1Integer(Purpose.KM_PURPOSE_SIGN.getValue())})),
+            tagged(AuthorizationTag.ALGORITHM,
+                new ASN1Integer(Algorithm.KM_ALGORITHM_EC.getValue())),
+            tagged(AuthorizationTag.CALLER_NONCE, DERNull.INSTANCE),
+            tagged(AuthorizationTag.KDF, new DERSequence(new ASN1Encodable[] {
+                new ASN1Integer(3), new ASN1Integer(1)})),
+            tagged(AuthorizationTag.EC_CURVE,
+                new ASN1Integer(EcCurve.KM_EC_CURVE_P_256.getValue())),
+            tagged(AuthorizationTag.APPLICATION_ID, new DEROctetString(new byte[] {1, 2})),
+            tagged(AuthorizationTag.ROOT_OF_TRUST, new DERSequence(new ASN1Encodable[] {
+                new DEROctetString(new byte[] {3}),
+                ASN1Boolean.TRUE,
+                new ASN1Enumerated(VerifiedBootState.KM_VERIFIED_BOOT_VERIFIED.getValue())})),
+            tagged(AuthorizationTag.PATCH_LEVEL, new ASN1Integer(201701))}));
+
+    assertEquals(ONE_PURPOSE, authorizationList.getPurposeList());
+    assertEquals(Algorithm.KM_ALGORITHM_EC, authorizationList.getAlgorithm());
+    assertTrue(authorizationList.has(AuthorizationTag.CALLER_NONCE));
+    assertArrayEquals(new int[] {3, 1}, authorizationList.getIntegers(AuthorizationTag.KDF));
+    assertEquals(EcCurve.KM_EC_CURVE_P_256, authorizationList.getEcCurve());
+    assertArrayEquals(new byte[] {1, 2},
+        authorizationList.getOctetString(AuthorizationTag.APPLICATION_ID));
+    assertEquals(new RootOfTrust(new byte[] {3}, true,
+        VerifiedBootState.KM_VERIFIED_BOOT_VERIFIED, null), authorizationList.getRootOfTrust());
+    assertEquals(201701, authorizationList.getPatchLevel().intValue());
+    assertNull(authorizationList.getKeySize());
+  }
+
+  @Test
+  public void decode_skipsUnknownTags() throws Exception {
+    AuthorizationList authorizationList = AuthorizationListDecoder.decode(new DERSequence(
+        new ASN1Encodable[] {new DERTaggedObject(true, 709, new DEROctetString(new byte[1]))}));
+
+    assertEquals(new AuthorizationList.Builder().build(), authorizationList);
+  }
+
+  @Test(expected = CertificateParsingException.class)
+  public void decode_duplicateTag() throws Exception {
+    AuthorizationListDecoder.decode(new DERSequence(new ASN1Encodable[] {
+        tagged(AuthorizationTag.KEY_SIZE, new ASN1Integer(256)),
+        tagged(AuthorizationTag.KEY_SIZE, new ASN1Integer(256))}));
+  }
+
+  @Test(expected = CertificateParsingException.class)
+  public void decode_unknownEnumValue() throws Exception {
+    AuthorizationListDecoder.decode(new DERSequence(new ASN1Encodable[] {
+        tagged(AuthorizationTag.DIGEST, new DERSet(new ASN1Encodable[] {new ASN1Integer(99)}))}));
+  }
+
+  @Test(expected = CertificateParsingException.class)
+  public void decode_wrongKind() throws Exception {
+    AuthorizationListDecoder.decode(new DERSequence(new ASN1Encodable[] {
+        tagged(AuthorizationTag.NO_AUTH_REQUIRED, new ASN1Integer(1))}));
+  }
+
+  private static DERTaggedObject tagged(AuthorizationTag tag, ASN1Encodable value) {
+    return new DERTaggedObject(true, tag.getNumber(), value);
+  }
+
   // TODO(aczeskis): There is a cleaner way of doing this in Java 8.  In Java 8, we can make Purpose
   // & BlockMode implement an interface (so the function could call .fromString() on the
   // parameterized type).  Unfortunately, Java 7 does not allow interfaces to have static methods!
@@ -0,0 +1,124 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.tools.metadata;
+
+import static com.google.u2f.TestCertificates.generateKeyPair;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.u2f.TestCertificates;
+import com.google.u2f.TestVectors;
+import com.google.u2f.server.data.AttestationMetadata;
+import com.google.u2f.server.data.SecurityKeyData.Transports;
+import com.google.u2f.server.impl.attestation.AttestationMetadataIndex;
+
+/**
+ * Unit tests for {@link AttestationMetadataIndexTool}
+ */
+@RunWith(JUnit4.class)
+public class AttestationMetadataIndexToolTest extends TestVectors {
+  private static final X500Principal ISSUER_NAME = new X500Principal("CN=Vendor Attestation CA");
+  private static final byte[] ISSUER_KEY_ID = {1, 2, 3, 4};
+
+  @Rule
+  public TemporaryFolder metadataDirectory = new TemporaryFolder();
+
+  @Test
+  public void testBuildIndex() throws Exception {
+    KeyPair issuerKey = generateKeyPair();
+    X509Certificate issuer = TestCertificates.newCertificate(ISSUER_NAME, issuerKey.getPublic())
+        .setCa()
+        .setSubjectKeyIdentifier(ISSUER_KEY_ID)
+        .sign(issuerKey.getPrivate());
+    X509Certificate batch = TestCertificates
+        .newCertificate(new X500Principal("CN=Batch 2"), generateKeyPair().getPublic())
+        .setIssuer(ISSUER_NAME)
+        .setAuthorityKeyIdentifier(ISSUER_KEY_ID)
+        .sign(issuerKey.getPrivate());
+    write("batch-1.der", VENDOR_CERTIFICATE.getEncoded());
+    write("vendor-ca.pem", toPem(issuer));
+    write("vendor-key.json", ("{\"vendor\": \"Vendor\", \"model\": \"Vendor Key\","
+        + " \"certificationLevel\": \"L1\", \"transports\": [\"nfc\", \"usb\"],"
+        + " \"attestationCertificates\": [\"batch-1.der\"],"
+        + " \"issuerCertificates\": [\"vendor-ca.pem\"]}").getBytes(StandardCharsets.UTF_8));
+    write("other.json", "{\"vendor\": \"Other Vendor\", \"attestationCertificates\": []}"
+        .getBytes(StandardCharsets.UTF_8));
+    // not metadata, so ignored
+    write("README", "Vendor metadata".getBytes(StandardCharsets.UTF_8));
+
+    AttestationMetadataIndex index = AttestationMetadataIndex.wrap(ByteBuffer.wrap(
+        AttestationMetadataIndexTool.buildIndex(metadataDirectory.getRoot()).toByteArray()));
+
+    AttestationMetadata expected = new AttestationMetadata("Vendor", "Vendor Key", "L1",
+        Arrays.asList(Transports.USB, Transports.NFC));
+    assertEquals(expected, index.lookup(VENDOR_CERTIFICATE));
+    assertEquals(expected, index.lookup(batch));
+    assertNull(index.lookup(TRUSTED_CERTIFICATE_2));
+  }
+
+  @Test(expected = IOException.class)
+  public void testMalformedJson() throws Exception {
+    write("vendor-key.json", "{\"vendor\": ".getBytes(StandardCharsets.UTF_8));
+
+    AttestationMetadataIndexTool.buildIndex(metadataDirectory.getRoot());
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownTransport() throws Exception {
+    write("vendor-key.json", "{\"vendor\": \"Vendor\", \"transports\": [\"carrier-pigeon\"]}"
+        .getBytes(StandardCharsets.UTF_8));
+
+    AttestationMetadataIndexTool.buildIndex(metadataDirectory.getRoot());
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingCertificate() throws Exception {
+    write("vendor-key.json", "{\"vendor\": \"Vendor\", \"attestationCertificates\": [\"x.der\"]}"
+        .getBytes(StandardCharsets.UTF_8));
+
+    AttestationMetadataIndexTool.buildIndex(metadataDirectory.getRoot());
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotADirectory() throws Exception {
+    AttestationMetadataIndexTool.buildIndex(new File(metadataDirectory.getRoot(), "missing"));
+  }
+
+  private void write(String fileName, byte[] contents) throws IOException {
+    OutputStream out = new FileOutputStream(new File(metadataDirectory.getRoot(), fileName));
+    try {
+      out.write(contents);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static byte[] toPem(X509Certificate certificate) throws Exception {
+    return ("-----BEGIN CERTIFICATE-----\n"
+        + Base64.encodeBase64String(certificate.getEncoded())
+        + "\n-----END CERTIFICATE-----\n").getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,73 @@
+// Copyright 2014 Google Inc. All rights reserved.
+//
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file or at
+// https://developers.google.com/open-source/licenses/bsd
+
+package com.google.u2f.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import com.google.u2f.TestVectors;
+import com.google.u2f.U2FException;
+
+public class CeremonyTracerTest extends TestVectors {
+  private final List<CeremonyTrace> traces = new ArrayList<CeremonyTrace>();
+  private final TraceSink sink = new TraceSink() {
+    @Override
+    public void consume(CeremonyTrace trace) {
+      traces.add(trace);
+    }
+  };
+
+  @Test
+  public void testDisabled() {
+    CeremonyTrace trace = CeremonyTracer.DISABLED.start("processSignResponse");
+    trace.add(TraceField.KEY_HANDLE, KEY_HANDLE).add(TraceField.COUNTER, 1);
+    trace.finish();
+
+    assertSame(CeremonyTrace.DISABLED, trace);
+    assertFalse(trace.isEnabled());
+    assertTrue(trace.getEntries().isEmpty());
+  }
+
+  @Test
+  public void testAll() {
+    CeremonyTrace trace = CeremonyTracer.all(sink).start("processSignResponse");
+    trace.add(TraceField.KEY_HANDLE, KEY_HANDLE)
+        .add(TraceField.USER_PRESENCE, (byte) 1)
+        .add(TraceField.COUNTER, 1);
+    U2FException failure = new U2FException("Signature is invalid");
+    trace.fail(failure);
+    trace.finish();
+
+    assertEquals(1, traces.size());
+    assertSame(trace, traces.get(0));
+    assertEquals("processSignResponse", trace.getCeremony());
+    assertEquals(3, trace.getEntries().size());
+    assertEquals(TraceField.KEY_HANDLE, trace.getEntries().get(0).getField());
+    assertEquals(Hex.encodeHexString(KEY_HANDLE), trace.getEntries().get(0).formatValue());
+    assertEquals("01", trace.getEntries().get(1).formatValue());
+    assertEquals("1", trace.getEntries().get(2).formatValue());
+    assertSame(failure, trace.getFailure());
+  }
+
+  @Test
+  public void testSampled() {
+    CeremonyTracer tracer = CeremonyTracer.sampled(sink, 3);
+    for (int i = 0; i < 7; i++) {
+      tracer.start("processSignResponse").finish();
+    }
+
+    assertEquals(3, traces.size());
+  }
+}